@@ -0,0 +1,130 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.exist.storage;
+
+import org.exist.EXistException;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.util.DatabaseConfigurationException;
+import org.exist.util.FileUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+/**
+ * An embedded database on temporary storage, used by the storage engine
+ * benchmarks to obtain a {@link BrokerPool} with a running cache manager,
+ * lock manager and journal.
+ *
+ * The database is configured from the minimal {@code storage-benchmark-conf.xml}
+ * which is shipped with the benchmarks, so that they can be run from the
+ * benchmarks uber-jar without an eXist-db installation.
+ */
+public final class BenchmarkDatabase implements AutoCloseable {
+
+    private static final String INSTANCE_NAME = "storage-benchmark";
+    private static final String CONF_XML = "storage-benchmark-conf.xml";
+
+    private final Path confDir;
+    private final ExistEmbeddedServer server;
+
+    private BenchmarkDatabase(final Path confDir, final ExistEmbeddedServer server) {
+        this.confDir = confDir;
+        this.server = server;
+    }
+
+    public static BenchmarkDatabase start() throws IOException, DatabaseConfigurationException, EXistException {
+        return start(DefaultCacheManager.DEFAULT_CACHE_TYPE);
+    }
+
+    /**
+     * Start a database.
+     *
+     * @param cacheType the type of page cache, one of {@link DefaultCacheManager#CACHE_TYPE_LRU}
+     *     or {@link DefaultCacheManager#CACHE_TYPE_CLOCK}.
+     *
+     * @return the running database.
+     *
+     * @throws IOException if the configuration or the temporary storage cannot be created.
+     * @throws DatabaseConfigurationException if the configuration is invalid.
+     * @throws EXistException if the database cannot be started.
+     */
+    public static BenchmarkDatabase start(final String cacheType)
+            throws IOException, DatabaseConfigurationException, EXistException {
+        return start(cacheType, new Properties());
+    }
+
+    /**
+     * Start a database.
+     *
+     * @param cacheType the type of page cache, one of {@link DefaultCacheManager#CACHE_TYPE_LRU}
+     *     or {@link DefaultCacheManager#CACHE_TYPE_CLOCK}.
+     * @param configProperties further configuration properties which override the configuration file.
+     *
+     * @return the running database.
+     *
+     * @throws IOException if the configuration or the temporary storage cannot be created.
+     * @throws DatabaseConfigurationException if the configuration is invalid.
+     * @throws EXistException if the database cannot be started.
+     */
+    public static BenchmarkDatabase start(final String cacheType, final Properties configProperties)
+            throws IOException, DatabaseConfigurationException, EXistException {
+        final Path confDir = Files.createTempDirectory("org.exist.storage.BenchmarkDatabase");
+        final Path confFile = confDir.resolve("conf.xml");
+        try (final InputStream is = BenchmarkDatabase.class.getResourceAsStream(CONF_XML)) {
+            if (is == null) {
+                throw new IOException("Unable to find " + CONF_XML + " on the classpath");
+            }
+            Files.copy(is, confFile);
+        }
+
+        final Properties properties = new Properties();
+        properties.putAll(configProperties);
+        properties.setProperty(DefaultCacheManager.PROPERTY_CACHE_TYPE, cacheType);
+
+        final ExistEmbeddedServer server = new ExistEmbeddedServer(INSTANCE_NAME, confFile, properties, true, true);
+        server.startDb();
+        return new BenchmarkDatabase(confDir, server);
+    }
+
+    public BrokerPool getBrokerPool() {
+        return server.getBrokerPool();
+    }
+
+    /**
+     * Get the directory which holds the database files.
+     *
+     * @return the temporary data directory of the database.
+     */
+    public Path getDataDirectory() {
+        return server.getTemporaryStorage().orElseThrow(() -> new IllegalStateException("Database is not running"));
+    }
+
+    @Override
+    public void close() {
+        server.stopDb();
+        FileUtils.deleteQuietly(confDir);
+    }
+}
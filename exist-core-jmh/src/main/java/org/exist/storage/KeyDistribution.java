@@ -0,0 +1,179 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.exist.storage;
+
+import org.exist.storage.btree.Value;
+import org.exist.util.ByteConversion;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The order in which the storage engine benchmarks visit their keys.
+ */
+public enum KeyDistribution {
+
+    /**
+     * Keys are visited in ascending order, as when a document is stored
+     * or an index is rebuilt.
+     */
+    SEQUENTIAL,
+
+    /**
+     * Every key is equally likely to be visited.
+     */
+    UNIFORM,
+
+    /**
+     * A small number of keys are visited far more often than the others,
+     * as for the frequent terms of a value or full-text index.
+     */
+    ZIPFIAN;
+
+    private static final double ZIPF_EXPONENT = 0.99;
+
+    /**
+     * Fixed leading bytes of every key. Index keys in eXist-db usually start
+     * with an index type and a collection or document id, so that keys share
+     * a common prefix.
+     */
+    private static final byte[] KEY_PREFIX = { 0x01, 0x00, 0x00, 0x00, 0x2A };
+
+    /**
+     * Create a sequence of key indexes following this distribution.
+     *
+     * @param keyCount the number of distinct keys, the indexes are in the range [0, keyCount).
+     * @param length the length of the sequence.
+     * @param random the source of randomness.
+     *
+     * @return the key indexes.
+     */
+    public int[] sample(final int keyCount, final int length, final Random random) {
+        final int[] sample = new int[length];
+        switch (this) {
+            case SEQUENTIAL:
+                for (int i = 0; i < length; i++) {
+                    sample[i] = i % keyCount;
+                }
+                break;
+
+            case UNIFORM:
+                for (int i = 0; i < length; i++) {
+                    sample[i] = random.nextInt(keyCount);
+                }
+                break;
+
+            case ZIPFIAN:
+                final double[] cdf = zipfCdf(keyCount);
+                // ranks are scattered over the key space, otherwise the hot keys would all be neighbours
+                final int[] rankToKey = permutation(keyCount, random);
+                for (int i = 0; i < length; i++) {
+                    int rank = Arrays.binarySearch(cdf, random.nextDouble());
+                    if (rank < 0) {
+                        rank = Math.min(-(rank + 1), keyCount - 1);
+                    }
+                    sample[i] = rankToKey[rank];
+                }
+                break;
+        }
+        return sample;
+    }
+
+    /**
+     * Create the order in which keys are first inserted. Every key index
+     * in [0, keyCount) occurs exactly once.
+     *
+     * @param keyCount the number of keys.
+     * @param random the source of randomness.
+     *
+     * @return the key indexes in insertion order.
+     */
+    public int[] insertionOrder(final int keyCount, final Random random) {
+        if (this == SEQUENTIAL) {
+            return sample(keyCount, keyCount, random);
+        }
+        return permutation(keyCount, random);
+    }
+
+    /**
+     * Create the key for a key index. Keys sort in the same order as their
+     * indexes.
+     *
+     * @param index the key index.
+     * @param keyLength the length of the key in bytes, at least 9.
+     *
+     * @return the key.
+     */
+    public static Value key(final int index, final int keyLength) {
+        final byte[] data = new byte[Math.max(keyLength, KEY_PREFIX.length + 4)];
+        System.arraycopy(KEY_PREFIX, 0, data, 0, KEY_PREFIX.length);
+        ByteConversion.intToByteH(index, data, KEY_PREFIX.length);
+        for (int i = KEY_PREFIX.length + 4; i < data.length; i++) {
+            data[i] = (byte) ('a' + ((index + i) % 26));
+        }
+        return new Value(data);
+    }
+
+    /**
+     * Create the keys for the key indexes [0, keyCount).
+     *
+     * @param keyCount the number of keys.
+     * @param keyLength the length of each key in bytes.
+     *
+     * @return the keys, in ascending order.
+     */
+    public static Value[] keys(final int keyCount, final int keyLength) {
+        final Value[] keys = new Value[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = key(i, keyLength);
+        }
+        return keys;
+    }
+
+    private static int[] permutation(final int n, final Random random) {
+        final int[] permutation = new int[n];
+        for (int i = 0; i < n; i++) {
+            permutation[i] = i;
+        }
+        for (int i = n - 1; i > 0; i--) {
+            final int j = random.nextInt(i + 1);
+            final int tmp = permutation[i];
+            permutation[i] = permutation[j];
+            permutation[j] = tmp;
+        }
+        return permutation;
+    }
+
+    private static double[] zipfCdf(final int n) {
+        final double[] cdf = new double[n];
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += 1.0 / Math.pow(i + 1, ZIPF_EXPONENT);
+            cdf[i] = sum;
+        }
+        for (int i = 0; i < n; i++) {
+            cdf[i] /= sum;
+        }
+        return cdf;
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.exist.storage;
+
+import java.util.Random;
+
+/**
+ * Hands out key indexes from a precomputed {@link KeyDistribution} sample,
+ * so that generating the keys is not part of what the benchmarks measure.
+ *
+ * Not thread-safe, each benchmark thread should have its own sampler.
+ */
+public final class KeySampler {
+
+    private static final int SAMPLE_SIZE = 1 << 20;
+
+    private final int[] sample;
+    private int next = 0;
+
+    public KeySampler(final KeyDistribution distribution, final int keyCount, final long seed) {
+        this.sample = distribution.sample(keyCount, SAMPLE_SIZE, new Random(seed));
+    }
+
+    public int nextKey() {
+        final int key = sample[next];
+        next = (next + 1) & (SAMPLE_SIZE - 1);
+        return key;
+    }
+}
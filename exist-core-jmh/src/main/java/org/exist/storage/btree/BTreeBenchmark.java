@@ -0,0 +1,222 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.exist.storage.btree;
+
+import org.exist.EXistException;
+import org.exist.storage.BenchmarkDatabase;
+import org.exist.storage.DefaultCacheManager;
+import org.exist.storage.KeyDistribution;
+import org.exist.storage.KeySampler;
+import org.exist.util.DatabaseConfigurationException;
+import org.exist.xquery.TerminatedException;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks inserts, point lookups and range queries on a {@link BTree}.
+ *
+ * The tree is a file of its own in the data directory of a temporary
+ * database, so it uses the page caches of the database's cache manager.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BTreeBenchmark {
+
+    private static final byte BTREE_BENCHMARK_FILE_ID = 0x7F;
+    private static final short BTREE_BENCHMARK_FILE_VERSION = Short.MIN_VALUE;
+    private static final long RANDOM_SEED = 0x5EED;
+
+    @Param({"100000", "1000000"})
+    private int keyCount;
+
+    @Param({"12", "64"})
+    private int keyLength;
+
+    @Param({"SEQUENTIAL", "UNIFORM", "ZIPFIAN"})
+    private KeyDistribution distribution;
+
+    @Param({"100"})
+    private int rangeSize;
+
+    @Param({DefaultCacheManager.CACHE_TYPE_LRU, DefaultCacheManager.CACHE_TYPE_CLOCK})
+    private String cacheType;
+
+    private BenchmarkDatabase database;
+    /**
+     * The keys, with one extra key at the end which is never inserted,
+     * serving as the exclusive upper bound of range scans.
+     */
+    private Value[] keys;
+    private int[] insertionOrder;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, DatabaseConfigurationException, EXistException {
+        this.database = BenchmarkDatabase.start(cacheType);
+        this.keys = KeyDistribution.keys(keyCount + 1, keyLength);
+        this.insertionOrder = distribution.insertionOrder(keyCount, new Random(RANDOM_SEED));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    private BTree createTree(final String name) throws DBException {
+        final Path file = database.getDataDirectory().resolve(name);
+        final BTree btree = new BTree(database.getBrokerPool(), BTREE_BENCHMARK_FILE_ID, BTREE_BENCHMARK_FILE_VERSION,
+                false, database.getBrokerPool().getCacheManager(), file);
+        btree.create((short) -1);
+        return btree;
+    }
+
+    /**
+     * A tree holding all the keys, for lookups and range queries.
+     */
+    @State(Scope.Benchmark)
+    public static class PopulatedTree {
+        private BTree btree;
+
+        @Setup(Level.Trial)
+        public void setUp(final BTreeBenchmark benchmark) throws DBException, IOException {
+            this.btree = benchmark.createTree("populated-btree-benchmark.dbx");
+            for (final int key : benchmark.insertionOrder) {
+                btree.addValue(benchmark.keys[key], key);
+            }
+            btree.flush();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws DBException {
+            btree.closeAndRemove();
+        }
+    }
+
+    /**
+     * A new, empty, tree for each invocation of an insert benchmark.
+     */
+    @State(Scope.Thread)
+    public static class EmptyTree {
+        private BTree btree;
+
+        @Setup(Level.Invocation)
+        public void setUp(final BTreeBenchmark benchmark) throws DBException {
+            this.btree = benchmark.createTree("empty-btree-benchmark-" + Thread.currentThread().getId() + ".dbx");
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() throws DBException {
+            btree.closeAndRemove();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Sampler {
+        private KeySampler sampler;
+
+        @Setup(Level.Trial)
+        public void setUp(final BTreeBenchmark benchmark) {
+            this.sampler = new KeySampler(benchmark.distribution, benchmark.keyCount,
+                    RANDOM_SEED + Thread.currentThread().getId());
+        }
+    }
+
+    /**
+     * Inserts all the keys, one by one, in the order of the key distribution.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public long insert(final EmptyTree tree) throws IOException, DBException {
+        for (final int key : insertionOrder) {
+            tree.btree.addValue(keys[key], key);
+        }
+        return tree.btree.flush() ? 1 : 0;
+    }
+
+    /**
+     * Loads all the keys, in ascending order, with {@link BTree#bulkLoad}.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public long bulkLoad(final EmptyTree tree) throws IOException, BTreeException {
+        final BTree.BulkLoader loader = tree.btree.bulkLoad(null, 0.9);
+        for (int i = 0; i < keyCount; i++) {
+            loader.add(keys[i], i);
+        }
+        return loader.finish();
+    }
+
+    @Benchmark
+    public long findValue(final PopulatedTree tree, final Sampler sampler) throws IOException, BTreeException {
+        return tree.btree.findValue(keys[sampler.sampler.nextKey()]);
+    }
+
+    /**
+     * Finds {@link #rangeSize} adjacent keys with an {@link IndexQuery#BW} query.
+     */
+    @Benchmark
+    public long rangeQuery(final PopulatedTree tree, final Sampler sampler)
+            throws IOException, BTreeException, TerminatedException {
+        final int from = sampler.sampler.nextKey();
+        final int to = Math.min(from + rangeSize - 1, keyCount - 1);
+        final CountingCallback callback = new CountingCallback();
+        tree.btree.query(new IndexQuery(IndexQuery.BW, keys[from], keys[to]), callback);
+        return callback.count;
+    }
+
+    /**
+     * Finds {@link #rangeSize} adjacent keys with a {@link BTree.RangeScanner}.
+     */
+    @Benchmark
+    public long rangeScan(final PopulatedTree tree, final Sampler sampler)
+            throws IOException, BTreeException, TerminatedException {
+        final int from = sampler.sampler.nextKey();
+        final int to = Math.min(from + rangeSize, keyCount);
+        final CountingCallback callback = new CountingCallback();
+        tree.btree.rangeScanner().scan(keys[from], keys[to], callback);
+        return callback.count;
+    }
+
+    private static final class CountingCallback implements BTreeCallback {
+        private long count = 0;
+
+        @Override
+        public boolean indexInfo(final Value value, final long pointer) {
+            count++;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.exist.storage.cache;
+
+import org.exist.storage.DefaultCacheManager;
+import org.exist.storage.KeyDistribution;
+import org.exist.storage.KeySampler;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the page caches on their own, without any I/O, by looking
+ * up pages and adding those which are missing, as {@link org.exist.storage.btree.Paged}
+ * files do.
+ *
+ * {@link LRUCache} is not thread-safe, the files serialize access to it
+ * through their locks, so it is used here under a monitor.
+ * {@link ConcurrentClockCache} is used without one.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CacheBenchmark {
+
+    private static final long RANDOM_SEED = 0x5EED;
+
+    @Param({DefaultCacheManager.CACHE_TYPE_LRU, DefaultCacheManager.CACHE_TYPE_CLOCK})
+    private String cacheType;
+
+    @Param({"4096"})
+    private int cacheSize;
+
+    /**
+     * Number of distinct pages, relative to the size of the cache.
+     */
+    @Param({"4"})
+    private int pagesPerBuffer;
+
+    @Param({"UNIFORM", "ZIPFIAN"})
+    private KeyDistribution distribution;
+
+    private Cache<Page> cache;
+    private boolean synchronizedAccess;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        if (DefaultCacheManager.CACHE_TYPE_CLOCK.equals(cacheType)) {
+            this.cache = new ConcurrentClockCache<>("benchmark", cacheSize, 0, 0, Cache.CacheType.DATA);
+            this.synchronizedAccess = false;
+        } else {
+            this.cache = new LRUCache<>("benchmark", cacheSize, 0, 0, Cache.CacheType.DATA);
+            this.synchronizedAccess = true;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Sampler {
+        private KeySampler sampler;
+
+        @Setup(Level.Trial)
+        public void setUp(final CacheBenchmark benchmark) {
+            this.sampler = new KeySampler(benchmark.distribution, benchmark.cacheSize * benchmark.pagesPerBuffer,
+                    RANDOM_SEED + Thread.currentThread().getId());
+        }
+    }
+
+    @Benchmark
+    public Page getOrAdd(final Sampler sampler) {
+        return getOrAdd(sampler.sampler.nextKey());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Page getOrAddContended(final Sampler sampler) {
+        return getOrAdd(sampler.sampler.nextKey());
+    }
+
+    private Page getOrAdd(final long key) {
+        if (synchronizedAccess) {
+            synchronized (cache) {
+                return getOrAddPage(key);
+            }
+        }
+        return getOrAddPage(key);
+    }
+
+    private Page getOrAddPage(final long key) {
+        Page page = cache.get(key);
+        if (page == null) {
+            page = new Page(key);
+            cache.add(page);
+        }
+        return page;
+    }
+
+    /**
+     * A page which is never dirty, so that evicting it costs nothing.
+     */
+    public static final class Page implements Cacheable {
+        private final long key;
+        private int refCount = 0;
+        private int timestamp = 0;
+
+        Page(final long key) {
+            this.key = key;
+        }
+
+        @Override
+        public long getKey() {
+            return key;
+        }
+
+        @Override
+        public int getReferenceCount() {
+            return refCount;
+        }
+
+        @Override
+        public int incReferenceCount() {
+            if (refCount < MAX_REF) {
+                refCount++;
+            }
+            return refCount;
+        }
+
+        @Override
+        public int decReferenceCount() {
+            return refCount > 0 ? --refCount : 0;
+        }
+
+        @Override
+        public void setReferenceCount(final int count) {
+            this.refCount = count;
+        }
+
+        @Override
+        public void setTimestamp(final int timestamp) {
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        public int getTimestamp() {
+            return timestamp;
+        }
+
+        @Override
+        public boolean sync(final boolean syncJournal) {
+            return false;
+        }
+
+        @Override
+        public boolean allowUnload() {
+            return true;
+        }
+
+        @Override
+        public boolean isDirty() {
+            return false;
+        }
+    }
+}
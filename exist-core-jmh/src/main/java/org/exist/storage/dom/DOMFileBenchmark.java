@@ -0,0 +1,170 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.exist.storage.dom;
+
+import org.exist.EXistException;
+import org.exist.storage.BenchmarkDatabase;
+import org.exist.storage.DefaultCacheManager;
+import org.exist.storage.KeyDistribution;
+import org.exist.storage.KeySampler;
+import org.exist.storage.btree.Value;
+import org.exist.storage.lock.LockManager;
+import org.exist.storage.lock.ManagedLock;
+import org.exist.storage.txn.TransactionException;
+import org.exist.storage.txn.Txn;
+import org.exist.util.DatabaseConfigurationException;
+import org.exist.util.LockException;
+import org.exist.util.ReadOnlyException;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Benchmarks appending, reading and inserting node records in the
+ * {@link DOMFile} of a temporary database.
+ *
+ * As in {@link org.exist.storage.NativeBroker}, every operation holds
+ * the lock on the file, and writes are journalled.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DOMFileBenchmark {
+
+    private static final long RANDOM_SEED = 0x5EED;
+
+    @Param({"100000"})
+    private int recordCount;
+
+    /**
+     * Size of a node record in bytes. Small records are typical for
+     * elements and attributes, large ones for text nodes. Records larger
+     * than a page are written to overflow pages.
+     */
+    @Param({"32", "256", "8192"})
+    private int valueSize;
+
+    @Param({"SEQUENTIAL", "UNIFORM", "ZIPFIAN"})
+    private KeyDistribution distribution;
+
+    @Param({DefaultCacheManager.CACHE_TYPE_LRU, DefaultCacheManager.CACHE_TYPE_CLOCK})
+    private String cacheType;
+
+    private BenchmarkDatabase database;
+    private LockManager lockManager;
+    private DOMFile domDb;
+    private byte[] value;
+    private long[] addresses;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, DatabaseConfigurationException, EXistException, LockException,
+            ReadOnlyException, TransactionException {
+        this.database = BenchmarkDatabase.start(cacheType);
+        this.lockManager = database.getBrokerPool().getLockManager();
+        this.domDb = (DOMFile) database.getBrokerPool().getConfiguration().getProperty(DOMFile.getConfigKeyForFile());
+
+        this.value = new byte[valueSize];
+        new Random(RANDOM_SEED).nextBytes(value);
+
+        this.addresses = new long[recordCount];
+        try (final Txn transaction = database.getBrokerPool().getTransactionManager().beginTransaction();
+                final ManagedLock<ReentrantLock> domDbLock = lockManager.acquireBtreeWriteLock(domDb.getLockName())) {
+            domDb.setOwnerObject(this);
+            for (int i = 0; i < recordCount; i++) {
+                addresses[i] = domDb.add(transaction, value);
+            }
+            domDb.closeDocument();
+            transaction.commit();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    /**
+     * A transaction per measurement iteration for the write benchmarks.
+     */
+    @State(Scope.Thread)
+    public static class Transaction {
+        private Txn transaction;
+
+        @Setup(Level.Iteration)
+        public void setUp(final DOMFileBenchmark benchmark) {
+            this.transaction = benchmark.database.getBrokerPool().getTransactionManager().beginTransaction();
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() throws TransactionException {
+            transaction.commit();
+            transaction.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Sampler {
+        private KeySampler sampler;
+
+        @Setup(Level.Trial)
+        public void setUp(final DOMFileBenchmark benchmark) {
+            this.sampler = new KeySampler(benchmark.distribution, benchmark.recordCount,
+                    RANDOM_SEED + Thread.currentThread().getId());
+        }
+    }
+
+    /**
+     * Appends a record to the current page sequence, as when a document is stored.
+     */
+    @Benchmark
+    public long add(final Transaction transaction) throws LockException, ReadOnlyException {
+        try (final ManagedLock<ReentrantLock> domDbLock = lockManager.acquireBtreeWriteLock(domDb.getLockName())) {
+            domDb.setOwnerObject(transaction);
+            return domDb.add(transaction.transaction, value);
+        }
+    }
+
+    @Benchmark
+    public Value get(final Sampler sampler) throws LockException {
+        try (final ManagedLock<ReentrantLock> domDbLock = lockManager.acquireBtreeReadLock(domDb.getLockName())) {
+            return domDb.get(addresses[sampler.sampler.nextKey()]);
+        }
+    }
+
+    /**
+     * Inserts a record after an existing one, as when a node is inserted
+     * by an XQuery Update, splitting the page if it is full.
+     */
+    @Benchmark
+    public long insertAfter(final Transaction transaction, final Sampler sampler) throws LockException {
+        try (final ManagedLock<ReentrantLock> domDbLock = lockManager.acquireBtreeWriteLock(domDb.getLockName())) {
+            return domDb.insertAfter(transaction.transaction, null, addresses[sampler.sampler.nextKey()], value);
+        }
+    }
+}
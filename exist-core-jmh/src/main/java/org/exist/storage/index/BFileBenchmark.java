@@ -0,0 +1,139 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.exist.storage.index;
+
+import org.exist.EXistException;
+import org.exist.storage.BenchmarkDatabase;
+import org.exist.storage.DefaultCacheManager;
+import org.exist.storage.KeyDistribution;
+import org.exist.storage.KeySampler;
+import org.exist.storage.btree.DBException;
+import org.exist.storage.btree.Value;
+import org.exist.storage.lock.LockManager;
+import org.exist.storage.lock.ManagedLock;
+import org.exist.util.DatabaseConfigurationException;
+import org.exist.util.LockException;
+import org.exist.util.ReadOnlyException;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Benchmarks storing and reading values in a {@link BFile}, as used by
+ * the value and n-gram indexes.
+ *
+ * Values larger than half a page are stored on overflow pages, so the
+ * value sizes cover both the in-page and the overflow case.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BFileBenchmark {
+
+    private static final byte BFILE_BENCHMARK_FILE_ID = 0x7E;
+    private static final short BFILE_BENCHMARK_FILE_VERSION = Short.MIN_VALUE;
+    private static final long RANDOM_SEED = 0x5EED;
+
+    @Param({"100000"})
+    private int keyCount;
+
+    @Param({"16"})
+    private int keyLength;
+
+    @Param({"64", "1024", "16384"})
+    private int valueSize;
+
+    @Param({"UNIFORM", "ZIPFIAN"})
+    private KeyDistribution distribution;
+
+    @Param({DefaultCacheManager.CACHE_TYPE_LRU, DefaultCacheManager.CACHE_TYPE_CLOCK})
+    private String cacheType;
+
+    private BenchmarkDatabase database;
+    private LockManager lockManager;
+    private BFile bfile;
+    private Value[] keys;
+    private byte[] value;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, DatabaseConfigurationException, EXistException, DBException,
+            LockException, ReadOnlyException {
+        this.database = BenchmarkDatabase.start(cacheType);
+        this.lockManager = database.getBrokerPool().getLockManager();
+        this.bfile = new BFile(database.getBrokerPool(), BFILE_BENCHMARK_FILE_ID, BFILE_BENCHMARK_FILE_VERSION, false,
+                database.getDataDirectory().resolve("bfile-benchmark.dbx"), database.getBrokerPool().getCacheManager(),
+                1.4, 0.01);
+
+        final Random random = new Random(RANDOM_SEED);
+        this.keys = KeyDistribution.keys(keyCount, keyLength);
+        this.value = new byte[valueSize];
+        random.nextBytes(value);
+
+        try (final ManagedLock<ReentrantLock> bfileLock = lockManager.acquireBtreeWriteLock(bfile.getLockName())) {
+            for (final int key : distribution.insertionOrder(keyCount, random)) {
+                bfile.put(keys[key], value, true);
+            }
+            bfile.flush();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws DBException {
+        bfile.closeAndRemove();
+        database.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Sampler {
+        private KeySampler sampler;
+
+        @Setup(Level.Trial)
+        public void setUp(final BFileBenchmark benchmark) {
+            this.sampler = new KeySampler(benchmark.distribution, benchmark.keyCount,
+                    RANDOM_SEED + Thread.currentThread().getId());
+        }
+    }
+
+    /**
+     * Replaces the value of an existing key.
+     */
+    @Benchmark
+    public long put(final Sampler sampler) throws LockException, ReadOnlyException {
+        try (final ManagedLock<ReentrantLock> bfileLock = lockManager.acquireBtreeWriteLock(bfile.getLockName())) {
+            return bfile.put(keys[sampler.sampler.nextKey()], value, true);
+        }
+    }
+
+    @Benchmark
+    public Value get(final Sampler sampler) throws LockException {
+        try (final ManagedLock<ReentrantLock> bfileLock = lockManager.acquireBtreeReadLock(bfile.getLockName())) {
+            return bfile.get(keys[sampler.sampler.nextKey()]);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.exist.storage.journal;
+
+import org.exist.EXistException;
+import org.exist.storage.BenchmarkDatabase;
+import org.exist.storage.txn.TransactionException;
+import org.exist.storage.txn.Txn;
+import org.exist.storage.txn.TxnCommit;
+import org.exist.util.DatabaseConfigurationException;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks writing entries to the {@link Journal} through the
+ * {@link JournalManager} of a temporary database.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JournalBenchmark {
+
+    /**
+     * Entries of this type are never read back, as the journal is
+     * discarded along with the temporary database.
+     */
+    private static final byte LOG_BENCHMARK_PAYLOAD = 0x7F;
+
+    private static final long RANDOM_SEED = 0x5EED;
+
+    /**
+     * Size of the entry data in bytes, from a small page update
+     * to a large value written to an overflow page.
+     */
+    @Param({"16", "128", "1024", "8192"})
+    private int payloadSize;
+
+    private BenchmarkDatabase database;
+    private JournalManager journalManager;
+    private byte[] payload;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, DatabaseConfigurationException, EXistException {
+        this.database = BenchmarkDatabase.start();
+        this.journalManager = database.getBrokerPool().getJournalManager()
+                .orElseThrow(() -> new IllegalStateException("Recovery must be enabled for the journal benchmarks"));
+        this.payload = new byte[payloadSize];
+        new Random(RANDOM_SEED).nextBytes(payload);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    /**
+     * The journal tracks the operations of each transaction, so entries
+     * must belong to a running transaction.
+     */
+    @State(Scope.Thread)
+    public static class Transaction {
+        private Txn transaction;
+        private PayloadLoggable loggable;
+
+        @Setup(Level.Iteration)
+        public void setUp(final JournalBenchmark benchmark) {
+            this.transaction = benchmark.database.getBrokerPool().getTransactionManager().beginTransaction();
+            this.loggable = new PayloadLoggable(transaction.getId(), benchmark.payload);
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() throws TransactionException {
+            transaction.commit();
+            transaction.close();
+        }
+    }
+
+    @Benchmark
+    public Lsn writeToLog(final Transaction transaction) throws JournalException {
+        journalManager.journal(transaction.loggable);
+        return transaction.loggable.getLsn();
+    }
+
+    /**
+     * Writes an entry followed by a commit entry, as for a transaction
+     * with a single update.
+     */
+    @Benchmark
+    public Lsn writeWithCommit(final Transaction transaction) throws JournalException {
+        journalManager.journal(transaction.loggable);
+        final TxnCommit commit = new TxnCommit(transaction.transaction.getId());
+        journalManager.journalGroup(commit);
+        return commit.getLsn();
+    }
+
+    private static final class PayloadLoggable extends AbstractLoggable {
+        private final byte[] payload;
+
+        PayloadLoggable(final long transactionId, final byte[] payload) {
+            super(LOG_BENCHMARK_PAYLOAD, transactionId);
+            this.payload = payload;
+        }
+
+        @Override
+        public void write(final ByteBuffer out) {
+            out.put(payload);
+        }
+
+        @Override
+        public void read(final ByteBuffer in) {
+            in.get(payload);
+        }
+
+        @Override
+        public int getLogSize() {
+            return payload.length;
+        }
+    }
+}
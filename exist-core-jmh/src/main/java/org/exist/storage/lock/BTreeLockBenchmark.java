@@ -0,0 +1,192 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.lock;
+
+import org.exist.EXistException;
+import org.exist.storage.BenchmarkDatabase;
+import org.exist.storage.DefaultCacheManager;
+import org.exist.storage.KeyDistribution;
+import org.exist.storage.KeySampler;
+import org.exist.storage.btree.BTree;
+import org.exist.storage.btree.BTreeException;
+import org.exist.storage.btree.BTreeCallback;
+import org.exist.storage.btree.DBException;
+import org.exist.storage.btree.Value;
+import org.exist.storage.index.BTreeStore;
+import org.exist.util.DatabaseConfigurationException;
+import org.exist.util.LockException;
+import org.exist.xquery.TerminatedException;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Measures the throughput of concurrent readers of a {@link BTreeStore}, each of which
+ * holds the READ_LOCK of the tree for a lookup or a short range scan, with and without
+ * {@link LockManager#enableSharedBtreeReads(String) shared reads}.
+ *
+ * Without shared reads the READ_LOCK is exclusive, so the readers queue on it.
+ * The {@code readWrite} group adds a writer, which still has to lock the tree exclusively.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BTreeLockBenchmark {
+
+    private static final byte BTREE_BENCHMARK_FILE_ID = 0x7E;
+    private static final short BTREE_BENCHMARK_FILE_VERSION = Short.MIN_VALUE;
+    private static final long RANDOM_SEED = 0x5EED;
+
+    @Param({"1000000"})
+    private int keyCount;
+
+    @Param({"16"})
+    private int keyLength;
+
+    @Param({"UNIFORM", "ZIPFIAN"})
+    private KeyDistribution distribution;
+
+    @Param({"100"})
+    private int rangeSize;
+
+    @Param({"true", "false"})
+    private boolean sharedReads;
+
+    @Param({DefaultCacheManager.CACHE_TYPE_LRU, DefaultCacheManager.CACHE_TYPE_CLOCK})
+    private String cacheType;
+
+    private BenchmarkDatabase database;
+    private LockManager lockManager;
+    private BTreeStore btree;
+    /**
+     * The keys, with one extra key at the end which is never inserted,
+     * serving as the exclusive upper bound of range scans.
+     */
+    private Value[] keys;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, DatabaseConfigurationException, EXistException, DBException,
+            LockException, BTreeException {
+        final Properties configProperties = new Properties();
+        configProperties.put(LockManager.CONFIGURATION_BTREE_SHARED_READS, sharedReads);
+        this.database = BenchmarkDatabase.start(cacheType, configProperties);
+        this.lockManager = database.getBrokerPool().getLockManager();
+        this.btree = new BTreeStore(database.getBrokerPool(), BTREE_BENCHMARK_FILE_ID, BTREE_BENCHMARK_FILE_VERSION,
+                false, database.getDataDirectory().resolve("btree-lock-benchmark.dbx"),
+                database.getBrokerPool().getCacheManager());
+        if (sharedReads) {
+            btree.setSharedReads(lockManager.enableSharedBtreeReads(btree.getLockName()));
+        }
+
+        this.keys = KeyDistribution.keys(keyCount + 1, keyLength);
+        try (final ManagedLock<ReentrantReadWriteLock> btreeLock = lockManager.acquireBtreeExclusiveWriteLock(btree.getLockName())) {
+            final BTree.BulkLoader loader = btree.bulkLoad(null, 0.9);
+            for (int i = 0; i < keyCount; i++) {
+                loader.add(keys[i], i);
+            }
+            loader.finish();
+            btree.flush();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws DBException {
+        btree.closeAndRemove();
+        database.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Sampler {
+        private KeySampler sampler;
+
+        @Setup(Level.Trial)
+        public void setUp(final BTreeLockBenchmark benchmark) {
+            this.sampler = new KeySampler(benchmark.distribution, benchmark.keyCount,
+                    RANDOM_SEED + Thread.currentThread().getId());
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long findValue(final Sampler sampler) throws LockException, IOException, BTreeException {
+        return lookup(sampler);
+    }
+
+    /**
+     * Finds {@link #rangeSize} adjacent keys with a {@link org.exist.storage.btree.BTree.RangeScanner}.
+     */
+    @Benchmark
+    @Threads(4)
+    public long rangeScan(final Sampler sampler)
+            throws LockException, IOException, BTreeException, TerminatedException {
+        final int from = sampler.sampler.nextKey();
+        final int to = Math.min(from + rangeSize, keyCount);
+        final CountingCallback callback = new CountingCallback();
+        try (final ManagedLock<ReentrantReadWriteLock> btreeLock = lockManager.acquireBtreeSharedReadLock(btree.getLockName())) {
+            btree.rangeScanner().scan(keys[from], keys[to], callback);
+        }
+        return callback.count;
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(3)
+    public long readWriteLookup(final Sampler sampler) throws LockException, IOException, BTreeException {
+        return lookup(sampler);
+    }
+
+    /**
+     * Rewrites the pointer of an existing key, so the tree keeps its shape.
+     */
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public long readWriteUpdate(final Sampler sampler) throws LockException, IOException, BTreeException {
+        final int key = sampler.sampler.nextKey();
+        try (final ManagedLock<ReentrantReadWriteLock> btreeLock = lockManager.acquireBtreeExclusiveWriteLock(btree.getLockName())) {
+            return btree.addValue(keys[key], key);
+        }
+    }
+
+    private long lookup(final Sampler sampler) throws LockException, IOException, BTreeException {
+        try (final ManagedLock<ReentrantReadWriteLock> btreeLock = lockManager.acquireBtreeSharedReadLock(btree.getLockName())) {
+            return btree.findValue(keys[sampler.sampler.nextKey()]);
+        }
+    }
+
+    private static final class CountingCallback implements BTreeCallback {
+        private long count = 0;
+
+        @Override
+        public boolean indexInfo(final Value value, final long pointer) {
+            count++;
+            return true;
+        }
+    }
+}
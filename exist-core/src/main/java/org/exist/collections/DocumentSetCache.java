@@ -0,0 +1,357 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.collections;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.dom.persistent.DefaultDocumentSet;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.dom.persistent.DocumentSet;
+import org.exist.security.PermissionDeniedException;
+import org.exist.security.Subject;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.BrokerPoolService;
+import org.exist.storage.BrokerPoolServiceException;
+import org.exist.storage.DBBroker;
+import org.exist.storage.txn.Txn;
+import org.exist.storage.txn.TxnListener;
+import org.exist.util.Configuration;
+import org.exist.util.LockException;
+import org.exist.xmldb.XmldbURI;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Global cache for the {@link DocumentSet}s of all the documents in a collection,
+ * and optionally its sub-collections, as selected by fn:collection.
+ *
+ * As the documents in such a set depend on the permissions of the user, entries are
+ * keyed by the collection path, the recursion flag and the user. An entry is invalidated
+ * when the documents or sub-collections of one of its collections change or their metadata
+ * is stored, and once more when the transaction which made the change commits or aborts.
+ * The entries are indexed by their collection path, so that an invalidation only visits the
+ * entries of the changed collection, its ancestors and its descendants.
+ * In addition, a cached set is only used while all of its collections are still the
+ * instances held by the {@link CollectionCache}, so a collection which has been evicted
+ * and reloaded from disk never contributes stale documents.
+ *
+ * The cache is disabled by default. The cached sets are shared between queries and must
+ * not be modified.
+ */
+@ThreadSafe
+public class DocumentSetCache implements BrokerPoolService {
+    private final static Logger LOG = LogManager.getLogger(DocumentSetCache.class);
+
+    public static final int DEFAULT_CACHE_SIZE = 0;
+    public static final String CACHE_SIZE_ATTRIBUTE = "documentSetCache";
+    public static final String PROPERTY_CACHE_SIZE = "db-connection.document-set-cache";
+
+    private int maxCacheSize = DEFAULT_CACHE_SIZE;
+    private BrokerPool brokerPool;
+    private @Nullable Cache<Key, Entry> cache;
+
+    // the keys of the cached entries by collection path, may also hold keys of evicted entries
+    @GuardedBy("keysByPath")
+    private final TreeMap<String, Set<Key>> keysByPath = new TreeMap<>();
+
+    // incremented by every invalidation, see getEntry
+    private final AtomicLong generation = new AtomicLong();
+
+    // the collections changed by each running transaction
+    private final Map<Long, Set<XmldbURI>> changedByTransaction = new ConcurrentHashMap<>();
+
+    @Override
+    public void configure(final Configuration configuration) throws BrokerPoolServiceException {
+        this.maxCacheSize = configuration.getProperty(PROPERTY_CACHE_SIZE, DEFAULT_CACHE_SIZE);
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("DocumentSetCache will hold up to {} documents.", this.maxCacheSize);
+        }
+    }
+
+    @Override
+    public void prepare(final BrokerPool brokerPool) throws BrokerPoolServiceException {
+        this.brokerPool = brokerPool;
+        if (maxCacheSize > 0) {
+            this.cache = Caffeine.newBuilder()
+                    .maximumWeight(maxCacheSize)
+                    .weigher((Key key, Entry entry) -> Math.max(1, entry.documents.getDocumentCount()))
+                    .build();
+        }
+    }
+
+    /**
+     * Returns the maximum number of documents held by all the cached sets.
+     *
+     * @return the maximum number of documents, 0 if the cache is disabled
+     */
+    public int getMaxCacheSize() {
+        return maxCacheSize;
+    }
+
+    /**
+     * Returns true if document sets are cached.
+     *
+     * @return true if the cache is enabled
+     */
+    public boolean isEnabled() {
+        return cache != null;
+    }
+
+    /**
+     * Get the documents of a collection which are readable by the current user,
+     * from the cache if possible.
+     *
+     * @param broker the broker of the current user
+     * @param collection the collection
+     * @param recursive true if the documents of the sub-collections should be included
+     *
+     * @return the documents, which must not be modified
+     *
+     * @throws PermissionDeniedException if the user may not read the collection
+     * @throws LockException if a collection could not be locked
+     */
+    public DocumentSet getDocuments(final DBBroker broker, final Collection collection, final boolean recursive)
+            throws PermissionDeniedException, LockException {
+        if (cache == null) {
+            return collection.allDocs(broker, new DefaultDocumentSet(), recursive);
+        }
+        return getEntry(broker, collection, recursive).documents;
+    }
+
+    /**
+     * Get the XML documents of a collection which are readable by the current user,
+     * in document order of the set returned by {@link #getDocuments(DBBroker, Collection, boolean)}.
+     *
+     * Cached entries are only returned while they are valid, so the caller need not
+     * lock the documents again to find out if they still exist.
+     *
+     * @param broker the broker of the current user
+     * @param collection the collection
+     * @param recursive true if the documents of the sub-collections should be included
+     *
+     * @return the XML documents, which must not be modified
+     *
+     * @throws PermissionDeniedException if the user may not read the collection
+     * @throws LockException if a collection could not be locked
+     */
+    public DocumentImpl[] getXMLDocuments(final DBBroker broker, final Collection collection, final boolean recursive)
+            throws PermissionDeniedException, LockException {
+        if (cache == null) {
+            return xmlDocuments(collection.allDocs(broker, new DefaultDocumentSet(), recursive));
+        }
+        return getEntry(broker, collection, recursive).xmlDocuments;
+    }
+
+    private Entry getEntry(final DBBroker broker, final Collection collection, final boolean recursive)
+            throws PermissionDeniedException, LockException {
+        final Key key = new Key(collection.getURI().getRawCollectionPath(), recursive, broker.getCurrentSubject());
+        final Entry cached = cache.getIfPresent(key);
+        if (cached != null && isCurrent(cached.documents)) {
+            return cached;
+        }
+
+        // a set built while a collection changes must not stay in the cache
+        final long start = generation.get();
+        final DocumentSet docs = collection.allDocs(broker, new DefaultDocumentSet(), recursive);
+        final Entry entry = new Entry(docs, xmlDocuments(docs));
+        synchronized (keysByPath) {
+            final Set<Key> keys = keysByPath.computeIfAbsent(key.collectionPath, path -> new HashSet<>());
+            // drop the keys of evicted entries
+            keys.removeIf(other -> !cache.asMap().containsKey(other));
+            keys.add(key);
+            cache.put(key, entry);
+        }
+        if (generation.get() != start) {
+            cache.invalidate(key);
+        }
+        return entry;
+    }
+
+    private static DocumentImpl[] xmlDocuments(final DocumentSet docs) {
+        final List<DocumentImpl> xmlDocuments = new ArrayList<>(docs.getDocumentCount());
+        for (final Iterator<DocumentImpl> i = docs.getDocumentIterator(); i.hasNext(); ) {
+            final DocumentImpl doc = i.next();
+            if (doc.getResourceType() == DocumentImpl.XML_FILE) {
+                xmlDocuments.add(doc);
+            }
+        }
+        return xmlDocuments.toArray(new DocumentImpl[0]);
+    }
+
+    private boolean isCurrent(final DocumentSet docs) {
+        final CollectionCache collectionsCache = brokerPool.getCollectionsCache();
+        for (final Iterator<Collection> i = docs.getCollectionIterator(); i.hasNext(); ) {
+            final Collection collection = i.next();
+            if (collectionsCache.getIfPresent(collection.getURI()) != collection) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Removes the sets which include the documents of the collection, or of
+     * one of its sub-collections. If a transaction is given, the sets are
+     * removed again when it commits or aborts.
+     *
+     * @param transaction the transaction changing the collection, or null
+     * @param collectionUri the URI of the changed collection
+     */
+    public void invalidate(@Nullable final Txn transaction, final XmldbURI collectionUri) {
+        if (cache == null) {
+            return;
+        }
+        invalidate(collectionUri.getRawCollectionPath());
+
+        if (transaction != null) {
+            changedByTransaction.computeIfAbsent(transaction.getId(), id -> {
+                transaction.registerListener(new InvalidateOnCompletion(id));
+                return ConcurrentHashMap.newKeySet();
+            }).add(collectionUri);
+        }
+    }
+
+    /**
+     * Removes the entries of the collection, of its ancestors, whose sets may include
+     * its documents, and of its descendants, which are removed or moved with it.
+     */
+    private void invalidate(final String collectionPath) {
+        generation.incrementAndGet();
+        final List<Key> keys = new ArrayList<>();
+        synchronized (keysByPath) {
+            String path = collectionPath;
+            while (true) {
+                final Set<Key> pathKeys = keysByPath.remove(path);
+                if (pathKeys != null) {
+                    keys.addAll(pathKeys);
+                }
+                final int parent = path.lastIndexOf('/');
+                if (parent <= 0) {
+                    break;
+                }
+                path = path.substring(0, parent);
+            }
+
+            // all paths starting with collectionPath + '/', as '0' follows '/'
+            final Map<String, Set<Key>> descendants = keysByPath.subMap(collectionPath + '/', collectionPath + '0');
+            for (final Set<Key> pathKeys : descendants.values()) {
+                keys.addAll(pathKeys);
+            }
+            descendants.clear();
+
+            cache.invalidateAll(keys);
+        }
+    }
+
+    /**
+     * Removes all entries from the cache.
+     */
+    public void invalidateAll() {
+        if (cache != null) {
+            generation.incrementAndGet();
+            synchronized (keysByPath) {
+                keysByPath.clear();
+                cache.invalidateAll();
+            }
+        }
+    }
+
+    private class InvalidateOnCompletion implements TxnListener {
+        private final long transactionId;
+
+        InvalidateOnCompletion(final long transactionId) {
+            this.transactionId = transactionId;
+        }
+
+        @Override
+        public void commit() {
+            invalidateChanged();
+        }
+
+        @Override
+        public void abort() {
+            invalidateChanged();
+        }
+
+        private void invalidateChanged() {
+            final Set<XmldbURI> changed = changedByTransaction.remove(transactionId);
+            if (changed != null) {
+                for (final XmldbURI collectionUri : changed) {
+                    invalidate(collectionUri.getRawCollectionPath());
+                }
+            }
+        }
+    }
+
+    private record Entry(DocumentSet documents, DocumentImpl[] xmlDocuments) {
+    }
+
+    private static final class Key {
+        private final String collectionPath;
+        private final boolean recursive;
+        private final int userId;
+        private final int[] groupIds;
+
+        Key(final String collectionPath, final boolean recursive, final Subject subject) {
+            this.collectionPath = collectionPath;
+            this.recursive = recursive;
+            this.userId = subject.getId();
+            this.groupIds = subject.getGroupIds();
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof final Key key)) {
+                return false;
+            }
+            return recursive == key.recursive && userId == key.userId && collectionPath.equals(key.collectionPath)
+                    && Arrays.equals(groupIds, key.groupIds);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = collectionPath.hashCode();
+            result = 31 * result + (recursive ? 1 : 0);
+            result = 31 * result + userId;
+            result = 31 * result + Arrays.hashCode(groupIds);
+            return result;
+        }
+    }
+}
@@ -225,6 +225,7 @@ public class MutableCollection implements Collection {
             final XmldbURI childName = child.getURI().lastSegment();
             if (!subCollections.contains(childName)) {
                 subCollections.add(childName);
+                broker.getBrokerPool().getDocumentSetCache().invalidate(null, path);
             }
         }
     }
@@ -363,6 +364,7 @@ public class MutableCollection implements Collection {
                 collectionLock.close();
 
                 documents.put(doc.getFileURI().lastSegmentString(), doc);
+                broker.getBrokerPool().getDocumentSetCache().invalidate(transaction, path);
             }
         }
     }
@@ -376,6 +378,7 @@ public class MutableCollection implements Collection {
             }
 
             documents.remove(doc.getFileURI().lastSegmentString());
+            broker.getBrokerPool().getDocumentSetCache().invalidate(null, path);
         }
     }
 
@@ -958,6 +961,7 @@ public class MutableCollection implements Collection {
             }
 
             subCollections.remove(name);
+            broker.getBrokerPool().getDocumentSetCache().invalidate(null, path);
         }
     }
 
@@ -1015,6 +1019,7 @@ public class MutableCollection implements Collection {
 
                     broker.removeXMLResource(transaction, doc);
                     documents.remove(name.lastSegmentString());
+                    broker.getBrokerPool().getDocumentSetCache().invalidate(transaction, path);
 
                     trigger.afterDeleteDocument(broker, transaction, getURI().append(name));
 
@@ -1083,6 +1088,7 @@ public class MutableCollection implements Collection {
                             throw new PermissionDeniedException("Cannot delete file: " + doc.getURI().toString() + ": " + ex.getMessage(), ex);
                         }
                         documents.remove(doc.getFileURI().lastSegmentString());
+                        broker.getBrokerPool().getDocumentSetCache().invalidate(transaction, path);
                     } finally {
                         indexController.endIndexDocument(transaction, listener);
                     }
@@ -29,6 +29,8 @@ import org.exist.xquery.value.Sequence;
 import org.exist.xquery.value.Type;
 import org.w3c.dom.*;
 
+import java.util.Objects;
+
 
 public class AttrImpl extends NodeImpl implements Attr {
 
@@ -47,7 +49,7 @@ public class AttrImpl extends NodeImpl implements Attr {
 
     @Override
     public NodeId getNodeId() {
-        return document.attrNodeId[nodeNumber];
+        return document.getAttrNodeIdOf(nodeNumber);
     }
 
     @Override
@@ -91,12 +93,12 @@ public class AttrImpl extends NodeImpl implements Attr {
 
     @Override
     public String getValue() {
-        return document.attrValue[nodeNumber];
+        return document.getAttrValue(nodeNumber);
     }
 
     @Override
     public void setValue(final String value) throws DOMException {
-        document.attrValue[nodeNumber] = value;
+        document.setAttrValue(nodeNumber, value);
     }
 
     @Override
@@ -113,7 +115,7 @@ public class AttrImpl extends NodeImpl implements Attr {
 
     @Override
     public String getStringValue() throws DOMException {
-        return document.attrValue[nodeNumber];
+        return document.getAttrValue(nodeNumber);
     }
 
     @Override
@@ -203,7 +205,7 @@ public class AttrImpl extends NodeImpl implements Attr {
 
         if(obj instanceof AttrImpl other) {
             return other.getQName().equals(getQName())
-                    && other.document.attrValue[nodeNumber].equals(document.attrValue[nodeNumber]);
+                    && Objects.equals(other.document.getAttrValue(nodeNumber), document.getAttrValue(nodeNumber));
         }
 
         return false;
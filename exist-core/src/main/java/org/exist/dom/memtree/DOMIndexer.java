@@ -233,7 +233,7 @@ public class DOMIndexer {
             }
 
             case Node.PROCESSING_INSTRUCTION_NODE: {
-                final QName qn = doc.nodeName[nodeNr];
+                final QName qn = doc.getNodeQName(nodeNr);
                 pi.setTarget(qn.getLocalPart());
                 pi.setData(new String(doc.characters, doc.alpha[nodeNr], doc.alphaLen[nodeNr]));
                 pi.setOwnerDocument(targetDoc);
@@ -266,7 +266,7 @@ public class DOMIndexer {
         elem.setOwnerDocument(targetDoc);
         elem.setAttributes(attribs);
         elem.setChildCount(doc.getChildCountFor(nodeNr) + attribs);
-        elem.setNodeName(doc.nodeName[nodeNr], broker.getBrokerPool().getSymbols());
+        elem.setNodeName(doc.getNodeQName(nodeNr), broker.getBrokerPool().getSymbols());
         final Map<String, String> ns = getNamespaces(nodeNr);
         if(ns != null) {
             elem.setNamespaceMappings(ns);
@@ -308,10 +308,10 @@ public class DOMIndexer {
         int attr = doc.alpha[nodeNr];
         if(attr > -1) {
             while((attr < doc.nextAttr) && (doc.attrParent[attr] == nodeNr)) {
-                final QName qn = doc.attrName[attr];
+                final QName qn = doc.getAttrQName(attr);
                 final AttrImpl attrib = (AttrImpl) NodePool.getInstance().borrowNode(Node.ATTRIBUTE_NODE);
                 attrib.setNodeName(qn, broker.getBrokerPool().getSymbols());
-                attrib.setValue(doc.attrValue[attr]);
+                attrib.setValue(doc.getAttrValue(attr));
                 attrib.setOwnerDocument(targetDoc);
                 elem.appendChildInternal(prevNode, attrib);
                 setPrevious(attrib);
@@ -47,6 +47,9 @@ import org.exist.xquery.value.Type;
 import org.w3c.dom.*;
 import org.xml.sax.SAXException;
 
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+
+import javax.annotation.Nullable;
 import javax.xml.XMLConstants;
 import java.util.Arrays;
 import java.util.Objects;
@@ -82,9 +85,19 @@ import static org.exist.dom.QName.Validity.ILLEGAL_FORMAT;
  *  * {@link #attrType}
  *  * {@link #attrNodeId}
  *  * {@link #attrParent}
- *  * {@link #attrValue}
+ *  * {@link #attrValueStart}
+ *  * {@link #attrValueLen}
+ *  * {@link #attrCharacters}
  *  * {@link #references}
  *
+ * Element, processing instruction and attribute names are stored as int offsets into the
+ * per-document {@link #names} table, and attribute values are stored in the {@link #attrCharacters}
+ * pool, so that building a large document allocates no object per node. The attribute values are
+ * kept apart from the {@link #characters} of the other nodes, as the DOM mutators of text, comments
+ * and processing instructions expect those to be in document order and only renumber {@link #alpha}.
+ * The {@link #nodeId} and {@link #attrNodeId} arrays are only allocated when node ids
+ * are first needed, see {@link #computeNodeIds()}.
+ *
  * This implementation stores all node data in the document object. Nodes from another document, i.e. a persistent document in the database, can be
  * stored as reference nodes, i.e. the nodes are not copied into this document object. Instead a reference is inserted which will only be expanded
  * during serialization.
@@ -107,10 +120,16 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
     // the node number of the next sibling
     protected int[] next;
 
-    // pointer into the namePool
-    protected QName[] nodeName;
+    // pointer into the names table, or -1 if the node has no name
+    protected int[] nodeName;
+
+    // computed on demand from the tree structure
+    protected NodeId[] nodeId = null;
 
-    protected NodeId[] nodeId;
+    // the distinct names used in the document
+    protected QName[] names = null;
+    protected int nextName = 0;
+    private Reference2IntOpenHashMap<QName> nameIds = null;
 
     //alphanumeric content
     protected int[] alpha;
@@ -119,11 +138,14 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
     protected int nextChar = 0;
 
     // attributes
-    protected QName[] attrName;
+    protected int[] attrName;
     protected int[] attrType;
-    protected NodeId[] attrNodeId;
+    protected NodeId[] attrNodeId = null;
     protected int[] attrParent;
-    protected String[] attrValue;
+    protected int[] attrValueStart;
+    protected int[] attrValueLen;
+    protected char[] attrCharacters = null;
+    protected int nextAttrChar = 0;
     protected int nextAttr = 0;
 
     // namespaces
@@ -183,31 +205,65 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
     }
 
     private void init() {
-        nodeKind = new short[NODE_SIZE];
-        treeLevel = new short[NODE_SIZE];
-        next = new int[NODE_SIZE];
+        init(NODE_SIZE, ATTR_SIZE);
+    }
+
+    private void init(final int nodes, final int attributes) {
+        nodeKind = new short[nodes];
+        treeLevel = new short[nodes];
+        next = new int[nodes];
         Arrays.fill(next, -1);
-        nodeName = new QName[NODE_SIZE];
-        nodeId = new NodeId[NODE_SIZE];
-        alpha = new int[NODE_SIZE];
-        alphaLen = new int[NODE_SIZE];
+        nodeName = new int[nodes];
+        alpha = new int[nodes];
+        alphaLen = new int[nodes];
         Arrays.fill(alphaLen, -1);
-        attrName = new QName[ATTR_SIZE];
-        attrParent = new int[ATTR_SIZE];
-        attrValue = new String[ATTR_SIZE];
-        attrType = new int[ATTR_SIZE];
-        attrNodeId = new NodeId[NODE_SIZE];
+        attrName = new int[attributes];
+        attrParent = new int[attributes];
+        attrValueStart = new int[attributes];
+        attrValueLen = new int[attributes];
+        attrType = new int[attributes];
+        names = new QName[NODE_SIZE];
+        nameIds = new Reference2IntOpenHashMap<>(NODE_SIZE);
+        nameIds.defaultReturnValue(-1);
         treeLevel[0] = 0;
         nodeKind[0] = Node.DOCUMENT_NODE;
         document = this;
     }
 
+    /**
+     * Make room for at least the given number of nodes, attributes and characters,
+     * so that a builder which knows the size of its input up front does not have to
+     * grow the arrays step by step.
+     *
+     * @param nodes the expected number of nodes, including the document node
+     * @param attributes the expected number of attributes
+     * @param chars the expected number of characters of text, comments and processing instructions
+     * @param attrChars the expected number of characters of attribute values
+     */
+    public void ensureCapacity(final int nodes, final int attributes, final int chars, final int attrChars) {
+        if(nodeKind == null) {
+            init(Math.max(nodes, NODE_SIZE), Math.max(attributes, ATTR_SIZE));
+        } else {
+            if(nodes > nodeKind.length) {
+                grow(nodes);
+            }
+            if(attributes > attrName.length) {
+                growAttributes(attributes);
+            }
+        }
+        characters = ensureCharCapacity(characters, nextChar, chars - nextChar);
+        attrCharacters = ensureCharCapacity(attrCharacters, nextAttrChar, attrChars - nextAttrChar);
+    }
+
     public void reset() {
         size = 0;
         nextChar = 0;
+        nextAttrChar = 0;
         nextAttr = 0;
         nextReferenceIdx = 0;
         references = null;
+        nodeId = null;
+        attrNodeId = null;
     }
 
     public int getSize() {
@@ -227,11 +283,11 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
             init();
         }
         if(size == nodeKind.length) {
-            grow();
+            grow(size + 1);
         }
         nodeKind[size] = kind;
         treeLevel[size] = level;
-        nodeName[size] = qname != null ? namePool.getSharedName(qname) : null;
+        nodeName[size] = qname != null ? getNameId(qname) : -1;
         alpha[size] = -1; // undefined
         next[size] = -1;
         return (size++);
@@ -241,17 +297,7 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
         if(nodeKind == null) {
             init();
         }
-        if(characters == null) {
-            characters = new char[len > CHAR_BUF_SIZE ? len : CHAR_BUF_SIZE];
-        } else if((nextChar + len) >= characters.length) {
-            int newLen = (characters.length * 3) / 2;
-            if(newLen < (nextChar + len)) {
-                newLen = nextChar + len;
-            }
-            final char[] nc = new char[newLen];
-            System.arraycopy(characters, 0, nc, 0, characters.length);
-            characters = nc;
-        }
+        characters = ensureCharCapacity(characters, nextChar, len);
         alpha[nodeNum] = nextChar;
         alphaLen[nodeNum] = len;
         System.arraycopy(ch, start, characters, nextChar, len);
@@ -262,37 +308,15 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
         if(nodeKind == null) {
             init();
         }
-        int len = (s == null) ? 0 : s.length();
-        if(characters == null) {
-            characters = new char[(len > CHAR_BUF_SIZE) ? len : CHAR_BUF_SIZE];
-        } else if((nextChar + len) >= characters.length) {
-            int newLen = (characters.length * 3) / 2;
-            if(newLen < (nextChar + len)) {
-                newLen = nextChar + len;
-            }
-            final char[] nc = new char[newLen];
-            System.arraycopy(characters, 0, nc, 0, characters.length);
-            characters = nc;
-        }
+        final int len = (s == null) ? 0 : s.length();
+        characters = ensureCharCapacity(characters, nextChar, len);
         alpha[nodeNum] = nextChar;
         alphaLen[nodeNum] = len;
-        for(int i = 0; i < len; i++) {
-            characters[nextChar++] = s.charAt(i);
-        }
+        nextChar = copyChars(s, len, characters, nextChar);
     }
 
     public void appendChars(final int nodeNum, final char[] ch, final int start, final int len) {
-        if(characters == null) {
-            characters = new char[(len > CHAR_BUF_SIZE) ? len : CHAR_BUF_SIZE];
-        } else if((nextChar + len) >= characters.length) {
-            int newLen = (characters.length * 3) / 2;
-            if(newLen < (nextChar + len)) {
-                newLen = nextChar + len;
-            }
-            final char[] nc = new char[newLen];
-            System.arraycopy(characters, 0, nc, 0, characters.length);
-            characters = nc;
-        }
+        characters = ensureCharCapacity(characters, nextChar, len);
         alphaLen[nodeNum] = alphaLen[nodeNum] + len;
         System.arraycopy(ch, start, characters, nextChar, len);
         nextChar += len;
@@ -300,21 +324,73 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
 
     public void appendChars(final int nodeNum, final CharSequence s) {
         final int len = s.length();
-        if(characters == null) {
-            characters = new char[(len > CHAR_BUF_SIZE) ? len : CHAR_BUF_SIZE];
-        } else if((nextChar + len) >= characters.length) {
-            int newLen = (characters.length * 3) / 2;
-            if(newLen < (nextChar + len)) {
-                newLen = nextChar + len;
+        characters = ensureCharCapacity(characters, nextChar, len);
+        alphaLen[nodeNum] = alphaLen[nodeNum] + len;
+        nextChar = copyChars(s, len, characters, nextChar);
+    }
+
+    /**
+     * Replace the characters of a text, comment or processing instruction node,
+     * moving the characters which follow them in the pool as required.
+     *
+     * @param nodeNum the node whose characters are replaced
+     * @param data the new characters
+     */
+    void replaceChars(final int nodeNum, final String data) {
+        final int offset = alpha[nodeNum];
+        final int oldLen = alphaLen[nodeNum];
+        final int len = data.length();
+        final int change = len - oldLen;
+        if(change > 0) {
+            characters = ensureCharCapacity(characters, nextChar, change);
+        }
+        System.arraycopy(characters, offset + oldLen, characters, offset + len, nextChar - (offset + oldLen));
+        data.getChars(0, len, characters, offset);
+        alphaLen[nodeNum] = len;
+        nextChar += change;
+
+        // renumber the nodes whose characters have moved, for the other kinds of node
+        // alpha is not an offset into the characters, e.g. for elements it is the first attribute
+        for(int i = 0; i < size; i++) {
+            switch(nodeKind[i]) {
+                case Node.TEXT_NODE:
+                case Node.CDATA_SECTION_NODE:
+                case Node.COMMENT_NODE:
+                case Node.PROCESSING_INSTRUCTION_NODE:
+                    if(i != nodeNum && alpha[i] >= offset + oldLen) {
+                        alpha[i] += change;
+                    }
+                    break;
             }
-            final char[] nc = new char[newLen];
-            System.arraycopy(characters, 0, nc, 0, characters.length);
-            characters = nc;
         }
-        alphaLen[nodeNum] = alphaLen[nodeNum] + len;
-        for(int i = 0; i < len; i++) {
-            characters[nextChar++] = s.charAt(i);
+    }
+
+    private static char[] ensureCharCapacity(@Nullable final char[] pool, final int used, final int len) {
+        if(pool == null) {
+            return new char[(len > CHAR_BUF_SIZE) ? len : CHAR_BUF_SIZE];
+        } else if((used + len) >= pool.length) {
+            int newLen = (pool.length * 3) / 2;
+            if(newLen < (used + len)) {
+                newLen = used + len;
+            }
+            return Arrays.copyOf(pool, newLen);
+        }
+        return pool;
+    }
+
+    /**
+     * @return the position in the pool after the copied characters
+     */
+    private static int copyChars(final CharSequence s, final int len, final char[] pool, int pos) {
+        if(s instanceof String str) {
+            str.getChars(0, len, pool, pos);
+            pos += len;
+        } else {
+            for(int i = 0; i < len; i++) {
+                pool[pos++] = s.charAt(i);
+            }
         }
+        return pos;
     }
 
     public void addReferenceNode(final int nodeNum, final NodeProxy proxy) {
@@ -351,10 +427,10 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
         //Check if an attribute with the same qname exists in the parent element
         while((nodeNum > 0) && (prevAttr > -1) && (attrParent[prevAttr] == nodeNum)) {
             attrN = prevAttr--;
-            final QName prevQn = attrName[attrN];
+            final QName prevQn = names[attrName[attrN]];
             if(prevQn.equals(qname)) {
                 if(replaceAttribute) {
-                    attrValue[attrN] = value;
+                    setAttrValue(attrN, value);
                     attrType[attrN] = type;
                     return attrN;
                 } else {
@@ -364,12 +440,12 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
             }
         }
         if(nextAttr == attrName.length) {
-            growAttributes();
+            growAttributes(nextAttr + 1);
         }
         final QName attrQname = new QName(qname.getLocalPart(), qname.getNamespaceURI(), qname.getPrefix(), ElementValue.ATTRIBUTE);
         attrParent[nextAttr] = nodeNum;
-        attrName[nextAttr] = namePool.getSharedName(attrQname);
-        attrValue[nextAttr] = value;
+        attrName[nextAttr] = getNameId(attrQname);
+        setAttrValue(nextAttr, value);
         attrType[nextAttr] = type;
         if(alpha[nodeNum] < 0) {
             alpha[nodeNum] = nextAttr;
@@ -392,6 +468,67 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
         return nextNamespace++;
     }
 
+    private int getNameId(final QName qname) {
+        final QName sharedName = namePool.getSharedName(qname);
+        int id = nameIds.getInt(sharedName);
+        if(id < 0) {
+            if(nextName == names.length) {
+                names = Arrays.copyOf(names, (nextName * 3) / 2);
+            }
+            id = nextName++;
+            names[id] = sharedName;
+            nameIds.put(sharedName, id);
+        }
+        return id;
+    }
+
+    @Nullable QName getNodeQName(final int nodeNum) {
+        final int id = nodeName[nodeNum];
+        return id < 0 ? null : names[id];
+    }
+
+    void setNodeQName(final int nodeNum, @Nullable final QName qname) {
+        nodeName[nodeNum] = qname != null ? getNameId(qname) : -1;
+    }
+
+    QName getAttrQName(final int attr) {
+        return names[attrName[attr]];
+    }
+
+    void setAttrQName(final int attr, final QName qname) {
+        attrName[attr] = getNameId(qname);
+    }
+
+    @Nullable String getAttrValue(final int attr) {
+        final int len = attrValueLen[attr];
+        return len < 0 ? null : new String(attrCharacters, attrValueStart[attr], len);
+    }
+
+    /**
+     * Attribute values are appended to the attribute character pool. A replaced
+     * value is not reclaimed, which is fine as replacing is rare.
+     */
+    void setAttrValue(final int attr, @Nullable final String value) {
+        if(value == null) {
+            attrValueStart[attr] = nextAttrChar;
+            attrValueLen[attr] = -1;
+            return;
+        }
+        final int len = value.length();
+        attrCharacters = ensureCharCapacity(attrCharacters, nextAttrChar, len);
+        attrValueStart[attr] = nextAttrChar;
+        attrValueLen[attr] = len;
+        nextAttrChar = copyChars(value, len, attrCharacters, nextAttrChar);
+    }
+
+    @Nullable NodeId getNodeIdOf(final int nodeNum) {
+        return nodeId == null || nodeNum >= nodeId.length ? null : nodeId[nodeNum];
+    }
+
+    @Nullable NodeId getAttrNodeIdOf(final int attr) {
+        return attrNodeId == null || attr >= attrNodeId.length ? null : attrNodeId[attr];
+    }
+
     public short getTreeLevel(final int nodeNum) {
         return treeLevel[nodeNum];
     }
@@ -415,8 +552,8 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
         return super.getStringValue();
     }
 
-    private void grow() {
-        final int newSize = (size * 3) / 2;
+    private void grow(final int minSize) {
+        final int newSize = Math.max((nodeKind.length * 3) / 2, minSize);
 
         final short[] newNodeKind = new short[newSize];
         System.arraycopy(nodeKind, 0, newNodeKind, 0, size);
@@ -431,13 +568,7 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
         System.arraycopy(next, 0, newNext, 0, size);
         next = newNext;
 
-        final QName[] newNodeName = new QName[newSize];
-        System.arraycopy(nodeName, 0, newNodeName, 0, size);
-        nodeName = newNodeName;
-
-        final NodeId[] newNodeId = new NodeId[newSize];
-        System.arraycopy(nodeId, 0, newNodeId, 0, size);
-        nodeId = newNodeId;
+        nodeName = Arrays.copyOf(nodeName, newSize);
 
         final int[] newAlpha = new int[newSize];
         System.arraycopy(alpha, 0, newAlpha, 0, size);
@@ -449,29 +580,13 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
         alphaLen = newAlphaLen;
     }
 
-    private void growAttributes() {
-        final int size = attrName.length;
-        final int newSize = (size * 3) / 2;
-
-        final QName[] newAttrName = new QName[newSize];
-        System.arraycopy(attrName, 0, newAttrName, 0, size);
-        attrName = newAttrName;
-
-        final int[] newAttrParent = new int[newSize];
-        System.arraycopy(attrParent, 0, newAttrParent, 0, size);
-        attrParent = newAttrParent;
-
-        final String[] newAttrValue = new String[newSize];
-        System.arraycopy(attrValue, 0, newAttrValue, 0, size);
-        attrValue = newAttrValue;
-
-        final int[] newAttrType = new int[newSize];
-        System.arraycopy(attrType, 0, newAttrType, 0, size);
-        attrType = newAttrType;
-
-        final NodeId[] newNodeId = new NodeId[newSize];
-        System.arraycopy(attrNodeId, 0, newNodeId, 0, size);
-        attrNodeId = newNodeId;
+    private void growAttributes(final int minSize) {
+        final int newSize = Math.max((attrName.length * 3) / 2, minSize);
+        attrName = Arrays.copyOf(attrName, newSize);
+        attrParent = Arrays.copyOf(attrParent, newSize);
+        attrValueStart = Arrays.copyOf(attrValueStart, newSize);
+        attrValueLen = Arrays.copyOf(attrValueLen, newSize);
+        attrType = Arrays.copyOf(attrType, newSize);
     }
 
     private void growReferences() {
@@ -769,10 +884,10 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
         if(-1 < attr) {
             while((attr < document.nextAttr) && (document.attrParent[attr] == nodeNumber)) {
                 if((document.attrType[attr] == AttrImpl.ATTR_ID_TYPE) &&
-                        id.equals(document.attrValue[attr])) {
+                        id.equals(document.getAttrValue(attr))) {
                     return true;
-                } else if (document.attrName[attr].getLocalPart().equals("id") &&
-                           Objects.equals(document.attrValue[attr], id)) {
+                } else if (document.getAttrQName(attr).getLocalPart().equals("id") &&
+                           Objects.equals(document.getAttrValue(attr), id)) {
                     return true;
                 }
                 ++attr;
@@ -785,8 +900,8 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
         int attr = document.alpha[nodeNumber];
         if(-1 < attr) {
             while((attr < document.nextAttr) && (document.attrParent[attr] == nodeNumber)) {
-                if (document.attrName[attr].getStringValue().equals(Namespaces.XSI_TYPE_QNAME.getStringValue()) &&
-                        document.attrValue[attr].equals(Namespaces.XS_ID_QNAME.getStringValue()) &&
+                if (document.getAttrQName(attr).getStringValue().equals(Namespaces.XSI_TYPE_QNAME.getStringValue()) &&
+                        Namespaces.XS_ID_QNAME.getStringValue().equals(document.getAttrValue(attr)) &&
                         document.getNode(nodeNumber).getStringValue().equals(id)) {
                     return true;
                 }
@@ -801,7 +916,7 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
         if(-1 < attr) {
             while((attr < document.nextAttr) && (document.attrParent[attr] == nodeNumber)) {
                 if((document.attrType[attr] == AttrImpl.ATTR_IDREF_TYPE) &&
-                    id.equals(document.attrValue[attr])) {
+                    id.equals(document.getAttrValue(attr))) {
                     return new AttrImpl(getExpression(), this, attr);
                 }
                 ++attr;
@@ -1051,7 +1166,7 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
         final NodeListImpl nl = new NodeListImpl();
         for(int i = 1; i < size; i++) {
             if(nodeKind[i] == Node.ELEMENT_NODE) {
-                final QName qn = nodeName[i];
+                final QName qn = getNodeQName(i);
                 if(qn.matches(qname)) {
                     nl.add(getNode(i));
                 }
@@ -1126,13 +1241,13 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
         final int nr = node.nodeNumber;
         switch(node.getNodeType()) {
             case Node.ELEMENT_NODE: {
-                final QName nodeName = document.nodeName[nr];
+                final QName nodeName = document.getNodeQName(nr);
                 receiver.startElement(nodeName, null);
                 int attr = document.alpha[nr];
                 if(-1 < attr) {
                     while((attr < document.nextAttr) && (document.attrParent[attr] == nr)) {
-                        final QName attrQName = document.attrName[attr];
-                        receiver.attribute(attrQName, attrValue[attr]);
+                        final QName attrQName = document.getAttrQName(attr);
+                        receiver.attribute(attrQName, document.getAttrValue(attr));
                         ++attr;
                     }
                 }
@@ -1153,14 +1268,14 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
                 receiver.cdataSection(document.characters, document.alpha[nr], document.alphaLen[nr]);
                 break;
             case Node.ATTRIBUTE_NODE:
-                final QName attrQName = document.attrName[nr];
-                receiver.attribute(attrQName, attrValue[nr]);
+                final QName attrQName = document.getAttrQName(nr);
+                receiver.attribute(attrQName, document.getAttrValue(nr));
                 break;
             case Node.COMMENT_NODE:
                 receiver.comment(document.characters, document.alpha[nr], document.alphaLen[nr]);
                 break;
             case Node.PROCESSING_INSTRUCTION_NODE:
-                final QName piQName = document.nodeName[nr];
+                final QName piQName = document.getNodeQName(nr);
                 final String data = new String(document.characters, document.alpha[nr], document.alphaLen[nr]);
                 receiver.processingInstruction(piQName.getLocalPart(), data);
                 break;
@@ -1222,6 +1337,9 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
             final DocumentBuilderReceiver receiver = new DocumentBuilderReceiver(getExpression(), builder);
             try {
                 builder.startDocument();
+                if(rootNode == null) {
+                    builder.ensureCapacity(size, nextAttr, nextChar, nextAttrChar);
+                }
                 NodeImpl node = (rootNode == null) ? (NodeImpl) getFirstChild() : rootNode;
                 while(node != null) {
                     copyTo(node, receiver, true);
@@ -1250,24 +1368,26 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
     }
 
     private void computeNodeIds() throws EXistException {
-        if(nodeId[0] != null) {
+        if(nodeId != null && nodeId.length == size && attrNodeId.length == nextAttr) {
             return;
         }
+        // fill the arrays before publishing them, so that no partially computed ids are seen
+        final NodeId[] newNodeId = new NodeId[size];
+        final NodeId[] newAttrNodeId = new NodeId[nextAttr];
         final NodeIdFactory nodeFactory = getDatabase().getNodeFactory();
-        nodeId[0] = nodeFactory.documentNodeId();
-        if(size == 1) {
-            return;
-        }
+        newNodeId[0] = nodeFactory.documentNodeId();
         NodeId nextId = nodeFactory.createInstance();
         NodeImpl next = (NodeImpl) getFirstChild();
         while(next != null) {
-            computeNodeIds(nextId, next.nodeNumber);
+            computeNodeIds(newNodeId, newAttrNodeId, nextId, next.nodeNumber);
             next = (NodeImpl) next.getNextSibling();
             nextId = nextId.nextSibling();
         }
+        attrNodeId = newAttrNodeId;
+        nodeId = newNodeId;
     }
 
-    private void computeNodeIds(final NodeId id, final int nodeNum) {
+    private void computeNodeIds(final NodeId[] nodeId, final NodeId[] attrNodeId, final NodeId id, final int nodeNum) {
         nodeId[nodeNum] = id;
         if(nodeKind[nodeNum] == Node.ELEMENT_NODE) {
             NodeId nextId = id.newChild();
@@ -1281,7 +1401,7 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
             }
             int nextNode = getFirstChildFor(nodeNum);
             while(nextNode > nodeNum) {
-                computeNodeIds(nextId, nextNode);
+                computeNodeIds(nodeId, attrNodeId, nextId, nextNode);
                 nextNode = document.next[nextNode];
                 if(nextNode > nodeNum) {
                     nextId = nextId.nextSibling();
@@ -1301,6 +1421,9 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
         treeLevel = newDoc.treeLevel;
         next = newDoc.next;
         nodeName = newDoc.nodeName;
+        names = newDoc.names;
+        nextName = newDoc.nextName;
+        nameIds = newDoc.nameIds;
         nodeId = newDoc.nodeId;
         alpha = newDoc.alpha;
         alphaLen = newDoc.alphaLen;
@@ -1309,7 +1432,10 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
         attrName = newDoc.attrName;
         attrNodeId = newDoc.attrNodeId;
         attrParent = newDoc.attrParent;
-        attrValue = newDoc.attrValue;
+        attrValueStart = newDoc.attrValueStart;
+        attrValueLen = newDoc.attrValueLen;
+        attrCharacters = newDoc.attrCharacters;
+        nextAttrChar = newDoc.nextAttrChar;
         attrType = newDoc.attrType;
         nextAttr = newDoc.nextAttr;
         namespaceParent = newDoc.namespaceParent;
@@ -1367,7 +1493,7 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
         final int nr = node.nodeNumber;
         switch(node.getNodeType()) {
             case Node.ELEMENT_NODE:
-                final QName nodeName = document.nodeName[nr];
+                final QName nodeName = document.getNodeQName(nr);
                 //Output required namespace declarations
                 int ns = document.alphaLen[nr];
                 if(ns > -1) {
@@ -1387,8 +1513,8 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
                 if(attr > -1) {
                     attribs = new AttrList();
                     while((attr < document.nextAttr) && (document.attrParent[attr] == nr)) {
-                        final QName attrQName = document.attrName[attr];
-                        attribs.addAttribute(attrQName, attrValue[attr]);
+                        final QName attrQName = document.getAttrQName(attr);
+                        attribs.addAttribute(attrQName, document.getAttrValue(attr));
                         ++attr;
                     }
                 }
@@ -1399,14 +1525,14 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
                     document.alphaLen[nr]));
                 break;
             case Node.ATTRIBUTE_NODE:
-                final QName attrQName = document.attrName[nr];
-                receiver.attribute(attrQName, attrValue[nr]);
+                final QName attrQName = document.getAttrQName(nr);
+                receiver.attribute(attrQName, document.getAttrValue(nr));
                 break;
             case Node.COMMENT_NODE:
                 receiver.comment(document.characters, document.alpha[nr], document.alphaLen[nr]);
                 break;
             case Node.PROCESSING_INSTRUCTION_NODE:
-                final QName qn = document.nodeName[nr];
+                final QName qn = document.getNodeQName(nr);
                 final String data = new String(document.characters, document.alpha[nr], document.alphaLen[nr]);
                 receiver.processingInstruction(qn.getLocalPart(), data);
                 break;
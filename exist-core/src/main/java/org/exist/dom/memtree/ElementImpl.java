@@ -104,9 +104,9 @@ public class ElementImpl extends NodeImpl implements Element {
         int attr = document.alpha[nodeNumber];
         if(-1 < attr) {
             while(attr < document.nextAttr && document.attrParent[attr] == nodeNumber) {
-                final QName attrQName = document.attrName[attr];
+                final QName attrQName = document.getAttrQName(attr);
                 if(attrQName.getStringValue().equals(name)) {
-                    return document.attrValue[attr];
+                    return document.getAttrValue(attr);
                 }
                 ++attr;
             }
@@ -225,7 +225,7 @@ public class ElementImpl extends NodeImpl implements Element {
         int attr = document.alpha[nodeNumber];
         if(-1 < attr) {
             while(attr < document.nextAttr && document.attrParent[attr] == nodeNumber) {
-                final QName attrQName = document.attrName[attr];
+                final QName attrQName = document.getAttrQName(attr);
                 if(attrQName.getStringValue().equals(name)) {
                     return new AttrImpl(getExpression(), document, attr);
                 }
@@ -399,7 +399,7 @@ public class ElementImpl extends NodeImpl implements Element {
         final int treeLevel = document.treeLevel[nodeNumber];
         while(++nextNode < document.size && document.treeLevel[nextNode] > treeLevel) {
             if(document.nodeKind[nextNode] == Node.ELEMENT_NODE) {
-                final QName qn = document.nodeName[nextNode];
+                final QName qn = document.getNodeQName(nextNode);
                 if(qname.matches(qn)) {
                     nl.add(document.getNode(nextNode));
                 }
@@ -413,9 +413,9 @@ public class ElementImpl extends NodeImpl implements Element {
         int attr = document.alpha[nodeNumber];
         if(-1 < attr) {
             while(attr < document.nextAttr && document.attrParent[attr] == nodeNumber) {
-                final QName name = document.attrName[attr];
+                final QName name = document.getAttrQName(attr);
                 if(name.getLocalPart().equals(localName) && name.getNamespaceURI().equals(namespaceURI)) {
-                    return document.attrValue[attr];
+                    return document.getAttrValue(attr);
                 }
                 ++attr;
             }
@@ -444,7 +444,7 @@ public class ElementImpl extends NodeImpl implements Element {
         int attr = document.alpha[nodeNumber];
         if(-1 < attr) {
             while((attr < document.nextAttr) && (document.attrParent[attr] == nodeNumber)) {
-                final QName name = document.attrName[attr];
+                final QName name = document.getAttrQName(attr);
                 if(name.getLocalPart().equals(localName) && name.getNamespaceURI().equals(namespaceURI)) {
                     return (new AttrImpl(getExpression(), document, attr));
                 }
@@ -530,7 +530,7 @@ public class ElementImpl extends NodeImpl implements Element {
         int attr = document.alpha[nodeNumber];
         if(-1 < attr) {
             while(attr < document.nextAttr && document.attrParent[attr] == nodeNumber) {
-                final QName qname = document.attrName[attr];
+                final QName qname = document.getAttrQName(attr);
                 if(qname.getPrefix() != null && !qname.getPrefix().isEmpty()) {
                     map.put(qname.getPrefix(), qname.getNamespaceURI());
                 }
@@ -711,9 +711,9 @@ public class ElementImpl extends NodeImpl implements Element {
     public String getAttributeValue(final String name) {
         int attr = 0;
         while (attr < document.nextAttr) {
-            final QName attrQName = document.attrName[attr];
+            final QName attrQName = document.getAttrQName(attr);
             if (attrQName.getStringValue().equals(name)) {
-                return document.attrValue[attr];
+                return document.getAttrValue(attr);
             }
             ++attr;
         }
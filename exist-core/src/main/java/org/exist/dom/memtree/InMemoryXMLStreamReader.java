@@ -66,7 +66,7 @@ public class InMemoryXMLStreamReader implements ExtendedXMLStreamReader {
                 return null;
             }
             doc.expand();
-            return doc.nodeId[currentNode];
+            return doc.getNodeIdOf(currentNode);
         }
         return null;
     }
@@ -227,10 +227,10 @@ public class InMemoryXMLStreamReader implements ExtendedXMLStreamReader {
         final int attrStart = doc.alpha[currentNode];
 
         for(int i = 0; i < attrCount; i++) {
-            final QName qname = doc.attrName[attrStart + i];
+            final QName qname = doc.getAttrQName(attrStart + i);
 
             if((namespaceURI == null || namespaceURI.equals(qname.getNamespaceURI())) && localName.equals(qname.getLocalPart())) {
-                return doc.attrValue[attrStart + i];
+                return doc.getAttrValue(attrStart + i);
             }
         }
         return null;
@@ -254,7 +254,7 @@ public class InMemoryXMLStreamReader implements ExtendedXMLStreamReader {
             throw new ArrayIndexOutOfBoundsException();
         }
         final int attr = doc.alpha[currentNode];
-        return doc.attrName[attr + index];
+        return doc.getAttrQName(attr + index);
     }
 
     @Override
@@ -297,7 +297,7 @@ public class InMemoryXMLStreamReader implements ExtendedXMLStreamReader {
         }
         doc.expand();
         final int attr = doc.alpha[currentNode];
-        return doc.attrNodeId[attr + index];
+        return doc.getAttrNodeIdOf(attr + index);
     }
 
     @Override
@@ -330,7 +330,7 @@ public class InMemoryXMLStreamReader implements ExtendedXMLStreamReader {
             throw new ArrayIndexOutOfBoundsException();
         }
         final int attr = doc.alpha[currentNode];
-        return doc.attrValue[attr + index];
+        return doc.getAttrValue(attr + index);
     }
 
     @Override
@@ -427,7 +427,7 @@ public class InMemoryXMLStreamReader implements ExtendedXMLStreamReader {
     @Override
     public QName getQName() {
         if(state == START_ELEMENT || state == END_ELEMENT) {
-            return doc.nodeName[currentNode];
+            return doc.getNodeQName(currentNode);
         }
         throw new IllegalStateException("Cursor is not at the start of end of an element");
     }
@@ -479,7 +479,7 @@ public class InMemoryXMLStreamReader implements ExtendedXMLStreamReader {
 
     @Override
     public String getPITarget() {
-        final QName qn = doc.nodeName[currentNode];
+        final QName qn = doc.getNodeQName(currentNode);
         return qn != null ? qn.getLocalPart() : null;
     }
 
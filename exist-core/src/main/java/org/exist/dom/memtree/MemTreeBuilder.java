@@ -123,6 +123,20 @@ public class MemTreeBuilder {
     }
 
 
+    /**
+     * Reserve room for the given number of additional nodes, attributes and characters,
+     * e.g. before copying a fragment of known size into the document.
+     *
+     * @param nodes      the number of nodes which will be added
+     * @param attributes the number of attributes which will be added
+     * @param chars      the number of characters of text, comments and processing instructions which will be added
+     * @param attrChars  the number of characters of attribute values which will be added
+     */
+    public void ensureCapacity(final int nodes, final int attributes, final int chars, final int attrChars) {
+        doc.ensureCapacity(doc.size + nodes, doc.nextAttr + attributes, doc.nextChar + chars, doc.nextAttrChar + attrChars);
+    }
+
+
     /**
      * End building the document.
      */
@@ -461,7 +475,7 @@ public class MemTreeBuilder {
         final int lastNode = doc.getLastNode();
         boolean addNode = true;
         if(doc.nodeName != null) {
-            final QName elemQN = doc.nodeName[lastNode];
+            final QName elemQN = doc.getNodeQName(lastNode);
             if(elemQN != null) {
                 final String elemPrefix = (elemQN.getPrefix() == null) ? XMLConstants.DEFAULT_NS_PREFIX : elemQN.getPrefix();
                 final String elemNs = (elemQN.getNamespaceURI() == null) ? XMLConstants.NULL_NS_URI : elemQN.getNamespaceURI();
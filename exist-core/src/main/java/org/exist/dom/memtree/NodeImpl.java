@@ -98,8 +98,8 @@ public abstract class NodeImpl<T extends NodeImpl<T>> implements INode<DocumentI
     @Override
     public final QName getQName() {
         return switch (getNodeType()) {
-            case Node.ATTRIBUTE_NODE -> document.attrName[nodeNumber];
-            case Node.ELEMENT_NODE, Node.PROCESSING_INSTRUCTION_NODE -> document.nodeName[nodeNumber];
+            case Node.ATTRIBUTE_NODE -> document.getAttrQName(nodeNumber);
+            case Node.ELEMENT_NODE, Node.PROCESSING_INSTRUCTION_NODE -> document.getNodeQName(nodeNumber);
             case NodeImpl.NAMESPACE_NODE -> document.namespaceCode[nodeNumber];
             case Node.DOCUMENT_NODE, Node.COMMENT_NODE, Node.TEXT_NODE, Node.CDATA_SECTION_NODE -> QName.EMPTY_QNAME;
             default -> QName.EMPTY_QNAME;
@@ -109,8 +109,8 @@ public abstract class NodeImpl<T extends NodeImpl<T>> implements INode<DocumentI
     @Override
     public final void setQName(final QName qname) {
         switch (getNodeType()) {
-            case Node.ATTRIBUTE_NODE -> document.attrName[nodeNumber] = qname;
-            case Node.ELEMENT_NODE, Node.PROCESSING_INSTRUCTION_NODE -> document.nodeName[nodeNumber] = qname;
+            case Node.ATTRIBUTE_NODE -> document.setAttrQName(nodeNumber, qname);
+            case Node.ELEMENT_NODE, Node.PROCESSING_INSTRUCTION_NODE -> document.setNodeQName(nodeNumber, qname);
             case NodeImpl.NAMESPACE_NODE -> document.namespaceCode[nodeNumber] = qname;
         }
     }
@@ -184,7 +184,7 @@ public abstract class NodeImpl<T extends NodeImpl<T>> implements INode<DocumentI
     @Override
     public NodeId getNodeId() {
         expand();
-        return document.nodeId[nodeNumber];
+        return document.getNodeIdOf(nodeNumber);
     }
 
     public void expand() throws DOMException {
@@ -72,9 +72,7 @@ public class ProcessingInstructionImpl extends NodeImpl implements ProcessingIns
 
     @Override
     public void setData(final String data) throws DOMException {
-        document.characters = data.toCharArray();
-        document.alpha[nodeNumber] = 0;
-        document.alphaLen[nodeNumber] = data.length();
+        document.replaceChars(nodeNumber, data == null ? "" : data);
     }
 
     @Override
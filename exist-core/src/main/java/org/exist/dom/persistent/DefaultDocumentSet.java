@@ -147,6 +147,21 @@ public class DefaultDocumentSet implements MutableDocumentSet {
     public DocumentSet intersection(final DocumentSet other) {
         final DefaultDocumentSet result = new DefaultDocumentSet();
 
+        if (other instanceof DefaultDocumentSet otherDDS) {
+            // optimization when other is also a DefaultDocumentSet: intersect the bitmaps of document ids,
+            // the common documents are then added in the order of this set
+            final BitSet common = (BitSet) docIds.clone();
+            common.and(otherDDS.docIds);
+            if (!common.isEmpty()) {
+                for (final DocumentImpl d : docs.values()) {
+                    if (common.get(d.getDocId())) {
+                        result.add(d);
+                    }
+                }
+            }
+            return result;
+        }
+
         for (final Iterator<DocumentImpl> i = getDocumentIterator(); i.hasNext(); ) {
             final DocumentImpl d = i.next();
             if (other.contains(d.getDocId())) {
@@ -221,14 +236,7 @@ public class DefaultDocumentSet implements MutableDocumentSet {
     }
 
     public int getMaxDocId() {
-        int max = DocumentImpl.UNKNOWN_DOCUMENT_ID;
-        for (final Iterator<DocumentImpl> i = getDocumentIterator(); i.hasNext(); ) {
-            final DocumentImpl d = i.next();
-            if (d.getDocId() > max) {
-                max = d.getDocId();
-            }
-        }
-        return max;
+        return docIds.isEmpty() ? DocumentImpl.UNKNOWN_DOCUMENT_ID : docIds.length() - 1;
     }
 
     @Override
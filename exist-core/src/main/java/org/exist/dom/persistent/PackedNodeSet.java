@@ -0,0 +1,1144 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.exist.dom.persistent;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import org.exist.collections.Collection;
+import org.exist.dom.QName;
+import org.exist.numbering.NodeId;
+import org.exist.storage.RangeIndexSpec;
+import org.exist.storage.StorageAddress;
+import org.exist.xquery.Constants;
+import org.exist.xquery.Expression;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.value.Item;
+import org.exist.xquery.value.SequenceIterator;
+import org.exist.xquery.value.Type;
+import org.w3c.dom.Node;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * A node set which stores its nodes column-wise in primitive arrays: the document id,
+ * the bits of the node id packed into a shared byte array, the tree level, the node type and
+ * the storage address of every node. Unlike {@link NewArrayNodeSet}, no {@link NodeProxy}
+ * is kept for a node added by {@link #add(DocumentImpl, NodeId, short, long)}, which saves
+ * most of the heap needed for large intermediate results, e.g. all elements of a given
+ * name returned by the structural index.
+ *
+ * A proxy is created on demand, when a node is handed out by one of the get or iterator
+ * methods, and is then kept by the set: callers rely on being able to attach context
+ * and match information to the nodes of a set. Proxies added by {@link #add(NodeProxy)}
+ * are kept as well.
+ *
+ * Nodes may be added in any order. The set is sorted and duplicates are removed when
+ * it is first read; adding nodes in document order avoids the sort. {@link #intersection(NodeSet)},
+ * {@link #union(NodeSet)} and {@link #except(NodeSet)} with another packed set as well as
+ * {@link #selectParentChild(NodeSet, int, int)} and
+ * {@link #selectAncestorDescendant(NodeSet, int, boolean, int, boolean)} work on the packed
+ * node ids and only create proxies for nodes which need context or match information.
+ * The other axes locate the relevant nodes on the packed ids as well, but create proxies for
+ * every node they select.
+ */
+public class PackedNodeSet extends AbstractNodeSet {
+
+    private static final int INITIAL_SIZE = 64;
+
+    /**
+     * Name of the nodes added without a proxy, if known. Set on the proxies
+     * created for them, so their name can be read without loading the node.
+     */
+    @Nullable private final QName nodeName;
+
+    private final Int2ObjectMap<DocumentImpl> documents = new Int2ObjectOpenHashMap<>();
+
+    private int size = 0;
+    private int[] docIds;
+    private int[] offsets;
+    private short[] units;
+    private short[] levels;
+    private short[] nodeTypes;
+    private long[] addresses;
+    @Nullable private NodeProxy[] proxies = null;
+
+    /**
+     * The packed node ids, the node id of node i starts at offsets[i]
+     * and is units[i] bits long.
+     */
+    private byte[] data;
+    private int dataLength = 0;
+
+    private boolean isSorted = true;
+    private int state = 0;
+    private int itemType = Type.ANY_TYPE;
+
+    public PackedNodeSet() {
+        this(INITIAL_SIZE, null);
+    }
+
+    /**
+     * @param initialSize the expected number of nodes
+     * @param nodeName the name of the nodes added without a proxy, or null if unknown
+     */
+    public PackedNodeSet(final int initialSize, @Nullable final QName nodeName) {
+        this.nodeName = nodeName;
+        final int capacity = Math.max(initialSize, 1);
+        docIds = new int[capacity];
+        offsets = new int[capacity];
+        units = new short[capacity];
+        levels = new short[capacity];
+        nodeTypes = new short[capacity];
+        addresses = new long[capacity];
+        data = new byte[capacity * 4];
+    }
+
+    private PackedNodeSet(final PackedNodeSet other) {
+        nodeName = other.nodeName;
+        documents.putAll(other.documents);
+        size = other.size;
+        docIds = Arrays.copyOf(other.docIds, other.docIds.length);
+        offsets = Arrays.copyOf(other.offsets, other.offsets.length);
+        units = Arrays.copyOf(other.units, other.units.length);
+        levels = Arrays.copyOf(other.levels, other.levels.length);
+        nodeTypes = Arrays.copyOf(other.nodeTypes, other.nodeTypes.length);
+        addresses = Arrays.copyOf(other.addresses, other.addresses.length);
+        proxies = other.proxies == null ? null : Arrays.copyOf(other.proxies, other.proxies.length);
+        data = Arrays.copyOf(other.data, other.data.length);
+        dataLength = other.dataLength;
+        isSorted = other.isSorted;
+        itemType = other.itemType;
+    }
+
+    /**
+     * Add a node without creating a proxy for it.
+     *
+     * @param doc the document of the node
+     * @param nodeId the id of the node
+     * @param nodeType the DOM node type, or {@link NodeProxy#UNKNOWN_NODE_TYPE}
+     * @param address the storage address of the node, or {@link StoredNode#UNKNOWN_NODE_IMPL_ADDRESS}
+     */
+    public void add(final DocumentImpl doc, final NodeId nodeId, final short nodeType, final long address) {
+        append(doc, nodeId, nodeType, address);
+    }
+
+    @Override
+    public void add(final NodeProxy proxy) {
+        final int i = append(proxy.getOwnerDocument(), proxy.getNodeId(), proxy.getNodeType(),
+                proxy.getInternalAddress());
+        ensureProxies();
+        proxies[i] = proxy;
+    }
+
+    @Override
+    public void addAll(final NodeSet other) {
+        if (other instanceof PackedNodeSet packed) {
+            for (int i = 0; i < packed.size; i++) {
+                copyEntry(packed, i);
+            }
+        } else {
+            for (final NodeProxy p : other) {
+                add(p);
+            }
+        }
+    }
+
+    private int append(final DocumentImpl doc, final NodeId nodeId, final short nodeType, final long address) {
+        if (size == docIds.length) {
+            grow();
+        }
+        final int docId = doc.getDocId();
+        documents.putIfAbsent(docId, doc);
+        final int len = nodeId.size();
+        ensureData(len);
+        nodeId.serialize(data, dataLength);
+
+        final int i = size++;
+        docIds[i] = docId;
+        offsets[i] = dataLength;
+        units[i] = (short) nodeId.units();
+        levels[i] = (short) (nodeId == NodeId.DOCUMENT_NODE ? 0 : nodeId.getTreeLevel());
+        nodeTypes[i] = nodeType;
+        addresses[i] = address;
+        dataLength += len;
+        added(i);
+        return i;
+    }
+
+    private void copyEntry(final PackedNodeSet from, final int j) {
+        if (from.proxies != null && from.proxies[j] != null) {
+            add(from.proxies[j]);
+        } else if (!Objects.equals(nodeName, from.nodeName)) {
+            add(from.proxyAt(j));
+        } else {
+            if (size == docIds.length) {
+                grow();
+            }
+            final int docId = from.docIds[j];
+            documents.putIfAbsent(docId, from.documents.get(docId));
+            final int len = byteLength(from.units[j]);
+            ensureData(len);
+            System.arraycopy(from.data, from.offsets[j], data, dataLength, len);
+
+            final int i = size++;
+            docIds[i] = docId;
+            offsets[i] = dataLength;
+            units[i] = from.units[j];
+            levels[i] = from.levels[j];
+            nodeTypes[i] = from.nodeTypes[j];
+            addresses[i] = from.addresses[j];
+            dataLength += len;
+            added(i);
+        }
+    }
+
+    private void added(final int i) {
+        if (isSorted && i > 0 && compareEntries(i - 1, i) >= 0) {
+            isSorted = false;
+        }
+        state = (state == Integer.MAX_VALUE ? 0 : state + 1);
+        final int type = nodeTypes[i] == NodeProxy.UNKNOWN_NODE_TYPE ? Type.NODE : Type.fromDomNodeType(nodeTypes[i]);
+        if (itemType == Type.ANY_TYPE) {
+            itemType = type;
+        } else if (itemType != type) {
+            itemType = Type.NODE;
+        }
+    }
+
+    private void grow() {
+        final int capacity = docIds.length << 1;
+        docIds = Arrays.copyOf(docIds, capacity);
+        offsets = Arrays.copyOf(offsets, capacity);
+        units = Arrays.copyOf(units, capacity);
+        levels = Arrays.copyOf(levels, capacity);
+        nodeTypes = Arrays.copyOf(nodeTypes, capacity);
+        addresses = Arrays.copyOf(addresses, capacity);
+        if (proxies != null) {
+            proxies = Arrays.copyOf(proxies, capacity);
+        }
+    }
+
+    private void ensureData(final int len) {
+        if (dataLength + len > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length << 1, dataLength + len));
+        }
+    }
+
+    private void ensureProxies() {
+        if (proxies == null) {
+            proxies = new NodeProxy[docIds.length];
+        }
+    }
+
+    private static int byteLength(final int units) {
+        return (units + 7) >>> 3;
+    }
+
+    /**
+     * Sorts the nodes in document order and removes duplicates.
+     * The matches of duplicate nodes are merged.
+     */
+    public void sort() {
+        sort(false);
+    }
+
+    /**
+     * Sorts the nodes in document order and removes duplicates.
+     *
+     * @param mergeContexts if true, the contexts of duplicate nodes are merged as well
+     */
+    public void sort(final boolean mergeContexts) {
+        if (isSorted) {
+            return;
+        }
+
+        final int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        IntArrays.mergeSort(order, 0, size, this::compareEntries);
+
+        final int capacity = docIds.length;
+        final int[] newDocIds = new int[capacity];
+        final int[] newOffsets = new int[capacity];
+        final short[] newUnits = new short[capacity];
+        final short[] newLevels = new short[capacity];
+        final short[] newNodeTypes = new short[capacity];
+        final long[] newAddresses = new long[capacity];
+        final NodeProxy[] newProxies = proxies == null ? null : new NodeProxy[capacity];
+        final byte[] newData = new byte[data.length];
+        int newDataLength = 0;
+
+        int n = 0;
+        int last = -1;
+        for (final int i : order) {
+            if (last > -1 && compareEntries(last, i) == 0) {
+                if (newProxies != null && proxies[i] != null) {
+                    final NodeProxy kept = newProxies[n - 1];
+                    if (kept == null) {
+                        newProxies[n - 1] = proxies[i];
+                    } else {
+                        if (mergeContexts) {
+                            kept.addContext(proxies[i]);
+                        }
+                        kept.addMatches(proxies[i]);
+                    }
+                }
+                continue;
+            }
+            final int len = byteLength(units[i]);
+            System.arraycopy(data, offsets[i], newData, newDataLength, len);
+            newDocIds[n] = docIds[i];
+            newOffsets[n] = newDataLength;
+            newUnits[n] = units[i];
+            newLevels[n] = levels[i];
+            newNodeTypes[n] = nodeTypes[i];
+            newAddresses[n] = addresses[i];
+            if (newProxies != null) {
+                newProxies[n] = proxies[i];
+            }
+            newDataLength += len;
+            n++;
+            last = i;
+        }
+
+        docIds = newDocIds;
+        offsets = newOffsets;
+        units = newUnits;
+        levels = newLevels;
+        nodeTypes = newNodeTypes;
+        addresses = newAddresses;
+        proxies = newProxies;
+        data = newData;
+        dataLength = newDataLength;
+        size = n;
+        isSorted = true;
+    }
+
+    /**
+     * Remove all duplicate nodes, but merge their contexts.
+     */
+    public void mergeDuplicates() {
+        sort(true);
+    }
+
+    private int compareEntries(final int i, final int j) {
+        if (docIds[i] != docIds[j]) {
+            return docIds[i] < docIds[j] ? -1 : 1;
+        }
+        return Arrays.compareUnsigned(data, offsets[i], offsets[i] + byteLength(units[i]),
+                data, offsets[j], offsets[j] + byteLength(units[j]));
+    }
+
+    private static int compareEntries(final PackedNodeSet s1, final int i, final PackedNodeSet s2, final int j) {
+        if (s1.docIds[i] != s2.docIds[j]) {
+            return s1.docIds[i] < s2.docIds[j] ? -1 : 1;
+        }
+        return Arrays.compareUnsigned(s1.data, s1.offsets[i], s1.offsets[i] + byteLength(s1.units[i]),
+                s2.data, s2.offsets[j], s2.offsets[j] + byteLength(s2.units[j]));
+    }
+
+    private int compareNodeId(final int i, final byte[] key, final int keyLength) {
+        return Arrays.compareUnsigned(data, offsets[i], offsets[i] + byteLength(units[i]), key, 0, keyLength);
+    }
+
+    /**
+     * @return the index of the first node of the document with the given id or
+     *     of the first node of a later document
+     */
+    private int findDoc(final int docId) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (docIds[mid] < docId) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the index of the first node in [from, to) whose id is not
+     *     smaller than the given key
+     */
+    private int findNodeId(int low, int high, final byte[] key, final int keyLength) {
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (compareNodeId(mid, key, keyLength) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int indexOf(final int docId, final NodeId nodeId) {
+        sort();
+        final int start = findDoc(docId);
+        final int end = findDoc(docId + 1);
+        if (start == end) {
+            return -1;
+        }
+        final byte[] key = new byte[nodeId.size()];
+        nodeId.serialize(key, 0);
+        final int i = findNodeId(start, end, key, key.length);
+        return i < end && compareNodeId(i, key, key.length) == 0 ? i : -1;
+    }
+
+    /**
+     * Relation of node i to the node given by its packed id, see
+     * {@link NodeId#computeRelation(NodeId)}.
+     */
+    private int computeRelation(final int i, final byte[] key, final int keyUnits, final int keyLevel) {
+        if (keyUnits > units[i]) {
+            return -1;
+        }
+        final int offset = offsets[i];
+        final int bytes = keyUnits >>> 3;
+        for (int b = 0; b < bytes; b++) {
+            if (data[offset + b] != key[b]) {
+                return -1;
+            }
+        }
+        final int remaining = keyUnits & 7;
+        if (remaining > 0) {
+            final int mask = (0xFF << (8 - remaining)) & 0xFF;
+            if ((data[offset + bytes] & mask) != (key[bytes] & mask)) {
+                return -1;
+            }
+        }
+        if (units[i] == keyUnits) {
+            return NodeId.IS_SELF;
+        }
+        // the bit following the ancestor's id has to be a level separator
+        if ((data[offset + bytes] & (1 << (7 - remaining))) != 0) {
+            return -1;
+        }
+        return levels[i] == keyLevel + 1 ? NodeId.IS_CHILD : NodeId.IS_DESCENDANT;
+    }
+
+    private NodeId nodeIdAt(final int i) {
+        if (levels[i] == 0) {
+            return NodeId.DOCUMENT_NODE;
+        }
+        return documents.get(docIds[i]).getBrokerPool().getNodeFactory()
+                .createFromData(units[i], data, offsets[i]);
+    }
+
+    private NodeProxy proxyAt(final int i) {
+        ensureProxies();
+        NodeProxy p = proxies[i];
+        if (p == null) {
+            p = new NodeProxy(null, documents.get(docIds[i]), nodeIdAt(i), nodeTypes[i], addresses[i]);
+            if (nodeName != null) {
+                p.setQName(nodeName);
+            }
+            proxies[i] = p;
+        }
+        return p;
+    }
+
+    private boolean hasProxy(final int i) {
+        return proxies != null && proxies[i] != null;
+    }
+
+    @Override
+    public NodeSetIterator iterator() {
+        sort();
+        return new PackedIterator();
+    }
+
+    @Override
+    public SequenceIterator iterate() {
+        sort();
+        return new PackedIterator();
+    }
+
+    @Override
+    public SequenceIterator unorderedIterator() {
+        sort();
+        return new PackedIterator();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean hasOne() {
+        sort();
+        return size == 1;
+    }
+
+    @Override
+    public int getItemType() {
+        return itemType;
+    }
+
+    @Override
+    public int getLength() {
+        sort();
+        return size;
+    }
+
+    @Override
+    public long getItemCountLong() {
+        return getLength();
+    }
+
+    @Override
+    public Node item(final int pos) {
+        final NodeProxy p = get(pos);
+        return p == null ? null : p.getNode();
+    }
+
+    @Override
+    public Item itemAt(final int pos) {
+        return get(pos);
+    }
+
+    @Override
+    public NodeProxy get(final int pos) {
+        sort();
+        if (pos < 0 || pos >= size) {
+            return null;
+        }
+        return proxyAt(pos);
+    }
+
+    @Override
+    public NodeProxy get(final NodeProxy p) {
+        return get(p.getOwnerDocument(), p.getNodeId());
+    }
+
+    @Override
+    public NodeProxy get(final DocumentImpl doc, final NodeId nodeId) {
+        final int i = indexOf(doc.getDocId(), nodeId);
+        return i < 0 ? null : proxyAt(i);
+    }
+
+    @Override
+    public boolean contains(final NodeProxy proxy) {
+        return indexOf(proxy.getOwnerDocument().getDocId(), proxy.getNodeId()) > -1;
+    }
+
+    @Override
+    public boolean contains(final Item item) {
+        return item instanceof NodeHandle handle && handle.getOwnerDocument() != null
+                && indexOf(handle.getOwnerDocument().getDocId(), handle.getNodeId()) > -1;
+    }
+
+    @Override
+    public boolean containsReference(final Item item) {
+        if (item instanceof NodeHandle handle && handle.getOwnerDocument() != null) {
+            final int i = indexOf(handle.getOwnerDocument().getDocId(), handle.getNodeId());
+            return i > -1 && hasProxy(i) && proxies[i] == item;
+        }
+        return false;
+    }
+
+    @Override
+    public NodeProxy parentWithChild(final DocumentImpl doc, final NodeId nodeId, final boolean directParent,
+            final boolean includeSelf) {
+        sort();
+        final int docId = doc.getDocId();
+        if (findDoc(docId) == findDoc(docId + 1)) {
+            return null;
+        }
+        NodeProxy temp;
+        if (includeSelf && (temp = get(doc, nodeId)) != null) {
+            return temp;
+        }
+        NodeId parentNodeId = nodeId.getParentId();
+        while (parentNodeId != null) {
+            if ((temp = get(doc, parentNodeId)) != null) {
+                return temp;
+            } else if (directParent) {
+                return null;
+            }
+            parentNodeId = parentNodeId.getParentId();
+        }
+        return null;
+    }
+
+    @Override
+    public NodeSet copy() {
+        return new PackedNodeSet(this);
+    }
+
+    @Override
+    public int getSizeHint(final DocumentImpl doc) {
+        sort();
+        final int count = findDoc(doc.getDocId() + 1) - findDoc(doc.getDocId());
+        return count == 0 ? Constants.NO_SIZE_HINT : count;
+    }
+
+    @Override
+    public DocumentSet getDocumentSet() {
+        final MutableDocumentSet ds = new DefaultDocumentSet(documents.size());
+        for (final DocumentImpl doc : documents.values()) {
+            ds.add(doc);
+        }
+        return ds;
+    }
+
+    @Override
+    public Iterator<Collection> getCollectionIterator() {
+        return getDocumentSet().getCollectionIterator();
+    }
+
+    @Override
+    public NodeSet selectParentChild(final NodeSet al, final int mode, final int contextId) {
+        if (al instanceof VirtualNodeSet) {
+            return super.selectParentChild(al, mode, contextId);
+        }
+        return getDescendantsInSet(al, true, false, mode, contextId, true);
+    }
+
+    @Override
+    public NodeSet selectAncestorDescendant(final NodeSet al, final int mode, final boolean includeSelf,
+            final int contextId, final boolean copyMatches) {
+        if (al instanceof VirtualNodeSet) {
+            return super.selectAncestorDescendant(al, mode, includeSelf, contextId, copyMatches);
+        }
+        return getDescendantsInSet(al, false, includeSelf, mode, contextId, copyMatches);
+    }
+
+    /**
+     * Find the nodes in this set which are children or descendants of the nodes in al.
+     * For every node in al, a binary search on the packed node ids finds the start of
+     * its subtree, which is then read sequentially.
+     */
+    private NodeSet getDescendantsInSet(final NodeSet al, final boolean childOnly, final boolean includeSelf,
+            final int mode, final int contextId, final boolean copyMatches) {
+        sort();
+        final PackedNodeSet result = new PackedNodeSet(INITIAL_SIZE, nodeName);
+        byte[] key = new byte[16];
+        for (final NodeProxy parent : al) {
+            final int docId = parent.getOwnerDocument().getDocId();
+            final int start = findDoc(docId);
+            final int end = findDoc(docId + 1);
+            if (start == end) {
+                continue;
+            }
+            final NodeId parentId = parent.getNodeId();
+            if (parentId == NodeId.DOCUMENT_NODE) {
+                // document nodes are treated specially
+                for (int i = start; i < end; i++) {
+                    final boolean add;
+                    if (childOnly) {
+                        add = levels[i] == 1;
+                    } else {
+                        add = includeSelf || levels[i] != 0;
+                    }
+                    if (add) {
+                        select(result, i, parent, mode, contextId, copyMatches);
+                    }
+                }
+            } else {
+                final int keyLength = parentId.size();
+                if (key.length < keyLength) {
+                    key = new byte[keyLength];
+                }
+                parentId.serialize(key, 0);
+                final int keyUnits = parentId.units();
+                final int keyLevel = parentId.getTreeLevel();
+                for (int i = findNodeId(start, end, key, keyLength); i < end; i++) {
+                    final int relation = computeRelation(i, key, keyUnits, keyLevel);
+                    if (relation < 0) {
+                        break;
+                    }
+                    final boolean add;
+                    if (childOnly) {
+                        add = relation == NodeId.IS_CHILD;
+                    } else {
+                        add = relation != NodeId.IS_SELF || includeSelf;
+                    }
+                    if (add) {
+                        select(result, i, parent, mode, contextId, copyMatches);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private void select(final PackedNodeSet result, final int i, final NodeProxy parent, final int mode,
+            final int contextId, final boolean copyMatches) {
+        switch (mode) {
+            case NodeSet.DESCENDANT:
+                if (!hasProxy(i) && Expression.NO_CONTEXT_ID == contextId && parent.getContext() == null
+                        && (!copyMatches || parent.getMatches() == null)) {
+                    // nothing to attach to the node, keep it packed
+                    result.copyEntry(this, i);
+                    break;
+                }
+                final NodeProxy node = proxyAt(i);
+                if (Expression.NO_CONTEXT_ID != contextId) {
+                    node.deepCopyContext(parent, contextId);
+                } else {
+                    node.copyContext(parent);
+                }
+                if (copyMatches) {
+                    node.addMatches(parent);
+                }
+                result.add(node);
+                break;
+            case NodeSet.ANCESTOR:
+                final NodeProxy descendant = proxyAt(i);
+                if (Expression.NO_CONTEXT_ID != contextId) {
+                    parent.deepCopyContext(descendant, contextId);
+                } else {
+                    parent.copyContext(descendant);
+                }
+                if (copyMatches) {
+                    parent.addMatches(descendant);
+                }
+                result.add(parent);
+                break;
+        }
+    }
+
+    @Override
+    public NodeSet selectPrecedingSiblings(final NodeSet siblings, final int contextId) {
+        return selectSiblings(siblings, false, contextId);
+    }
+
+    @Override
+    public NodeSet selectFollowingSiblings(final NodeSet siblings, final int contextId) {
+        return selectSiblings(siblings, true, contextId);
+    }
+
+    private NodeSet selectSiblings(final NodeSet contextSet, final boolean following, final int contextId) {
+        sort();
+        final NodeSet result = new NewArrayNodeSet();
+        byte[] key = new byte[16];
+        for (final NodeProxy reference : contextSet) {
+            final int docId = reference.getOwnerDocument().getDocId();
+            final int start = findDoc(docId);
+            final int end = findDoc(docId + 1);
+            final NodeId refId = reference.getNodeId();
+            if (start == end || refId == NodeId.DOCUMENT_NODE) {
+                continue;
+            }
+            final NodeId parentId = refId.getParentId();
+            final int refLength = refId.size();
+            final byte[] refKey = new byte[refLength];
+            refId.serialize(refKey, 0);
+            if (parentId == NodeId.DOCUMENT_NODE) {
+                for (int i = start; i < end; i++) {
+                    if (levels[i] == 1) {
+                        selectSibling(result, i, reference, refKey, refLength, following, contextId);
+                    }
+                }
+            } else {
+                final int keyLength = parentId.size();
+                if (key.length < keyLength) {
+                    key = new byte[keyLength];
+                }
+                parentId.serialize(key, 0);
+                final int keyUnits = parentId.units();
+                final int keyLevel = parentId.getTreeLevel();
+                for (int i = findNodeId(start, end, key, keyLength); i < end; i++) {
+                    final int relation = computeRelation(i, key, keyUnits, keyLevel);
+                    if (relation < 0) {
+                        break;
+                    }
+                    if (relation == NodeId.IS_CHILD) {
+                        selectSibling(result, i, reference, refKey, refLength, following, contextId);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private void selectSibling(final NodeSet result, final int i, final NodeProxy reference, final byte[] refKey,
+            final int refLength, final boolean following, final int contextId) {
+        final int cmp = compareNodeId(i, refKey, refLength);
+        if (following ? cmp > 0 : cmp < 0) {
+            selectRelated(result, proxyAt(i), reference, contextId);
+        }
+    }
+
+    private static void selectRelated(final NodeSet result, final NodeProxy node, final NodeProxy reference,
+            final int contextId) {
+        if (contextId != Expression.IGNORE_CONTEXT
+                && node.getContext() != null
+                && reference.getContext() != null
+                && node.getContext().getContextId() == reference.getContext().getContextId()) {
+            return;
+        }
+        if (Expression.IGNORE_CONTEXT != contextId) {
+            if (Expression.NO_CONTEXT_ID == contextId) {
+                node.copyContext(reference);
+            } else {
+                node.addContextNode(contextId, reference);
+            }
+        }
+        result.add(node);
+    }
+
+    @Override
+    public NodeSet selectFollowing(final NodeSet fl, final int contextId) throws XPathException {
+        return selectFollowing(fl, -1, contextId);
+    }
+
+    @Override
+    public NodeSet selectFollowing(final NodeSet pl, final int position, final int contextId) throws XPathException {
+        sort();
+        final NodeSet result = new NewArrayNodeSet();
+        for (final NodeProxy reference : pl) {
+            final int docId = reference.getOwnerDocument().getDocId();
+            final int end = findDoc(docId + 1);
+            final NodeId refId = reference.getNodeId();
+            final byte[] key = new byte[refId.size()];
+            refId.serialize(key, 0);
+            // skip the reference node and its descendants
+            int i = findNodeId(findDoc(docId), end, key, key.length);
+            while (i < end && computeRelation(i, key, refId.units(), refId.getTreeLevel()) > -1) {
+                i++;
+            }
+            int n = 0;
+            for (; i < end; i++) {
+                if (position < 0 || ++n == position) {
+                    selectRelated(result, proxyAt(i), reference, contextId);
+                }
+                if (n == position) {
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public NodeSet selectPreceding(final NodeSet pl, final int contextId) throws XPathException {
+        return selectPreceding(pl, -1, contextId);
+    }
+
+    @Override
+    public NodeSet selectPreceding(final NodeSet pl, final int position, final int contextId) throws XPathException {
+        sort();
+        final NodeSet result = new NewArrayNodeSet();
+        for (final NodeProxy reference : pl) {
+            final int docId = reference.getOwnerDocument().getDocId();
+            final int start = findDoc(docId);
+            final NodeId refId = reference.getNodeId();
+            final byte[] key = new byte[refId.size()];
+            refId.serialize(key, 0);
+            int n = 0;
+            for (int i = findNodeId(start, findDoc(docId + 1), key, key.length) - 1; i >= start; i--) {
+                // skip the ancestors of the reference node
+                if (!refId.isDescendantOf(nodeIdAt(i))) {
+                    if (position < 0 || ++n == position) {
+                        selectRelated(result, proxyAt(i), reference, contextId);
+                    }
+                    if (n == position) {
+                        break;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public NodeSet intersection(final NodeSet other) {
+        if (!(other instanceof PackedNodeSet packed)) {
+            return super.intersection(other);
+        }
+        sort();
+        packed.sort();
+        final PackedNodeSet result = new PackedNodeSet(INITIAL_SIZE,
+                Objects.equals(nodeName, packed.nodeName) ? nodeName : null);
+        int i = 0;
+        int j = 0;
+        while (i < size && j < packed.size) {
+            final int cmp = compareEntries(this, i, packed, j);
+            if (cmp < 0) {
+                i++;
+            } else if (cmp > 0) {
+                j++;
+            } else {
+                if (packed.hasProxy(j)) {
+                    final NodeProxy l = proxyAt(i);
+                    l.addMatches(packed.proxies[j]);
+                    result.add(l);
+                } else {
+                    result.copyEntry(this, i);
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public NodeSet union(final NodeSet other) {
+        if (!(other instanceof PackedNodeSet packed)) {
+            return super.union(other);
+        }
+        if (isEmpty()) {
+            return other;
+        } else if (other.isEmpty()) {
+            return this;
+        }
+        sort();
+        packed.sort();
+        final PackedNodeSet result = new PackedNodeSet(size + packed.size,
+                Objects.equals(nodeName, packed.nodeName) ? nodeName : null);
+        int i = 0;
+        int j = 0;
+        while (i < size || j < packed.size) {
+            final int cmp;
+            if (i == size) {
+                cmp = 1;
+            } else if (j == packed.size) {
+                cmp = -1;
+            } else {
+                cmp = compareEntries(this, i, packed, j);
+            }
+            if (cmp < 0) {
+                result.copyEntry(this, i++);
+            } else if (cmp > 0) {
+                result.copyEntry(packed, j++);
+            } else {
+                if (hasProxy(i)) {
+                    packed.proxyAt(j).addMatches(proxies[i]);
+                }
+                result.copyEntry(packed, j++);
+                i++;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public NodeSet except(final NodeSet other) {
+        if (!(other instanceof PackedNodeSet packed)) {
+            return super.except(other);
+        }
+        sort();
+        packed.sort();
+        final PackedNodeSet result = new PackedNodeSet(INITIAL_SIZE, nodeName);
+        int j = 0;
+        for (int i = 0; i < size; i++) {
+            while (j < packed.size && compareEntries(this, i, packed, j) > 0) {
+                j++;
+            }
+            if (j == packed.size || compareEntries(this, i, packed, j) != 0) {
+                result.copyEntry(this, i);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public NodeSet getContextNodes(final int contextId) {
+        sort();
+        final NewArrayNodeSet result = new NewArrayNodeSet();
+        if (proxies == null) {
+            return result;
+        }
+        for (int i = 0; i < size; i++) {
+            final NodeProxy current = proxies[i];
+            if (current == null) {
+                continue;
+            }
+            ContextItem contextNode = current.getContext();
+            while (contextNode != null) {
+                if (contextNode.getContextId() == contextId) {
+                    final NodeProxy context = contextNode.getNode();
+                    context.addMatches(current);
+                    if (Expression.NO_CONTEXT_ID != contextId) {
+                        context.addContextNode(contextId, context);
+                    }
+                    result.add(context);
+                }
+                contextNode = contextNode.getNextDirect();
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void clearContext(final int contextId) throws XPathException {
+        if (proxies == null) {
+            return;
+        }
+        for (int i = 0; i < size; i++) {
+            if (proxies[i] != null) {
+                proxies[i].clearContext(contextId);
+            }
+        }
+    }
+
+    @Override
+    public void setSelfAsContext(final int contextId) throws XPathException {
+        sort();
+        for (int i = 0; i < size; i++) {
+            final NodeProxy p = proxyAt(i);
+            p.addContextNode(contextId, p);
+        }
+    }
+
+    @Override
+    public void nodeMoved(final NodeId oldNodeId, final NodeHandle newNode) {
+        final int i = indexOf(newNode.getOwnerDocument().getDocId(), oldNodeId);
+        if (i < 0) {
+            return;
+        }
+        if (hasProxy(i)) {
+            proxies[i].nodeMoved(oldNodeId, newNode);
+        }
+        final NodeId nodeId = newNode.getNodeId();
+        final int len = nodeId.size();
+        ensureData(len);
+        nodeId.serialize(data, dataLength);
+        offsets[i] = dataLength;
+        units[i] = (short) nodeId.units();
+        levels[i] = (short) (nodeId == NodeId.DOCUMENT_NODE ? 0 : nodeId.getTreeLevel());
+        addresses[i] = newNode.getInternalAddress();
+        dataLength += len;
+        isSorted = false;
+    }
+
+    @Override
+    public int getIndexType() {
+        //Is the index type initialized ?
+        if (indexType == Type.ANY_TYPE) {
+            for (final DocumentImpl doc : documents.values()) {
+                if (doc.getCollection().isTempCollection()) {
+                    //Temporary nodes return default values
+                    indexType = Type.ITEM;
+                    return indexType;
+                }
+            }
+            for (int i = 0; i < size; i++) {
+                final long address = hasProxy(i) ? proxies[i].getInternalAddress() : addresses[i];
+                final int nodeIndexType = address == StoredNode.UNKNOWN_NODE_IMPL_ADDRESS ? Type.ITEM :
+                        RangeIndexSpec.indexTypeToXPath(StorageAddress.indexTypeFromPointer(address));
+                if (indexType == Type.ANY_TYPE) {
+                    indexType = nodeIndexType;
+                } else if (indexType != nodeIndexType) {
+                    indexType = Type.ITEM;
+                    break;
+                }
+            }
+        }
+        return indexType;
+    }
+
+    @Override
+    public int getState() {
+        return state;
+    }
+
+    @Override
+    public boolean hasChanged(final int previousState) {
+        return state != previousState;
+    }
+
+    @Override
+    public boolean isCacheable() {
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "PackedNodeSet#" + super.toString();
+    }
+
+    private class PackedIterator implements NodeSetIterator, SequenceIterator {
+        private int pos = 0;
+
+        @Override
+        public boolean hasNext() {
+            return pos < size && pos > -1;
+        }
+
+        @Override
+        public NodeProxy next() {
+            if (pos == size || pos < 0) {
+                pos = -1;
+                throw new NoSuchElementException();
+            }
+            return proxyAt(pos++);
+        }
+
+        @Override
+        public Item nextItem() {
+            if (pos == size || pos < 0) {
+                pos = -1;
+                return null;
+            }
+            return proxyAt(pos++);
+        }
+
+        @Override
+        public NodeProxy peekNode() {
+            if (pos == size || pos < 0) {
+                pos = -1;
+                return null;
+            }
+            return proxyAt(pos);
+        }
+
+        @Override
+        public long skippable() {
+            if (pos == -1) {
+                return 0;
+            }
+            return size - pos;
+        }
+
+        @Override
+        public long skip(final long n) {
+            final long skip = Math.min(n, pos == -1 ? 0 : size - pos);
+            pos += skip;
+            return skip;
+        }
+
+        @Override
+        public void setPosition(final NodeProxy proxy) {
+            pos = indexOf(proxy.getOwnerDocument().getDocId(), proxy.getNodeId());
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -59,6 +59,7 @@ import org.exist.util.io.CachingFilterInputStream;
 import org.exist.util.io.FilterInputStreamCache;
 import org.exist.util.io.FilterInputStreamCacheFactory;
 import org.exist.util.io.FilterInputStreamCacheFactory.FilterInputStreamCacheConfiguration;
+import org.exist.util.io.UTF8Writer;
 import org.exist.util.serializer.SAXSerializer;
 import org.exist.util.serializer.SerializerPool;
 import org.exist.util.serializer.XQuerySerializer;
@@ -86,6 +87,7 @@ import org.xml.sax.helpers.XMLFilterImpl;
 
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+import javax.annotation.Nullable;
 import javax.xml.XMLConstants;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.stream.XMLStreamException;
@@ -298,6 +300,7 @@ public class RESTServer {
         boolean wrap = true;
         boolean source = false;
         boolean cache = false;
+        boolean stream = false;
         final Properties outputProperties = new Properties(defaultOutputKeysProperties);
 
         String query = null;
@@ -349,6 +352,9 @@ public class RESTServer {
         if ((option = getParameter(request, Cache)) != null) {
             cache = "yes".equals(option);
         }
+        if ((option = getParameter(request, Stream)) != null) {
+            stream = "yes".equals(option);
+        }
         if ((option = getParameter(request, Indent)) != null) {
             outputProperties.setProperty(OutputKeys.INDENT, option);
         }
@@ -409,7 +415,7 @@ public class RESTServer {
             // query parameter specified, search method does all the rest of the work
             try {
                 search(broker, transaction, query, path, namespaces, variables, howmany, start, typed, outputProperties,
-                        wrap, cache, request, response);
+                        wrap, cache, stream, request, response);
 
             } catch (final XPathException e) {
                 if (MimeType.XML_TYPE.getName().equals(mimeType)) {
@@ -761,6 +767,7 @@ public class RESTServer {
             ElementImpl variables = null;
             boolean enclose = true;
             boolean cache = false;
+            boolean stream = false;
             String query = null;
 
             try {
@@ -826,6 +833,10 @@ public class RESTServer {
                             cache = "yes".equals(option);
                         }
 
+                        if ((option = root.getAttribute(Stream.xmlKey())) != null) {
+                            stream = "yes".equals(option);
+                        }
+
                         if ((option = root.getAttribute(Session.xmlKey())) != null
                                 && option.length() > 0) {
                             outputProperties.setProperty(
@@ -883,7 +894,7 @@ public class RESTServer {
                         try {
                             search(broker, transaction, query, path, nsExtractor.getNamespaces(), variables,
                                     howmany, start, typed, outputProperties,
-                                    enclose, cache, request, response);
+                                    enclose, cache, stream, request, response);
                         } catch (final XPathException e) {
                             if (MimeType.XML_TYPE.getName().equals(mimeType)) {
                                 writeXPathException(response, HttpServletResponse.SC_BAD_REQUEST,
@@ -1310,6 +1321,7 @@ public class RESTServer {
      * @param outputProperties the serialization properties
      * @param wrap true to wrap the result of the XQuery in an exist:result
      * @param cache whether to cache the results
+     * @param stream whether to write the results while the query is evaluated
      * @param request the request
      * @param response the response
      *
@@ -1321,7 +1333,7 @@ public class RESTServer {
         final String path, final List<Namespace> namespaces,
         final ElementImpl variables, final int howmany, final int start,
         final boolean typed, final Properties outputProperties,
-        final boolean wrap, final boolean cache,
+        final boolean wrap, final boolean cache, final boolean stream,
         final HttpServletRequest request,
         final HttpServletResponse response) throws BadRequestException,
         PermissionDeniedException, XPathException {
@@ -1391,6 +1403,12 @@ public class RESTServer {
             }
 
             try {
+                if (stream && !cache) {
+                    streamResults(response, broker, transaction, xquery, compiled, howmany, start, typed,
+                            outputProperties, wrap, compilationTime);
+                    return;
+                }
+
                 final long executeStart = System.currentTimeMillis();
                 final Sequence resultSequence = xquery.execute(broker, compiled, null, outputProperties);
                 final long executionTime = System.currentTimeMillis() - executeStart;
@@ -1832,7 +1850,7 @@ public class RESTServer {
                     outputProperties.setProperty("omit-xml-declaration", "no");
                 }
 
-                final OutputStreamWriter writer = new OutputStreamWriter(response.getOutputStream(), encoding);
+                final Writer writer = UTF8Writer.newWriter(response.getOutputStream(), encoding);
                 sax.setOutput(writer, outputProperties);
                 serializer.setSAXHandlers(sax, sax);
 
@@ -1875,7 +1893,7 @@ public class RESTServer {
 
         response.setContentType(MimeType.HTML_TYPE.getName() + "; charset=" + encoding);
 
-        final OutputStreamWriter writer = new OutputStreamWriter(response.getOutputStream(), encoding);
+        final Writer writer = UTF8Writer.newWriter(response.getOutputStream(), encoding);
         writer.write(QUERY_ERROR_HEAD);
         writer.write("<p class=\"path\"><span class=\"high\">Path</span>: ");
         writer.write("<a href=\"");
@@ -1918,8 +1936,8 @@ public class RESTServer {
 
         response.setContentType(MimeType.XML_TYPE.getName() + "; charset=" + encoding);
 
-        try(final OutputStreamWriter writer =
-                new OutputStreamWriter(response.getOutputStream(), encoding)) {
+        try(final Writer writer =
+                UTF8Writer.newWriter(response.getOutputStream(), encoding)) {
 
             writer.write("<?xml version=\"1.0\" ?>");
             writer.write("<exception><path>");
@@ -1952,8 +1970,8 @@ public class RESTServer {
 
         response.setContentType(MimeType.XML_TYPE.getName() + "; charset=" + encoding);
 
-        final OutputStreamWriter writer =
-                new OutputStreamWriter(response.getOutputStream(), encoding);
+        final Writer writer =
+                UTF8Writer.newWriter(response.getOutputStream(), encoding);
 
         writer.write("<?xml version=\"1.0\" ?>");
         writer.write("<exist:modifications xmlns:exist=\""
@@ -1985,8 +2003,8 @@ public class RESTServer {
 
         setCreatedAndLastModifiedHeaders(response, collection.getCreated(), collection.getCreated());
 
-        final OutputStreamWriter writer =
-                new OutputStreamWriter(response.getOutputStream(), encoding);
+        final Writer writer =
+                UTF8Writer.newWriter(response.getOutputStream(), encoding);
 
         SAXSerializer serializer = null;
 
@@ -2143,6 +2161,171 @@ public class RESTServer {
 
     }
 
+    /**
+     * Execute a query and write each item of its result to the response as soon as the
+     * query returns it, see {@link XQuery#execute(DBBroker, CompiledXQuery, Sequence, Properties, ResultItemConsumer)}.
+     *
+     * Falls back to {@link #writeResults(HttpServletResponse, DBBroker, Txn, Sequence, int, int, boolean, Properties, boolean, long, long)}
+     * if the serialization method has to see the complete result.
+     */
+    private void streamResults(final HttpServletResponse response, final DBBroker broker, final Txn transaction,
+            final XQuery xquery, final CompiledXQuery compiled, final int howmany, final int start,
+            final boolean typed, final Properties outputProperties, final boolean wrap, final long compilationTime)
+            throws BadRequestException, PermissionDeniedException, XPathException {
+        if (start < 1) {
+            throw new BadRequestException("Start parameter out of range");
+        }
+
+        final long executeStart = System.currentTimeMillis();
+        final StreamingResultWriter resultWriter = new StreamingResultWriter(response, broker, howmany, start, typed,
+                outputProperties, wrap, compilationTime);
+        try {
+            xquery.execute(broker, compiled, null, outputProperties, resultWriter);
+        } catch (final XPathException | PermissionDeniedException | RuntimeException e) {
+            resultWriter.abort();
+            throw e;
+        }
+        final long executionTime = System.currentTimeMillis() - executeStart;
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Found {} in {}ms.", resultWriter.position, executionTime);
+        }
+
+        if (resultWriter.collected != null) {
+            writeResults(response, broker, transaction, resultWriter.collected, howmany, start, typed,
+                    outputProperties, wrap, compilationTime, executionTime);
+        } else if (resultWriter.serializer != null) {
+            resultWriter.end();
+        } else if (response.isCommitted()) {
+            // the query has written the response itself
+            return;
+        } else if (resultWriter.position > 0) {
+            throw new BadRequestException("Start parameter out of range");
+        } else {
+            writeResults(response, broker, transaction, Sequence.EMPTY_SEQUENCE, howmany, start, typed,
+                    outputProperties, wrap, compilationTime, executionTime);
+        }
+    }
+
+    /**
+     * Writes the items of a query result to the response as they are passed in,
+     * skipping those before start and stopping the query after howmany items.
+     *
+     * The output is only started when the first item to be written arrives, at which point
+     * the output options declared by the query are known. If these ask for a serialization
+     * method which has to see the complete result, the items are collected instead.
+     */
+    private class StreamingResultWriter implements ResultItemConsumer {
+        private final HttpServletResponse response;
+        private final DBBroker broker;
+        private final int howmany;
+        private final int start;
+        private final boolean typed;
+        private final Properties outputProperties;
+        private final boolean wrap;
+        private final long compilationTime;
+
+        private int position = 0;
+        @Nullable private ValueSequence collected = null;
+        @Nullable private Writer writer = null;
+        @Nullable private XQuerySerializer serializer = null;
+
+        StreamingResultWriter(final HttpServletResponse response, final DBBroker broker, final int howmany,
+                final int start, final boolean typed, final Properties outputProperties, final boolean wrap,
+                final long compilationTime) {
+            this.response = response;
+            this.broker = broker;
+            this.howmany = howmany;
+            this.start = start;
+            this.typed = typed;
+            this.outputProperties = outputProperties;
+            this.wrap = wrap;
+            this.compilationTime = compilationTime;
+        }
+
+        @Override
+        public boolean accept(final Item item) throws XPathException {
+            if (collected != null) {
+                collected.add(item);
+                return true;
+            }
+
+            position++;
+            if (position < start) {
+                return true;
+            }
+
+            try {
+                if (serializer == null) {
+                    // some xquery functions can write directly to the output stream
+                    // (response:stream-binary() etc...)
+                    // so if output is already written then dont overwrite here
+                    if (response.isCommitted()) {
+                        return false;
+                    }
+
+                    final String method = outputProperties.getProperty(SERIALIZATION_METHOD_PROPERTY, "xml");
+                    if ("json".equals(method) || "adaptive".equals(method)) {
+                        collected = new ValueSequence();
+                        collected.add(item);
+                        return true;
+                    }
+                    startOutput();
+                }
+
+                serializer.serializeItem(item);
+            } catch (final IOException | SAXException e) {
+                throw new XPathException((Expression) null, "Error while serializing xml: " + e, e);
+            }
+
+            return howmany <= 0 || position < start + howmany - 1;
+        }
+
+        private void startOutput() throws IOException, SAXException {
+            outputProperties.setProperty(Serializer.GENERATE_DOC_EVENTS, "false");
+
+            final String encoding = getEncoding(outputProperties);
+            if (!response.containsHeader("Content-Type")) {
+                String mimeType = outputProperties.getProperty(OutputKeys.MEDIA_TYPE);
+                if (mimeType != null) {
+                    final int semicolon = mimeType.indexOf(';');
+                    if (semicolon != Constants.STRING_NOT_FOUND) {
+                        mimeType = mimeType.substring(0, semicolon);
+                    }
+                    if (wrap) {
+                        mimeType = "application/xml";
+                    }
+                    response.setContentType(mimeType + "; charset=" + encoding);
+                }
+            }
+            if (wrap) {
+                outputProperties.setProperty("method", "xml");
+            }
+
+            writer = UTF8Writer.newWriter(response.getOutputStream(), encoding);
+            final XQuerySerializer xqSerializer = new XQuerySerializer(broker, outputProperties, writer);
+            xqSerializer.startSequence(start, wrap, typed, compilationTime);
+            serializer = xqSerializer;
+        }
+
+        void end() throws BadRequestException {
+            try {
+                serializer.endSequence();
+                writer.flush();
+                writer.close();
+            } catch (final IOException | SAXException e) {
+                LOG.warn(e.getMessage(), e);
+                throw new BadRequestException("Error while serializing xml: " + e, e);
+            }
+        }
+
+        void abort() {
+            if (serializer != null) {
+                serializer.abortSequence();
+            }
+        }
+    }
+
     private static String getEncoding(final Properties outputProperties) {
         return outputProperties.getProperty(OutputKeys.ENCODING, DEFAULT_ENCODING);
     }
@@ -2174,7 +2357,7 @@ public class RESTServer {
             if (wrap) {
                 outputProperties.setProperty("method", "xml");
             }
-            final Writer writer = new OutputStreamWriter(response.getOutputStream(), encoding);
+            final Writer writer = UTF8Writer.newWriter(response.getOutputStream(), encoding);
             final XQuerySerializer serializer = new XQuerySerializer(broker, outputProperties, writer);
 
             //Marshaller.marshall(broker, results, start, howmany, serializer.getContentHandler());
@@ -2217,7 +2400,7 @@ public class RESTServer {
         outputProperties.setProperty(Serializer.GENERATE_DOC_EVENTS, "false");
         try {
             serializer.setProperties(outputProperties);
-            try (Writer writer = new OutputStreamWriter(response.getOutputStream(), getEncoding(outputProperties))) {
+            try (Writer writer = UTF8Writer.newWriter(response.getOutputStream(), getEncoding(outputProperties))) {
                 final JSONObject root = new JSONObject();
                 root.addObject(new JSONSimpleProperty("start", Integer.toString(start), true));
                 root.addObject(new JSONSimpleProperty("count", Integer.toString(howmany), true));
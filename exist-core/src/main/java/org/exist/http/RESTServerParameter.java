@@ -224,6 +224,24 @@ enum RESTServerParameter {
      */
     Cache,
 
+    /**
+     * Can be used in either the Query String of a GET request
+     * or in the body of a POST request when supplying an XPath or XQuery,
+     * it causes the results of the query to be written to the response
+     * while the query is still being evaluated, where the query allows it.
+     * 
+     * The exist:result wrapper element of a streamed result has no
+     * hits or count attributes, as these are not known until the query
+     * has finished. Errors raised after the first item has been written
+     * can no longer change the status of the response. Ignored if the
+     * Cache parameter is set.
+     * 
+     * Contexts: GET, POST
+     * 
+     * The value of the parameter should be either "yes" or "no".
+     */
+    Stream,
+
     /**
      * Can be used in the Query String of a GET request
      * to indicate that an XML result should be indented.
@@ -43,6 +43,9 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import org.exist.security.PermissionDeniedException;
 
 /**
@@ -190,10 +193,67 @@ public class IndexController {
 
     /**
      * Flushes all index workers.
+     *
+     * If the database has index-writer threads, see {@link IndexManager#getFlushExecutor()},
+     * the workers which support it are flushed by those threads, while the remaining workers
+     * are flushed by the calling thread. This method returns only once all workers
+     * have been flushed, and the locks held by the caller are kept until then.
      */
     public void flush() {
-        indexWorkers.values().forEach(IndexWorker::flush);
-    }  
+        final ExecutorService flushExecutor = indexWorkers.size() > 1
+                ? broker.getBrokerPool().getIndexManager().getFlushExecutor().orElse(null)
+                : null;
+        if (flushExecutor == null) {
+            indexWorkers.values().forEach(IndexWorker::flush);
+            return;
+        }
+
+        final List<Future<?>> flushes = new ArrayList<>(indexWorkers.size());
+        Throwable failure = null;
+        try {
+            for (final IndexWorker indexWorker : indexWorkers.values()) {
+                if (indexWorker.isConcurrentFlushSafe()) {
+                    flushes.add(flushExecutor.submit(indexWorker::flush));
+                } else {
+                    indexWorker.flush();
+                }
+            }
+        } catch (final RuntimeException | Error e) {
+            failure = e;
+        }
+
+        // the workers belong to this broker, so we must always wait for them. The caller's
+        // document lock is deliberately kept meanwhile: the sequential flush held it for at
+        // least as long, releasing it would let readers see the document without its index
+        // entries, and a concurrent writer of the same document could remove or reindex
+        // its entries while they are still being written here
+        boolean interrupted = false;
+        for (final Future<?> flush : flushes) {
+            while (true) {
+                try {
+                    flush.get();
+                    break;
+                } catch (final InterruptedException e) {
+                    interrupted = true;
+                } catch (final ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure instanceof Error error) {
+            throw error;
+        } else if (failure instanceof RuntimeException runtimeException) {
+            throw runtimeException;
+        } else if (failure != null) {
+            throw new IllegalStateException(failure.getMessage(), failure);
+        }
+    }
 
     /**
      * Remove all indexes defined on the specified collection.
@@ -32,12 +32,17 @@ import org.exist.storage.DBBroker;
 import org.exist.storage.btree.DBException;
 import org.exist.util.Configuration;
 import org.exist.util.DatabaseConfigurationException;
+import org.exist.util.NamedThreadFactory;
 import org.w3c.dom.Element;
 
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
@@ -56,12 +61,24 @@ public class IndexManager implements BrokerPoolService {
 
     public final static String PROPERTY_INDEXER_MODULES = "indexer.modules";
 
+    public static final String FLUSH_THREADS_ATTRIBUTE = "flush-threads";
+    public static final String PROPERTY_FLUSH_THREADS = "indexer.flush-threads";
+    public static final int DEFAULT_FLUSH_THREADS = 1;
+
+    /**
+     * Number of flush tasks which may be queued per index-writer thread
+     * before a storing thread has to flush its index workers itself.
+     */
+    private static final int FLUSH_QUEUE_SIZE_PER_THREAD = 4;
+
     private final BrokerPool pool;
 
     private final Map<String, Index> indexers = new ConcurrentHashMap<>();
 
     private Configuration.IndexModuleConfig modConfigs[];
     private Path dataDir;
+    private int flushThreads = DEFAULT_FLUSH_THREADS;
+    private volatile ExecutorService flushExecutor = null;
 
     private AtomicLong configurationTimestamp = new AtomicLong(System.currentTimeMillis());
 
@@ -99,6 +116,7 @@ public class IndexManager implements BrokerPoolService {
         this.modConfigs = (Configuration.IndexModuleConfig[])
                 configuration.getProperty(PROPERTY_INDEXER_MODULES);
         this.dataDir = (Path) configuration.getProperty(BrokerPool.PROPERTY_DATA_DIR);
+        this.flushThreads = configuration.getInteger(PROPERTY_FLUSH_THREADS, DEFAULT_FLUSH_THREADS);
         configurationChanged();
     }
 
@@ -134,6 +152,14 @@ public class IndexManager implements BrokerPoolService {
         } finally {
             configurationChanged();
         }
+
+        if (flushThreads > 1) {
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(flushThreads, flushThreads,
+                    60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(flushThreads * FLUSH_QUEUE_SIZE_PER_THREAD),
+                    new NamedThreadFactory(pool, "index-flush"), new ThreadPoolExecutor.CallerRunsPolicy());
+            executor.allowCoreThreadTimeOut(true);
+            this.flushExecutor = executor;
+        }
     }
 
     private AbstractIndex initIndex(final BrokerPool pool, final String id, final Element config, final Path dataDir, final String className) throws DatabaseConfigurationException {
@@ -245,6 +271,16 @@ public class IndexManager implements BrokerPoolService {
      */
     @Override
     public void stopSystem(final DBBroker systemBroker) throws BrokerPoolServiceException {
+        if (flushExecutor != null) {
+            flushExecutor.shutdown();
+            try {
+                flushExecutor.awaitTermination(60, TimeUnit.SECONDS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            flushExecutor = null;
+        }
+
         for (final Iterator<Index> i = iterator(); i.hasNext(); ) {
             final Index index = i.next();
             try {
@@ -255,6 +291,20 @@ public class IndexManager implements BrokerPoolService {
         }
     }
 
+    /**
+     * Get the executor of the index-writer threads, to which the
+     * {@link IndexController} of a broker hands the flush of those
+     * index workers which support it, see {@link IndexWorker#isConcurrentFlushSafe()}.
+     *
+     * Its work queue is bounded; when it is full the storing thread flushes
+     * the index worker itself.
+     *
+     * @return the executor, or empty if {@link #PROPERTY_FLUSH_THREADS} is 1 or less.
+     */
+    public Optional<ExecutorService> getFlushExecutor() {
+        return Optional.ofNullable(flushExecutor);
+    }
+
     /**
      * Call indexes to flush all data to disk.
      *
@@ -174,6 +174,21 @@ public interface IndexWorker {
      */
     void flush();
 
+    /**
+     * Returns true if the next call to {@link #flush()} may be made by an index-writer
+     * thread rather than by the thread which owns the broker of this worker. The storing
+     * thread waits for the flush to complete before it continues, and keeps its write lock
+     * on the document and possibly collection locks meanwhile, so this should only return true when the
+     * flush works solely on the data buffered by this worker and the worker's own index
+     * files, e.g. without evaluating queries or accessing the DOM through the broker.
+     *
+     * @return true if the flush may run concurrently with the flush of other index workers,
+     *     false by default.
+     */
+    default boolean isConcurrentFlushSafe() {
+        return false;
+    }
+
     /**
      * Remove all indexes for the given collection, its subcollections and
      * all resources..
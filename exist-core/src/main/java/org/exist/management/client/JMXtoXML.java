@@ -99,6 +99,9 @@ public class JMXtoXML {
         putCategory("locking", LockTable.getAllInstancesQuery());
         putCategory("disk", DiskUsage.getAllInstancesQuery());
         putCategory("collectioncaches", CollectionCache.getAllInstancesQuery());
+        putCategory("journal", Journal.getAllInstancesQuery());
+        putCategory("querypool", QueryPool.getAllInstancesQuery());
+        putCategory("reindex", Reindex.getAllInstancesQuery());
         putCategory("caches",
                 CacheManager.getAllInstancesQuery(),
                 Cache.getAllInstancesQuery()
@@ -0,0 +1,66 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.exist.management.impl;
+
+import org.exist.storage.XQueryPool;
+
+import java.util.List;
+
+/**
+ * JMX MXBean interface for examining the pool of compiled XQueries
+ */
+public interface QueryPoolMXBean extends PerInstanceMBean {
+
+    /**
+     * Get the number of sources of queries the pool is sized for
+     *
+     * @return the size of the pool
+     */
+    int getMaxPoolSize();
+
+    /**
+     * Get the maximum number of compiled copies of a query kept in the pool
+     *
+     * @return the maximum number of copies per query
+     */
+    int getMaxStackSize();
+
+    /**
+     * Get the number of queries compiled into the pool when the database was started
+     *
+     * @return the number of warmed up queries
+     */
+    long getWarmedUp();
+
+    /**
+     * Get a statistics snapshot of each query in the pool
+     *
+     * @return Statistics for each query in the pool
+     */
+    List<XQueryPool.Statistics> getStatistics();
+
+    /**
+     * Remove all queries from the pool
+     */
+    void clear();
+}
@@ -0,0 +1,91 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.exist.management.impl;
+
+import org.exist.storage.BrokerPool;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.util.List;
+
+public class Reindex implements ReindexMXBean {
+
+    private final BrokerPool instance;
+
+    public Reindex(final BrokerPool instance) {
+        this.instance = instance;
+    }
+
+    public static String getAllInstancesQuery() {
+        return getName("*");
+    }
+
+    private static String getName(final String instanceId) {
+        return "org.exist.management." + instanceId + ":type=Reindex";
+    }
+
+    @Override
+    public ObjectName getName() throws MalformedObjectNameException {
+        return new ObjectName(getName(instance.getId()));
+    }
+
+    @Override
+    public String getInstanceId() {
+        return instance.getId();
+    }
+
+    @Override
+    public List<String> getRunning() {
+        return instance.getReindexMonitor().getRunning();
+    }
+
+    @Override
+    public long getDocumentsSubmitted() {
+        return instance.getReindexMonitor().getDocumentsSubmitted();
+    }
+
+    @Override
+    public long getDocumentsReindexed() {
+        return instance.getReindexMonitor().getDocumentsReindexed();
+    }
+
+    @Override
+    public long getDocumentsFailed() {
+        return instance.getReindexMonitor().getDocumentsFailed();
+    }
+
+    @Override
+    public long getCompleted() {
+        return instance.getReindexMonitor().getCompleted();
+    }
+
+    @Override
+    public long getCompletedDocumentsReindexed() {
+        return instance.getReindexMonitor().getCompletedDocumentsReindexed();
+    }
+
+    @Override
+    public long getCompletedDocumentsFailed() {
+        return instance.getReindexMonitor().getCompletedDocumentsFailed();
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.exist.management.impl;
+
+import java.util.List;
+
+public interface ReindexMXBean extends PerInstanceMBean {
+
+    /**
+     * Get the collection and progress of each running parallel reindex
+     *
+     * @return a description of each running reindex
+     */
+    List<String> getRunning();
+
+    /**
+     * Get the number of documents submitted to the running parallel reindexes
+     *
+     * @return the number of documents submitted
+     */
+    long getDocumentsSubmitted();
+
+    /**
+     * Get the number of documents the running parallel reindexes have reindexed so far
+     *
+     * @return the number of documents reindexed
+     */
+    long getDocumentsReindexed();
+
+    /**
+     * Get the number of documents the running parallel reindexes failed to reindex
+     *
+     * @return the number of documents which could not be reindexed
+     */
+    long getDocumentsFailed();
+
+    /**
+     * Get the number of parallel reindexes completed since the database was started
+     *
+     * @return the number of completed reindexes
+     */
+    long getCompleted();
+
+    /**
+     * Get the number of documents reindexed by the completed parallel reindexes
+     *
+     * @return the number of documents reindexed
+     */
+    long getCompletedDocumentsReindexed();
+
+    /**
+     * Get the number of documents the completed parallel reindexes failed to reindex
+     *
+     * @return the number of documents which could not be reindexed
+     */
+    long getCompletedDocumentsFailed();
+}
@@ -33,6 +33,7 @@ import org.exist.collections.Collection;
 import org.exist.collections.CollectionCache;
 import org.exist.collections.CollectionConfiguration;
 import org.exist.collections.CollectionConfigurationManager;
+import org.exist.collections.DocumentSetCache;
 import org.exist.collections.triggers.*;
 import org.exist.config.ConfigurationDocumentTrigger;
 import org.exist.config.Configurator;
@@ -57,10 +58,12 @@ import org.exist.storage.blob.BlobStore;
 import org.exist.storage.blob.BlobStoreImplService;
 import org.exist.storage.blob.BlobStoreService;
 import org.exist.storage.journal.JournalManager;
+import org.exist.storage.journal.Lsn;
 import org.exist.storage.lock.FileLockService;
 import org.exist.storage.lock.LockManager;
 import org.exist.storage.recovery.RecoveryManager;
 import org.exist.storage.sync.Sync;
+import org.exist.storage.sync.BackgroundWriterJob;
 import org.exist.storage.sync.SyncTask;
 import org.exist.storage.txn.TransactionException;
 import org.exist.storage.txn.TransactionManager;
@@ -84,7 +87,7 @@ import java.text.NumberFormat;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -230,14 +233,15 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
      */
     private final Configuration conf;
 
-    private final ConcurrentSkipListSet<Observer> statusObservers = new ConcurrentSkipListSet<>();
+    // observers are not Comparable, so they cannot be kept in a sorted set
+    private final Set<Observer> statusObservers = new CopyOnWriteArraySet<>();
 
     /**
      * <code>true</code> if a cache synchronization event is scheduled
      */
     //TODO : rename as syncScheduled ?
     //TODO : alternatively, delete this member and create a Sync.NOSYNC event
-    private boolean syncRequired = false;
+    private volatile boolean syncRequired = false;
 
     /**
      * The kind of scheduled cache synchronization event.
@@ -245,7 +249,13 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
      */
     private Sync syncEvent = Sync.MINOR;
 
-    private boolean checkpoint = false;
+    private volatile boolean checkpoint = false;
+
+    /**
+     * Serializes the cache synchronizations, which may be executed by the
+     * background writer whilst other brokers are active.
+     */
+    private final Lock syncLock = new ReentrantLock();
 
     /**
      * Indicates whether the database is operating in read-only mode
@@ -299,7 +309,13 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
      */
     @ConfigurationFieldAsAttribute("sync-period")
     private final long majorSyncPeriod;        //the period after which a major sync should occur
-    private long lastMajorSync = System.currentTimeMillis();    //time the last major sync occurred
+    private volatile long lastMajorSync = System.currentTimeMillis();    //time the last major sync occurred
+
+    /**
+     * The period after which the background writer flushes dirty pages, 0 if it is disabled.
+     */
+    @ConfigurationFieldAsAttribute("background-writer-period")
+    private final long backgroundWriterPeriod;
 
     private final long diskSpaceMin;
 
@@ -337,6 +353,11 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
      */
     private ProcessMonitor processMonitor;
 
+    /**
+     * The monitor which keeps track of the running parallel reindexes.
+     */
+    private final ReindexMonitor reindexMonitor = new ReindexMonitor();
+
     /**
      * Global performance stats to gather function execution statistics
      * from all queries running on this database instance.
@@ -354,6 +375,11 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
     //TODO : rename as collectionsCache ?
     private CollectionCache collectionCache;
 
+    /**
+     * The cache in which the document sets of fn:collection are stored.
+     */
+    private DocumentSetCache documentSetCache;
+
     /**
      * The pool in which the database instance's readers are stored.
      */
@@ -411,6 +437,8 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
         this.majorSyncPeriod = conf.getProperty(PROPERTY_SYNC_PERIOD, DEFAULT_SYNCH_PERIOD);
         LOG.info("database instance '{}' will be synchronized every {} ms", instanceName, nf.format(/*this.*/majorSyncPeriod));
 
+        this.backgroundWriterPeriod = conf.getProperty(PROPERTY_BACKGROUND_WRITER_PERIOD, DEFAULT_BACKGROUND_WRITER_PERIOD);
+
         // convert from bytes to megabytes: 1024 * 1024
         this.diskSpaceMin = 1024L * 1024L * conf.getProperty(BrokerPool.DISK_SPACE_MIN_PROPERTY, DEFAULT_DISK_SPACE_MIN);
 
@@ -482,6 +510,7 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
                 .filter(size -> size != -1)
                 .orElse(DEFAULT_COLLECTION_BUFFER_SIZE);
         this.collectionCache = servicesManager.register(new CollectionCache());
+        this.documentSetCache = servicesManager.register(new DocumentSetCache());
         this.notificationService = servicesManager.register(new NotificationService());
 
         this.journalManager = recoveryEnabled ? Optional.of(new JournalManager()) : Optional.empty();
@@ -538,6 +567,9 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
             syncTask.configure(conf, null);
             scheduler.createPeriodicJob(2500, new SystemTaskJobImpl(SyncTask.getJobName(), syncTask), 2500);
         }
+        if(backgroundWriterPeriod > 0) {
+            scheduler.createPeriodicJob(backgroundWriterPeriod, new BackgroundWriterJob(), backgroundWriterPeriod);
+        }
 
         try {
             statusReporter = new StatusReporter(SIGNAL_STARTUP);
@@ -1014,6 +1046,15 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
         return collectionCache;
     }
 
+    /**
+     * Returns a cache in which the document sets selected by fn:collection are stored.
+     *
+     * @return The cache
+     */
+    public DocumentSetCache getDocumentSetCache() {
+        return documentSetCache;
+    }
+
     /**
      * Returns a cache in which the database instance's may store items.
      *
@@ -1062,6 +1103,15 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
         return processMonitor;
     }
 
+    /**
+     * Returns a monitor which keeps track of the progress of the parallel reindexes.
+     *
+     * @return The monitor
+     */
+    public ReindexMonitor getReindexMonitor() {
+        return reindexMonitor;
+    }
+
     /**
      * Returns the global profiler used to gather execution statistics
      * from all XQueries running on this db instance.
@@ -1253,36 +1303,88 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
                         }
                     }
             }
-            broker = inactiveBrokers.pop();
-            broker.prepare();
-
-            //activate the broker
-            activeBrokers.put(Thread.currentThread(), broker);
+            return activateInactiveBroker(subject);
+        }
+    }
 
-            if(LOG.isTraceEnabled()) {
-                LOG.trace("+++ {}{}", Thread.currentThread(), Stacktrace.top(Thread.currentThread().getStackTrace(), Stacktrace.DEFAULT_STACK_TOP));
-            }
+    /**
+     * Returns an active broker for the database instance, but only if one is available without waiting.
+     *
+     * Unlike {@link #get(Optional)} this never waits for another thread to release a broker,
+     * so it can be used by threads which help a thread that already holds a broker, without the
+     * risk of a deadlock when all brokers are in use.
+     *
+     * @param subject Optionally a subject to set on the broker, if a user is not provided then the
+     *                current user assigned to the broker will be re-used
+     * @return The broker, or {@link Optional#empty()} if no broker is available at the moment
+     * @throws EXistException If the instance is not available (stopped or not configured)
+     */
+    public Optional<DBBroker> tryGet(final Optional<Subject> subject) throws EXistException {
+        Objects.requireNonNull(subject, "Subject cannot be null, use BrokerPool#getBroker() instead");
 
-            if(watchdog.isPresent()) {
-                watchdog.get().add(broker);
-            }
+        if(!isInstanceConfigured()) {
+            throw new EXistException("database instance '" + instanceName + "' is not available");
+        }
 
-            broker.incReferenceCount();
+        if(activeBrokers.containsKey(Thread.currentThread())) {
+            // nested use of the broker of this thread, this never waits
+            return Optional.of(get(subject));
+        }
 
-            broker.pushSubject(subject.orElseGet(securityManager::getGuestSubject));
+        if(serviceModeUser != null && subject.isPresent() && !subject.equals(Optional.ofNullable(serviceModeUser))) {
+            return Optional.empty();
+        }
 
-            if(LOG.isTraceEnabled()) {
-                if(!brokerLeaseChangeTrace.containsKey(broker.getId())) {
-                    brokerLeaseChangeTrace.put(broker.getId(), new TraceableStateChanges<>());
+        synchronized(this) {
+            if(inactiveBrokers.isEmpty()) {
+                if(brokersCount < maxBrokers) {
+                    createBroker();
+                } else {
+                    return Optional.empty();
                 }
-                brokerLeaseChangeTrace.get(broker.getId()).add(TraceableBrokerLeaseChange.get(new TraceableBrokerLeaseChange.BrokerInfo(broker.getId(), broker.getReferenceCount())));
             }
+            return Optional.of(activateInactiveBroker(subject));
+        }
+    }
 
-            //Inform the other threads that we have a new-comer
-            // TODO: do they really need to be informed here???????
-            this.notifyAll();
-            return broker;
+    /**
+     * Takes an inactive broker and makes it the active broker of the current thread.
+     *
+     * Must be called whilst synchronized on this, and only if there is an inactive broker.
+     *
+     * @param subject Optionally a subject to set on the broker
+     * @return The broker
+     */
+    private DBBroker activateInactiveBroker(final Optional<Subject> subject) throws EXistException {
+        final DBBroker broker = inactiveBrokers.pop();
+        broker.prepare();
+
+        //activate the broker
+        activeBrokers.put(Thread.currentThread(), broker);
+
+        if(LOG.isTraceEnabled()) {
+            LOG.trace("+++ {}{}", Thread.currentThread(), Stacktrace.top(Thread.currentThread().getStackTrace(), Stacktrace.DEFAULT_STACK_TOP));
+        }
+
+        if(watchdog.isPresent()) {
+            watchdog.get().add(broker);
+        }
+
+        broker.incReferenceCount();
+
+        broker.pushSubject(subject.orElseGet(securityManager::getGuestSubject));
+
+        if(LOG.isTraceEnabled()) {
+            if(!brokerLeaseChangeTrace.containsKey(broker.getId())) {
+                brokerLeaseChangeTrace.put(broker.getId(), new TraceableStateChanges<>());
+            }
+            brokerLeaseChangeTrace.get(broker.getId()).add(TraceableBrokerLeaseChange.get(new TraceableBrokerLeaseChange.BrokerInfo(broker.getId(), broker.getReferenceCount())));
         }
+
+        //Inform the other threads that we have a new-comer
+        // TODO: do they really need to be informed here???????
+        this.notifyAll();
+        return broker;
     }
 
     /**
@@ -1444,6 +1546,16 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
         return lastMajorSync;
     }
 
+    /**
+     * Returns true if a checkpoint has been requested, e.g. because the journal
+     * has reached its size limit, which has not been written yet.
+     *
+     * @return true if a checkpoint is pending
+     */
+    public boolean isCheckpointRequested() {
+        return checkpoint;
+    }
+
     /**
      * Executes a waiting cache synchronization for the database instance.
      *
@@ -1453,6 +1565,15 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
      * @param syncEvent One of {@link org.exist.storage.sync.Sync}
      */
     public void sync(final DBBroker broker, final Sync syncEvent) {
+        syncLock.lock();
+        try {
+            doSync(broker, syncEvent);
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    private void doSync(final DBBroker broker, final Sync syncEvent) {
 
         /**
          * Database Systems - The Complete Book (Second edition)
@@ -1476,7 +1597,12 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
                 LOG.debug("Major sync");
                 try {
                     if (!FORCE_CORRUPTION) {
-                        transactionManager.checkpoint(checkpoint);
+                        final boolean switchFiles = checkpoint;
+                        transactionManager.checkpoint(switchFiles);
+                        if (switchFiles) {
+                            this.syncRequired = false;
+                            this.checkpoint = false;
+                        }
                     }
                 } catch (final TransactionException e) {
                     LOG.warn(e.getMessage(), e);
@@ -1497,6 +1623,77 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
         }
     }
 
+    /**
+     * Writes dirty pages to disk whilst other brokers may be active, i.e. without waiting
+     * for the database instance to become idle. This is called periodically by the
+     * {@link BackgroundWriterJob}.
+     *
+     * If no major sync has happened within the sync period, or the journal has requested
+     * a checkpoint as it reached its size limit, all dirty pages are written and a fuzzy
+     * checkpoint is created, see {@link #checkpointFuzzy(DBBroker)}. Otherwise
+     * only the dirty pages of the DOM file are written.
+     *
+     * @param broker A broker responsible for executing the job
+     */
+    public void writeDirtyPages(final DBBroker broker) {
+        if (checkpoint || System.currentTimeMillis() - lastMajorSync > majorSyncPeriod) {
+            checkpointFuzzy(broker);
+            return;
+        }
+
+        syncLock.lock();
+        try {
+            // the journal must be on disk before the pages, see sync(DBBroker, Sync)
+            journalManager.ifPresent(manager -> manager.flush(true, true));
+            broker.sync(Sync.MINOR);
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    /**
+     * Writes all dirty pages to disk and creates a fuzzy checkpoint, whilst transactions
+     * may be running. Unlike a major {@link #sync(DBBroker, Sync)}, which is executed when
+     * the database instance is idle, this neither waits for the active brokers to be
+     * released, nor for the running transactions to complete.
+     *
+     * The minimum recovery LSN is obtained from the journal before the dirty pages are
+     * written: the changes which were logged before it are then on disk, so a recovery
+     * run only has to replay the journal from the recovery LSN onwards. The journal files
+     * before the one containing the recovery LSN are removed.
+     *
+     * @param broker A broker responsible for executing the job
+     */
+    public void checkpointFuzzy(final DBBroker broker) {
+        syncLock.lock();
+        try {
+            final Optional<Lsn> recoveryLsn = journalManager.map(JournalManager::getRecoveryLsn);
+
+            journalManager.ifPresent(manager -> manager.flush(true, true));
+            broker.sync(Sync.MAJOR);
+
+            if (recoveryLsn.isPresent() && !FORCE_CORRUPTION) {
+                try {
+                    // the journal switches files if it is large enough, and removes the files before the recovery LSN
+                    transactionManager.checkpoint(recoveryLsn.get(), true);
+                    synchronized (this) {
+                        if (checkpoint) {
+                            // the checkpoint requested by the journal has been written
+                            this.syncRequired = false;
+                            this.checkpoint = false;
+                        }
+                    }
+                } catch (final TransactionException e) {
+                    LOG.warn(e.getMessage(), e);
+                }
+            }
+
+            lastMajorSync = System.currentTimeMillis();
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
     /**
      * Schedules a system maintenance task for the database instance. If the database is idle,
      * the task will be run immediately. Otherwise, the task will be deferred
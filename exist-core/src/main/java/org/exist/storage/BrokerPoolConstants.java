@@ -60,6 +60,7 @@ public interface BrokerPoolConstants {
     String MIN_CONNECTIONS_ATTRIBUTE = "min";
     String MAX_CONNECTIONS_ATTRIBUTE = "max";
     String SYNC_PERIOD_ATTRIBUTE = "sync-period";
+    String BACKGROUND_WRITER_PERIOD_ATTRIBUTE = "background-writer-period";
     String SHUTDOWN_DELAY_ATTRIBUTE = "wait-before-shutdown";
     String NODES_BUFFER_ATTRIBUTE = "nodesBuffer";
 
@@ -69,6 +70,7 @@ public interface BrokerPoolConstants {
     String PROPERTY_MIN_CONNECTIONS = "db-connection.pool.min";
     String PROPERTY_MAX_CONNECTIONS = "db-connection.pool.max";
     String PROPERTY_SYNC_PERIOD = "db-connection.pool.sync-period";
+    String PROPERTY_BACKGROUND_WRITER_PERIOD = "db-connection.pool.background-writer-period";
     String PROPERTY_SHUTDOWN_DELAY = "wait-before-shutdown";
     String DISK_SPACE_MIN_PROPERTY = "db-connection.diskSpaceMin";
 
@@ -93,6 +95,7 @@ public interface BrokerPoolConstants {
      * Default values
      */
     long DEFAULT_SYNCH_PERIOD = 120000;
+    long DEFAULT_BACKGROUND_WRITER_PERIOD = 10000;
     long DEFAULT_MAX_SHUTDOWN_WAIT = 45000;
     //TODO : move this default setting to org.exist.collections.CollectionCache ?
     int DEFAULT_COLLECTION_BUFFER_SIZE = 64;
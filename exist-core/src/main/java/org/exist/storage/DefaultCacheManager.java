@@ -26,7 +26,13 @@ import org.apache.logging.log4j.Logger;
 
 import org.exist.management.Agent;
 import org.exist.management.AgentFactory;
+import org.exist.storage.cache.BTreeCache;
+import org.exist.storage.cache.BTreeCacheable;
 import org.exist.storage.cache.Cache;
+import org.exist.storage.cache.Cacheable;
+import org.exist.storage.cache.ConcurrentBTreeCache;
+import org.exist.storage.cache.ConcurrentClockCache;
+import org.exist.storage.cache.LRUCache;
 import org.exist.util.Configuration;
 import org.exist.util.DatabaseConfigurationException;
 
@@ -77,6 +83,14 @@ public class DefaultCacheManager implements CacheManager, BrokerPoolService
     public static final String  SHRINK_THRESHOLD_ATTRIBUTE     		 	= "cacheShrinkThreshold";
     public static final String  SHRINK_THRESHOLD_PROPERTY      			= "db-connection.cache-shrink-threshold";
 
+    /** Page caches with a Least Recently Used policy, see {@link LRUCache} and {@link BTreeCache}. */
+    public static final String  CACHE_TYPE_LRU                  			= "LRU";
+    /** Sharded, thread-safe page caches with a CLOCK policy, see {@link ConcurrentClockCache} and {@link ConcurrentBTreeCache}. */
+    public static final String  CACHE_TYPE_CLOCK                			= "CLOCK";
+    public static final String  DEFAULT_CACHE_TYPE              			= CACHE_TYPE_LRU;
+    public static final String  CACHE_TYPE_ATTRIBUTE            			= "cacheType";
+    public static final String  PROPERTY_CACHE_TYPE             			= "db-connection.cache-type";
+
     /** Caches maintained by this class. */
     private List<Cache>         caches                          = new ArrayList<>();
 
@@ -108,6 +122,9 @@ public class DefaultCacheManager implements CacheManager, BrokerPoolService
 
     private String              instanceName;
 
+    /** The type of the page caches created by this manager, either {@link #CACHE_TYPE_LRU} or {@link #CACHE_TYPE_CLOCK}. */
+    private final String        cacheType;
+
     public DefaultCacheManager( BrokerPool pool )
     {
         this.instanceName = pool.getId();
@@ -126,6 +143,18 @@ public class DefaultCacheManager implements CacheManager, BrokerPoolService
 
         shrinkThreshold = configuration.getInteger( SHRINK_THRESHOLD_PROPERTY );
 
+        final String configuredCacheType = (String)configuration.getProperty( PROPERTY_CACHE_TYPE );
+        if( configuredCacheType == null ) {
+            cacheType = DEFAULT_CACHE_TYPE;
+        } else if( CACHE_TYPE_CLOCK.equalsIgnoreCase( configuredCacheType ) ) {
+            cacheType = CACHE_TYPE_CLOCK;
+        } else {
+            if( !CACHE_TYPE_LRU.equalsIgnoreCase( configuredCacheType ) ) {
+                LOG.warn("Unknown cacheType=\"{}\" in conf.xml, using: {}", configuredCacheType, DEFAULT_CACHE_TYPE);
+            }
+            cacheType = DEFAULT_CACHE_TYPE;
+        }
+
         totalMem        = cacheSize * 1024L * 1024L;
 
         final Boolean checkMaxCache = (Boolean)configuration.getProperty( PROPERTY_CACHE_CHECK_MAX_SIZE );
@@ -149,11 +178,51 @@ public class DefaultCacheManager implements CacheManager, BrokerPoolService
         this.maxCacheSize   = (int)( totalPageCount * MAX_MEM_USE );
         final NumberFormat nf     = NumberFormat.getNumberInstance();
 
-        LOG.info("Cache settings: {}k; totalPages: {}; maxCacheSize: {}; cacheShrinkThreshold: {}", nf.format(totalMem / 1024L), nf.format(totalPageCount), nf.format(maxCacheSize), nf.format(shrinkThreshold));
+        LOG.info("Cache settings: {}k; totalPages: {}; maxCacheSize: {}; cacheShrinkThreshold: {}; cacheType: {}", nf.format(totalMem / 1024L), nf.format(totalPageCount), nf.format(maxCacheSize), nf.format(shrinkThreshold), cacheType);
 
         registerMBean();
     }
 
+    /**
+     * Create a new cache for btree pages of the configured cache type.
+     * The cache still needs to be registered via {@link #registerCache(Cache)}.
+     *
+     * @param <T> the type of the btree pages
+     * @param name the name of the cache
+     * @param size the initial size of the cache
+     * @param growthFactor the factor by which the cache may grow
+     * @param growthThreshold the thrashing threshold at which the cache requests to grow
+     *
+     * @return the new cache
+     */
+    public <T extends BTreeCacheable> Cache<T> newBTreeCache( final String name, final int size, final double growthFactor, final double growthThreshold )
+    {
+        if( CACHE_TYPE_CLOCK.equals( cacheType ) ) {
+            return( new ConcurrentBTreeCache<>( name, size, growthFactor, growthThreshold, Cache.CacheType.BTREE ) );
+        }
+        return( new BTreeCache<>( name, size, growthFactor, growthThreshold, Cache.CacheType.BTREE ) );
+    }
+
+    /**
+     * Create a new cache for data pages of the configured cache type.
+     * The cache still needs to be registered via {@link #registerCache(Cache)}.
+     *
+     * @param <T> the type of the data pages
+     * @param name the name of the cache
+     * @param size the initial size of the cache
+     * @param growthFactor the factor by which the cache may grow
+     * @param growthThreshold the thrashing threshold at which the cache requests to grow
+     *
+     * @return the new cache
+     */
+    public <T extends Cacheable> Cache<T> newDataCache( final String name, final int size, final double growthFactor, final double growthThreshold )
+    {
+        if( CACHE_TYPE_CLOCK.equals( cacheType ) ) {
+            return( new ConcurrentClockCache<>( name, size, growthFactor, growthThreshold, Cache.CacheType.DATA ) );
+        }
+        return( new LRUCache<>( name, size, growthFactor, growthThreshold, Cache.CacheType.DATA ) );
+    }
+
     @Override
     public void registerCache( Cache cache )
     {
@@ -133,6 +133,10 @@ public class NativeBroker implements DBBroker {
     public static final String INDEX_DEPTH_ATTRIBUTE = "index-depth";
 
     public static final String PROPERTY_INDEX_DEPTH = "indexer.index-depth";
+    public static final String REINDEX_THREADS_ATTRIBUTE = "reindex-threads";
+    public static final String PROPERTY_REINDEX_THREADS = "indexer.reindex-threads";
+    public static final String REINDEX_PER_DOCUMENT_COMMIT_ATTRIBUTE = "reindex-per-document-commit";
+    public static final String PROPERTY_REINDEX_PER_DOCUMENT_COMMIT = "indexer.reindex-per-document-commit";
     private static final byte[] ALL_STORAGE_FILES = {
         COLLECTIONS_DBX_ID, VALUES_DBX_ID, DOM_DBX_ID
     };
@@ -142,6 +146,8 @@ public class NativeBroker implements DBBroker {
 
     public static final String DEFAULT_DATA_DIR = "data";
     public static final int DEFAULT_INDEX_DEPTH = 1;
+    public static final int DEFAULT_REINDEX_THREADS = 1;
+    public static final boolean DEFAULT_REINDEX_PER_DOCUMENT_COMMIT = false;
 
     /** check available memory after storing DEFAULT_NODES_BEFORE_MEMORY_CHECK nodes */
     public static final int DEFAULT_NODES_BEFORE_MEMORY_CHECK = 500;
@@ -194,6 +200,10 @@ public class NativeBroker implements DBBroker {
 
     private int defaultIndexDepth;
 
+    /** the number of worker threads used by {@link #reindexCollection(Txn, XmldbURI)} */
+    private final int reindexThreads;
+    private final boolean reindexPerDocumentCommit;
+
     private final XmlSerializerPool xmlSerializerPool;
 
     /** used to count the nodes inserted after the last memory check */
@@ -239,6 +249,9 @@ public class NativeBroker implements DBBroker {
             defaultIndexDepth = DEFAULT_INDEX_DEPTH;
         }
 
+        reindexThreads = config.getInteger(PROPERTY_REINDEX_THREADS, DEFAULT_REINDEX_THREADS);
+        reindexPerDocumentCommit = config.getProperty(PROPERTY_REINDEX_PER_DOCUMENT_COMMIT, DEFAULT_REINDEX_PER_DOCUMENT_COMMIT);
+
         this.indexConfiguration = (IndexSpec) config.getProperty(Indexer.PROPERTY_INDEXER_CONFIG);
         this.xmlSerializerPool = new XmlSerializerPool(this, config, 5);
 
@@ -1708,6 +1721,7 @@ public class NativeBroker implements DBBroker {
         // remove source from cache
         final CollectionCache collectionsCache = pool.getCollectionsCache();
         collectionsCache.invalidate(sourceCollection.getURI());
+        pool.getDocumentSetCache().invalidate(transaction, sourceCollection.getURI());
 
         // remove source from disk
         try(final ManagedLock<ReentrantLock> collectionsDbLock = lockManager.acquireBtreeWriteLock(collectionsDb.getLockName())) {
@@ -1813,6 +1827,7 @@ public class NativeBroker implements DBBroker {
                 // invalidate the cache entry
                 final CollectionCache collectionsCache = pool.getCollectionsCache();
                 collectionsCache.invalidate(collection.getURI());
+                pool.getDocumentSetCache().invalidate(transaction, collection.getURI());
             } else {
                 // if this is the root collection we just have to save
                 // it to persist the removal of any subCollections to collections.dbx
@@ -1983,6 +1998,7 @@ public class NativeBroker implements DBBroker {
 
         final CollectionCache collectionsCache = pool.getCollectionsCache();
         collectionsCache.put(collection);
+        pool.getDocumentSetCache().invalidate(transaction, collection.getURI());
 
         try(final ManagedLock<ReentrantLock> collectionsDbLock = lockManager.acquireBtreeWriteLock(collectionsDb.getLockName())) {
             final Value name = new CollectionStore.CollectionKey(collection.getURI().toString());
@@ -2034,6 +2050,18 @@ public class NativeBroker implements DBBroker {
         }
 
         final XmldbURI fqUri = prepend(collectionUri.toCollectionPathURI());
+
+        // the calling broker holds on to one broker of the pool
+        final int threads = Math.min(reindexThreads, pool.getMax() - 1);
+        if (threads > 1) {
+            if (reindexPerDocumentCommit) {
+                reindexCollectionParallel(transaction, fqUri, threads);
+                return;
+            }
+            LOG.info("Reindexing collection {} sequentially in a single transaction, as {} is not enabled",
+                    fqUri, PROPERTY_REINDEX_PER_DOCUMENT_COMMIT);
+        }
+
         final long start = System.currentTimeMillis();
         try(final Collection collection = openCollection(fqUri, LockMode.READ_LOCK)) {
             if (collection == null) {
@@ -2043,7 +2071,7 @@ public class NativeBroker implements DBBroker {
 
             LOG.info("Start indexing collection {}", collection.getURI().toString());
             pool.getProcessMonitor().startJob(ProcessMonitor.ACTION_REINDEX_COLLECTION, collection.getURI());
-            reindexCollection(transaction, collection, IndexMode.STORE);
+            reindexCollection(transaction, collection, IndexMode.STORE, null);
         } catch(final PermissionDeniedException | IOException e) {
             LOG.error("An error occurred during reindex: {}", e.getMessage(), e);
         } finally {
@@ -2052,8 +2080,52 @@ public class NativeBroker implements DBBroker {
         }
     }
 
+    /**
+     * Reindex the collection tree with the documents being fanned out to
+     * {@link ParallelReindex} workers, see {@link #PROPERTY_REINDEX_THREADS}.
+     *
+     * Each document is reindexed and committed in a transaction of its own,
+     * so unlike a sequential reindex, the reindex is not atomic; this is only
+     * done if enabled by {@link #PROPERTY_REINDEX_PER_DOCUMENT_COMMIT}.
+     *
+     * The collection tree is walked, and its indexes dropped, whilst holding
+     * the collection locks; the locks are released before waiting for the
+     * workers, which need to lock the documents themselves.
+     *
+     * @throws IOException if any of the documents could not be reindexed
+     */
+    private void reindexCollectionParallel(final Txn transaction, final XmldbURI fqUri, final int threads)
+            throws PermissionDeniedException, IOException, LockException {
+        final long start = System.currentTimeMillis();
+        try (final ParallelReindex parallel = new ParallelReindex(pool, getCurrentSubject(), IndexMode.STORE, fqUri, threads)) {
+            pool.getProcessMonitor().startJob(ProcessMonitor.ACTION_REINDEX_COLLECTION, parallel);
+            pool.getReindexMonitor().started(parallel);
+            try {
+                try (final Collection collection = openCollection(fqUri, LockMode.READ_LOCK)) {
+                    if (collection == null) {
+                        LOG.warn("Collection {} not found!", fqUri);
+                        return;
+                    }
+                    LOG.info("Start indexing collection {}", collection.getURI().toString());
+                    reindexCollection(transaction, collection, IndexMode.STORE, parallel);
+                }
+
+                parallel.awaitCompletion();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted whilst waiting for reindex of " + fqUri, e);
+            } finally {
+                pool.getReindexMonitor().finished(parallel);
+                pool.getProcessMonitor().endJob();
+            }
+            LOG.info("Reindexed {} documents of collection {} with {} threads in {} ms.", parallel.getReindexed(),
+                    fqUri, threads, System.currentTimeMillis() - start);
+        }
+    }
+
     private void reindexCollection(final Txn transaction,
-            @EnsureLocked(mode=LockMode.READ_LOCK) final Collection collection, final IndexMode mode)
+            @EnsureLocked(mode=LockMode.READ_LOCK) final Collection collection, final IndexMode mode,
+            @Nullable final ParallelReindex parallel)
             throws PermissionDeniedException, IOException, LockException {
         if(!collection.getPermissionsNoLock().validate(getCurrentSubject(), Permission.WRITE)) {
             throw new PermissionDeniedException("Account " + getCurrentSubject().getName() + " have insufficient privileges on collection " + collection.getURI());
@@ -2068,7 +2140,11 @@ public class NativeBroker implements DBBroker {
         try {
             for (final Iterator<DocumentImpl> i = collection.iterator(this); i.hasNext(); ) {
                 final DocumentImpl next = i.next();
-                reindexXMLResource(transaction, next, mode);
+                if (parallel != null) {
+                    parallel.submit(next);
+                } else {
+                    reindexXMLResource(transaction, next, mode);
+                }
             }
         } catch(final LockException e) {
             LOG.error("LockException while reindexing documents of collection '{}'. Skipping...", collection.getURI(), e);
@@ -2083,7 +2159,7 @@ public class NativeBroker implements DBBroker {
                     if (child == null) {
                         throw new IOException("Collection '" + childUri + "' not found");
                     } else {
-                        reindexCollection(transaction, child, mode);
+                        reindexCollection(transaction, child, mode, parallel);
                     }
                 }
             }
@@ -2307,6 +2383,7 @@ public class NativeBroker implements DBBroker {
             doc.write(os);
             final Value key = new CollectionStore.DocumentKey(doc.getCollection().getId(), doc.getResourceType(), doc.getDocId());
             collectionsDb.put(transaction, key, os.data(), true);
+            pool.getDocumentSetCache().invalidate(transaction, doc.getCollection().getURI());
             //} catch (ReadOnlyException e) {
             //LOG.warn(DATABASE_IS_READ_ONLY);
         } catch(final LockException e) {
@@ -3125,6 +3202,15 @@ public class NativeBroker implements DBBroker {
      */
     @Override
     public void reindexXMLResource(final Txn transaction, final DocumentImpl doc, final IndexMode mode) {
+        indexXMLResource(transaction, doc, mode);
+        flush();
+    }
+
+    /**
+     * Scan the nodes of the document and pass them to the index workers
+     * of this broker, without flushing the index workers.
+     */
+    void indexXMLResource(final Txn transaction, final DocumentImpl doc, final IndexMode mode) {
         final StreamListener listener = getIndexController().getStreamListener(doc, ReindexMode.STORE);
         getIndexController().startIndexDocument(transaction, listener);
         try {
@@ -3141,7 +3227,6 @@ public class NativeBroker implements DBBroker {
         } finally {
             getIndexController().endIndexDocument(transaction, listener);
         }
-        flush();
     }
 
     @Override
@@ -3835,7 +3920,7 @@ public class NativeBroker implements DBBroker {
         loadIndexModules();
         LOG.info("Reindexing database files ...");
         //Reindex from root collection
-        reindexCollection(null, getCollection(XmldbURI.ROOT_COLLECTION_URI), IndexMode.REPAIR);
+        reindexCollection(null, getCollection(XmldbURI.ROOT_COLLECTION_URI), IndexMode.REPAIR, null);
     }
 
     @Override
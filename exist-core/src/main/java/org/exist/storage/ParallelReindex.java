@@ -0,0 +1,208 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.exist.storage;
+
+import net.jcip.annotations.ThreadSafe;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.EXistException;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.security.PermissionDeniedException;
+import org.exist.security.Subject;
+import org.exist.storage.DBBroker.IndexMode;
+import org.exist.storage.lock.LockManager;
+import org.exist.storage.lock.ManagedDocumentLock;
+import org.exist.storage.txn.TransactionException;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.util.LockException;
+import org.exist.util.NamedThreadFactory;
+import org.exist.xmldb.XmldbURI;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Reindexes documents on a number of worker threads, each of which
+ * holds its own broker from the {@link BrokerPool}.
+ *
+ * The collection tree is still walked by the calling broker, which
+ * {@link #submit(DocumentImpl) submits} the documents it finds. Every
+ * worker scans the nodes of a document and lets its own
+ * {@link org.exist.indexing.IndexWorker}s collect the pending index
+ * updates; only the flush of those updates into the shared index files
+ * is serialized between the workers. As a {@link Txn} must not be shared
+ * between threads, each document is reindexed in a transaction of its own,
+ * so the reindex is not atomic, see {@link NativeBroker#PROPERTY_REINDEX_PER_DOCUMENT_COMMIT}.
+ *
+ * The progress of the reindex is reported through the
+ * {@link ProcessMonitor}, and the {@link ReindexMonitor} which is published
+ * by the Reindex MBean via JMX.
+ */
+@ThreadSafe
+final class ParallelReindex implements AutoCloseable {
+
+    private static final Logger LOG = LogManager.getLogger(ParallelReindex.class);
+
+    private final BrokerPool pool;
+    private final Subject subject;
+    private final IndexMode mode;
+    private final XmldbURI collectionUri;
+
+    private final BlockingQueue<DocumentImpl> queue = new LinkedBlockingQueue<>();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final ExecutorService executor;
+    private volatile boolean submitting = true;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong reindexed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+
+    ParallelReindex(final BrokerPool pool, final Subject subject, final IndexMode mode,
+            final XmldbURI collectionUri, final int threads) {
+        this.pool = pool;
+        this.subject = subject;
+        this.mode = mode;
+        this.collectionUri = collectionUri;
+        this.executor = Executors.newFixedThreadPool(threads, new NamedThreadFactory(pool, "reindex"));
+        for (int i = 0; i < threads; i++) {
+            executor.execute(this::reindexDocuments);
+        }
+    }
+
+    /**
+     * Queue a document for reindexing by one of the workers.
+     *
+     * @param doc the document to reindex
+     */
+    void submit(final DocumentImpl doc) {
+        submitted.incrementAndGet();
+        queue.add(doc);
+    }
+
+    /**
+     * Wait until the workers have reindexed all submitted documents.
+     *
+     * Must not be called whilst holding a lock on a collection, as the
+     * workers need to lock the documents which they reindex.
+     *
+     * @throws InterruptedException if the calling thread is interrupted whilst waiting
+     * @throws IOException if any of the submitted documents could not be reindexed
+     */
+    void awaitCompletion() throws InterruptedException, IOException {
+        submitting = false;
+        executor.shutdown();
+        while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Reindexing {}", this);
+            }
+        }
+
+        final long notReindexed = submitted.get() - reindexed.get() - skipped.get();
+        if (notReindexed > 0) {
+            throw new IOException(notReindexed + " of " + submitted.get() + " documents of collection '"
+                    + collectionUri + "' could not be reindexed, see previous errors");
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    long getSubmitted() {
+        return submitted.get();
+    }
+
+    long getReindexed() {
+        return reindexed.get();
+    }
+
+    long getFailed() {
+        return failed.get();
+    }
+
+    long getSkipped() {
+        return skipped.get();
+    }
+
+    private void reindexDocuments() {
+        final ProcessMonitor processMonitor = pool.getProcessMonitor();
+        processMonitor.startJob(ProcessMonitor.ACTION_REINDEX_COLLECTION, this);
+        try (final DBBroker broker = pool.get(Optional.of(subject))) {
+            final NativeBroker nativeBroker = (NativeBroker) broker;
+            final LockManager lockManager = pool.getLockManager();
+            final TransactionManager transactionManager = pool.getTransactionManager();
+            while (true) {
+                final DocumentImpl doc = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (doc == null) {
+                    if (!submitting && queue.isEmpty()) {
+                        break;
+                    }
+                    continue;
+                }
+                try (final ManagedDocumentLock documentLock = lockManager.acquireDocumentReadLock(doc.getURI())) {
+                    // the document may have been removed after it was submitted
+                    if (doc.getCollection().getDocumentNoLock(broker, doc.getFileURI().lastSegmentString()) != doc) {
+                        skipped.incrementAndGet();
+                        continue;
+                    }
+                    try (final Txn transaction = transactionManager.beginTransaction()) {
+                        nativeBroker.indexXMLResource(transaction, doc, mode);
+                        flushLock.lock();
+                        try {
+                            nativeBroker.flush();
+                        } finally {
+                            flushLock.unlock();
+                        }
+                        transaction.commit();
+                    }
+                    reindexed.incrementAndGet();
+                } catch (final LockException | PermissionDeniedException | TransactionException | RuntimeException e) {
+                    failed.incrementAndGet();
+                    LOG.error("Unable to reindex document '{}': {}", doc.getURI(), e.getMessage(), e);
+                }
+            }
+        } catch (final EXistException e) {
+            LOG.error("Unable to acquire a broker for reindexing: {}", e.getMessage(), e);
+            // leave the remaining documents to the other workers
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            processMonitor.endJob();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return collectionUri + " (" + reindexed.get() + " of " + submitted.get() + " documents reindexed)";
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.exist.storage;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of the parallel reindex runs of a {@link BrokerPool},
+ * so that their progress can be published via JMX.
+ */
+@ThreadSafe
+public final class ReindexMonitor {
+
+    private final Set<ParallelReindex> running = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong reindexed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    void started(final ParallelReindex reindex) {
+        running.add(reindex);
+    }
+
+    void finished(final ParallelReindex reindex) {
+        if (running.remove(reindex)) {
+            completed.incrementAndGet();
+            reindexed.addAndGet(reindex.getReindexed());
+            failed.addAndGet(reindex.getFailed());
+        }
+    }
+
+    /**
+     * Get a description of the progress of each running reindex.
+     *
+     * @return the collection and progress of each running reindex
+     */
+    public List<String> getRunning() {
+        final List<String> descriptions = new ArrayList<>(running.size());
+        for (final ParallelReindex reindex : running) {
+            descriptions.add(reindex.toString());
+        }
+        return descriptions;
+    }
+
+    /**
+     * Get the number of documents submitted to the running reindexes.
+     *
+     * @return the number of documents submitted
+     */
+    public long getDocumentsSubmitted() {
+        return running.stream().mapToLong(ParallelReindex::getSubmitted).sum();
+    }
+
+    /**
+     * Get the number of documents the running reindexes have reindexed so far.
+     *
+     * @return the number of documents reindexed
+     */
+    public long getDocumentsReindexed() {
+        return running.stream().mapToLong(ParallelReindex::getReindexed).sum();
+    }
+
+    /**
+     * Get the number of documents the running reindexes failed to reindex.
+     *
+     * @return the number of documents which could not be reindexed
+     */
+    public long getDocumentsFailed() {
+        return running.stream().mapToLong(ParallelReindex::getFailed).sum();
+    }
+
+    /**
+     * Get the number of reindexes which have completed since the database was started.
+     *
+     * @return the number of completed reindexes
+     */
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    /**
+     * Get the number of documents reindexed by the completed reindexes.
+     *
+     * @return the number of documents reindexed
+     */
+    public long getCompletedDocumentsReindexed() {
+        return reindexed.get();
+    }
+
+    /**
+     * Get the number of documents the completed reindexes failed to reindex.
+     *
+     * @return the number of documents which could not be reindexed
+     */
+    public long getCompletedDocumentsFailed() {
+        return failed.get();
+    }
+}
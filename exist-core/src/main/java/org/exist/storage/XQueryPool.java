@@ -32,23 +32,45 @@
  */
 package org.exist.storage;
 
+import java.beans.ConstructorProperties;
 import java.text.NumberFormat;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import net.jcip.annotations.ThreadSafe;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.exist.EXistException;
+import org.exist.collections.Collection;
+import org.exist.dom.persistent.BinaryDocument;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.dom.persistent.LockedDocument;
 import org.exist.security.Permission;
 import org.exist.security.PermissionDeniedException;
 import org.exist.source.DBSource;
 import org.exist.source.Source;
+import org.exist.storage.lock.Lock.LockMode;
 import org.exist.util.Configuration;
 import org.exist.util.Holder;
+import org.exist.util.LockException;
+import org.exist.util.MimeType;
+import org.exist.util.NamedThreadFactory;
+import org.exist.xmldb.XmldbURI;
 import org.exist.xquery.*;
 
+import javax.annotation.Nullable;
+
 /**
  * Global pool for compiled XQuery expressions.
  *
@@ -58,6 +80,13 @@ import org.exist.xquery.*;
  * For each XQuery, a maximum of {@link #DEFAULT_MAX_QUERY_STACK_SIZE} compiled
  * expressions are kept in the pool.
  *
+ * When the pool is full, queries which were quick to compile are evicted
+ * before those which took a long time to compile: the weight of a query
+ * in the pool decreases with its compilation time, see {@link #weigh(Source, PooledQueries)}.
+ *
+ * The queries stored in the collections listed by {@link #PROPERTY_WARM_UP_COLLECTIONS}
+ * are compiled into the pool in the background when the database starts.
+ *
  * @author <a href="mailto:adam@evolvedbinary.com">Adam Retter</a>
  */
 @ThreadSafe
@@ -68,20 +97,44 @@ public class XQueryPool implements BrokerPoolService {
     public static final String CONFIGURATION_ELEMENT_NAME = "query-pool";
     public static final String MAX_STACK_SIZE_ATTRIBUTE = "max-stack-size";
     public static final String POOL_SIZE_ATTTRIBUTE = "size";
+    public static final String WARM_UP_COLLECTIONS_ATTRIBUTE = "warm-up";
+    public static final String WARM_UP_THREADS_ATTRIBUTE = "warm-up-threads";
 
     public static final String PROPERTY_MAX_STACK_SIZE = "db-connection.query-pool.max-stack-size";
     public static final String PROPERTY_POOL_SIZE = "db-connection.query-pool.size";
+    public static final String PROPERTY_WARM_UP_COLLECTIONS = "db-connection.query-pool.warm-up";
+    public static final String PROPERTY_WARM_UP_THREADS = "db-connection.query-pool.warm-up-threads";
 
     private static final int DEFAULT_MAX_POOL_SIZE = 128;
     private static final int DEFAULT_MAX_QUERY_STACK_SIZE = 64;
+    private static final int DEFAULT_WARM_UP_THREADS = 4;
+
+    /**
+     * The weight of a query which compiles in less than {@link #COMPILATION_TIME_UNIT} ms,
+     * the pool holds {@link #maxPoolSize} of these.
+     */
+    private static final int MAX_WEIGHT = 16;
+    private static final long COMPILATION_TIME_UNIT = 50;
 
     private int maxPoolSize = DEFAULT_MAX_POOL_SIZE;
     private int maxQueryStackSize = DEFAULT_MAX_QUERY_STACK_SIZE;
+    private String[] warmUpCollections = new String[0];
+    private int warmUpThreads = DEFAULT_WARM_UP_THREADS;
 
     /**
      * Source -> Deque of compiled Queries
      */
-    private Cache<Source, Deque<CompiledXQuery>> cache;
+    private Cache<Source, PooledQueries> cache;
+
+    /**
+     * Source -> number of misses, for sources which are not (yet) in the pool. Kept apart
+     * from {@link #cache}, so that sources which are borrowed but never returned, like
+     * ad-hoc queries, do not take up room in the pool and evict compiled queries.
+     */
+    private Cache<Source, LongAdder> pendingMisses;
+
+    @Nullable private volatile ExecutorService warmUpExecutor = null;
+    private final AtomicLong warmedUp = new AtomicLong();
 
     @Override
     public void configure(final Configuration configuration) {
@@ -101,13 +154,136 @@ public class XQueryPool implements BrokerPoolService {
             this.maxQueryStackSize = DEFAULT_MAX_QUERY_STACK_SIZE;
         }
 
+        final String warmUp = (String) configuration.getProperty(PROPERTY_WARM_UP_COLLECTIONS);
+        if (warmUp != null && !warmUp.isBlank()) {
+            this.warmUpCollections = warmUp.trim().split("[\\s,]+");
+        } else {
+            this.warmUpCollections = new String[0];
+        }
+        this.warmUpThreads = configuration.getInteger(PROPERTY_WARM_UP_THREADS, DEFAULT_WARM_UP_THREADS);
+
         this.cache = Caffeine.newBuilder()
-                .maximumSize(maxPoolSize)
+                .maximumWeight(Math.max(0, (long) maxPoolSize * MAX_WEIGHT))
+                .weigher(XQueryPool::weigh)
+                .build();
+        this.pendingMisses = Caffeine.newBuilder()
+                .maximumSize(Math.max(0, maxPoolSize))
                 .build();
 
         LOG.info("QueryPool: size = {}; maxQueryStackSize = {}", nf.format(maxPoolSize), nf.format(maxQueryStackSize));
     }
 
+    /**
+     * The weight of a source in the pool, which is {@link #MAX_WEIGHT} for a query
+     * which compiles in less than {@link #COMPILATION_TIME_UNIT} ms, and halves, thirds, etc.
+     * for each further unit, down to 1. So a pool of {@link #maxPoolSize} holds at least
+     * that many sources, and up to {@link #MAX_WEIGHT} times as many expensive ones.
+     */
+    private static int weigh(final Source source, final PooledQueries queries) {
+        return (int) Math.max(1, MAX_WEIGHT / (1 + queries.lastCompilationTime / COMPILATION_TIME_UNIT));
+    }
+
+    /**
+     * Start compiling the queries in the warm-up collections, in the background.
+     */
+    @Override
+    public void startMultiUser(final BrokerPool brokerPool) {
+        if (warmUpCollections.length == 0 || maxPoolSize <= 0) {
+            return;
+        }
+
+        // leave at least one broker for the users of the database
+        final int threads = Math.max(1, Math.min(warmUpThreads, brokerPool.getMax() - 1));
+        final ExecutorService executor = Executors.newFixedThreadPool(threads, new NamedThreadFactory(brokerPool, "query-pool.warm-up"));
+        this.warmUpExecutor = executor;
+        executor.submit(() -> {
+            final List<XmldbURI> queries = findWarmUpQueries(brokerPool);
+            LOG.info("QueryPool: warming up {} queries with {} threads", queries.size(), threads);
+            for (final XmldbURI query : queries) {
+                executor.submit(() -> warmUp(brokerPool, query));
+            }
+            executor.shutdown();
+        });
+    }
+
+    @Override
+    public void stopMultiUser(final BrokerPool brokerPool) {
+        final ExecutorService executor = warmUpExecutor;
+        if (executor != null) {
+            executor.shutdownNow();
+            warmUpExecutor = null;
+        }
+    }
+
+    private List<XmldbURI> findWarmUpQueries(final BrokerPool brokerPool) {
+        final List<XmldbURI> queries = new ArrayList<>();
+        try (final DBBroker broker = brokerPool.get(Optional.of(brokerPool.getSecurityManager().getSystemSubject()))) {
+            for (final String warmUpCollection : warmUpCollections) {
+                findWarmUpQueries(broker, XmldbURI.create(warmUpCollection), queries);
+            }
+        } catch (final EXistException e) {
+            LOG.error("QueryPool: unable to find the queries to warm up: {}", e.getMessage(), e);
+        }
+        return queries;
+    }
+
+    private static void findWarmUpQueries(final DBBroker broker, final XmldbURI collectionUri, final List<XmldbURI> queries) {
+        final List<XmldbURI> children = new ArrayList<>();
+        try (final Collection collection = broker.openCollection(collectionUri, LockMode.READ_LOCK)) {
+            if (collection == null) {
+                LOG.warn("QueryPool: warm-up collection {} not found", collectionUri);
+                return;
+            }
+
+            for (final Iterator<DocumentImpl> i = collection.iterator(broker); i.hasNext(); ) {
+                final DocumentImpl document = i.next();
+                if (document.getResourceType() == DocumentImpl.BINARY_FILE
+                        && MimeType.XQUERY_TYPE.getName().equals(document.getMimeType())) {
+                    queries.add(document.getURI());
+                }
+            }
+            for (final Iterator<XmldbURI> i = collection.collectionIterator(broker); i.hasNext(); ) {
+                children.add(collectionUri.append(i.next()));
+            }
+        } catch (final PermissionDeniedException | LockException e) {
+            LOG.warn("QueryPool: unable to scan warm-up collection {}: {}", collectionUri, e.getMessage());
+        }
+
+        // descend after the lock on the parent collection has been released
+        for (final XmldbURI child : children) {
+            findWarmUpQueries(broker, child, queries);
+        }
+    }
+
+    /**
+     * Compile a stored query and add it to the pool, unless it is a library module.
+     */
+    private void warmUp(final BrokerPool brokerPool, final XmldbURI queryUri) {
+        try (final DBBroker broker = brokerPool.get(Optional.of(brokerPool.getSecurityManager().getSystemSubject()));
+                final LockedDocument lockedDocument = broker.getXMLResource(queryUri, LockMode.READ_LOCK)) {
+            if (lockedDocument == null || !(lockedDocument.getDocument() instanceof BinaryDocument document)) {
+                return;
+            }
+
+            final Source source = new DBSource(brokerPool, document, true);
+            final XmldbURI collectionUri = document.getCollection().getURI();
+            final XQueryContext context = new XQueryContext(brokerPool);
+            context.setModuleLoadPath(XmldbURI.EMBEDDED_SERVER_URI.append(collectionUri).toString());
+            context.setStaticallyKnownDocuments(new XmldbURI[] { collectionUri });
+
+            final CompiledXQuery compiled = brokerPool.getXQueryService().compile(context, source);
+            if (compiled instanceof LibraryModuleRoot) {
+                return;
+            }
+            returnCompiledXQuery(source, compiled);
+            warmedUp.incrementAndGet();
+        } catch (final Exception e) {
+            // the query may legitimately depend on its caller, e.g. a library module
+            // which is only compiled as part of another query
+            LOG.debug("QueryPool: unable to warm up {}: {}", queryUri, e.getMessage());
+        }
+    }
+
     /**
      * Returns a compiled XQuery to the XQuery pool.
      *
@@ -120,16 +296,27 @@ public class XQueryPool implements BrokerPoolService {
         }
 
         cache.asMap().compute(source, (key, value) -> {
-            final Deque<CompiledXQuery> deque;
+            final PooledQueries queries;
             if (value != null) {
-                deque = value;
+                queries = value;
             } else {
-                deque = new ArrayDeque<>(maxQueryStackSize);
+                queries = new PooledQueries(maxQueryStackSize);
+                final LongAdder misses = pendingMisses.asMap().remove(source);
+                if (misses != null) {
+                    queries.misses = misses.sum();
+                }
+            }
+
+            final long compilationTime = compiledXQuery.getContext().getCompilationTime();
+            if (compilationTime > 0) {
+                queries.lastCompilationTime = compilationTime;
             }
 
-            deque.offerFirst(compiledXQuery);
+            if (queries.deque.size() < maxQueryStackSize) {
+                queries.deque.offerFirst(compiledXQuery);
+            }
 
-            return deque;
+            return queries;
         });
     }
 
@@ -154,12 +341,13 @@ public class XQueryPool implements BrokerPoolService {
         // this will be set to non-null if we can borrow a query... allows us to escape the lamba, see https://github.com/ben-manes/caffeine/issues/192#issuecomment-337365618
         final Holder<CompiledXQuery> borrowedCompiledQuery = new Holder<>();
 
-        // get (compute by checking validity) the stack of compiled XQuerys for the source
-        final Deque<CompiledXQuery> deque = cache.asMap().computeIfPresent(source, (key, value) -> {
-            final CompiledXQuery firstCompiledXQuery = value.pollFirst();
+        // get (compute by checking validity) the stack of compiled XQuerys for the source,
+        // no entry is added for a source which is not in the pool
+        final PooledQueries pooled = cache.asMap().computeIfPresent(source, (key, value) -> {
+            final CompiledXQuery firstCompiledXQuery = value.deque.pollFirst();
             if (firstCompiledXQuery == null) {
-                // deque is empty, returning null will remove the entry from the cache
-                return null;
+                value.misses++;
+                return value;
             }
 
             if (!isCompiledQueryValid(firstCompiledXQuery)) {
@@ -167,18 +355,27 @@ public class XQueryPool implements BrokerPoolService {
                     LOG.debug("{} is invalid, removing from XQuery Pool...", source.pathOrShortIdentifier());
                 }
 
-                // query is invalid, returning null will remove the entry from the cache
-                return null;
+                // query is invalid, start over with a new entry which keeps the statistics
+                final PooledQueries queries = new PooledQueries(maxQueryStackSize);
+                queries.hits = value.hits;
+                queries.misses = value.misses + 1;
+                queries.lastCompilationTime = value.lastCompilationTime;
+                return queries;
             }
 
             // escape the result from the lambda
             borrowedCompiledQuery.value = firstCompiledXQuery;
+            value.hits++;
 
             // query is ok, preserve the tail of the deque
             return value;
         });
 
-        if (deque == null) {
+        if (pooled == null) {
+            pendingMisses.get(source, key -> new LongAdder()).increment();
+        }
+
+        if (borrowedCompiledQuery.value == null) {
             return null;
         }
 
@@ -217,5 +414,101 @@ public class XQueryPool implements BrokerPoolService {
      */
     public void clear() {
         cache.invalidateAll();
+        pendingMisses.invalidateAll();
+    }
+
+    public int getMaxPoolSize() {
+        return maxPoolSize;
+    }
+
+    public int getMaxQueryStackSize() {
+        return maxQueryStackSize;
+    }
+
+    /**
+     * Get the number of queries which have been compiled into the pool
+     * by the warm-up since the database was started.
+     *
+     * @return the number of queries compiled by the warm-up
+     */
+    public long getWarmedUp() {
+        return warmedUp.get();
+    }
+
+    /**
+     * Get a snapshot of the statistics of each source in the pool.
+     *
+     * @return the statistics
+     */
+    public List<Statistics> getStatistics() {
+        final List<Statistics> statistics = new ArrayList<>();
+        for (final Map.Entry<Source, PooledQueries> entry : cache.asMap().entrySet()) {
+            final PooledQueries queries = entry.getValue();
+            statistics.add(new Statistics(entry.getKey().pathOrShortIdentifier(), queries.hits, queries.misses,
+                    queries.lastCompilationTime, queries.deque.size()));
+        }
+        return statistics;
+    }
+
+    /**
+     * The compiled queries of a source, only accessed from
+     * within a compute function of the cache.
+     */
+    private static class PooledQueries {
+        private final Deque<CompiledXQuery> deque;
+        private volatile long hits;
+        private volatile long misses;
+        private volatile long lastCompilationTime;
+
+        PooledQueries(final int maxQueryStackSize) {
+            this.deque = new ArrayDeque<>(Math.max(1, maxQueryStackSize));
+        }
+    }
+
+    /**
+     * Statistics of a source in the pool.
+     */
+    public static class Statistics {
+        private final String source;
+        private final long hitCount;
+        private final long missCount;
+        private final long compilationTime;
+        private final int stackSize;
+
+        /**
+         * @param source a description of the source
+         * @param hitCount the number of times a compiled query was borrowed
+         * @param missCount the number of times no compiled query was available to borrow
+         * @param compilationTime the time taken by the last compilation of the query in ms
+         * @param stackSize the number of compiled queries currently in the pool
+         */
+        @ConstructorProperties({"source", "hitCount", "missCount", "compilationTime", "stackSize"})
+        public Statistics(final String source, final long hitCount, final long missCount, final long compilationTime, final int stackSize) {
+            this.source = source;
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+            this.compilationTime = compilationTime;
+            this.stackSize = stackSize;
+        }
+
+        public String getSource() {
+            return source;
+        }
+
+        public long getHitCount() {
+            return hitCount;
+        }
+
+        public long getMissCount() {
+            return missCount;
+        }
+
+        public long getCompilationTime() {
+            return compilationTime;
+        }
+
+        public int getStackSize() {
+            return stackSize;
+        }
     }
 }
@@ -88,10 +88,13 @@ import org.exist.util.FileUtils;
 import org.exist.util.Lockable;
 import org.exist.xquery.TerminatedException;
 
+import javax.annotation.Nullable;
+
 import java.io.*;
 import java.nio.file.Path;
 import java.text.NumberFormat;
 import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
 
 /**
@@ -132,6 +135,10 @@ public class BTree extends Paged implements Lockable {
     /** Log entry type for removing a value */
     public final static byte LOG_REMOVE_VALUE = 0x25;
     public final static byte LOG_SET_LINK = 0x26;
+    /** Log entry type for a bulk load of the tree */
+    public final static byte LOG_BULK_LOAD = 0x27;
+    /** Log entry type for the image of a page written by a bulk load */
+    public final static byte LOG_BULK_LOAD_PAGE = 0x28;
 
     static {
         // register the log entry types used for the BTree
@@ -142,6 +149,8 @@ public class BTree extends Paged implements Lockable {
         LogEntryTypes.addEntryType(LOG_UPDATE_PAGE, UpdatePageLoggable::new);
         LogEntryTypes.addEntryType(LOG_SET_PARENT, SetParentLoggable::new);
         LogEntryTypes.addEntryType(LOG_SET_LINK, SetPageLinkLoggable::new);
+        LogEntryTypes.addEntryType(LOG_BULK_LOAD, BulkLoadLoggable::new);
+        LogEntryTypes.addEntryType(LOG_BULK_LOAD_PAGE, BulkLoadPageLoggable::new);
     }
 
     private final BrokerPool pool;
@@ -151,6 +160,18 @@ public class BTree extends Paged implements Lockable {
     /** Cache of BTreeNode(s) */
     protected Cache<BTreeNode> cache;
 
+    /**
+     * True if several readers may use the tree at the same time,
+     * see {@link #setSharedReads(boolean)}.
+     */
+    private volatile boolean sharedReads = false;
+
+    /**
+     * Serializes the access of concurrent readers to the {@link #cache}
+     * when they load a node, as this may evict and write another node.
+     */
+    private final ReentrantLock nodeLatch = new ReentrantLock();
+
     /** File header of a BTree file */
     private final BTreeFileHeader fileHeader;
 
@@ -223,9 +244,26 @@ public class BTree extends Paged implements Lockable {
         return null;
     }
 
+    /**
+     * Allow several threads to read from the tree at the same time, i.e. whilst holding
+     * a shared lock, see {@link org.exist.storage.lock.LockManager#enableSharedBtreeReads(String)}.
+     *
+     * The nodes of the tree are only read by {@link #findValue(Value)}, the query
+     * methods and the {@link RangeScanner}, so the only state which the readers share
+     * is the node cache. Loading a node into the cache is then serialized by a latch,
+     * as is every access to the cache unless the cache is thread-safe. Subclasses
+     * which keep further state on their read paths, such as
+     * {@link org.exist.storage.index.BFile} or {@link org.exist.storage.dom.DOMFile},
+     * must not enable this. Writers must still hold an exclusive lock.
+     *
+     * @param sharedReads true to allow concurrent readers
+     */
+    public void setSharedReads(final boolean sharedReads) {
+        this.sharedReads = sharedReads;
+    }
+
     protected void initCache() {
-        this.cache = new BTreeCache<>(FileUtils.fileName(getFile()), cacheManager.getDefaultInitialSize(), 1.5,
-            0, Cache.CacheType.BTREE);
+        this.cache = cacheManager.newBTreeCache(FileUtils.fileName(getFile()), cacheManager.getDefaultInitialSize(), 1.5, 0);
         cacheManager.registerCache(cache);
     }
 
@@ -389,6 +427,107 @@ public class BTree extends Paged implements Lockable {
         getRootNode().query(query, prefix, callback);
     }
 
+    /**
+     * Create a scanner for querying a sequence of key ranges, see {@link RangeScanner}.
+     *
+     * @return a new range scanner
+     */
+    public RangeScanner rangeScanner() {
+        return new RangeScanner();
+    }
+
+    /**
+     * Queries a sequence of key ranges, each of which is treated like an
+     * {@link IndexQuery#RANGE} query.
+     *
+     * The scanner remembers the leaf page on which the previous range ended.
+     * If the next range starts on that leaf or on the following one, the scan
+     * continues from there instead of descending from the root again, i.e.
+     * ranges given in ascending key order are answered in a single forward pass
+     * over the leaves, whereas the tree is used to skip over larger gaps.
+     *
+     * The caller must hold a lock on the tree for as long as the scanner is used.
+     */
+    public final class RangeScanner {
+
+        @Nullable private BTreeNode leaf = null;
+        private int descents = 0;
+
+        private RangeScanner() {
+        }
+
+        /**
+         * Report all keys k with from &lt;= k &lt; to to the callback.
+         *
+         * @param from the first key of the range (inclusive)
+         * @param to the last key of the range (exclusive)
+         * @param callback the callback which receives the keys
+         * @throws IOException if an I/O error occurs
+         * @throws BTreeException if an error occurs with the tree
+         * @throws TerminatedException if the callback is terminated
+         */
+        public void scan(final Value from, final Value to, final BTreeCallback callback)
+                throws IOException, BTreeException, TerminatedException {
+            BTreeNode page = seek(from);
+            int idx = page.searchKey(from);
+            if (idx < 0) {
+                idx = -(idx + 1);
+            }
+            while (true) {
+                for (; idx < page.nKeys; idx++) {
+                    if (page.keys[idx].compareTo(to) >= 0) {
+                        leaf = page;
+                        return;
+                    }
+                    callback.indexInfo(page.keys[idx], page.ptrs[idx]);
+                }
+                final long next = page.pageHeader.getNextPage();
+                if (next == Page.NO_PAGE) {
+                    leaf = page;
+                    return;
+                }
+                page = getBTreeNode(next);
+                idx = 0;
+            }
+        }
+
+        /**
+         * @return the number of times the scanner had to descend from the root of the tree
+         */
+        public int getDescents() {
+            return descents;
+        }
+
+        private BTreeNode seek(final Value key) throws IOException, BTreeException {
+            if (leaf != null && leaf.nKeys > 0 && key.compareTo(leaf.keys[0]) >= 0) {
+                if (key.compareTo(leaf.keys[leaf.nKeys - 1]) <= 0) {
+                    return leaf;
+                }
+                final long next = leaf.pageHeader.getNextPage();
+                if (next != Page.NO_PAGE) {
+                    final BTreeNode nextLeaf = getBTreeNode(next);
+                    if (nextLeaf.nKeys > 0 && key.compareTo(nextLeaf.keys[nextLeaf.nKeys - 1]) <= 0) {
+                        return nextLeaf;
+                    }
+                }
+            }
+            descents++;
+            BTreeNode node = getRootNode();
+            while (node.pageHeader.getStatus() == BRANCH) {
+                int idx = node.searchKey(key);
+                idx = idx < 0 ? -(idx + 1) : idx + 1;
+                node = node.getChildNode(idx);
+                if (node == null) {
+                    throw new BTreeException("Child node not found while seeking " + key);
+                }
+            }
+            if (node.pageHeader.getStatus() != LEAF) {
+                throw new BTreeException("Invalid Page Type In seek: " + node.pageHeader.getStatus());
+            }
+            return node;
+        }
+    }
+
     protected void scanSequential(BTreeNode page, final IndexQuery query, final Value keyPrefix, final BTreeCallback callback) throws TerminatedException {
         while (page != null) {
             for (int i = 0; i < page.nKeys; i++) {
@@ -448,6 +587,26 @@ public class BTree extends Paged implements Lockable {
      * @return The BTree node
      */
     private BTreeNode getBTreeNode(final long pageNum) {
+        if (sharedReads) {
+            if (cache.isThreadSafe()) {
+                // a hit neither loads nor evicts a node, so it does not need the latch
+                final BTreeNode node = cache.get(pageNum);
+                if (node != null) {
+                    cache.add(node, node.pageHeader.getStatus() == BRANCH ? 2 : 1);
+                    return node;
+                }
+            }
+            nodeLatch.lock();
+            try {
+                return loadBTreeNode(pageNum);
+            } finally {
+                nodeLatch.unlock();
+            }
+        }
+        return loadBTreeNode(pageNum);
+    }
+
+    private BTreeNode loadBTreeNode(final long pageNum) {
         try {
             BTreeNode node = cache.get(pageNum);
             if (node == null) {
@@ -493,6 +652,18 @@ public class BTree extends Paged implements Lockable {
      * @return the root node.
      */
     protected BTreeNode getRootNode() {
+        if (sharedReads) {
+            nodeLatch.lock();
+            try {
+                return loadRootNode();
+            } finally {
+                nodeLatch.unlock();
+            }
+        }
+        return loadRootNode();
+    }
+
+    private BTreeNode loadRootNode() {
         try {
             BTreeNode node = cache.get(fileHeader.getRootPage());
             if (node == null) {
@@ -668,72 +839,291 @@ public class BTree extends Paged implements Lockable {
      */
     public void rebuild() throws TerminatedException, IOException, DBException {
         final TreeInfo info  = scanTree(true);
-        if (info.leafPages == 1) {
+        final BulkLoader loader = new BulkLoader(null, 1.0, null, Lsn.LSN_INVALID);
+        // build the branches bottom-up from the chain of leaf pages
+        long pageNum = info.firstPage;
+        while (pageNum != Page.NO_PAGE) {
+            final BTreeNode node = getBTreeNode(pageNum);
+            pageNum = node.pageHeader.getNextPage();
+            if (node.nKeys > 0) {
+                loader.addLeaf(node);
+            }
+        }
+        if (loader.isEmpty()) {
             final BTreeNode root = getBTreeNode(info.firstPage);
+            root.setParent(null);
             setRootNode(root);
-            cache.add(root);
         } else {
-            // create a new root node
-            final BTreeNode root = createBTreeNode(null, BRANCH, null, false);
-            setRootNode(root);
-            // insert a pointer to the first page into the root
-            BTreeNode node = getBTreeNode(info.firstPage);
-            root.insertPointer(info.firstPage, 0);
-            cache.add(root);
-            node.setParent(root);
-            node.saved = false;
-            cache.add(node);
+            try {
+                loader.finish();
+            } catch (final BTreeException e) {
+                throw new DBException(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Bulk load the tree from keys which are added in ascending order.
+     *
+     * Instead of inserting the keys one by one, leaf pages are filled
+     * sequentially up to the given fill factor and the branch pages are
+     * built bottom-up. Rather than journalling every insert, a
+     * {@link BulkLoadLoggable} is written when the load starts, and the image of
+     * each written page is journalled by a {@link BulkLoadPageLoggable}, from which
+     * recovery redoes the load. If the load is not journalled, the pages are
+     * forced to disk by {@link BulkLoader#finish()} instead.
+     *
+     * The tree must be empty. As for {@link #addValue(Txn, Value, long)},
+     * the caller must hold the write lock on the tree until the load has
+     * finished.
+     *
+     * @param transaction the database transaction, or null
+     * @param fillFactor the fraction of each leaf page to fill, leaving
+     *     space for subsequent inserts, must be &gt; 0 and &lt;= 1
+     * @return the loader to which the keys are added
+     * @throws IOException if an I/O error occurs
+     * @throws BTreeException if the tree is not empty
+     */
+    public BulkLoader bulkLoad(@Nullable final Txn transaction, final double fillFactor)
+            throws IOException, BTreeException {
+        if (fillFactor <= 0 || fillFactor > 1.0) {
+            throw new IllegalArgumentException("fillFactor should be > 0 and <= 1");
+        }
+        final BTreeNode root = getRootNode();
+        if (root == null || root.pageHeader.getStatus() != LEAF || root.nKeys > 0) {
+            throw new BTreeException("Bulk load requires an empty tree: " + FileUtils.fileName(getFile()));
+        }
+        Lsn lsn = Lsn.LSN_INVALID;
+        if (transaction != null && isRecoveryEnabled()) {
+            final Loggable loggable = new BulkLoadLoggable(transaction, fileId, root.page.getPageNum());
+            try {
+                logManager.get().journal(loggable);
+                // the log record must be on disk before any of the pages carrying its LSN
+                logManager.get().flush(true, false);
+                lsn = loggable.getLsn();
+            } catch (final JournalException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        }
+        return new BulkLoader(root, fillFactor, transaction, lsn);
+    }
 
-            // scan through chain of pages and add them to the tree
-            long rightPageNum = node.pageHeader.getNextPage();
-            while (rightPageNum != Page.NO_PAGE) {
+    /**
+     * Builds a tree bottom-up, see {@link #bulkLoad(Txn, double)}.
+     *
+     * For every level of the tree, the loader keeps the node which is
+     * currently being filled, together with its finished children. The
+     * children are only written once their parent is known, so at most
+     * one node per level and its children are held in memory.
+     */
+    public final class BulkLoader {
 
-                node = getBTreeNode(rightPageNum);
+        private final int leafDataLen;
+        @Nullable private final Txn transaction;
+        private final Lsn lsn;
+        private final List<Level> levels = new ArrayList<>();
+        @Nullable private Value lastKey = null;
+        private long keys = 0;
 
-                rightPageNum = node.pageHeader.getNextPage();
+        private BulkLoader(@Nullable final BTreeNode firstLeaf, final double fillFactor,
+                @Nullable final Txn transaction, final Lsn lsn) {
+            this.leafDataLen = (int) (fileHeader.getWorkSize() * fillFactor);
+            this.transaction = transaction;
+            this.lsn = lsn;
+            if (firstLeaf != null) {
+                levels.add(new Level(firstLeaf, null));
+            }
+        }
 
-                // promote first key of page to parent
-                if (node.nKeys < 1) {
-    //                throw new IOException("No keys found in page " + node.page.getPageNum());
-                    continue;
-                }
-                final Value key = node.keys[0];
-                final BTreeNode parent = findParent(key);
-                if (parent == null) {
-                    throw new IOException("Parent is null for page " + node.page.getPageNum());
+        /**
+         * Add the next key of the tree.
+         *
+         * @param key the key, must be greater than the previous key
+         * @param pointer the pointer to associate with the key
+         * @throws IOException if an I/O error occurs
+         * @throws BTreeException if the key is not in ascending order
+         */
+        public void add(final Value key, final long pointer) throws IOException, BTreeException {
+            if (lastKey != null && key.compareTo(lastKey) <= 0) {
+                throw new BTreeException("Keys must be bulk loaded in ascending order: " + key + " <= " + lastKey);
+            }
+            final Level leafLevel = levels.get(0);
+            BTreeNode leaf = leafLevel.node;
+            if (leaf.nKeys > 0 && leafDataLenWith(leaf, key) > leafDataLen) {
+                final BTreeNode next = newNode(LEAF);
+                leaf.pageHeader.setNextPage(next.page.getPageNum());
+                promote(1, leaf, leafLevel.firstKey);
+                leafLevel.node = next;
+                leafLevel.firstKey = null;
+                leaf = next;
+            }
+            if (leafLevel.firstKey == null) {
+                leafLevel.firstKey = key;
+            }
+            leaf.insertKey(key, leaf.nKeys);
+            leaf.insertPointer(pointer, leaf.nPtrs);
+            leaf.adjustDataLen(leaf.nKeys - 1);
+            lastKey = key;
+            keys++;
+        }
+
+        /**
+         * Complete the tree and write all remaining pages. If the load is
+         * not journalled, the pages are forced to disk.
+         *
+         * @return the number of keys which were loaded
+         * @throws IOException if an I/O error occurs
+         * @throws BTreeException if an error occurs with the tree
+         */
+        public long finish() throws IOException, BTreeException {
+            completeLevels();
+            if (!isJournalled()) {
+                force();
+            }
+            return keys;
+        }
+
+        /**
+         * Add an existing, finished leaf to the tree. Used by {@link #rebuild()}.
+         */
+        private void addLeaf(final BTreeNode leaf) throws IOException, BTreeException {
+            if (levels.isEmpty()) {
+                levels.add(new Level(null, null));
+            }
+            promote(1, leaf, leaf.keys[0]);
+        }
+
+        private boolean isEmpty() {
+            return levels.isEmpty();
+        }
+
+        private void completeLevels() throws IOException, BTreeException {
+            for (int i = 0; i < levels.size(); i++) {
+                final Level level = levels.get(i);
+                if (i == levels.size() - 1) {
+                    // the single node on the top level becomes the root
+                    BTreeNode root = level.node;
+                    if (root.pageHeader.getStatus() == BRANCH && root.nPtrs == 1) {
+                        // a branch with a single child is not needed
+                        unlinkPages(root.page);
+                        root = level.children.remove(0);
+                    } else {
+                        writeChildren(root, level.children);
+                    }
+                    root.setParent(null);
+                    write(root, true);
+                    setRootNode(root);
+                } else if (level.node != null) {
+                    writeChildren(level.node, level.children);
+                    promote(i + 1, level.node, level.firstKey);
                 }
-                if (parent.pageHeader.getStatus() != BRANCH) {
-                    throw new IOException("Not a branch page: " + parent.page.getPageNum());
+            }
+        }
+
+        /**
+         * Add a finished node as the right-most child of the node which is
+         * being filled on the given level, starting a new node there if
+         * the current one is full.
+         */
+        private void promote(final int height, final BTreeNode child, final Value firstKey)
+                throws IOException, BTreeException {
+            if (levels.size() == height) {
+                levels.add(new Level(null, null));
+            }
+            final Level level = levels.get(height);
+            if (level.node == null) {
+                level.node = newNode(BRANCH);
+                level.firstKey = firstKey;
+            } else if (branchDataLenWith(level.node, firstKey) > fileHeader.getWorkSize()) {
+                final BTreeNode full = level.node;
+                final Value fullFirstKey = level.firstKey;
+                writeChildren(full, level.children);
+                level.node = newNode(BRANCH);
+                level.firstKey = firstKey;
+                promote(height + 1, full, fullFirstKey);
+            } else {
+                level.node.insertKey(firstKey, level.node.nKeys);
+            }
+            level.node.insertPointer(child.page.getPageNum(), level.node.nPtrs);
+            level.node.recalculateDataLen();
+            level.children.add(child);
+        }
+
+        private void writeChildren(final BTreeNode parent, final List<BTreeNode> children) throws IOException {
+            for (final BTreeNode child : children) {
+                child.setParent(parent);
+                write(child, false);
+            }
+            children.clear();
+        }
+
+        private boolean isJournalled() {
+            return transaction != null && lsn != Lsn.LSN_INVALID;
+        }
+
+        private void write(final BTreeNode node, final boolean root) throws IOException {
+            if (lsn != Lsn.LSN_INVALID) {
+                node.pageHeader.setLsn(lsn);
+            }
+            node.write();
+            if (isJournalled()) {
+                final Loggable loggable = new BulkLoadPageLoggable(transaction, fileId, node.page.getPageNum(), root,
+                        readPageImage(node.page));
+                try {
+                    logManager.get().journal(loggable);
+                } catch (final JournalException e) {
+                    throw new IOException(e.getMessage(), e);
                 }
+            }
+        }
 
-                parent.promoteValue(null, key, node);
+        private BTreeNode newNode(final byte status) throws IOException {
+            final BTreeNode node = new BTreeNode(getFreePage(true), true);
+            node.pageHeader.setStatus(status);
+            return node;
+        }
+
+        /**
+         * The data length of the leaf after appending the key, taking the
+         * prefix compression of leaf pages into account.
+         */
+        private int leafDataLenWith(final BTreeNode leaf, final Value key) {
+            int prefixLen = key.commonPrefix(leaf.keys[leaf.nKeys - 1]);
+            if (prefixLen < 0 || prefixLen > Byte.MAX_VALUE) {
+                prefixLen = 0;
             }
+            int len = leaf.getDataLen() + 8 + 1 + key.getLength() - prefixLen;
+            if (fileHeader.getFixedKeyLen() < 0) {
+                len += 2;
+            }
+            return len;
         }
-    }
 
-    /**
-     * Walk the tree to find the parent page to which key should
-     * be promoted.
-     *
-     * @param key the key
-     * @return the parent node
-     * @throws IOException if an I/O error occurs
-     */
-    private BTreeNode findParent(final Value key) throws IOException {
-        BTreeNode node = getRootNode();
-        BTreeNode last = node;
-        while (node.pageHeader.getStatus() != LEAF) {
-            last = node;
-            try {
-                int idx = node.searchKey(key);
-                idx = idx < 0 ? - (idx + 1) : idx + 1;
-                node = node.getChildNode(idx);
-            } catch (final Exception e) {
-                e.printStackTrace();
-                throw new IOException("Error while scanning page " + node.page.getPageNum());
+        /**
+         * The data length of the branch after appending the key, taking into
+         * account that the common prefix of the branch may shrink.
+         */
+        private int branchDataLenWith(final BTreeNode branch, final Value key) {
+            final int oldPrefixLen = branch.prefix.getLength();
+            final int newPrefixLen = branch.nKeys == 0 ? key.getLength() : key.checkPrefix(branch.prefix);
+            int len = branch.getDataLen() + (newPrefixLen - oldPrefixLen)
+                    + branch.nKeys * (oldPrefixLen - newPrefixLen) + key.getLength() - newPrefixLen + 8;
+            if (fileHeader.getFixedKeyLen() < 0) {
+                len += 2;
+            }
+            return len;
+        }
+
+        private final class Level {
+            @Nullable BTreeNode node;
+            @Nullable Value firstKey;
+            final List<BTreeNode> children = new ArrayList<>();
+
+            Level(@Nullable final BTreeNode node, @Nullable final Value firstKey) {
+                this.node = node;
+                this.firstKey = firstKey;
             }
         }
-        return last;
     }
 
     /* -------------------------------------------------------------------------
@@ -874,6 +1264,53 @@ public class BTree extends Paged implements Lockable {
         }
     }
 
+    /**
+     * Redo the write of a page by a bulk load. The pages of a bulk load carry the
+     * LSN of its {@link BulkLoadLoggable}, so a page which has not been changed since
+     * is written again; this is harmless as the image is the same.
+     */
+    protected void redoBulkLoadPage(final BulkLoadPageLoggable loggable) throws LogException {
+        try {
+            final Page page = getPage(loggable.pageNum);
+            page.read();
+            if (requiresRedo(loggable, page)) {
+                final BTreeNode cached = cache.get(loggable.pageNum);
+                if (cached != null) {
+                    cache.remove(cached);
+                }
+                writePageImage(page, loggable.image, loggable.getLsn());
+            }
+            if (loggable.root) {
+                setRootNode(getBTreeNode(loggable.pageNum));
+            }
+        } catch (final IOException e) {
+            throw new LogException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Undo a bulk load by resetting the tree to its empty root page.
+     * The other pages written by the bulk load are not reclaimed.
+     */
+    protected void undoBulkLoad(final BulkLoadLoggable loggable) throws LogException {
+        try {
+            final BTreeNode cached = cache.get(loggable.rootPage);
+            if (cached != null) {
+                cache.remove(cached);
+            }
+            final BTreeNode root = new BTreeNode(getPage(loggable.rootPage), true);
+            root.pageHeader.setStatus(LEAF);
+            root.pageHeader.setNextPage(Page.NO_PAGE);
+            root.setPointers(new long[0]);
+            root.setParent(null);
+            root.pageHeader.setLsn(loggable.getLsn());
+            root.write();
+            setRootNode(root);
+        } catch (final IOException e) {
+            throw new LogException(e.getMessage(), e);
+        }
+    }
+
     protected void redoSetPageLink(final SetPageLinkLoggable loggable) throws LogException {
         final BTreeNode node = getBTreeNode(loggable.pageNum);
         if (requiresRedo(loggable, node.page)) {
@@ -0,0 +1,79 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.exist.storage.btree;
+
+import org.exist.storage.DBBroker;
+import org.exist.storage.journal.LogException;
+import org.exist.storage.txn.Txn;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Written once by {@link BTree.BulkLoader} when a bulk load starts,
+ * instead of logging the individual inserts of the bulk load.
+ *
+ * The pages written by the bulk load are journalled as a whole by
+ * {@link BulkLoadPageLoggable}s, which redo the bulk load. Undoing the bulk
+ * load resets the tree to its empty root page; the other pages which were
+ * written by the bulk load are not returned to the free list.
+ */
+public class BulkLoadLoggable extends BTAbstractLoggable {
+
+    protected long rootPage;
+
+    public BulkLoadLoggable(final Txn transaction, final byte fileId, final long rootPage) {
+        super(BTree.LOG_BULK_LOAD, fileId, transaction);
+        this.rootPage = rootPage;
+    }
+
+    public BulkLoadLoggable(final DBBroker broker, final long transactionId) {
+        super(BTree.LOG_BULK_LOAD, broker, transactionId);
+    }
+
+    @Override
+    public void undo() throws LogException {
+        getStorage().undoBulkLoad(this);
+    }
+
+    @Override
+    public void write(final ByteBuffer out) {
+        super.write(out);
+        out.putLong(rootPage);
+    }
+
+    @Override
+    public void read(final ByteBuffer in) {
+        super.read(in);
+        rootPage = in.getLong();
+    }
+
+    @Override
+    public int getLogSize() {
+        return super.getLogSize() + 8;
+    }
+
+    @Override
+    public String dump() {
+        return super.dump() + " - bulk load into empty root page: " + rootPage;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.btree;
+
+import org.exist.storage.DBBroker;
+import org.exist.storage.journal.LogException;
+import org.exist.storage.txn.Txn;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Journals the image of a page which was written by a bulk load,
+ * see {@link BulkLoadLoggable}. If the page is the root of the
+ * loaded tree, redo also makes it the root page of the file.
+ */
+public class BulkLoadPageLoggable extends BTAbstractLoggable {
+
+    protected long pageNum;
+    protected boolean root;
+    protected byte[] image;
+
+    public BulkLoadPageLoggable(final Txn transaction, final byte fileId, final long pageNum, final boolean root,
+            final byte[] image) {
+        super(BTree.LOG_BULK_LOAD_PAGE, fileId, transaction);
+        this.pageNum = pageNum;
+        this.root = root;
+        this.image = image;
+    }
+
+    public BulkLoadPageLoggable(final DBBroker broker, final long transactionId) {
+        super(BTree.LOG_BULK_LOAD_PAGE, broker, transactionId);
+    }
+
+    @Override
+    public void redo() throws LogException {
+        getStorage().redoBulkLoadPage(this);
+    }
+
+    @Override
+    public void write(final ByteBuffer out) {
+        super.write(out);
+        out.putLong(pageNum);
+        out.put(root ? (byte) 1 : (byte) 0);
+        out.putInt(image.length);
+        out.put(image);
+    }
+
+    @Override
+    public void read(final ByteBuffer in) {
+        super.read(in);
+        pageNum = in.getLong();
+        root = in.get() == 1;
+        image = new byte[in.getInt()];
+        in.get(image);
+    }
+
+    @Override
+    public int getLogSize() {
+        return super.getLogSize() + 13 + image.length;
+    }
+
+    @Override
+    public String dump() {
+        return super.dump() + " - bulk loaded " + (root ? "root " : "") + "page: " + pageNum;
+    }
+}
@@ -81,20 +81,40 @@ import org.exist.util.FileUtils;
 import org.exist.xquery.Constants;
 
 import java.lang.AutoCloseable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
 import java.nio.channels.NonWritableChannelException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
 
 /**
  *  Paged is a paged file foundation that is used by the BTree class and
  *  its subclasses.
+ *
+ *  All page I/O is performed with positional reads and writes on a
+ *  {@link FileChannel}, so concurrent readers do not contend on a shared
+ *  file pointer. Files listed in the {@code memory-mapped-files} attribute
+ *  of {@code db-connection} in conf.xml additionally read their pages from
+ *  a read-only memory mapping of the file, which is re-mapped as the file grows.
+ *  A mapping is only unmapped once it has been replaced (or the file closed) and
+ *  the last reader using it has finished.
  */
 public abstract class Paged implements AutoCloseable {
 
@@ -123,6 +143,9 @@ public abstract class Paged implements AutoCloseable {
 
     protected final static Logger LOG = LogManager.getLogger(Paged.class);
 
+    public static final String MEMORY_MAPPED_FILES_ATTRIBUTE = "memory-mapped-files";
+    public static final String PROPERTY_MEMORY_MAPPED_FILES = "db-connection.memory-mapped-files";
+
     protected final static byte DELETED = 127;
     protected final static byte OVERFLOW = 126;
     protected final static byte UNUSED = 0;
@@ -132,18 +155,47 @@ public abstract class Paged implements AutoCloseable {
     protected final short fileVersion;
     private final FileHeader fileHeader;
     private final byte[] tempPageData;
-    private final byte[] tempHeaderData;
 
-    private RandomAccessFile raf;
+    private final Collection<String> memoryMappedFiles;
+
+    private FileChannel channel;
     private Path file;
     private boolean readOnly = false;
     private boolean fileIsNew = false;
+
+    /**
+     * The minimum number of bytes by which a memory mapped file must have grown
+     * before it is re-mapped. Pages beyond the mapped region are read from the channel
+     * until then, so that a file which grows page by page is not re-mapped on every read.
+     */
+    static final long MIN_REMAP_GROWTH = 1024 * 1024;
+
+    /**
+     * Read-only mapping of the start of the file, only used for memory mapped files.
+     * Replaced by {@link #remap(long)} when a read falls far enough beyond the mapped region.
+     */
+    private volatile Mapping mapped = null;
+
+    /**
+     * true if pages are read through {@link #mapped}. The file is mapped lazily,
+     * so that a file which is empty when it is opened is mapped once it has grown.
+     */
+    private boolean memoryMapped = false;
+
+    /**
+     * Unmaps a direct buffer, or null if the JDK does not allow it, in which
+     * case the mapping is released when the buffer is garbage collected.
+     */
+    private static final MethodHandle UNMAP = lookupUnmap();
 	
+    @SuppressWarnings("unchecked")
     public Paged(final BrokerPool pool, final short fileVersion) {
         this.fileVersion = fileVersion;
         this.fileHeader = createFileHeader(pool.getPageSize());
         this.tempPageData = new byte[fileHeader.pageSize];
-        this.tempHeaderData = new byte[fileHeader.pageHeaderSize];
+        final Collection<String> memoryMappedFiles = pool.getConfiguration() != null ?
+                (Collection<String>) pool.getConfiguration().getProperty(PROPERTY_MEMORY_MAPPED_FILES) : null;
+        this.memoryMappedFiles = memoryMappedFiles != null ? memoryMappedFiles : Collections.emptyList();
     }
 
     public final static void setPageSize(final int pageSize) {
@@ -166,7 +218,17 @@ public abstract class Paged implements AutoCloseable {
     @Override
     public void close() throws DBException {
         try {
-            raf.close();
+            final Mapping current;
+            synchronized (this) {
+                current = mapped;
+                mapped = null;
+                memoryMapped = false;
+            }
+            if (current != null) {
+                // unmapped once the readers which still use it have finished
+                current.release();
+            }
+            channel.close();
         } catch (final IOException e) {
             throw new DBException("An error occurred whilst closing the database file '"
                     + file == null ? "null" : FileUtils.fileName(file) + "': " + e.getMessage());
@@ -234,6 +296,18 @@ public abstract class Paged implements AutoCloseable {
         return flushed;
     }
 
+    /**
+     * Force all pages which have been written so far to the disk.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    protected void force() throws IOException {
+        if (fileHeader.isDirty()) {
+            fileHeader.write();
+        }
+        channel.force(false);
+    }
+
     /**
      * Backup the entire contents of the underlying file to 
      * an output stream.
@@ -242,11 +316,14 @@ public abstract class Paged implements AutoCloseable {
      * @throws IOException if an I/O error occurs
      */
     public void backupToStream(final OutputStream os) throws IOException {
-        raf.seek(0);
         final byte[] buf = new byte[4096];
+        final ByteBuffer buffer = ByteBuffer.wrap(buf);
+        long position = 0;
         int len;
-        while ((len = raf.read(buf)) > 0) {
+        while ((len = channel.read(buffer, position)) > 0) {
             os.write(buf, 0, len);
+            position += len;
+            buffer.clear();
         }
     }
 
@@ -400,28 +477,275 @@ public abstract class Paged implements AutoCloseable {
         try {
             if ((!Files.exists(file)) || Files.isWritable(file)) {
                 try {
-                    raf = new RandomAccessFile(file.toFile(), "rw");
-                    final FileChannel channel = raf.getChannel();   
+                    channel = FileChannel.open(file, CREATE, READ, WRITE);
                     final FileLock lock = channel.tryLock();
                     if (lock == null) {
                         readOnly = true;
                     }
-                //TODO : who will release the lock ? -pb
+                //NOTE: the lock is released when the channel is closed
                 } catch (final NonWritableChannelException e) {
                     //No way : switch to read-only mode
                     readOnly = true;
-                    raf = new RandomAccessFile(file.toFile(), "r");
+                    channel = FileChannel.open(file, READ);
                     LOG.warn(e);
                 }
             } else {
                 readOnly = true;
-                raf = new RandomAccessFile(file.toFile(), "r");
+                channel = FileChannel.open(file, READ);
+            }
+
+            if (memoryMappedFiles.contains(FileUtils.fileName(file))) {
+                LOG.info("Using memory mapped reads for database file: {}", FileUtils.fileName(file));
+                memoryMapped = true;
+                remap(0);
             }
         } catch (final IOException e) {
             LOG.warn("An exception occurred while opening database file {}: {}", file.toAbsolutePath().toString(), e.getMessage(), e);
         }
     }
 
+    /**
+     * Returns true if pages of this file are read through a memory mapping.
+     *
+     * @return true if memory mapped reads are used
+     */
+    public final boolean isMemoryMapped() {
+        return memoryMappedFiles.contains(FileUtils.fileName(file));
+    }
+
+    /**
+     * Returns true if the file is currently mapped into memory.
+     *
+     * @return true if the file is mapped
+     */
+    final boolean isMapped() {
+        return mapped != null;
+    }
+
+    /**
+     * Returns the number of bytes of the file which are currently mapped into memory.
+     *
+     * @return the size of the mapping, or 0 if the file is not mapped
+     */
+    final long getMappedSize() {
+        final Mapping current = mapped;
+        return current != null ? current.buffer.capacity() : 0;
+    }
+
+    /**
+     * Re-map the file if it has grown so far that the region
+     * ending at {@code requiredEnd} is beyond {@link Mapping#remapAt}.
+     *
+     * The replaced mapping is released, and unmapped once
+     * the readers which still use it have finished.
+     *
+     * @param requiredEnd the end offset of the region which should be mapped
+     *
+     * @return the current mapping, or null if the file is not mapped
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    private synchronized Mapping remap(final long requiredEnd) throws IOException {
+        final Mapping current = mapped;
+        if (!memoryMapped || (current != null && requiredEnd <= current.remapAt)) {
+            return current;
+        }
+
+        final long size = Math.min(channel.size(), Integer.MAX_VALUE);
+        if (size <= 0 || (current != null && size <= current.buffer.capacity())) {
+            return current;
+        }
+
+        final Mapping replacement = new Mapping(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        mapped = replacement;
+        if (current != null) {
+            current.release();
+        }
+        return replacement;
+    }
+
+    /**
+     * A read-only mapping of the file, which is reference counted so that it is
+     * only unmapped once it is no longer the current mapping and no reader uses it.
+     */
+    private static final class Mapping {
+        private final MappedByteBuffer buffer;
+
+        /**
+         * The end of a region which has to be read before the file is re-mapped.
+         */
+        private final long remapAt;
+
+        /**
+         * The number of readers using the mapping, plus one whilst it is the current mapping.
+         */
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        private Mapping(final MappedByteBuffer buffer) {
+            this.buffer = buffer;
+            this.remapAt = buffer.capacity() + Math.max(MIN_REMAP_GROWTH, buffer.capacity() / 4);
+        }
+
+        /**
+         * Acquire the mapping for reading.
+         *
+         * @return true if the mapping may be read until {@link #release()} is called,
+         *     false if it has already been unmapped
+         */
+        private boolean acquire() {
+            int count;
+            do {
+                count = references.get();
+                if (count == 0) {
+                    return false;
+                }
+            } while (!references.compareAndSet(count, count + 1));
+            return true;
+        }
+
+        /**
+         * Release a reference to the mapping, unmapping it when the last reference is released.
+         */
+        private void release() {
+            if (references.decrementAndGet() == 0) {
+                unmap(buffer);
+            }
+        }
+    }
+
+    private static MethodHandle lookupUnmap() {
+        try {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            return MethodHandles.lookup()
+                    .findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+                    .bindTo(theUnsafe.get(null));
+        } catch (final ReflectiveOperationException | RuntimeException e) {
+            LOG.debug("Unable to unmap memory mapped files explicitly: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Release a mapping of the file straight away instead of when the buffer is
+     * garbage collected, which otherwise keeps the file locked on Windows.
+     * The buffer must not be used afterwards, so this is only called once
+     * the last reference to its {@link Mapping} has been released.
+     *
+     * @param buffer the mapping to release
+     */
+    private static void unmap(final MappedByteBuffer buffer) {
+        if (UNMAP == null) {
+            return;
+        }
+        try {
+            UNMAP.invokeExact((ByteBuffer) buffer);
+        } catch (final Throwable e) {
+            LOG.warn("Unable to unmap memory mapped file: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Read bytes from the file at the given position without moving
+     * any shared file pointer, so it may be called concurrently.
+     *
+     * If the end of the file is reached, the remainder of {@code buf}
+     * is left untouched.
+     *
+     * @param buf the buffer to read into
+     * @param position the position in the file to start reading from
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    private void read(final byte[] buf, long position) throws IOException {
+        if (memoryMapped && position + buf.length <= Integer.MAX_VALUE) {
+            final long end = position + buf.length;
+            Mapping current = mapped;
+            if (current == null || end > current.remapAt) {
+                current = remap(end);
+            }
+            if (current != null && end <= current.buffer.capacity() && current.acquire()) {
+                try {
+                    current.buffer.get((int) position, buf, 0, buf.length);
+                    return;
+                } finally {
+                    current.release();
+                }
+            }
+        }
+
+        final ByteBuffer buffer = ByteBuffer.wrap(buf);
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, position);
+            if (read < 0) {
+                break;
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * Read the header and data of a page as they are stored in the file,
+     * e.g. to journal an image of the page.
+     *
+     * @param page the page to read
+     *
+     * @return the page header followed by the data of the page
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    protected final byte[] readPageImage(final Page page) throws IOException {
+        final byte[] pageData = new byte[fileHeader.pageSize];
+        read(pageData, page.getOffset());
+        final PageHeader header = createPageHeader();
+        header.read(pageData, 0);
+        return Arrays.copyOf(pageData, fileHeader.pageHeaderSize + header.getDataLen());
+    }
+
+    /**
+     * Write an image of a page, as read by {@link #readPageImage(Page)}, to the file,
+     * e.g. to redo a journalled image of the page. The header of the page is read
+     * from the image, and the page count of the file is extended to include the page.
+     *
+     * @param page the page to write
+     * @param image the page header followed by the data of the page
+     * @param lsn the LSN to set in the page header
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    protected final void writePageImage(final Page page, final byte[] image, final Lsn lsn) throws IOException {
+        if (image.length > fileHeader.pageSize) {
+            throw new IOException("page: " + page.getPageInfo() + ": image length too large: " + image.length);
+        }
+        final byte[] pageData = new byte[fileHeader.pageSize];
+        System.arraycopy(image, 0, pageData, 0, image.length);
+        final PageHeader header = page.getPageHeader();
+        header.read(pageData, 0);
+        header.setLsn(lsn);
+        header.write(pageData, 0);
+        write(pageData, page.getOffset());
+        if (page.getPageNum() >= fileHeader.getTotalCount()) {
+            // the page was lost with the end of the file, it must not be handed out again
+            fileHeader.setTotalCount(page.getPageNum() + 1);
+        }
+    }
+
+    /**
+     * Write bytes to the file at the given position.
+     *
+     * @param buf the bytes to write
+     * @param position the position in the file to start writing at
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    private void write(final byte[] buf, long position) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(buf);
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
     /**
      * Unlinks a set of pages starting at the specified page.
      *
@@ -711,8 +1035,7 @@ public abstract class Paged implements AutoCloseable {
         }
 
         public final synchronized void read() throws IOException {
-            raf.seek(0);
-            raf.read(buf);
+            Paged.this.read(buf, 0);
             read(buf);
             calculateWorkSize();
             dirty = false;
@@ -848,9 +1171,8 @@ public abstract class Paged implements AutoCloseable {
         }
 
         public final synchronized void write() throws IOException {
-            raf.seek(0);
             write(buf);
-            raf.write(buf);
+            Paged.this.write(buf, 0);
             dirty = false;
         }
     }
@@ -944,17 +1266,14 @@ public abstract class Paged implements AutoCloseable {
 
         public byte[] read() throws IOException {
             try {
-                if (raf.getFilePointer() != offset) {
-                    raf.seek(offset);
-                }
-                Arrays.fill(tempHeaderData, (byte)0);
-                raf.read(tempHeaderData);
+                // Read the whole page with a single positional read
+                final byte[] pageData = new byte[fileHeader.pageSize];
+                Paged.this.read(pageData, offset);
                 // Read in the header
-                header.read(tempHeaderData, 0);
+                header.read(pageData, 0);
                 // Read the working data
-                final byte[] workData = new byte[header.dataLen];
-                raf.read(workData);
-                return workData;
+                final int dataStart = fileHeader.pageHeaderSize;
+                return Arrays.copyOfRange(pageData, dataStart, dataStart + header.dataLen);
             } catch(final Exception e) {
                 LOG.warn("error while reading page: {}", getPageInfo(), e);
                 throw new IOException(e.getMessage());
@@ -986,10 +1305,7 @@ public abstract class Paged implements AutoCloseable {
                     System.arraycopy(data, 0, tempPageData, fileHeader.pageHeaderSize, data.length);
                 }
             }
-            if (raf.getFilePointer() != offset) {
-                raf.seek(offset);
-            }
-            raf.write(tempPageData);
+            Paged.this.write(tempPageData, offset);
         }
 
         @Override
@@ -1009,11 +1325,8 @@ public abstract class Paged implements AutoCloseable {
         }
 
         public void dumpPage() throws IOException {
-            if (raf.getFilePointer() != offset) {
-                raf.seek(offset);
-            }
             final byte[] data = new byte[fileHeader.pageSize];
-            raf.read(data);
+            Paged.this.read(data, offset);
             LOG.debug("Contents of page {}: {}", pageNum, hexDump(data));
         }
     }
@@ -179,4 +179,14 @@ public interface Cache<T extends Cacheable> {
      * @return The name of the cache
      */
     String getName();
+
+    /**
+     * Returns true if the cache may be used by several threads
+     * at the same time without external synchronization.
+     *
+     * @return true if the cache is thread-safe, false by default
+     */
+    default boolean isThreadSafe() {
+        return false;
+    }
 }
\ No newline at end of file
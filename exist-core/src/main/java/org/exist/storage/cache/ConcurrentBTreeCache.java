@@ -0,0 +1,43 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.cache;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Thread-safe variant of {@link BTreeCache}. Like {@link BTreeCache}
+ * it tries to keep the inner btree pages in cache, only evicting
+ * them when no leaf page can be evicted.
+ */
+@ThreadSafe
+public class ConcurrentBTreeCache<T extends BTreeCacheable> extends ConcurrentClockCache<T> {
+
+    public ConcurrentBTreeCache(final String name, final int size, final double growthFactor, final double growthThreshold, final CacheType type) {
+        super(name, size, growthFactor, growthThreshold, type);
+    }
+
+    @Override
+    protected boolean isEvictable(final T item, final int sweep) {
+        // inner pages may only be evicted during the final sweep
+        return item.allowUnload() && (sweep > MAX_USAGE || !item.isInnerPage());
+    }
+}
@@ -0,0 +1,544 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.cache;
+
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.storage.CacheManager;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A thread-safe cache which is split into a fixed number of independently
+ * locked shards, each of which implements a CLOCK replacement policy with
+ * small saturating usage counters (Generalized CLOCK).
+ *
+ * Keys are spread over the shards by hash, so concurrent threads working
+ * on different pages rarely contend for the same lock. A hit only bumps
+ * the usage counter of the entry, nothing is re-ordered. The size limit
+ * applies to the cache as a whole; once it is reached, adding an item
+ * sweeps the clock hand of the item's shard over its entries, decrementing
+ * their counters, until it finds an entry with no remaining usage which
+ * {@link Cacheable#allowUnload() allows unloading}; that entry is synced
+ * and replaced. If no entry of that shard can be evicted, because they are
+ * all pinned or the shard holds few entries, an entry of another shard is
+ * evicted instead. Concurrent adds may briefly exceed the limit by a few entries,
+ * the excess is evicted again before they return.
+ *
+ * Contrary to {@link LRUCache}, if every entry of the cache is pinned,
+ * the cache temporarily grows rather than looping forever.
+ *
+ * The cache supports the {@link org.exist.storage.DefaultCacheManager}
+ * resize protocol in the same way as {@link LRUCache}.
+ *
+ * @param <T> The type that implements {@link Cacheable}
+ */
+@ThreadSafe
+public class ConcurrentClockCache<T extends Cacheable> implements Cache<T> {
+    private final static Logger LOG = LogManager.getLogger(ConcurrentClockCache.class);
+
+    /**
+     * Maximum value of the usage counter of an entry
+     */
+    static final int MAX_USAGE = 3;
+
+    /**
+     * Maximum number of shards
+     */
+    static final int MAX_SHARDS = 16;
+
+    /**
+     * Minimum number of entries per shard for the shard count to be increased
+     */
+    static final int MIN_SHARD_CAPACITY = 8;
+
+    /**
+     * Initial number of slots of a shard
+     */
+    private static final int INITIAL_SHARD_SLOTS = 16;
+
+    private final String name;
+    private final CacheType type;
+    protected final double growthFactor;
+    @GuardedBy("accounting") protected final Accounting accounting;
+    private final Shard[] shards;
+    private final int shardMask;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final AtomicInteger used = new AtomicInteger();
+
+    private volatile int max;
+    private volatile int hitsOld = -1;
+    protected volatile CacheManager cacheManager = null;
+
+    public ConcurrentClockCache(final String name, final int size, final double growthFactor, final double growthThreshold, final CacheType type) {
+        this(name, size, growthFactor, growthThreshold, type, Runtime.getRuntime().availableProcessors());
+    }
+
+    @SuppressWarnings("unchecked")
+    ConcurrentClockCache(final String name, final int size, final double growthFactor, final double growthThreshold, final CacheType type, final int concurrency) {
+        this.name = name;
+        this.type = type;
+        this.max = size;
+        this.growthFactor = growthFactor;
+        this.accounting = new Accounting(growthThreshold);
+        this.accounting.setTotalSize(size);
+
+        // never use so many shards that a shard would be smaller than MIN_SHARD_CAPACITY
+        final int shardCount = Math.max(1, Math.min(
+                Integer.highestOneBit(Math.max(1, Math.min(concurrency, MAX_SHARDS))),
+                Integer.highestOneBit(Math.max(1, size / MIN_SHARD_CAPACITY))));
+        this.shards = (Shard[]) Array.newInstance(Shard.class, shardCount);
+        this.shardMask = shardCount - 1;
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard();
+        }
+    }
+
+    private Shard shardFor(final long key) {
+        return shards[(int) HashCommon.mix(key) & shardMask];
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public CacheType getType() {
+        return type;
+    }
+
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
+    @Override
+    public void add(final T item) {
+        add(item, 1);
+    }
+
+    @Override
+    public void add(final T item, final int initialRefCount) {
+        final int shardIdx = (int) HashCommon.mix(item.getKey()) & shardMask;
+        final Shard shard = shards[shardIdx];
+        final AddResult result;
+        shard.lock.lock();
+        try {
+            result = shard.add(item, Math.min(Math.max(initialRefCount, 1), MAX_USAGE));
+        } finally {
+            shard.lock.unlock();
+        }
+
+        // NOTE: must be called without holding a shard lock, as a resize locks every shard
+        boolean replaced = result == AddResult.REPLACED;
+        if (result != AddResult.UPDATED && used.get() > max) {
+            replaced |= trimToLimit(shardIdx, item.getKey());
+        }
+        if (replaced) {
+            replacedPage(item);
+        }
+    }
+
+    /**
+     * Evict entries until the cache is within its size limit again. This is needed when
+     * the shard of a new item could not evict an entry of its own, and when concurrent
+     * adds to different shards have together gone beyond the limit. The shards after the
+     * one of the new item are tried first, and only one shard lock is held at a time.
+     *
+     * @param shardIdx the index of the shard the item was added to
+     * @param key the key of the added item, which must not be evicted
+     *
+     * @return true if an entry was evicted
+     */
+    private boolean trimToLimit(final int shardIdx, final long key) {
+        boolean evicted = false;
+        for (int i = 1; i <= shards.length && used.get() > max; i++) {
+            final Shard shard = shards[(shardIdx + i) & shardMask];
+            shard.lock.lock();
+            try {
+                while (used.get() > max && shard.evictToFreeSlot(key)) {
+                    evicted = true;
+                }
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        if (used.get() > max && LOG.isDebugEnabled()) {
+            // every entry of the cache is pinned, overflow rather than spin
+            LOG.debug("Unable to remove entry from cache: {}", name);
+        }
+        return evicted;
+    }
+
+    private enum AddResult {
+        ADDED,
+        UPDATED,
+        REPLACED,
+        OVERFLOWED
+    }
+
+    private void replacedPage(final T item) {
+        final boolean resizeNeeded;
+        synchronized (accounting) {
+            accounting.replacedPage(item);
+            resizeNeeded = growthFactor > 1.0 && accounting.resizeNeeded();
+        }
+        final CacheManager manager = cacheManager;
+        if (resizeNeeded && manager != null) {
+            manager.requestMem(this);
+        }
+    }
+
+    @Override
+    public T get(final T item) {
+        return get(item.getKey());
+    }
+
+    @Override
+    public T get(final long key) {
+        final Shard shard = shardFor(key);
+        final T item;
+        shard.lock.lock();
+        try {
+            item = shard.get(key);
+        } finally {
+            shard.lock.unlock();
+        }
+
+        if (item == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return item;
+    }
+
+    @Override
+    public void remove(final T item) {
+        final Shard shard = shardFor(item.getKey());
+        shard.lock.lock();
+        try {
+            shard.remove(item.getKey());
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean hasDirtyItems() {
+        for (final Shard shard : shards) {
+            shard.lock.lock();
+            try {
+                for (int i = 0; i < shard.items.length; i++) {
+                    final Cacheable item = shard.items[i];
+                    if (item != null && item.isDirty()) {
+                        return true;
+                    }
+                }
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean flush() {
+        boolean flushed = false;
+        for (final Shard shard : shards) {
+            shard.lock.lock();
+            try {
+                for (int i = 0; i < shard.items.length; i++) {
+                    final Cacheable item = shard.items[i];
+                    if (item != null && item.isDirty()) {
+                        flushed = flushed | item.sync(false);
+                    }
+                }
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        return flushed;
+    }
+
+    @Override
+    public int getBuffers() {
+        return max;
+    }
+
+    @Override
+    public double getGrowthFactor() {
+        return growthFactor;
+    }
+
+    @Override
+    public void resize(final int newSize) {
+        if (newSize < max) {
+            // shrink in the same way as LRUCache, i.e. flush and then drop all entries
+            flush();
+            for (final Shard shard : shards) {
+                shard.lock.lock();
+                try {
+                    shard.clear();
+                } finally {
+                    shard.lock.unlock();
+                }
+            }
+        }
+        max = newSize;
+        synchronized (accounting) {
+            accounting.reset();
+            accounting.setTotalSize(newSize);
+        }
+    }
+
+    @Override
+    public void setCacheManager(final CacheManager manager) {
+        this.cacheManager = manager;
+    }
+
+    @Override
+    public int getUsedBuffers() {
+        return used.get();
+    }
+
+    @Override
+    public int getHits() {
+        return hits.intValue();
+    }
+
+    @Override
+    public int getFails() {
+        return misses.intValue();
+    }
+
+    public int getThrashing() {
+        synchronized (accounting) {
+            return accounting.getThrashing();
+        }
+    }
+
+    @Override
+    public int getLoad() {
+        final int currentHits = getHits();
+        if (hitsOld == 0) {
+            hitsOld = currentHits;
+            return Integer.MAX_VALUE;
+        }
+        final int load = currentHits - hitsOld;
+        hitsOld = currentHits;
+        return load;
+    }
+
+    /**
+     * Determines whether an item may be evicted during a sweep of the clock hand.
+     *
+     * @param item the item which is considered for eviction
+     * @param sweep the number of complete sweeps of the clock hand made so far whilst searching for a victim
+     *
+     * @return true if the item may be evicted
+     */
+    protected boolean isEvictable(final T item, final int sweep) {
+        return item.allowUnload();
+    }
+
+    /**
+     * A single shard of the cache, all access must hold {@link #lock}.
+     */
+    private final class Shard {
+        private final ReentrantLock lock = new ReentrantLock();
+
+        /**
+         * Maps a key to the slot of its item
+         */
+        @GuardedBy("lock") private final Long2IntOpenHashMap slots;
+
+        @GuardedBy("lock") private Cacheable[] items;
+        @GuardedBy("lock") private byte[] usage;
+        @GuardedBy("lock") private final IntArrayList freeSlots = new IntArrayList();
+        @GuardedBy("lock") private int size = 0;
+        @GuardedBy("lock") private int hand = 0;
+
+        Shard() {
+            this.items = new Cacheable[INITIAL_SHARD_SLOTS];
+            this.usage = new byte[INITIAL_SHARD_SLOTS];
+            this.slots = new Long2IntOpenHashMap(INITIAL_SHARD_SLOTS * 2);
+            this.slots.defaultReturnValue(-1);
+            addFreeSlots(0, INITIAL_SHARD_SLOTS);
+        }
+
+        private void addFreeSlots(final int from, final int to) {
+            for (int slot = to - 1; slot >= from; slot--) {
+                freeSlots.add(slot);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        T get(final long key) {
+            final int slot = slots.get(key);
+            if (slot < 0) {
+                return null;
+            }
+            if (usage[slot] < MAX_USAGE) {
+                usage[slot]++;
+            }
+            return (T) items[slot];
+        }
+
+        /**
+         * @return whether the item was added, updated an existing entry, replaced another
+         *     entry of this shard, or was added beyond the size limit as no entry of this
+         *     shard could be evicted
+         */
+        AddResult add(final T item, final int initialUsage) {
+            final long key = item.getKey();
+            int slot = slots.get(key);
+            if (slot >= 0) {
+                items[slot] = item;
+                if (usage[slot] < MAX_USAGE) {
+                    usage[slot]++;
+                }
+                return AddResult.UPDATED;
+            }
+
+            AddResult result = AddResult.ADDED;
+            slot = -1;
+            if (used.get() >= max) {
+                slot = evict(key);
+                result = slot >= 0 ? AddResult.REPLACED : AddResult.OVERFLOWED;
+            }
+
+            if (slot < 0) {
+                if (freeSlots.isEmpty()) {
+                    final int oldLength = items.length;
+                    items = Arrays.copyOf(items, oldLength * 2);
+                    usage = Arrays.copyOf(usage, oldLength * 2);
+                    addFreeSlots(oldLength, oldLength * 2);
+                }
+                slot = freeSlots.popInt();
+            }
+
+            items[slot] = item;
+            usage[slot] = (byte) initialUsage;
+            slots.put(key, slot);
+            size++;
+            used.incrementAndGet();
+            return result;
+        }
+
+        /**
+         * Evict an entry of this shard and release its slot.
+         *
+         * @param excludeKey the key of an entry which must not be evicted
+         *
+         * @return true if an entry was evicted
+         */
+        boolean evictToFreeSlot(final long excludeKey) {
+            if (size == 0) {
+                return false;
+            }
+            final int slot = evict(excludeKey);
+            if (slot < 0) {
+                return false;
+            }
+            usage[slot] = 0;
+            freeSlots.add(slot);
+            return true;
+        }
+
+        /**
+         * Sweep the clock hand to find and evict an entry.
+         *
+         * @param excludeKey the key of an entry which must not be evicted
+         * @return the freed slot, or -1 if no entry could be evicted
+         */
+        @SuppressWarnings("unchecked")
+        private int evict(final long excludeKey) {
+            final int length = items.length;
+            // enough sweeps to age every counter to zero, plus one final sweep
+            final int maxSweeps = MAX_USAGE + 2;
+            for (int step = 0; step < length * maxSweeps; step++) {
+                final int slot = hand;
+                hand = (hand + 1) % length;
+
+                final T cached = (T) items[slot];
+                if (cached == null || cached.getKey() == excludeKey) {
+                    continue;
+                }
+
+                if (usage[slot] > 0) {
+                    usage[slot]--;
+                    continue;
+                }
+
+                if (isEvictable(cached, step / length)) {
+                    cached.sync(true);
+                    slots.remove(cached.getKey());
+                    items[slot] = null;
+                    size--;
+                    used.decrementAndGet();
+                    return slot;
+                }
+            }
+            return -1;
+        }
+
+        void remove(final long key) {
+            final int slot = slots.remove(key);
+            if (slot >= 0) {
+                items[slot] = null;
+                usage[slot] = 0;
+                freeSlots.add(slot);
+                size--;
+                used.decrementAndGet();
+            }
+        }
+
+        /**
+         * Drops all entries, which should have been flushed beforehand,
+         * in the same way as {@link LRUCache#shrink(int)}.
+         */
+        void clear() {
+            used.addAndGet(-size);
+            items = new Cacheable[INITIAL_SHARD_SLOTS];
+            usage = new byte[INITIAL_SHARD_SLOTS];
+            slots.clear();
+            slots.trim();
+            freeSlots.clear();
+            addFreeSlots(0, INITIAL_SHARD_SLOTS);
+            hand = 0;
+            size = 0;
+        }
+    }
+}
@@ -24,6 +24,7 @@ package org.exist.storage.dom;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.io.Writer;
 import java.nio.file.Path;
 import java.text.NumberFormat;
@@ -39,6 +40,10 @@ import it.unimi.dsi.fastutil.objects.Reference2LongMap;
 import it.unimi.dsi.fastutil.objects.Reference2LongOpenHashMap;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import net.jpountz.lz4.LZ4BlockInputStream;
+import net.jpountz.lz4.LZ4BlockOutputStream;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.xxhash.XXHashFactory;
 import org.exist.dom.persistent.AttrImpl;
 import org.exist.dom.persistent.DocumentImpl;
 import org.exist.dom.persistent.ElementImpl;
@@ -64,7 +69,6 @@ import org.exist.storage.btree.IndexQuery;
 import org.exist.storage.btree.Value;
 import org.exist.storage.cache.Cache;
 import org.exist.storage.cache.Cacheable;
-import org.exist.storage.cache.LRUCache;
 import org.exist.storage.journal.JournalException;
 import org.exist.storage.journal.LogEntryTypes;
 import org.exist.storage.journal.Loggable;
@@ -72,6 +76,7 @@ import org.exist.storage.journal.Lsn;
 import org.exist.storage.lock.LockManager;
 import org.exist.storage.txn.Txn;
 import org.exist.util.*;
+import org.apache.commons.io.input.UnsynchronizedByteArrayInputStream;
 import org.apache.commons.io.output.UnsynchronizedByteArrayOutputStream;
 import org.exist.util.sanity.SanityCheck;
 import org.exist.xquery.TerminatedException;
@@ -121,6 +126,9 @@ public class DOMFile extends BTree implements Lockable {
     public static final String FILE_NAME = "dom.dbx";
     public static final String CONFIG_KEY_FOR_FILE = "db-connection.dom";
 
+    public static final String COMPRESSION_ATTRIBUTE = "dom-compression";
+    public static final String PROPERTY_COMPRESSION = "db-connection.dom-compression";
+
     static final int LENGTH_TID = 2; //sizeof short
     static final int LENGTH_DATA_LENGTH = 2; //sizeof short
     static final int LENGTH_LINK = 8; //sizeof long
@@ -174,11 +182,21 @@ public class DOMFile extends BTree implements Lockable {
     //Data length for overflow pages
     static final short OVERFLOW = 0;
 
+    //Compression of overflow values, recorded in the file header. Records in
+    //data pages are not compressed: pages have a fixed size on disk, so
+    //compressing them would not reduce the bytes read or stored
+    static final byte COMPRESSION_NONE = 0;
+    static final byte COMPRESSION_LZ4 = 1;
+
+    //Overflow values are compressed as a stream of LZ4 blocks of this size
+    private static final int COMPRESSION_BLOCK_SIZE = 64 * 1024;
+    private static final int COMPRESSION_CHECKSUM_SEED = 0x9747b28c;
+
     static final long DATA_SYNC_PERIOD = 4200;
 
     private final Cache<DOMPage> dataCache;
 
-    private final BTreeFileHeader fileHeader;
+    private final DOMFileHeader fileHeader;
 
     private Object owner = null;
 
@@ -193,10 +211,10 @@ public class DOMFile extends BTree implements Lockable {
         this.lockManager = pool.getLockManager();
         this.pages = new Reference2LongOpenHashMap<>(64);
         this.pages.defaultReturnValue(NO_PAGE);
-        fileHeader = (BTreeFileHeader)getFileHeader();
+        fileHeader = (DOMFileHeader)getFileHeader();
         fileHeader.setPageCount(0);
         fileHeader.setTotalCount(0);
-        dataCache = new LRUCache<>(getFileName(), 256, 0.0, 1.0, Cache.CacheType.DATA);
+        dataCache = cacheManager.newDataCache(getFileName(), 256, 0.0, 1.0);
         cacheManager.registerCache(dataCache);
         final Path file = dataDir.resolve(getFileName());
         setFile(file);
@@ -206,11 +224,41 @@ public class DOMFile extends BTree implements Lockable {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Creating data file: {}", FileUtils.fileName(file));
             }
+            fileHeader.setCompression(getCompression(config));
             create();
         }
         config.setProperty(getConfigKeyForFile(), this);
     }
 
+    /**
+     * The compression of overflow values is chosen when the file is created and
+     * recorded in its header, so that files created before keep being read as they
+     * were written.
+     *
+     * @param config the database configuration
+     * @return the compression to use for a new file
+     */
+    private static byte getCompression(final Configuration config) {
+        final String compression = (String) config.getProperty(PROPERTY_COMPRESSION);
+        if (compression == null || compression.isBlank() || "none".equalsIgnoreCase(compression.trim())) {
+            return COMPRESSION_NONE;
+        }
+        if ("lz4".equalsIgnoreCase(compression.trim())) {
+            return COMPRESSION_LZ4;
+        }
+        LOG.warn("Unknown compression '{}' configured for {}, storing values uncompressed", compression, FILE_NAME);
+        return COMPRESSION_NONE;
+    }
+
+    /**
+     * Check if the values written to overflow pages are compressed.
+     *
+     * @return true if overflow values are compressed
+     */
+    public boolean isCompressed() {
+        return fileHeader.getCompression() != COMPRESSION_NONE;
+    }
+
     /**
      * Set the current page.
      * 
@@ -1235,7 +1283,7 @@ public class DOMFile extends BTree implements Lockable {
 
     @Override
     public FileHeader createFileHeader(final int pageSize) {
-        return new BTreeFileHeader(1024, pageSize);
+        return new DOMFileHeader(1024, pageSize);
     }
 
     @Override
@@ -3340,6 +3388,9 @@ public class DOMFile extends BTree implements Lockable {
 
         // Write binary resource from InputStream
         int write(final Txn transaction, final InputStream is) {
+            if (isCompressed()) {
+                return writeCompressed(transaction, is);
+            }
             int pageCount = 0;
             Page currentPage = firstPage;
             try {
@@ -3414,6 +3465,9 @@ public class DOMFile extends BTree implements Lockable {
         }
 
         int write(final Txn transaction, final byte[] data) {
+            if (isCompressed()) {
+                return writeCompressed(transaction, new UnsynchronizedByteArrayInputStream(data));
+            }
             int pageCount = 0;
             try {
                 Page currentPage = firstPage;
@@ -3450,6 +3504,26 @@ public class DOMFile extends BTree implements Lockable {
             return pageCount;
         }
 
+        /**
+         * Compress a value into the chain of pages, without holding the
+         * whole value in memory. The value is stored as a stream of LZ4 blocks.
+         *
+         * @throws UncheckedIOException if the value cannot be read or the pages
+         *     cannot be written, so that the caller does not link a truncated value
+         */
+        private int writeCompressed(final Txn transaction, final InputStream is) {
+            final OverflowOutputStream pages = new OverflowOutputStream(transaction);
+            try (final LZ4BlockOutputStream os = new LZ4BlockOutputStream(pages, COMPRESSION_BLOCK_SIZE,
+                    LZ4Factory.fastestJavaInstance().fastCompressor(),
+                    XXHashFactory.fastestJavaInstance().newStreamingHash32(COMPRESSION_CHECKSUM_SEED).asChecksum(), false)) {
+                is.transferTo(os);
+            } catch (final IOException e) {
+                throw new UncheckedIOException("IO error while writing compressed overflow page " +
+                        firstPage.getPageNum(), e);
+            }
+            return pages.pageCount;
+        }
+
         byte[] read() {
             try(final UnsynchronizedByteArrayOutputStream os = new UnsynchronizedByteArrayOutputStream(32)) {
                 streamTo(os);
@@ -3461,6 +3535,21 @@ public class DOMFile extends BTree implements Lockable {
         }
 
         void streamTo(final OutputStream os) {
+            if (!isCompressed()) {
+                streamStoredTo(os);
+                return;
+            }
+            try (final LZ4BlockInputStream is = new LZ4BlockInputStream(new OverflowInputStream(),
+                    LZ4Factory.fastestJavaInstance().fastDecompressor(),
+                    XXHashFactory.fastestJavaInstance().newStreamingHash32(COMPRESSION_CHECKSUM_SEED).asChecksum(), false)) {
+                is.transferTo(os);
+            } catch (final IOException e) {
+                LOG.error("IO error while reading compressed overflow page {}", firstPage.getPageNum(), e);
+                //TODO : too soft ? throw the exception ?
+            }
+        }
+
+        private void streamStoredTo(final OutputStream os) {
             Page page = firstPage;
             int count = 0;
             while (page != null) {
@@ -3497,6 +3586,145 @@ public class DOMFile extends BTree implements Lockable {
         long getPageNum() {
             return firstPage.getPageNum();
         }
+
+        /**
+         * Writes the bytes written to it into the chain of pages starting at the first page.
+         * A full page is only written once more bytes follow, so that its link to the
+         * next page is known.
+         */
+        private final class OverflowOutputStream extends OutputStream {
+            private final Txn transaction;
+            private final byte[] buf = new byte[fileHeader.getWorkSize()];
+            private int len = 0;
+            private Page currentPage = firstPage;
+            private int pageCount = 0;
+            private boolean closed = false;
+
+            OverflowOutputStream(final Txn transaction) {
+                this.transaction = transaction;
+            }
+
+            @Override
+            public void write(final int b) throws IOException {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(final byte[] b, int off, int len) throws IOException {
+                while (len > 0) {
+                    if (this.len == buf.length) {
+                        final Page nextPage = createNewPage();
+                        writePage(nextPage.getPageNum());
+                        currentPage = nextPage;
+                    }
+                    final int chunkSize = Math.min(len, buf.length - this.len);
+                    System.arraycopy(b, off, buf, this.len, chunkSize);
+                    this.len += chunkSize;
+                    off += chunkSize;
+                    len -= chunkSize;
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                if (len == 0 && pageCount == 0) {
+                    // Detecting a zero byte stream
+                    currentPage.setPageNum(NO_PAGE);
+                    currentPage.getPageHeader().setNextPage(NO_PAGE);
+                } else {
+                    writePage(NO_PAGE);
+                }
+            }
+
+            private void writePage(final long nextPageNum) throws IOException {
+                final Value value = new Value(buf, 0, len);
+                currentPage.getPageHeader().setNextPage(nextPageNum);
+                if (transaction != null && isRecoveryEnabled()) {
+                    final Loggable loggable = new WriteOverflowPageLoggable(
+                        transaction, currentPage.getPageNum(), nextPageNum, value);
+                    writeToLog(loggable, currentPage);
+                }
+                writeValue(currentPage, value);
+                pageCount++;
+                len = 0;
+            }
+        }
+
+        /**
+         * Reads the chain of pages starting at the first page, one page at a time.
+         */
+        private final class OverflowInputStream extends InputStream {
+            private Page page = firstPage;
+            private byte[] chunk = null;
+            private int pos = 0;
+
+            @Override
+            public int read() throws IOException {
+                final byte[] b = new byte[1];
+                return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(final byte[] b, final int off, final int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                while (chunk == null || pos == chunk.length) {
+                    if (page == null) {
+                        return -1;
+                    }
+                    chunk = page.read();
+                    pos = 0;
+                    final long nextPageNumber = page.getPageHeader().getNextPage();
+                    page = (nextPageNumber == NO_PAGE) ? null : getPage(nextPageNumber);
+                }
+                final int count = Math.min(len, chunk.length - pos);
+                System.arraycopy(chunk, pos, b, off, count);
+                pos += count;
+                return count;
+            }
+        }
+    }
+
+    /**
+     * Extends the B+-tree file header with the compression used for overflow
+     * values. Files written before the field existed have a zero byte at its
+     * position, i.e. no compression.
+     */
+    private final class DOMFileHeader extends BTreeFileHeader {
+
+        private byte compression = COMPRESSION_NONE;
+
+        DOMFileHeader(final long pageCount, final int pageSize) {
+            super(pageCount, pageSize);
+        }
+
+        @Override
+        public int read(final byte[] buf) throws IOException {
+            int offset = super.read(buf);
+            compression = buf[offset++];
+            return offset;
+        }
+
+        @Override
+        public int write(final byte[] buf) throws IOException {
+            int offset = super.write(buf);
+            buf[offset++] = compression;
+            return offset;
+        }
+
+        byte getCompression() {
+            return compression;
+        }
+
+        void setCompression(final byte compression) {
+            this.compression = compression;
+            setDirty(true);
+        }
     }
 
     private final class FindCallback implements BTreeCallback {
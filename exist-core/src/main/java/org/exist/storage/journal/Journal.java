@@ -24,15 +24,26 @@ package org.exist.storage.journal;
 import java.io.*;
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.text.DateFormat;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.shorts.ShortArrayList;
+import it.unimi.dsi.fastutil.shorts.ShortArrays;
 import net.jcip.annotations.GuardedBy;
 import net.jcip.annotations.ThreadSafe;
 import net.jpountz.xxhash.XXHash64;
@@ -43,8 +54,10 @@ import org.exist.EXistException;
 import org.exist.config.annotation.ConfigurationClass;
 import org.exist.config.annotation.ConfigurationFieldAsAttribute;
 import org.exist.storage.BrokerPool;
+import org.exist.storage.BrokerPoolConstants;
 import org.exist.storage.lock.FileLock;
 import org.exist.storage.txn.Checkpoint;
+import org.exist.storage.txn.FuzzyCheckpoint;
 import org.exist.storage.txn.TxnStart;
 import org.exist.util.ByteConversion;
 import org.exist.util.Configuration;
@@ -66,6 +79,14 @@ import static org.exist.util.ThreadUtils.newInstanceThread;
  * A buffer is used to temporarily buffer journal entries. To guarantee consistency, the buffer will be flushed
  * and the journal is synced after every commit or whenever a db page is written to disk.
  *
+ * When group commit is enabled together with sync-on-commit, concurrently committing transactions
+ * share a single sync of the journal: the first committer to arrive becomes the leader, waits
+ * up to {@link #groupCommitMaxDelay} milliseconds (or until {@link #groupCommitMaxSize} commits
+ * have joined the group), and flushes the buffer. It then syncs the file once without holding the
+ * monitor of the journal, so that further commits can be written meanwhile; these form the next
+ * group. Finally it publishes the synced LSN and releases every waiter whose commit record is
+ * covered by it.
+ *
  * Each journal file has the following format:
  *
  * <pre>{@code
@@ -122,11 +143,15 @@ public final class Journal implements Closeable {
     public static final String RECOVERY_SYNC_ON_COMMIT_ATTRIBUTE = "sync-on-commit";
     public static final String RECOVERY_JOURNAL_DIR_ATTRIBUTE = "journal-dir";
     public static final String RECOVERY_SIZE_LIMIT_ATTRIBUTE = "size";
+    public static final String RECOVERY_GROUP_COMMIT_MAX_DELAY_ATTRIBUTE = "group-commit-max-delay";
+    public static final String RECOVERY_GROUP_COMMIT_MAX_SIZE_ATTRIBUTE = "group-commit-max-size";
 
     public static final String PROPERTY_RECOVERY_SIZE_MIN = "db-connection.recovery.size-min";
     public static final String PROPERTY_RECOVERY_SIZE_LIMIT = "db-connection.recovery.size-limit";
     public static final String PROPERTY_RECOVERY_JOURNAL_DIR = "db-connection.recovery.journal-dir";
     public static final String PROPERTY_RECOVERY_SYNC_ON_COMMIT = "db-connection.recovery.sync-on-commit";
+    public static final String PROPERTY_RECOVERY_GROUP_COMMIT_MAX_DELAY = "db-connection.recovery.group-commit-max-delay";
+    public static final String PROPERTY_RECOVERY_GROUP_COMMIT_MAX_SIZE = "db-connection.recovery.group-commit-max-size";
 
     public static final String LOG_FILE_SUFFIX = "log";
     public static final String BAK_FILE_SUFFIX = ".bak";
@@ -158,6 +183,22 @@ public final class Journal implements Closeable {
      */
     final static boolean DEFAULT_SYNC_ON_COMMIT = true;
 
+    /**
+     * default group commit setting: false
+     */
+    final static boolean DEFAULT_GROUP_COMMIT = false;
+
+    /**
+     * default maximum time that the leader of a commit group waits for
+     * further commits to join the group before syncing: 0 ms
+     */
+    final static int DEFAULT_GROUP_COMMIT_MAX_DELAY = 0;  // ms
+
+    /**
+     * default maximum number of commits in a single commit group
+     */
+    final static int DEFAULT_GROUP_COMMIT_MAX_SIZE = 64;
+
     /**
      * default maximum journal size: 100 MB
      */
@@ -191,6 +232,29 @@ public final class Journal implements Closeable {
     //TODO: conf.xml refactoring <recovery sync-on-commit=""> => <journal sync-on-commit="">
     private final boolean syncOnCommit;
 
+    /**
+     * if set to true, commits which require a sync are collected into groups
+     * which share a single sync of the log file
+     */
+    @ConfigurationFieldAsAttribute("group-commit")
+    //TODO: conf.xml refactoring <recovery group-commit=""> => <journal group-commit="">
+    private final boolean groupCommit;
+
+    /**
+     * the maximum time in milliseconds that the leader of a commit group
+     * waits for further commits before syncing the log file
+     */
+    @ConfigurationFieldAsAttribute("group-commit-max-delay")
+    //TODO: conf.xml refactoring <recovery group-commit-max-delay=""> => <journal group-commit-max-delay="">
+    private final long groupCommitMaxDelay;
+
+    /**
+     * the maximum number of commits which may join a single commit group
+     */
+    @ConfigurationFieldAsAttribute("group-commit-max-size")
+    //TODO: conf.xml refactoring <recovery group-commit-max-size=""> => <journal group-commit-max-size="">
+    private final int groupCommitMaxSize;
+
     /**
      * the data directory where journal files are written to
      */
@@ -239,6 +303,12 @@ public final class Journal implements Closeable {
      */
     @GuardedBy("this") private Lsn currentLsn = Lsn.LSN_INVALID;
 
+    /**
+     * the LSNs of the start records of the transactions which have not yet
+     * been committed or aborted, by transaction id
+     */
+    @GuardedBy("this") private final Long2ObjectMap<Lsn> activeTransactionStarts = new Long2ObjectOpenHashMap<>();
+
     /**
      * the last LSN actually written to the file
      */
@@ -259,6 +329,26 @@ public final class Journal implements Closeable {
      */
     @GuardedBy("this") private boolean initialised = false;
 
+    /**
+     * true whilst a commit group leader is collecting and syncing a group
+     */
+    @GuardedBy("this") private boolean groupSyncInProgress = false;
+
+    /**
+     * the number of commits waiting to join the current commit group
+     */
+    @GuardedBy("this") private int groupCommitPending = 0;
+
+    /**
+     * the number of commits which were made durable by a group sync
+     */
+    private final AtomicLong groupCommits = new AtomicLong();
+
+    /**
+     * the number of syncs performed on behalf of commit groups
+     */
+    private final AtomicLong groupSyncs = new AtomicLong();
+
 
     // NOTE(AR) called from BrokerPool.prepare -- single thread!
     public Journal(final BrokerPool pool, final Path directory) throws EXistException {
@@ -271,6 +361,13 @@ public final class Journal implements Closeable {
             LOG.debug("SyncOnCommit = {}", syncOnCommit);
         }
 
+        this.groupCommit = configuration.getProperty(BrokerPoolConstants.PROPERTY_RECOVERY_GROUP_COMMIT, DEFAULT_GROUP_COMMIT);
+        this.groupCommitMaxDelay = Math.max(0, configuration.getProperty(PROPERTY_RECOVERY_GROUP_COMMIT_MAX_DELAY, DEFAULT_GROUP_COMMIT_MAX_DELAY));
+        this.groupCommitMaxSize = Math.max(1, configuration.getProperty(PROPERTY_RECOVERY_GROUP_COMMIT_MAX_SIZE, DEFAULT_GROUP_COMMIT_MAX_SIZE));
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("GroupCommit = {}, GroupCommitMaxDelay = {}ms, GroupCommitMaxSize = {}", groupCommit, groupCommitMaxDelay, groupCommitMaxSize);
+        }
+
         final Optional<Path> logDir = Optional.ofNullable((Path) configuration.getProperty(PROPERTY_RECOVERY_JOURNAL_DIR));
         if (logDir.isPresent()) {
             Path f = logDir.get();
@@ -383,6 +480,193 @@ public final class Journal implements Closeable {
         if (!(entry instanceof TxnStart || entry instanceof Checkpoint)) {
             pool.getTransactionManager().trackOperation(entry.getTransactionId());
         }
+
+        switch (entry.getLogType()) {
+            case LogEntryTypes.TXN_START -> activeTransactionStarts.put(entry.getTransactionId(), currentLsn);
+            case LogEntryTypes.TXN_COMMIT, LogEntryTypes.TXN_ABORT -> activeTransactionStarts.remove(entry.getTransactionId());
+            default -> {}
+        }
+    }
+
+    /**
+     * Write a transaction completion (commit or abort) entry to the journal,
+     * and flush it according to the configured commit mode.
+     *
+     * If group commit is disabled, the buffer is flushed, and synced if
+     * sync-on-commit is enabled, by the calling thread.
+     *
+     * If group commit is enabled together with sync-on-commit, the calling
+     * thread joins the current commit group and blocks until a single
+     * group sync has made its entry durable.
+     *
+     * If group commit is enabled without sync-on-commit, the entry is only
+     * buffered, and is written out when the buffer is next flushed.
+     *
+     * @param entry the journal entry to write
+     * @throws JournalException if the entry could not be written or made durable
+     */
+    public void writeCompletionToLog(final Loggable entry) throws JournalException {
+        final Lsn lsn;
+        synchronized (this) {
+            writeToLog(entry);
+
+            if (!groupCommit) {
+                flushToLog(true);
+                return;
+            }
+
+            if (!syncOnCommit || inRecovery) {
+                return;
+            }
+
+            groupCommitPending++;
+            notifyAll();  // wake a leader that is waiting for the group to fill
+            lsn = entry.getLsn();
+        }
+
+        // NOTE: must not be called whilst holding the monitor, as the sync is done without it
+        awaitGroupSync(lsn);
+    }
+
+    /**
+     * Wait until the entry at the given LSN has been synced to disk,
+     * leading a group sync if no other thread is already doing so.
+     *
+     * The leader collects and flushes the group whilst holding the monitor of the journal,
+     * but syncs the file without it, so that the commits which arrive meanwhile can be
+     * written, and then form the next group.
+     *
+     * @param lsn the LSN of the entry which must become durable
+     * @throws JournalException if the journal is shut down, the sync failed, or the thread is interrupted whilst waiting
+     */
+    private void awaitGroupSync(final Lsn lsn) throws JournalException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                final Lsn syncLsn;
+                final FileChannel syncChannel;
+                final int groupSize;
+                synchronized (this) {
+                    while (lsn.compareTo(lastSyncLsn) > 0 && groupSyncInProgress) {
+                        if (currentBuffer == null) {
+                            throw new JournalException("Database is shut down.");
+                        }
+                        try {
+                            wait();
+                        } catch (final InterruptedException e) {
+                            // we must not return before the commit is durable, restore the flag once we are done
+                            interrupted = true;
+                        }
+                    }
+                    if (lsn.compareTo(lastSyncLsn) <= 0) {
+                        return;
+                    }
+                    if (currentBuffer == null) {
+                        throw new JournalException("Database is shut down.");
+                    }
+
+                    // become the leader of the next group
+                    groupSyncInProgress = true;
+                    interrupted |= collectGroup();
+                    groupSize = groupCommitPending;
+                    groupCommitPending = 0;
+
+                    flushBuffer();
+                    syncLsn = currentLsn;
+                    syncChannel = channel;
+                }
+
+                boolean synced = false;
+                boolean closed = false;
+                try {
+                    if (syncChannel != null) {
+                        syncChannel.force(true);
+                    }
+                    synced = true;
+                } catch (final ClosedChannelException e) {
+                    closed = true;
+                } catch (final IOException e) {
+                    LOG.error("Could not sync Journal to disk: {}", e.getMessage(), e);
+                } finally {
+                    synchronized (this) {
+                        if (closed && currentBuffer != null) {
+                            // the journal file was switched meanwhile, which syncs it before closing it
+                            synced = true;
+                        }
+                        if (synced) {
+                            if (syncLsn.compareTo(lastSyncLsn) > 0) {
+                                lastSyncLsn = syncLsn;
+                            }
+                            groupCommits.addAndGet(groupSize);
+                            groupSyncs.incrementAndGet();
+                            if (LOG.isTraceEnabled()) {
+                                LOG.trace("Group commit synced {} commits up to LSN: {}", groupSize, syncLsn);
+                            }
+                            checkJournalSize();
+                        }
+                        groupSyncInProgress = false;
+                        notifyAll();
+                    }
+                }
+
+                if (!synced) {
+                    throw new JournalException("Unable to sync journal for entry at LSN: " + lsn);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Wait up to {@link #groupCommitMaxDelay} milliseconds for further commits to join the current commit group.
+     *
+     * @return true if the thread was interrupted whilst collecting the group
+     */
+    @GuardedBy("this")
+    private boolean collectGroup() {
+        if (groupCommitMaxDelay > 0) {
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(groupCommitMaxDelay);
+            long remaining;
+            while (groupCommitPending < groupCommitMaxSize && currentBuffer != null
+                    && (remaining = deadline - System.nanoTime()) > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                } catch (final InterruptedException e) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the number of commits that were made durable by a group sync.
+     *
+     * @return the number of group committed transactions
+     */
+    public long getGroupCommits() {
+        return groupCommits.get();
+    }
+
+    /**
+     * Get the number of syncs of the journal that were performed for commit groups.
+     *
+     * @return the number of group syncs
+     */
+    public long getGroupSyncs() {
+        return groupSyncs.get();
+    }
+
+    /**
+     * Returns true if group commit is enabled.
+     *
+     * @return true if group commit is enabled
+     */
+    public boolean isGroupCommit() {
+        return groupCommit;
     }
 
     /**
@@ -394,6 +678,15 @@ public final class Journal implements Closeable {
         return lastLsnWritten;
     }
 
+    /**
+     * Returns the last LSN which has been synced to disk, i.e. which is durable.
+     *
+     * @return last synced LSN
+     */
+    public synchronized Lsn lastSyncedLsn() {
+        return lastSyncLsn;
+    }
+
     /**
      * Flush the current buffer to disk. If fsync is true, a sync will
      * be called on the file to force all changes to disk.
@@ -422,11 +715,22 @@ public final class Journal implements Closeable {
             if (forceSync || (fsync && syncOnCommit && currentLsn.compareTo(lastSyncLsn) > 0)) {
                 sync();
                 lastSyncLsn = currentLsn;
+
+                // wake any commit group members whose entries are now durable
+                notifyAll();
             }
         } catch (final IOException e) {
             LOG.error("Could not sync Journal to disk: {}", e.getMessage(), e);
         }
 
+        checkJournalSize();
+    }
+
+    /**
+     * Requests a checkpoint if the journal file has reached its size limit.
+     */
+    @GuardedBy("this")
+    private void checkJournalSize() {
         try {
             if (channel != null && channel.size() >= journalSizeLimit) {
                 pool.triggerCheckpoint();
@@ -437,7 +741,9 @@ public final class Journal implements Closeable {
     }
 
     private void sync() throws IOException {
-        channel.force(true);
+        if (channel != null) {
+            channel.force(true);
+        }
     }
 
     /**
@@ -468,7 +774,7 @@ public final class Journal implements Closeable {
     /**
      * Write a checkpoint record to the journal and flush it. If switchLogFiles is true,
      * a new journal will be started, but only if the file is larger than
-     * {@link #journalSizeMin}. The old log is removed.
+     * {@link #journalSizeMin}. The old logs are removed.
      *
      * @param txnId          The transaction id
      * @param switchLogFiles Indicates whether a new journal file should be started
@@ -486,20 +792,129 @@ public final class Journal implements Closeable {
         }
         try {
             if (switchLogFiles && channel != null && channel.position() > journalSizeMin) {
-                final Path oldFile = getFile(currentJournalFileNumber);
-                final RemoveRunnable removeRunnable = new RemoveRunnable(channel, oldFile); // takes ownership of channel and oldFile when `start` is called
                 try {
                     switchFiles();
                 } catch (final LogException e) {
                     LOG.warn("Failed to create new journal: {}", e.getMessage(), e);
                 }
-
-                final Thread removeThread = newInstanceThread(pool, "remove-journal", removeRunnable);
-                removeThread.start();
             }
         } catch (final IOException e) {
             LOG.warn("IOException while writing checkpoint", e);
         }
+
+        // recovery never needs to read beyond a sharp checkpoint
+        removeJournalFiles(currentJournalFileNumber);
+    }
+
+    /**
+     * Returns the LSN from which a recovery would have to start to restore the
+     * changes which are made from now on, i.e. the LSN of the start record of
+     * the oldest running transaction, or the LSN of the last entry if there is
+     * no running transaction.
+     *
+     * All changes logged before the returned LSN are on disk once the dirty
+     * pages which exist when this method is called have been written.
+     *
+     * @return the minimum recovery LSN
+     */
+    public synchronized Lsn getRecoveryLsn() {
+        Lsn recoveryLsn = currentLsn;
+        if (Lsn.LSN_INVALID.equals(recoveryLsn) || recoveryLsn.getFileNumber() != currentJournalFileNumber) {
+            // nothing has been written to the current file yet, i.e. recover from its first entry
+            recoveryLsn = new Lsn(currentJournalFileNumber, JOURNAL_HEADER_LEN + 1);
+        }
+        for (final Lsn startLsn : activeTransactionStarts.values()) {
+            if (startLsn.compareTo(recoveryLsn) < 0) {
+                recoveryLsn = startLsn;
+            }
+        }
+        return recoveryLsn;
+    }
+
+    /**
+     * Write a fuzzy checkpoint record to the journal and flush it.
+     *
+     * Unlike {@link #checkpoint(long, boolean)}, this does not require the database to be
+     * in a stable state: transactions may be running whilst the dirty pages are written.
+     * The record stores the recovery LSN obtained by {@link #getRecoveryLsn()} before the
+     * dirty pages were written. If no entries have been written since, and no transaction
+     * is running, the checkpoint is sharp, as for {@link #checkpoint(long, boolean)}.
+     *
+     * If switchLogFiles is true, a new journal will be started, but only if the file is
+     * larger than {@link #journalSizeMin}. The journal files before the file containing
+     * the recovery LSN are removed, as recovery will never need to read them.
+     *
+     * @param txnId          The transaction id
+     * @param recoveryLsn    The recovery LSN obtained before the dirty pages were written
+     * @param switchLogFiles Indicates whether a new journal file should be started
+     * @return true if a sharp checkpoint was written
+     * @throws JournalException if the checkpoint could not be written to the journal.
+     */
+    public synchronized boolean checkpoint(final long txnId, final Lsn recoveryLsn, final boolean switchLogFiles) throws JournalException {
+        if (activeTransactionStarts.isEmpty() && recoveryLsn.equals(currentLsn)) {
+            checkpoint(txnId, switchLogFiles);
+            return true;
+        }
+
+        LOG.debug("Fuzzy checkpoint reached, recovery LSN: {}", recoveryLsn);
+        writeToLog(new FuzzyCheckpoint(txnId, recoveryLsn));
+        flushToLog(true, true);
+        try {
+            if (switchLogFiles && channel != null && channel.position() > journalSizeMin) {
+                switchFiles();
+            }
+        } catch (final IOException | LogException e) {
+            LOG.warn("Failed to create new journal: {}", e.getMessage(), e);
+        }
+
+        // recovery starts from the recovery LSN, so the files before it are no longer needed
+        removeJournalFiles((short) recoveryLsn.getFileNumber());
+        return false;
+    }
+
+    /**
+     * Removes the journal files which are not in the range from
+     * {@code firstFileNumber} to the current journal file (inclusive),
+     * taking into account that journal file numbers wrap around.
+     *
+     * The files are deleted by a separate thread.
+     *
+     * @param firstFileNumber the number of the first journal file to retain
+     */
+    private void removeJournalFiles(final short firstFileNumber) {
+        final List<Path> oldFiles;
+        try (final Stream<Path> files = getFiles()) {
+            oldFiles = files
+                    .filter(file -> !isRetained(journalFileNum(file), firstFileNumber, currentJournalFileNumber))
+                    .collect(Collectors.toList());
+        } catch (final IOException e) {
+            LOG.warn("Unable to find old journal files: {}", e.getMessage(), e);
+            return;
+        }
+
+        if (!oldFiles.isEmpty()) {
+            final Thread removeThread = newInstanceThread(pool, "remove-journal", new RemoveRunnable(oldFiles));
+            removeThread.start();
+        }
+    }
+
+    /**
+     * Determines if a journal file lies within the circular range of journal file numbers
+     * from {@code firstFileNumber} to {@code lastFileNumber} (inclusive).
+     *
+     * @param fileNumber the number of the journal file
+     * @param firstFileNumber the number of the first journal file of the range
+     * @param lastFileNumber the number of the last journal file of the range
+     *
+     * @return true if the journal file is within the range
+     */
+    static boolean isRetained(final short fileNumber, final short firstFileNumber, final short lastFileNumber) {
+        if (firstFileNumber <= lastFileNumber) {
+            return fileNumber >= firstFileNumber && fileNumber <= lastFileNumber;
+        } else {
+            // the range wraps around
+            return fileNumber >= firstFileNumber || fileNumber <= lastFileNumber;
+        }
     }
 
     /**
@@ -654,6 +1069,45 @@ public final class Journal implements Closeable {
                 .orElse(-1);
     }
 
+    /**
+     * Find the journal files which have to be read by recovery, i.e. the consecutive
+     * sequence of journal files which ends with the last journal file.
+     *
+     * Journal file numbers wrap around to zero after {@link Short#MAX_VALUE}, so the
+     * last journal file is not necessarily the one with the highest file number.
+     *
+     * @param files the journal files to consider.
+     *
+     * @return the numbers of the journal files, oldest first, or an empty array if the {@code files} stream was empty
+     */
+    public static short[] findRecoveryFiles(final Stream<Path> files) {
+        final IntSet fileNumbers = files
+                .map(Journal::journalFileNum)
+                .mapToInt(v -> v)
+                .collect(IntOpenHashSet::new, IntSet::add, IntSet::addAll);
+        if (fileNumbers.isEmpty()) {
+            return new short[0];
+        }
+
+        // follow the sequence from the highest file number, as it may have wrapped around
+        final short highest = (short) fileNumbers.intStream().max().getAsInt();
+        short last = highest;
+        for (short next = getNextJournalFileNumber(last); next != highest && fileNumbers.contains(next); next = getNextJournalFileNumber(next)) {
+            last = next;
+        }
+
+        final ShortArrayList sequence = new ShortArrayList();
+        short first = last;
+        do {
+            sequence.add(first);
+            first = first == 0 ? Short.MAX_VALUE : (short) (first - 1);
+        } while (first != last && fileNumbers.contains(first));
+
+        final short[] result = sequence.toShortArray();
+        ShortArrays.reverse(result);
+        return result;
+    }
+
     /**
      * Returns a Stream of all journal files found in the data directory.
      *
@@ -749,6 +1203,9 @@ public final class Journal implements Closeable {
         channel = null;
         fileLock.release();
         currentBuffer = null;
+
+        // release any commit group members, they will see that the journal is shut down
+        notifyAll();
     }
 
     /**
@@ -778,24 +1235,17 @@ public final class Journal implements Closeable {
     }
 
     private static class RemoveRunnable implements Runnable {
-        private final SeekableByteChannel channel;
-        private final Path path;
+        private final List<Path> paths;
 
-        RemoveRunnable(final SeekableByteChannel channel, final Path path) {
-            this.channel = channel;
-            this.path = path;
+        RemoveRunnable(final List<Path> paths) {
+            this.paths = paths;
         }
 
         @Override
         public void run() {
-            try {
-                if (channel != null) {
-                    channel.close();
-                }
-            } catch (final IOException e) {
-                LOG.warn("Exception while closing journal file: {}", e.getMessage(), e);
+            for (final Path path : paths) {
+                FileUtils.deleteQuietly(path);
             }
-            FileUtils.deleteQuietly(path);
         }
     }
 }
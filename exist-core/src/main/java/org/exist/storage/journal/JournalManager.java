@@ -60,7 +60,6 @@ public class JournalManager implements BrokerPoolService {
     private static final Logger LOG = LogManager.getLogger(JournalManager.class);
 
     @GuardedBy("this") private Path journalDir;
-    @GuardedBy("this") private boolean groupCommits;
     // package-private accessibility for testing
     @GuardedBy("this") Journal journal;
     @GuardedBy("this") private boolean journallingDisabled = false;
@@ -72,10 +71,6 @@ public class JournalManager implements BrokerPoolService {
     public synchronized void configure(final Configuration configuration) {
         this.journalDir = (Path) Optional.ofNullable(configuration.getProperty(Journal.PROPERTY_RECOVERY_JOURNAL_DIR))
                 .orElse(configuration.getProperty(BrokerPool.PROPERTY_DATA_DIR));
-        this.groupCommits = configuration.getProperty(BrokerPool.PROPERTY_RECOVERY_GROUP_COMMIT, false);
-        if (LOG.isDebugEnabled()) {
-            LOG.debug("GroupCommits = {}", groupCommits);
-        }
     }
 
     @Override
@@ -111,22 +106,26 @@ public class JournalManager implements BrokerPoolService {
     }
 
     /**
-     * Write a group of entrys to the journal
+     * Write an entry which completes a group of entries
+     * (i.e. a transaction commit or abort) to the journal
      *
-     * @see Journal#writeToLog(Loggable)
-     * @see Journal#flushToLog(boolean)
+     * @see Journal#writeCompletionToLog(Loggable)
      *
      * @param loggable The entry to write in the journalGroup
      *
      * @throws JournalException of the journal group cannot be written
      */
-    public synchronized void journalGroup(final Loggable loggable) throws JournalException {
-        if (!journallingDisabled) {
-            journal.writeToLog(loggable);
-            if (!groupCommits) {
-                journal.flushToLog(true);
+    public void journalGroup(final Loggable loggable) throws JournalException {
+        final Journal journal;
+        synchronized (this) {
+            if (journallingDisabled) {
+                return;
             }
+            journal = this.journal;
         }
+
+        // NOTE: we must not hold the lock on the manager here, as the call may wait for a group commit
+        journal.writeCompletionToLog(loggable);
     }
 
     /**
@@ -158,6 +157,42 @@ public class JournalManager implements BrokerPoolService {
         }
     }
 
+    /**
+     * @see Journal#checkpoint(long, Lsn, boolean)
+     *
+     * Create a fuzzy checkpoint, which may be written whilst transactions are running.
+     * The listeners are only notified if the checkpoint turned out to be sharp, as
+     * a recovery may still replay the transactions which completed before a fuzzy
+     * checkpoint.
+     *
+     * @param transactionId The id of the transaction for the checkpoint
+     * @param recoveryLsn The recovery LSN obtained by {@link #getRecoveryLsn()} before the dirty pages were written
+     * @param switchFiles Whether a new journal file should be started
+     *
+     * @throws JournalException of the journal checkpoint cannot be written
+     */
+    public synchronized void checkpoint(final long transactionId, final Lsn recoveryLsn, final boolean switchFiles) throws JournalException {
+        if (!journallingDisabled) {
+            if (journal.checkpoint(transactionId, recoveryLsn, switchFiles)) {
+                // notify each listener, de-registering those who want no further events
+                journalListeners.forEach(listener -> {
+                    if(!listener.afterCheckpoint(transactionId)) {
+                        journalListeners.remove(listener);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * @see Journal#getRecoveryLsn()
+     *
+     * @return the minimum recovery LSN
+     */
+    public synchronized Lsn getRecoveryLsn() {
+        return journal.getRecoveryLsn();
+    }
+
     /**
      * Flush the Journal.
      *
@@ -198,6 +233,33 @@ public class JournalManager implements BrokerPoolService {
 
 
 
+    /**
+     * @see Journal#isGroupCommit()
+     *
+     * @return true if group commit is enabled
+     */
+    public synchronized boolean isGroupCommit() {
+        return journal != null && journal.isGroupCommit();
+    }
+
+    /**
+     * @see Journal#getGroupCommits()
+     *
+     * @return the number of commits made durable by a group sync
+     */
+    public synchronized long getGroupCommits() {
+        return journal != null ? journal.getGroupCommits() : 0;
+    }
+
+    /**
+     * @see Journal#getGroupSyncs()
+     *
+     * @return the number of syncs performed for commit groups
+     */
+    public synchronized long getGroupSyncs() {
+        return journal != null ? journal.getGroupSyncs() : 0;
+    }
+
     public RecoveryManager.JournalRecoveryAccessor getRecoveryAccessor(final RecoveryManager recoveryManager) {
         return recoveryManager.new JournalRecoveryAccessor(
                 journal::setInRecovery, journal::getFiles, journal::getFile, journal::setCurrentJournalFileNumber,
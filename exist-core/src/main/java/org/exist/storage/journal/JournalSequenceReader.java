@@ -0,0 +1,228 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.journal;
+
+import java.nio.file.Path;
+import java.util.function.Function;
+
+import org.exist.storage.DBBroker;
+import org.exist.util.FileUtils;
+
+import javax.annotation.Nullable;
+
+/**
+ * Reads the entries of a sequence of consecutive journal files as if they were
+ * a single journal. At the end of a file, {@link #nextEntry()} continues with the
+ * first entry of the next file, and at the start of a file, {@link #previousEntry()}
+ * continues with the last entry of the previous file.
+ *
+ * This class is used during recovery, which has to start at the recovery LSN of the
+ * last fuzzy checkpoint, which may be in an earlier file than the last journal file.
+ * Only one of the journal files is open at a time.
+ */
+public class JournalSequenceReader implements AutoCloseable {
+
+    private final DBBroker broker;
+    private final short[] fileNumbers;
+    private final Path[] files;
+
+    /**
+     * the offset of the start of each file within the sequence,
+     * followed by the total size of all files
+     */
+    private final long[] fileOffsets;
+
+    private int current = -1;
+    @Nullable private JournalReader reader;
+
+    /**
+     * @param broker      the database broker
+     * @param fileNumbers the numbers of the journal files, oldest first
+     * @param getFile     returns the journal file for a file number
+     */
+    public JournalSequenceReader(final DBBroker broker, final short[] fileNumbers, final Function<Short, Path> getFile) {
+        if (fileNumbers.length == 0) {
+            throw new IllegalArgumentException("At least one journal file is required");
+        }
+        this.broker = broker;
+        this.fileNumbers = fileNumbers;
+        this.files = new Path[fileNumbers.length];
+        this.fileOffsets = new long[fileNumbers.length + 1];
+        for (int i = 0; i < fileNumbers.length; i++) {
+            files[i] = getFile.apply(fileNumbers[i]);
+            fileOffsets[i + 1] = fileOffsets[i] + FileUtils.sizeQuietly(files[i]);
+        }
+    }
+
+    /**
+     * Returns the next entry found from the current position.
+     *
+     * @return the next entry, or null if there are no more entries in the last file.
+     * @throws LogException if an entry could not be read due to an inconsistency on disk.
+     */
+    public @Nullable Loggable nextEntry() throws LogException {
+        if (reader == null) {
+            positionFirst();
+        }
+        Loggable entry = reader.nextEntry();
+        while (entry == null && current < files.length - 1) {
+            open(current + 1);
+            reader.positionFirst();
+            entry = reader.nextEntry();
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the previous entry found by scanning backwards from the current position.
+     *
+     * @return the previous entry, or null if there is no previous entry in the first file.
+     * @throws LogException if an entry could not be read due to an inconsistency on disk.
+     */
+    public @Nullable Loggable previousEntry() throws LogException {
+        if (reader == null) {
+            positionLast();
+        }
+        Loggable entry = reader.previousEntry();
+        while (entry == null && current > 0) {
+            open(current - 1);
+            reader.positionLast();
+            entry = reader.previousEntry();
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the last entry in the last journal file.
+     *
+     * @return the last entry, or null if there are no entries in the last journal file.
+     * @throws LogException if an entry could not be read due to an inconsistency on disk.
+     */
+    public @Nullable Loggable lastEntry() throws LogException {
+        open(files.length - 1);
+        return reader.lastEntry();
+    }
+
+    /**
+     * Re-position the reader so it points to the start of the entry
+     * with the given LSN.
+     *
+     * @param lsn the log sequence number
+     * @throws LogException if the LSN is not within the sequence of journal files, or the file cannot be re-positioned
+     */
+    public void position(final Lsn lsn) throws LogException {
+        open(indexOf(lsn));
+        reader.position(lsn);
+    }
+
+    /**
+     * Re-position the reader to the first entry of the first journal file.
+     *
+     * @throws LogException if the journal file cannot be re-positioned
+     */
+    public void positionFirst() throws LogException {
+        open(0);
+        reader.positionFirst();
+    }
+
+    /**
+     * Re-position the reader to the end of the last journal file.
+     *
+     * @throws LogException if the journal file cannot be re-positioned
+     */
+    public void positionLast() throws LogException {
+        open(files.length - 1);
+        reader.positionLast();
+    }
+
+    /**
+     * Returns true if the entry with the given LSN is within the sequence of journal files.
+     *
+     * @param lsn the log sequence number
+     * @return true if the LSN is in one of the journal files
+     */
+    public boolean contains(final Lsn lsn) {
+        for (final short fileNumber : fileNumbers) {
+            if (fileNumber == lsn.getFileNumber()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the offset of an entry within the sequence of journal files,
+     * e.g. for reporting progress.
+     *
+     * @param lsn the log sequence number of the entry
+     * @return the offset of the entry
+     * @throws LogException if the LSN is not within the sequence of journal files
+     */
+    public long getOffset(final Lsn lsn) throws LogException {
+        return fileOffsets[indexOf(lsn)] + lsn.getOffset();
+    }
+
+    /**
+     * Returns the total size of the journal files.
+     *
+     * @return the size in bytes
+     */
+    public long getSize() {
+        return fileOffsets[files.length];
+    }
+
+    /**
+     * Returns the last journal file.
+     *
+     * @return the last journal file
+     */
+    public Path getLastFile() {
+        return files[files.length - 1];
+    }
+
+    private int indexOf(final Lsn lsn) throws LogException {
+        for (int i = 0; i < fileNumbers.length; i++) {
+            if (fileNumbers[i] == lsn.getFileNumber()) {
+                return i;
+            }
+        }
+        throw new LogException("Journal file " + lsn.getFileNumber() + " of " + lsn + " is not available");
+    }
+
+    private void open(final int index) throws LogException {
+        if (index == current) {
+            return;
+        }
+        close();
+        reader = new JournalReader(broker, files[index], fileNumbers[index]);
+        current = index;
+    }
+
+    @Override
+    public void close() {
+        if (reader != null) {
+            reader.close();
+            reader = null;
+            current = -1;
+        }
+    }
+}
@@ -41,7 +41,10 @@ import org.exist.util.WeakLazyStripes;
 import org.exist.xmldb.XmldbURI;
 import uk.ac.ic.doc.slurp.multilock.MultiLock;
 
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Consumer;
 
 /**
@@ -77,6 +80,7 @@ public class LockManager {
     public final static String CONFIGURATION_WARN_WAIT_ON_READ_FOR_WRITE = "lock-manager.warn-wait-on-read-for-write";
     public final static String CONFIGURATION_PATH_LOCKS_FOR_DOCUMENTS = "lock-manager.document.use-path-locks";
     public final static String CONFIGURATION_PATHS_MULTI_WRITER = "lock-manager.paths-multi-writer";
+    public final static String CONFIGURATION_BTREE_SHARED_READS = "lock-manager.btree.shared-reads";
 
     //TODO(AR) remove eventually!
     // legacy properties for overriding the config
@@ -110,11 +114,25 @@ public class LockManager {
      */
     private final boolean warnWaitOnReadForWrite;
 
+    /**
+     * Set to true to allow BTrees which are safe for concurrent readers
+     * to share their READ_LOCK, see {@link #enableSharedBtreeReads(String)}.
+     * Defaults to false.
+     */
+    private final boolean btreeSharedReads;
+
 
     private final LockTable lockTable;
     private final WeakLazyStripes<String, MultiLock> pathLocks;
     private final WeakLazyStripes<String, MultiLock> documentLocks;
     private final WeakLazyStripes<String, ReentrantLock> btreeLocks;
+    private final WeakLazyStripes<String, ReentrantReadWriteLock> btreeReadWriteLocks;
+
+    /**
+     * The file names of the BTrees whose readers may share the lock,
+     * see {@link #enableSharedBtreeReads(String)}.
+     */
+    private final Set<String> sharedReadBtrees = ConcurrentHashMap.newKeySet();
 
     /**
      * @param configuration database configuration
@@ -126,6 +144,7 @@ public class LockManager {
         this.pathsMultiWriter = getLegacySystemPropertyOrConfigPropertyBool(PROP_ENABLE_PATHS_MULTI_WRITER, configuration, CONFIGURATION_PATHS_MULTI_WRITER, false);
         this.upgradeCheck = getLegacySystemPropertyOrConfigPropertyBool(PROP_UPGRADE_CHECK, configuration, CONFIGURATION_UPGRADE_CHECK, false);
         this.warnWaitOnReadForWrite = getLegacySystemPropertyOrConfigPropertyBool(PROP_WARN_WAIT_ON_READ_FOR_WRITE, configuration, CONFIGURATION_WARN_WAIT_ON_READ_FOR_WRITE, false);
+        this.btreeSharedReads = getConfigPropertyBool(configuration, CONFIGURATION_BTREE_SHARED_READS, false);
 
         this.lockTable = new LockTable(configuration);
         this.pathLocks = new WeakLazyStripes<>(concurrencyLevel, LockManager::createCollectionLock);
@@ -135,8 +154,9 @@ public class LockManager {
             this.documentLocks = null;
         }
         this.btreeLocks = new WeakLazyStripes<>(concurrencyLevel, LockManager::createBtreeLock);
+        this.btreeReadWriteLocks = new WeakLazyStripes<>(concurrencyLevel, LockManager::createBtreeReadWriteLock);
 
-        LOG.info("Configured LockManager with concurrencyLevel={} use-path-locks-for-documents={} paths-multi-writer={}", concurrencyLevel, usePathLocksForDocuments, pathsMultiWriter);
+        LOG.info("Configured LockManager with concurrencyLevel={} use-path-locks-for-documents={} paths-multi-writer={} btree-shared-reads={}", concurrencyLevel, usePathLocksForDocuments, pathsMultiWriter, btreeSharedReads);
     }
 
     /**
@@ -189,6 +209,14 @@ public class LockManager {
         return new ReentrantLock();
     }
 
+    /**
+     * Creates a new read/write lock for a {@link org.exist.storage.btree.BTree}
+     * will be Striped by the btreeFileName
+     */
+    private static ReentrantReadWriteLock createBtreeReadWriteLock(final String btreeFileName) {
+        return new ReentrantReadWriteLock();
+    }
+
     /**
      * Retrieves a lock for a Path
      *
@@ -713,6 +741,111 @@ public class LockManager {
         return isBtreeLocked(btreeFileName);
     }
 
+    /**
+     * Retrieves a read/write lock for a {@link org.exist.storage.btree.BTree}
+     *
+     * This lock is independent of the lock returned by {@link #getBTreeLock(String)},
+     * a BTree must only ever be locked through one of them.
+     *
+     * @param btreeFileName The filename of the BTree for which a lock is requested
+     *
+     * @return A read/write lock for the BTree
+     */
+    ReentrantReadWriteLock getBTreeReadWriteLock(final String btreeFileName) {
+        return btreeReadWriteLocks.get(btreeFileName);
+    }
+
+    /**
+     * Allow the readers of a {@link org.exist.storage.btree.BTree} to share its lock.
+     *
+     * This only affects the locks acquired by {@link #acquireBtreeSharedReadLock(String)}.
+     * A file should only be registered here if it is safe for concurrent readers, see
+     * {@link org.exist.storage.btree.BTree#setSharedReads(boolean)}, if all of its users
+     * lock it with {@link #acquireBtreeSharedReadLock(String)} and
+     * {@link #acquireBtreeExclusiveWriteLock(String)}, and if none of them tries to
+     * acquire the WRITE_LOCK whilst holding the READ_LOCK, as a shared lock cannot
+     * be upgraded.
+     *
+     * @param btreeFileName the filename of the BTree
+     *
+     * @return true if the readers of the BTree now share its lock, false if shared
+     *     reads are disabled by {@link #CONFIGURATION_BTREE_SHARED_READS}.
+     */
+    public boolean enableSharedBtreeReads(final String btreeFileName) {
+        if (!btreeSharedReads) {
+            return false;
+        }
+        sharedReadBtrees.add(btreeFileName);
+        return true;
+    }
+
+    /**
+     * Returns true if the readers of a BTree share its lock,
+     * see {@link #enableSharedBtreeReads(String)}.
+     *
+     * @param btreeFileName the filename of the BTree
+     *
+     * @return true if READ_LOCKs on the BTree are shared
+     */
+    public boolean isSharedBtreeReads(final String btreeFileName) {
+        return sharedReadBtrees.contains(btreeFileName);
+    }
+
+    /**
+     * Acquire a READ_LOCK on the read/write lock of a {@link org.exist.storage.btree.BTree}
+     *
+     * The lock is only shared with other readers if the BTree
+     * has been registered with {@link #enableSharedBtreeReads(String)},
+     * otherwise it is exclusive.
+     *
+     * @param btreeFileName the filename of the BTree
+     *
+     * @return the lock for the BTree
+     *
+     * @throws LockException if the lock could not be acquired
+     */
+    public ManagedLock<ReentrantReadWriteLock> acquireBtreeSharedReadLock(final String btreeFileName) throws LockException {
+        final ReentrantReadWriteLock lock = getBTreeReadWriteLock(btreeFileName);
+        final java.util.concurrent.locks.Lock modeLock = sharedReadBtrees.contains(btreeFileName) ? lock.readLock() : lock.writeLock();
+        return acquireBtreeReadWriteLock(btreeFileName, lock, modeLock, Lock.LockMode.READ_LOCK);
+    }
+
+    /**
+     * Acquire a WRITE_LOCK on the read/write lock of a {@link org.exist.storage.btree.BTree}
+     *
+     * @param btreeFileName the filename of the BTree
+     *
+     * @return the lock for the BTree
+     *
+     * @throws LockException if the lock could not be acquired
+     */
+    public ManagedLock<ReentrantReadWriteLock> acquireBtreeExclusiveWriteLock(final String btreeFileName) throws LockException {
+        final ReentrantReadWriteLock lock = getBTreeReadWriteLock(btreeFileName);
+        return acquireBtreeReadWriteLock(btreeFileName, lock, lock.writeLock(), Lock.LockMode.WRITE_LOCK);
+    }
+
+    private ManagedLock<ReentrantReadWriteLock> acquireBtreeReadWriteLock(final String btreeFileName,
+            final ReentrantReadWriteLock lock, final java.util.concurrent.locks.Lock modeLock,
+            final Lock.LockMode lockMode) throws LockException {
+        final long groupId = System.nanoTime();
+
+        try {
+            lockTable.attempt(groupId, btreeFileName, LockType.BTREE, lockMode);
+
+            modeLock.lockInterruptibly();
+
+            lockTable.acquired(groupId, btreeFileName, LockType.BTREE, lockMode);
+        } catch(final InterruptedException e) {
+            lockTable.attemptFailed(groupId, btreeFileName, LockType.BTREE, lockMode);
+            throw new LockException("Unable to acquire " + lockMode + " for: " + btreeFileName, e);
+        }
+
+        return new ManagedLock<>(lock, () -> {
+            modeLock.unlock();
+            lockTable.released(groupId, btreeFileName, LockType.BTREE, lockMode);
+        });
+    }
+
     /**
      * Gets a configuration option from a (legacy) System Property
      * or if that is not set, then from an eXist-db Configuration file
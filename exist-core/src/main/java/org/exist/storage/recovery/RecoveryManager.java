@@ -76,7 +76,10 @@ public class RecoveryManager {
 	 * The method scans the last log file and tries to find the last checkpoint
 	 * record. If the checkpoint record is the last record in the file,
 	 * the database was closed cleanly and is in a consistent state. If not, a
-	 * recovery run is started beginning at the last checkpoint found.
+	 * recovery run is started beginning at the last checkpoint found, or at the
+	 * recovery LSN stored in it if it is a fuzzy checkpoint. As journal files are
+	 * switched on fuzzy checkpoints, the journal files retained since the file
+	 * containing that recovery LSN are read as a single sequence.
 	 *  
 	 * @throws LogException Reading of journal failed.
      * @return if recover was successful
@@ -89,13 +92,12 @@ public class RecoveryManager {
         } catch(final IOException ioe) {
             throw new LogException("Unable to find journal files in data dir", ioe);
         }
-        // find the last log file in the data directory
-		final short lastNum = Journal.findLastFile(files.stream());
+        // find the sequence of log files which ends with the last log file in the data directory
+		final short[] recoveryFiles = Journal.findRecoveryFiles(files.stream());
+		final short lastNum = recoveryFiles.length > 0 ? recoveryFiles[recoveryFiles.length - 1] : -1;
 		if (-1 < lastNum) {
-            // load the last log file
-			final Path last = journalRecovery.getFile.apply(lastNum);
-			// scan the last log file and record the last checkpoint found
-            try (JournalReader reader = new JournalReader(broker, last, lastNum)) {
+			// scan the log files and record the last checkpoint found
+            try (JournalSequenceReader reader = new JournalSequenceReader(broker, recoveryFiles, journalRecovery.getFile)) {
                 // try to read the last log record to see if it is a checkpoint
                 boolean checkpointFound = false;
                 try {
@@ -124,8 +126,8 @@ public class RecoveryManager {
                     Lsn lastLsn = Lsn.LSN_INVALID;
                     Loggable next;
                     try {
-                        final long lastSize = FileUtils.sizeQuietly(last);
-                        @Nullable final ProgressBar scanProgressBar = hideProgressBar ? null : new ProgressBar("Scanning journal ", lastSize);
+                        final long totalSize = reader.getSize();
+                        @Nullable final ProgressBar scanProgressBar = hideProgressBar ? null : new ProgressBar("Scanning journal ", totalSize);
                         while ((next = reader.nextEntry()) != null) {
 //	                        LOG.debug(next.dump());
                             if (next.getLogType() == LogEntryTypes.TXN_START) {
@@ -137,16 +139,21 @@ public class RecoveryManager {
                             } else if (next.getLogType() == LogEntryTypes.CHECKPOINT) {
                                 txnsStarted.clear();
                                 lastCheckpoint = (Checkpoint) next;
+                            } else if (next.getLogType() == LogEntryTypes.FUZZY_CHECKPOINT) {
+                                // the transactions started after the recovery LSN of a fuzzy checkpoint may still need recovery
+                                final Lsn recoveryLsn = ((Checkpoint) next).getRecoveryLsn();
+                                txnsStarted.values().removeIf(txnStart -> txnStart.getLsn().compareTo(recoveryLsn) < 0);
+                                lastCheckpoint = (Checkpoint) next;
                             }
                             lastLsn = next.getLsn();
 
                             if (scanProgressBar != null) {
-                                scanProgressBar.set(next.getLsn().getOffset());
+                                scanProgressBar.set(reader.getOffset(next.getLsn()));
                             }
                         }
 
                         if (scanProgressBar != null) {
-                            scanProgressBar.set(lastSize);  // 100%
+                            scanProgressBar.set(totalSize);  // 100%
                         }
                     } catch (final LogException e) {
                         if (LOG.isDebugEnabled()) {
@@ -157,12 +164,21 @@ public class RecoveryManager {
 
                     // if the last checkpoint record is not the last record in the file
                     // we need a recovery.
-                    if ((lastCheckpoint == null || !lastCheckpoint.getLsn().equals(lastLsn)) &&
+                    if ((lastCheckpoint == null || lastCheckpoint.isFuzzy() || !lastCheckpoint.getLsn().equals(lastLsn)) &&
                         !txnsStarted.isEmpty()) {
                         LOG.info("Dirty transactions: {}", txnsStarted.size());
                         // starting recovery: reposition the log reader to the last checkpoint
                         if (lastCheckpoint == null) {
                             reader.positionFirst();
+                        } else if (lastCheckpoint.isFuzzy()) {
+                            // replay the journal from the recovery LSN, which precedes the checkpoint
+                            final Lsn recoveryLsn = lastCheckpoint.getRecoveryLsn();
+                            if (reader.contains(recoveryLsn)) {
+                                reader.position(recoveryLsn);
+                            } else {
+                                LOG.warn("Journal file of the recovery LSN {} is missing, recovering from the first journal file", recoveryLsn);
+                                reader.positionFirst();
+                            }
                         } else {
                             reader.position(lastCheckpoint.getLsn());
                             next = reader.nextEntry();
@@ -182,7 +198,7 @@ public class RecoveryManager {
                                     throw new LogException("Unable to Open the Blob Store for Recovery: " + e.getMessage(), e);
                                 }
 
-                                doRecovery(txnsStarted.size(), last, reader, lastLsn);
+                                doRecovery(txnsStarted.size(), reader, lastLsn);
 
                             } catch (final IOException e) {
                                 LOG.error("Error whilst closing the Blob Store after recovery: {}", e.getMessage(), e);
@@ -242,13 +258,12 @@ public class RecoveryManager {
      * Called by {@link #recover()} to do the actual recovery.
      *
      * @param txnCount
-     * @param last
      * @param reader
      * @param lastLsn
      *
      * @throws LogException
      */
-    private void doRecovery(final int txnCount, final Path last, final JournalReader reader, final Lsn lastLsn) throws LogException {
+    private void doRecovery(final int txnCount, final JournalSequenceReader reader, final Lsn lastLsn) throws LogException {
         if (LOG.isInfoEnabled()) {
             LOG.info("Running recovery ...");
         }
@@ -265,9 +280,10 @@ public class RecoveryManager {
             Loggable next = null;
             int redoCnt = 0;
             try {
-                final long lastSize = FileUtils.sizeQuietly(last);
-                @Nullable final ProgressBar redoProgressBar = hideProgressBar ? null : new ProgressBar("Redo ", lastSize);
+                final long totalSize = reader.getSize();
+                @Nullable final ProgressBar redoProgressBar = hideProgressBar ? null : new ProgressBar("Redo ", totalSize);
                 while ((next = reader.nextEntry()) != null) {
+                    // only fuzzy checkpoints, whose redo does nothing, may follow the recovery position
                     SanityCheck.ASSERT(next.getLogType() != LogEntryTypes.CHECKPOINT,
                             "Found a checkpoint during recovery run! This should not ever happen.");
                     if (next.getLogType() == LogEntryTypes.TXN_START) {
@@ -286,7 +302,7 @@ public class RecoveryManager {
                     next.redo();
 
                     if (redoProgressBar != null) {
-                        redoProgressBar.set(next.getLsn().getOffset());
+                        redoProgressBar.set(reader.getOffset(next.getLsn()));
                     }
 
                     if (next.getLsn().equals(lastLsn)) {
@@ -296,7 +312,7 @@ public class RecoveryManager {
                 }
 
                 if (redoProgressBar != null) {
-                    redoProgressBar.set(lastSize);  // 100% done
+                    redoProgressBar.set(totalSize);  // 100% done
                 }
             } catch (final Exception e) {
                 LOG.error("Exception caught while redoing transactions. Aborting recovery to avoid possible damage. " +
@@ -317,8 +333,8 @@ public class RecoveryManager {
             if (!runningTxns.isEmpty()) {
                 // do a reverse scan of the log, undoing all uncommitted transactions
                 try {
-                    final long lastSize = FileUtils.sizeQuietly(last);
-                    final ProgressBar undoProgressBar = hideProgressBar ? null : new ProgressBar("Undo ", lastSize);
+                    final long totalSize = reader.getSize();
+                    final ProgressBar undoProgressBar = hideProgressBar ? null : new ProgressBar("Undo ", totalSize);
                     while ((next = reader.previousEntry()) != null) {
                         if (next.getLogType() == LogEntryTypes.TXN_START) {
                             if (runningTxns.get(next.getTransactionId()) != null) {
@@ -331,7 +347,8 @@ public class RecoveryManager {
                         } else if (next.getLogType() == LogEntryTypes.TXN_COMMIT) {
                             // ignore already committed transaction
                         } else if (next.getLogType() == LogEntryTypes.CHECKPOINT) {
-                            // found last checkpoint: undo is completed
+                            // found last sharp checkpoint: undo is completed.
+                            // transactions which were running at a fuzzy checkpoint started before it
                             break;
                         }
 
@@ -342,12 +359,12 @@ public class RecoveryManager {
                         }
 
                         if (undoProgressBar != null) {
-                            undoProgressBar.set(lastSize - next.getLsn().getOffset());
+                            undoProgressBar.set(totalSize - reader.getOffset(next.getLsn()));
                         }
                     }
 
                     if (undoProgressBar != null) {
-                        undoProgressBar.set(lastSize);   // 100% done
+                        undoProgressBar.set(totalSize);   // 100% done
                     }
                 } catch (final Exception e) {
                     LOG.warn("Exception caught while undoing dirty transactions. Remaining transactions to be undone: {}. Aborting recovery to avoid possible damage. Before starting again, make sure to run a check via the emergency export tool.", runningTxns.size(), e);
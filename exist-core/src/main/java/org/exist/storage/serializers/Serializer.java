@@ -999,6 +999,70 @@ public abstract class Serializer implements XMLReader {
         receiver.endDocument();
     }
 
+    /**
+     * Start the serialization of a sequence whose items are passed one at a time to
+     * {@link #sequenceItemToSAX(Item, boolean, boolean)}, as they become available.
+     * The serialization has to be finished by calling {@link #endSequenceToSAX(boolean)}.
+     *
+     * If parameter wrap is set to true, the wrapper element is the same as written by
+     * {@link #toSAX(Sequence, int, int, boolean, boolean, long, long)}, except that it has
+     * no hits and count attributes, as the length of the sequence is not yet known.
+     *
+     * @param wrap            Indicates whether the output should be wrapped
+     * @param start           The position in the sequence of the first item which will be serialized
+     * @param compilationTime The time taken to compile the query which produces the sequence
+     * @throws SAXException If an error occurs during serialization
+     */
+    public void startSequenceToSAX(final boolean wrap, final int start, final long compilationTime) throws SAXException {
+        try {
+            setStylesheetFromProperties(null);
+        } catch (final TransformerConfigurationException e) {
+            throw new SAXException(e.getMessage(), e);
+        }
+        setXSLHandler(null, false);
+
+        if (!documentStarted) {
+            receiver.startDocument();
+            documentStarted = true;
+        }
+        if (wrap) {
+            final AttrList attrs = new AttrList();
+            attrs.addAttribute(ATTR_START_QNAME, Integer.toString(start));
+            if (outputProperties.getProperty(PROPERTY_SESSION_ID) != null) {
+                attrs.addAttribute(ATTR_SESSION_ID, outputProperties.getProperty(PROPERTY_SESSION_ID));
+            }
+            attrs.addAttribute(ATTR_COMPILATION_TIME_QNAME, Long.toString(compilationTime));
+            receiver.startPrefixMapping("exist", Namespaces.EXIST_NS);
+            receiver.startElement(ELEM_RESULT_QNAME, attrs);
+        }
+    }
+
+    /**
+     * Serialize the next item of a sequence, see {@link #startSequenceToSAX(boolean, int, long)}.
+     *
+     * @param item  The item to serialize
+     * @param typed Indicates whether the output types should be wrapped
+     * @param wrap  Indicates whether the output is wrapped
+     * @throws SAXException If an error occurs during serialization
+     */
+    public void sequenceItemToSAX(final Item item, final boolean typed, final boolean wrap) throws SAXException {
+        itemToSAX(item, typed, wrap);
+    }
+
+    /**
+     * Finish the serialization of a sequence, see {@link #startSequenceToSAX(boolean, int, long)}.
+     *
+     * @param wrap Indicates whether the output is wrapped
+     * @throws SAXException If an error occurs during serialization
+     */
+    public void endSequenceToSAX(final boolean wrap) throws SAXException {
+        if (wrap) {
+            receiver.endElement(ELEM_RESULT_QNAME);
+            receiver.endPrefixMapping("exist");
+        }
+        receiver.endDocument();
+    }
+
     /**
      * Serialize the items in the given sequence to SAX, starting with item start. If parameter
      * wrap is set to true, output a wrapper element to enclose the serialized items. The
@@ -34,7 +34,9 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SeekableByteChannel;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Collects statistics about the distribution of elements in a document or
@@ -110,6 +112,18 @@ public class DataGuide {
         return other;
     }
 
+    /**
+     * Returns the number of elements for every name in the data guide,
+     * summed up over all the paths leading to them.
+     *
+     * @return the number of elements by name
+     */
+    public Map<QName, Long> getNodeCounts() {
+        final Map<QName, Long> counts = new HashMap<>();
+        root.getNodeCounts(counts);
+        return counts;
+    }
+
     public int getMaxParentDepth(QName qname) {
         final NodeStats temp = new NodeStats(qname);
         root.getMaxParentDepth(qname, temp);
@@ -30,6 +30,7 @@ import org.exist.indexing.IndexWorker;
 import org.exist.indexing.RawBackupSupport;
 import org.exist.storage.BrokerPool;
 import org.exist.storage.DBBroker;
+import org.exist.storage.ElementValue;
 import org.exist.storage.btree.DBException;
 import org.exist.util.DatabaseConfigurationException;
 import org.exist.util.FileUtils;
@@ -43,6 +44,8 @@ import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Map;
 
 /**
  * Collects statistics on the distribution of elements in the database.
@@ -62,20 +65,51 @@ public class IndexStatistics extends AbstractIndex implements RawBackupSupport {
     private Path dataFile;
     private DataGuide dataGuide = new DataGuide();
 
+    /**
+     * Immutable snapshot of the node counts in {@link #dataGuide}, replaced
+     * whenever the statistics change so that queries can look up a count
+     * without walking the guide or locking it.
+     */
+    private volatile Map<QName, Long> nodeCounts = Collections.emptyMap();
+
     public String getIndexId() {
         return ID;
     }
 
-    public int getMaxParentDepth(QName qname) {
+    public synchronized int getMaxParentDepth(QName qname) {
         return dataGuide.getMaxParentDepth(qname);
     }
 
-    protected void mergeStats(DataGuide other) {
+    public long getNodeCount(QName qname) {
+        return nodeCounts.getOrDefault(qname, 0L);
+    }
+
+    /**
+     * Estimate the number of elements with the given name in the database.
+     * Removed documents are not subtracted from the statistics, so the estimate
+     * is an upper bound until the statistics are rebuilt.
+     *
+     * @param broker the broker to look up the index with
+     * @param qname the element name
+     * @return the estimated number of elements, or -1 if the statistics are
+     *     not enabled or the name is not an element name
+     */
+    public static long estimateNodeCount(DBBroker broker, QName qname) {
+        if (broker == null || qname == null || qname.getNameType() != ElementValue.ELEMENT) {
+            return -1;
+        }
+        final IndexStatistics stats = (IndexStatistics) broker.getBrokerPool().getIndexManager().getIndexById(ID);
+        return stats == null ? -1 : stats.getNodeCount(qname);
+    }
+
+    protected synchronized void mergeStats(DataGuide other) {
         dataGuide = other.mergeInto(dataGuide);
+        nodeCounts = Collections.unmodifiableMap(dataGuide.getNodeCounts());
     }
 
-    protected void updateStats(DataGuide newGuide) {
+    protected synchronized void updateStats(DataGuide newGuide) {
         dataGuide = newGuide;
+        nodeCounts = Collections.unmodifiableMap(dataGuide.getNodeCounts());
     }
 
     public void configure(BrokerPool pool, Path dataDir, Element config) throws DatabaseConfigurationException {
@@ -86,7 +120,7 @@ public class IndexStatistics extends AbstractIndex implements RawBackupSupport {
         dataFile = dataDir.resolve(fileName);
     }
 
-    public void open() throws DatabaseConfigurationException {
+    public synchronized void open() throws DatabaseConfigurationException {
         dataGuide = new DataGuide();
         if (Files.exists(dataFile)) {
             final long start = System.currentTimeMillis();
@@ -102,12 +136,13 @@ public class IndexStatistics extends AbstractIndex implements RawBackupSupport {
                     dataFile.toAbsolutePath() + ": " + e.getMessage(), e);
             }
         }
+        nodeCounts = Collections.unmodifiableMap(dataGuide.getNodeCounts());
     }
 
     public void close() throws DBException {
     }
 
-    public void sync() throws DBException {
+    public synchronized void sync() throws DBException {
         try(final SeekableByteChannel chan = Files.newByteChannel(dataFile,
                 StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
             dataGuide.write(chan, getBrokerPool().getSymbols());
@@ -130,11 +165,11 @@ public class IndexStatistics extends AbstractIndex implements RawBackupSupport {
         return true;
     }
 
-    public void toSAX(ContentHandler handler) throws SAXException {
+    public synchronized void toSAX(ContentHandler handler) throws SAXException {
         dataGuide.toSAX(handler);
     }
 
-    public String toString() {
+    public synchronized String toString() {
         return dataGuide.toString();
     }
 
@@ -32,6 +32,7 @@ import org.xml.sax.helpers.AttributesImpl;
 
 import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Collects statistics for a single node in the data guide.
@@ -82,15 +83,18 @@ class NodeStats {
                 }
             }
         }
+        // fill the new slot before publishing the array
+        final NodeStats child = new NodeStats(this, qn);
+        final NodeStats[] tc;
         if (children == null) {
-            children = new NodeStats[1];
+            tc = new NodeStats[1];
         } else {
-            NodeStats[] tc = new NodeStats[children.length + 1];
+            tc = new NodeStats[children.length + 1];
             System.arraycopy(children, 0, tc, 0, children.length);
-            children = tc;
         }
-        children[children.length - 1] = new NodeStats(this, qn);
-        return children[children.length - 1];
+        tc[tc.length - 1] = child;
+        children = tc;
+        return child;
     }
 
     protected void mergeInto(DataGuide other, NodePath currentPath) {
@@ -126,6 +130,17 @@ class NodeStats {
         return s;
     }
 
+    protected void getNodeCounts(Map<QName, Long> counts) {
+        if (qname != null) {
+            counts.merge(qname, (long) nodeCount, Long::sum);
+        }
+        if (children != null) {
+            for (NodeStats child : children) {
+                child.getNodeCounts(counts);
+            }
+        }
+    }
+
     protected void getMaxParentDepth(QName name, NodeStats max) {
         if (parent != null && qname != null && qname.equals(name)) {
             max.maxDepth = Math.max(parent.maxDepth, max.maxDepth);
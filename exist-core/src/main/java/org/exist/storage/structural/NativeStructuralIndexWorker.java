@@ -33,8 +33,10 @@ import org.exist.dom.persistent.DocumentImpl;
 import org.exist.dom.persistent.IStoredNode;
 import org.exist.dom.persistent.SymbolTable;
 import org.exist.dom.persistent.NewArrayNodeSet;
+import org.exist.dom.persistent.PackedNodeSet;
 import org.exist.dom.persistent.ExtNodeSet;
 import org.exist.dom.persistent.NodeSet;
+import org.exist.dom.persistent.VirtualNodeSet;
 import org.exist.collections.Collection;
 import org.exist.indexing.*;
 import org.exist.indexing.StreamListener.ReindexMode;
@@ -56,7 +58,7 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 import java.util.*;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.exist.security.PermissionDeniedException;
 
@@ -93,7 +95,10 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
      * Find all nodes in the index matching a given QName. If a match is selected and returned depends on
      * the specified {@link org.exist.xquery.NodeSelector}.
      *
-     * This implementation does a scan through the index for a range of document ids in the input set.
+     * If the selector exposes a context set (see {@link NodeSelector#getContextSet()}), only the index
+     * ranges covering the subtrees of the context nodes are scanned, see
+     * {@link #scanContextRanges(byte, QName, DocumentSet, NodeSet, FindElementsCallback)}. Otherwise,
+     * this implementation does a scan through the index for a range of document ids in the input set.
      * It will be fast for bulk-loading a large node set, but slow if you need to operate on a small
      * context set.
      *
@@ -108,16 +113,23 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
     }
 
     public NodeSet findElementsByTagName(byte type, DocumentSet docs, QName qname, NodeSelector selector, Expression parent) {
-        final NewArrayNodeSet result = new NewArrayNodeSet();
+        // without a selector, all nodes of the given name are returned: keep them packed
+        final NodeSet result = selector == null ? new PackedNodeSet(256, typedQName(type, qname)) : new NewArrayNodeSet();
         final FindElementsCallback callback = new FindElementsCallback(type, qname, result, docs, selector, parent);
 
+        final NodeSet contextSet = selector == null ? null : selector.getContextSet();
+        if (contextSet != null && !(contextSet instanceof VirtualNodeSet)
+                && scanContextRanges(type, qname, docs, contextSet, callback)) {
+            return result;
+        }
+
         // for each document id range, scan the index to find matches
         for (final Range range : getDocIdRanges(docs)) {
             final byte[] fromKey = computeKey(type, qname, range.start);
             final byte[] toKey = computeKey(type, qname, range.end + 1);
             final IndexQuery query = new IndexQuery(IndexQuery.RANGE, new Value(fromKey), new Value(toKey));
 
-            try(final ManagedLock<ReentrantLock> btreeLock = index.lockManager.acquireBtreeReadLock(index.btree.getLockName())) {
+            try(final ManagedLock<ReentrantReadWriteLock> btreeLock = index.lockManager.acquireBtreeSharedReadLock(index.btree.getLockName())) {
                 index.btree.query(query, callback);
             } catch (final LockException e) {
                 NativeStructuralIndex.LOG.warn("Lock problem while searching structural index: {}", e.getMessage(), e);
@@ -130,6 +142,72 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
         return result;
     }
 
+    /**
+     * Staircase join of the context set against the index: walks the context nodes in document order,
+     * skips every context node lying within the subtree of the previous one and scans only the key
+     * ranges of the remaining subtrees. The ranges are ascending and disjoint, so a single
+     * {@link BTree.RangeScanner} passes forward over the leaves, descending from the root only to
+     * skip over larger gaps between two subtrees.
+     *
+     * @param type the type of the nodes
+     * @param qname the name
+     * @param docs the document working set
+     * @param contextSet the context set of the selector
+     * @param callback the callback receiving the keys
+     * @return false if the context set is not in document order and the whole document id ranges
+     *     need to be scanned instead
+     */
+    private boolean scanContextRanges(final byte type, final QName qname, final DocumentSet docs,
+            final NodeSet contextSet, final FindElementsCallback callback) {
+        final List<Value> bounds = new ArrayList<>();
+        int lastDocId = -1;
+        NodeId lastRoot = null;
+        for (final NodeProxy context : contextSet) {
+            final DocumentImpl doc = context.getOwnerDocument();
+            final int docId = doc.getDocId();
+            final NodeId nodeId = context.getNodeId();
+            if (docId == lastDocId) {
+                if (lastRoot == NodeId.DOCUMENT_NODE) {
+                    continue;
+                }
+                if (nodeId == NodeId.DOCUMENT_NODE || nodeId.compareTo(lastRoot) < 0) {
+                    return false;
+                }
+                if (nodeId.isDescendantOrSelfOf(lastRoot)) {
+                    continue;
+                }
+            } else if (docId < lastDocId) {
+                return false;
+            }
+            lastDocId = docId;
+            lastRoot = nodeId;
+            if (docs.getDoc(docId) == null) {
+                continue;
+            }
+            if (nodeId == NodeId.DOCUMENT_NODE) {
+                bounds.add(new Value(computeKey(type, qname, docId)));
+                bounds.add(new Value(computeKey(type, qname, docId + 1)));
+            } else {
+                bounds.add(new Value(computeKey(type, qname, docId, nodeId)));
+                bounds.add(new Value(computeKey(type, qname, docId, nodeId.nextSibling())));
+            }
+        }
+
+        try (final ManagedLock<ReentrantReadWriteLock> btreeLock = index.lockManager.acquireBtreeSharedReadLock(index.btree.getLockName())) {
+            final BTree.RangeScanner scanner = index.btree.rangeScanner();
+            for (int i = 0; i < bounds.size(); i += 2) {
+                scanner.scan(bounds.get(i), bounds.get(i + 1), callback);
+            }
+        } catch (final LockException e) {
+            NativeStructuralIndex.LOG.warn("Lock problem while searching structural index: {}", e.getMessage(), e);
+        } catch (final TerminatedException e) {
+            NativeStructuralIndex.LOG.warn("Query was terminated while searching structural index: {}", e.getMessage(), e);
+        } catch (final Exception e) {
+            NativeStructuralIndex.LOG.error("Error while searching structural index: {}", e.getMessage(), e);
+        }
+        return true;
+    }
+
     /**
      * Scan the document set to find document id ranges to query
      *
@@ -194,7 +272,8 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
     public NodeSet findDescendantsByTagName(byte type, QName qname, int axis, DocumentSet docs, NodeSet contextSet, int contextId, Expression parent) {
         final NewArrayNodeSet result = new NewArrayNodeSet();
         final FindDescendantsCallback callback = new FindDescendantsCallback(type, axis, qname, contextId, result, parent);
-        try(final ManagedLock<ReentrantLock> btreeLock = index.lockManager.acquireBtreeReadLock(index.btree.getLockName())) {
+        try(final ManagedLock<ReentrantReadWriteLock> btreeLock = index.lockManager.acquireBtreeSharedReadLock(index.btree.getLockName())) {
+            final BTree.RangeScanner scanner = index.btree.rangeScanner();
             for (final NodeProxy ancestor : contextSet) {
                 final DocumentImpl doc = ancestor.getOwnerDocument();
                 final NodeId ancestorId = ancestor.getNodeId();
@@ -208,9 +287,8 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
                     fromKey = computeKey(type, qname, doc.getDocId(), ancestorId);
                     toKey = computeKey(type, qname, doc.getDocId(), ancestorId.nextSibling());
                 }
-                final IndexQuery query = new IndexQuery(IndexQuery.RANGE, new Value(fromKey), new Value(toKey));
                 try {
-                    index.btree.query(query, callback);
+                    scanner.scan(new Value(fromKey), new Value(toKey), callback);
                 } catch (final Exception e) {
                     NativeStructuralIndex.LOG.error("Error while searching structural index: {}", e.getMessage(), e);
                 }
@@ -225,7 +303,11 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
     public NodeSet findAncestorsByTagName(byte type, QName qname, int axis, DocumentSet docs, NodeSet contextSet,
                                           int contextId) {
         final NewArrayNodeSet result = new NewArrayNodeSet();
-        try(final ManagedLock<ReentrantLock> btreeLock = index.lockManager.acquireBtreeReadLock(index.btree.getLockName())) {
+        // descendants in the same document mostly share their ancestors: remember the
+        // addresses already looked up for the current document
+        final Map<NodeId, Long> addresses = new HashMap<>();
+        DocumentImpl lastDoc = null;
+        try(final ManagedLock<ReentrantReadWriteLock> btreeLock = index.lockManager.acquireBtreeSharedReadLock(index.btree.getLockName())) {
             for (final NodeProxy descendant : contextSet) {
                 NodeId parentId;
                 if (axis == Constants.ANCESTOR_SELF_AXIS || axis == Constants.SELF_AXIS)
@@ -233,9 +315,17 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
                 else
                     {parentId = descendant.getNodeId().getParentId();}
                 final DocumentImpl doc = descendant.getOwnerDocument();
+                if (doc != lastDoc) {
+                    addresses.clear();
+                    lastDoc = doc;
+                }
                 while (parentId != NodeId.DOCUMENT_NODE) {
-                    final byte[] key = computeKey(type, qname, doc.getDocId(), parentId);
-                    final long address = index.btree.findValue(new Value(key));
+                    Long address = addresses.get(parentId);
+                    if (address == null) {
+                        final byte[] key = computeKey(type, qname, doc.getDocId(), parentId);
+                        address = index.btree.findValue(new Value(key));
+                        addresses.put(parentId, address);
+                    }
                     if (address != -1) {
                         final NodeProxy storedNode = new NodeProxy(null, doc, parentId,
                             type == ElementValue.ATTRIBUTE ? Node.ATTRIBUTE_NODE : Node.ELEMENT_NODE, address);
@@ -271,7 +361,7 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
             final DocumentImpl doc = ancestor.getOwnerDocument();
             final NodeId ancestorId = ancestor.getNodeId();
             final List<QName> qnames = getQNamesForDoc(doc);
-            try(final ManagedLock<ReentrantLock> btreeLock = index.lockManager.acquireBtreeReadLock(index.btree.getLockName())) {
+            try(final ManagedLock<ReentrantReadWriteLock> btreeLock = index.lockManager.acquireBtreeSharedReadLock(index.btree.getLockName())) {
 	            for (final QName qname : qnames) {
 	            	if (test.getName() == null || test.matches(qname)) {
 	            		callback.setAncestor(doc, ancestor);
@@ -299,25 +389,28 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
         return result;
     }
     
+    private static QName typedQName(final byte type, final QName qname) {
+        if (qname != null && qname.getNameType() != type) {
+            return new QName(qname.getLocalPart(), qname.getNamespaceURI(), qname.getPrefix(), type);
+        }
+        return qname;
+    }
+
     private class FindElementsCallback implements BTreeCallback {
         byte type;
         QName qname;
         DocumentSet docs;
-        NewArrayNodeSet result;
+        NodeSet result;
         NodeSelector selector;
         Expression parent;
 
-        FindElementsCallback(byte type, QName qname, NewArrayNodeSet result, DocumentSet docs, NodeSelector selector, Expression parent) {
+        FindElementsCallback(byte type, QName qname, NodeSet result, DocumentSet docs, NodeSelector selector, Expression parent) {
             this.type = type;
             this.result = result;
             this.docs = docs;
             this.selector = selector;
             this.parent = parent;
-            if (qname != null && qname.getNameType() != type) {
-                this.qname = new QName(qname.getLocalPart(), qname.getNamespaceURI(), qname.getPrefix(), type);
-            } else {
-                this.qname = qname;
-            }
+            this.qname = typedQName(type, qname);
         }
 
         public boolean indexInfo(Value value, long pointer) throws TerminatedException {
@@ -328,13 +421,8 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
             final NodeId nodeId = readNodeId(key, pointer);
             final DocumentImpl doc = docs.getDoc(readDocId(key));
             if (doc != null) {
-                if (selector == null) {
-                    final NodeProxy storedNode = new NodeProxy(null, doc, nodeId,
-                        type == ElementValue.ATTRIBUTE ? Node.ATTRIBUTE_NODE : Node.ELEMENT_NODE, pointer);
-                    if (qname != null) {
-                        storedNode.setQName(qname);
-                    }
-                    result.add(storedNode);
+                if (result instanceof PackedNodeSet packed) {
+                    packed.add(doc, nodeId, type == ElementValue.ATTRIBUTE ? Node.ATTRIBUTE_NODE : Node.ELEMENT_NODE, pointer);
                 } else {
                     final NodeProxy storedNode = selector.match(doc, nodeId);
                     if (storedNode != null) {
@@ -484,6 +572,12 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
         }
     }
 
+    @Override
+    public boolean isConcurrentFlushSafe() {
+        // storing only writes the pending entries to the index file
+        return mode == ReindexMode.STORE;
+    }
+
     protected void removeSome() {
         if (pending.size() == 0) {
             return;
@@ -492,7 +586,7 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
         try {
             for (final Map.Entry<QName,List<NodeProxy>> entry: pending.entrySet()) {
                 final QName qname = entry.getKey();
-                try(final ManagedLock<ReentrantLock> btreeLock = index.lockManager.acquireBtreeWriteLock(index.btree.getLockName())) {
+                try(final ManagedLock<ReentrantReadWriteLock> btreeLock = index.lockManager.acquireBtreeExclusiveWriteLock(index.btree.getLockName())) {
                     final List<NodeProxy> nodes = entry.getValue();
                     for (final NodeProxy proxy : nodes) {
                         final NodeId nodeId = proxy.getNodeId();
@@ -518,7 +612,7 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
             final byte[] fromKey = computeKey(qname.getNameType(), qname, docToRemove.getDocId());
             final byte[] toKey = computeKey(qname.getNameType(), qname, docToRemove.getDocId() + 1);
             final IndexQuery query = new IndexQuery(IndexQuery.RANGE, new Value(fromKey), new Value(toKey));
-            try(final ManagedLock<ReentrantLock> btreeLock = index.lockManager.acquireBtreeWriteLock(index.btree.getLockName())) {
+            try(final ManagedLock<ReentrantReadWriteLock> btreeLock = index.lockManager.acquireBtreeExclusiveWriteLock(index.btree.getLockName())) {
                 index.btree.remove(query, null);
             } catch (final LockException e) {
                 NativeStructuralIndex.LOG.warn("Failed to lock structural index: {}", e.getMessage(), e);
@@ -533,7 +627,7 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
         final byte[] fromKey = computeDocKey(doc.getDocId());
         final byte[] toKey = computeDocKey(doc.getDocId() + 1);
         final IndexQuery query = new IndexQuery(IndexQuery.RANGE, new Value(fromKey), new Value(toKey));
-        try(final ManagedLock<ReentrantLock> btreeLock = index.lockManager.acquireBtreeWriteLock(index.btree.getLockName())) {
+        try(final ManagedLock<ReentrantReadWriteLock> btreeLock = index.lockManager.acquireBtreeExclusiveWriteLock(index.btree.getLockName())) {
             index.btree.remove(query, null);
         } catch (final LockException e) {
             NativeStructuralIndex.LOG.warn("Failed to lock structural index: {}", e.getMessage(), e);
@@ -549,7 +643,7 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
         final byte[] fromKey = computeDocKey(doc.getDocId());
         final byte[] toKey = computeDocKey(doc.getDocId() + 1);
         final IndexQuery query = new IndexQuery(IndexQuery.RANGE, new Value(fromKey), new Value(toKey));
-        try(final ManagedLock<ReentrantLock> btreeLock = index.lockManager.acquireBtreeWriteLock(index.btree.getLockName())) {
+        try(final ManagedLock<ReentrantReadWriteLock> btreeLock = index.lockManager.acquireBtreeExclusiveWriteLock(index.btree.getLockName())) {
             index.btree.query(query, (value, pointer) -> {
                 final QName qname = readQName(value.getData());
                 qnames.add(qname);
@@ -605,7 +699,7 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
                 final byte[] toKey = computeKey(qname.getNameType(), qname, doc.getDocId() + 1);
                 final IndexQuery query = new IndexQuery(IndexQuery.RANGE, new Value(fromKey), new Value(toKey));
 
-                try(final ManagedLock<ReentrantLock> btreeLock = index.lockManager.acquireBtreeReadLock(index.btree.getLockName())) {
+                try(final ManagedLock<ReentrantReadWriteLock> btreeLock = index.lockManager.acquireBtreeSharedReadLock(index.btree.getLockName())) {
                     index.btree.query(query, (value, pointer) -> {
                         Occurrences oc = occurrences.get(name);
                         if (oc == null) {
@@ -665,7 +759,7 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
         try {
             for (final Map.Entry<QName,List<NodeProxy>> entry: pending.entrySet()) {
                 final QName qname = entry.getKey();
-                try(final ManagedLock<ReentrantLock> btreeLock = index.lockManager.acquireBtreeWriteLock(index.btree.getLockName())) {
+                try(final ManagedLock<ReentrantReadWriteLock> btreeLock = index.lockManager.acquireBtreeExclusiveWriteLock(index.btree.getLockName())) {
                     final List<NodeProxy> nodes = entry.getValue();
                     for (final NodeProxy proxy : nodes) {
                         final NodeId nodeId = proxy.getNodeId();
@@ -0,0 +1,86 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.sync;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.EXistException;
+import org.exist.scheduler.JobDescription;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+import org.quartz.StatefulJob;
+
+import java.util.Optional;
+
+/**
+ * Periodic job which writes dirty pages to disk, and from time to time a fuzzy
+ * checkpoint, whilst the database is busy.
+ *
+ * Unlike the {@link SyncTask}, which is a system task and so only runs when no
+ * transactions are active, this job runs alongside the other brokers, see
+ * {@link BrokerPool#writeDirtyPages(DBBroker)}.
+ */
+public class BackgroundWriterJob implements JobDescription, StatefulJob {
+
+    private final static Logger LOG = LogManager.getLogger(BackgroundWriterJob.class);
+
+    private final static String JOB_NAME = "BackgroundWriter";
+
+    private String name = JOB_NAME;
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void setName(final String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String getGroup() {
+        return EXIST_INTERNAL_GROUP;
+    }
+
+    @Override
+    public void execute(final JobExecutionContext jec) throws JobExecutionException {
+        final BrokerPool pool = (BrokerPool) jec.getJobDetail().getJobDataMap().get(DATABASE);
+        if (pool == null) {
+            final JobExecutionException jaa = new JobExecutionException("BackgroundWriterJob Failed: BrokerPool was null! Unscheduling job", false);
+            jaa.setUnscheduleAllTriggers(true);
+            throw jaa;
+        }
+
+        if (pool.isShuttingDownOrDown() || pool.isReadOnly()) {
+            return;
+        }
+
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            pool.writeDirtyPages(broker);
+        } catch (final EXistException e) {
+            LOG.warn("Unable to write dirty pages: {}", e.getMessage(), e);
+        }
+    }
+}
@@ -88,8 +88,10 @@ public class SyncTask implements SystemTask {
             pool.setReadOnly();
         }
 
+        // a checkpoint requested by the journal is written as soon as no transactions are running,
+        // rather than once the database is idle
         if(System.currentTimeMillis() - pool.getLastMajorSync() >
-                pool.getMajorSyncPeriod()) {
+                pool.getMajorSyncPeriod() || pool.isCheckpointRequested()) {
             pool.sync(broker, Sync.MAJOR);
         } else {
             pool.sync(broker, Sync.MINOR);
@@ -31,6 +31,10 @@ import org.exist.storage.journal.LogEntryTypes;
 import org.exist.storage.journal.Lsn;
 
 /**
+ * A sharp checkpoint, written while the database is in a stable state, so that
+ * recovery only needs to consider the records which follow it.
+ * See {@link FuzzyCheckpoint} for checkpoints written whilst transactions are running.
+ *
  * @author wolf
  */
 public class Checkpoint extends AbstractLoggable {
@@ -47,7 +51,11 @@ public class Checkpoint extends AbstractLoggable {
     }
     
     public Checkpoint(final DBBroker broker, final long transactionId) {
-        super(LogEntryTypes.CHECKPOINT, transactionId);
+        this(LogEntryTypes.CHECKPOINT, transactionId);
+    }
+
+    protected Checkpoint(final byte type, final long transactionId) {
+        super(type, transactionId);
 		timestamp = new Date().getTime();
     }
     
@@ -66,6 +74,25 @@ public class Checkpoint extends AbstractLoggable {
     public Lsn getStoredLsn() {
     	return storedLsn;
     }
+
+    /**
+     * Returns true if this checkpoint was written whilst transactions may have been running.
+     *
+     * @return true for a {@link FuzzyCheckpoint}, false for a sharp checkpoint
+     */
+    public boolean isFuzzy() {
+        return false;
+    }
+
+    /**
+     * Returns the LSN from which recovery has to start. For a sharp checkpoint
+     * this is the LSN of the checkpoint itself.
+     *
+     * @return the recovery LSN
+     */
+    public Lsn getRecoveryLsn() {
+        return getLsn();
+    }
     
     @Override
     public int getLogSize() {
@@ -0,0 +1,86 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.txn;
+
+import java.nio.ByteBuffer;
+
+import org.exist.storage.DBBroker;
+import org.exist.storage.journal.LogEntryTypes;
+import org.exist.storage.journal.Lsn;
+
+/**
+ * A checkpoint written whilst transactions may be running. It stores the minimum
+ * recovery LSN, i.e. the position in the journal from which recovery has to start,
+ * which may be in an earlier journal file than the checkpoint itself.
+ *
+ * Fuzzy checkpoints have their own entry type, so that the layout of
+ * {@link Checkpoint} records, and with it the journal format, is unchanged.
+ */
+public class FuzzyCheckpoint extends Checkpoint {
+
+    private Lsn recoveryLsn = Lsn.LSN_INVALID;
+
+    public FuzzyCheckpoint(final DBBroker broker, final long transactionId) {
+        super(LogEntryTypes.FUZZY_CHECKPOINT, transactionId);
+    }
+
+    /**
+     * @param transactionId the id of the transaction for the checkpoint
+     * @param recoveryLsn the LSN from which recovery has to start
+     */
+    public FuzzyCheckpoint(final long transactionId, final Lsn recoveryLsn) {
+        this(null, transactionId);
+        this.recoveryLsn = recoveryLsn;
+    }
+
+    @Override
+    public void write(final ByteBuffer out) {
+        super.write(out);
+        recoveryLsn.write(out);
+    }
+
+    @Override
+    public void read(final ByteBuffer in) {
+        super.read(in);
+        recoveryLsn = Lsn.read(in);
+    }
+
+    @Override
+    public boolean isFuzzy() {
+        return true;
+    }
+
+    @Override
+    public Lsn getRecoveryLsn() {
+        return recoveryLsn;
+    }
+
+    @Override
+    public int getLogSize() {
+        return super.getLogSize() + Lsn.RAW_LENGTH;
+    }
+
+    @Override
+    public String dump() {
+        return super.dump() + " - fuzzy, recovery from " + recoveryLsn;
+    }
+}
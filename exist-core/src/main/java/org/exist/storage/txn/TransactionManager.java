@@ -40,6 +40,7 @@ import org.exist.security.PermissionDeniedException;
 import org.exist.storage.*;
 import org.exist.storage.journal.JournalException;
 import org.exist.storage.journal.JournalManager;
+import org.exist.storage.journal.Lsn;
 import org.exist.storage.sync.Sync;
 import org.exist.util.LockException;
 import org.exist.xmldb.XmldbURI;
@@ -474,6 +475,33 @@ public class TransactionManager implements BrokerPoolService {
         }
     }
 
+    /**
+     * Create a new fuzzy checkpoint. Unlike {@link #checkpoint(boolean)} this may be called
+     * whilst transactions are running. The caller must have written all the pages which
+     * were dirty when the recovery LSN was obtained from the journal.
+     *
+     * This method is called from {@link org.exist.storage.BrokerPool#checkpointFuzzy(DBBroker)}.
+     *
+     * @param recoveryLsn the recovery LSN, obtained before the dirty pages were written
+     * @param switchFiles Indicates whether a new journal file should be started
+     *
+     * @throws TransactionException if an error occurs whilst writing the checkpoint.
+     */
+    public void checkpoint(final Lsn recoveryLsn, final boolean switchFiles) throws TransactionException {
+        if (state.get() == STATE_SHUTDOWN) {
+            throwShutdownException();
+        }
+
+        if(journalManager.isPresent()) {
+            try {
+                final long txnId = nextTxnId.getAndIncrement();
+                journalManager.get().checkpoint(txnId, recoveryLsn, switchFiles);
+            } catch(final JournalException e) {
+                throw new TransactionException(e.getMessage(), e);
+            }
+        }
+    }
+
     /**
      * @deprecated This mixes concerns and should not be here!
      * @param broker the  eXist-db DBBroker
@@ -27,6 +27,7 @@ import org.apache.logging.log4j.Logger;
 
 import org.exist.backup.SystemExport;
 import org.exist.collections.CollectionCache;
+import org.exist.collections.DocumentSetCache;
 import org.exist.repo.Deployment;
 
 import org.exist.resolver.ResolverFactory;
@@ -59,6 +60,8 @@ import org.exist.storage.DefaultCacheManager;
 import org.exist.storage.IndexSpec;
 import org.exist.storage.NativeBroker;
 import org.exist.storage.XQueryPool;
+import org.exist.storage.btree.Paged;
+import org.exist.storage.dom.DOMFile;
 import org.exist.storage.serializers.CustomMatchListenerFactory;
 import org.exist.storage.serializers.Serializer;
 import org.exist.validation.GrammarPool;
@@ -73,6 +76,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
 import java.util.HashMap;
@@ -114,11 +118,13 @@ import static org.exist.Indexer.PROPERTY_PRESERVE_WS_MIXED_CONTENT;
 import static org.exist.Indexer.PROPERTY_SUPPRESS_WHITESPACE;
 import static org.exist.Indexer.SUPPRESS_WHITESPACE_ATTRIBUTE;
 import static org.exist.collections.CollectionCache.PROPERTY_CACHE_SIZE_BYTES;
+import static org.exist.storage.BrokerPoolConstants.BACKGROUND_WRITER_PERIOD_ATTRIBUTE;
 import static org.exist.storage.BrokerPoolConstants.CONFIGURATION_CONNECTION_ELEMENT_NAME;
 import static org.exist.storage.BrokerPoolConstants.DATA_DIR_ATTRIBUTE;
 import static org.exist.storage.BrokerPoolConstants.DISK_SPACE_MIN_PROPERTY;
 import static org.exist.storage.BrokerPoolConstants.MAX_CONNECTIONS_ATTRIBUTE;
 import static org.exist.storage.BrokerPoolConstants.MIN_CONNECTIONS_ATTRIBUTE;
+import static org.exist.storage.BrokerPoolConstants.PROPERTY_BACKGROUND_WRITER_PERIOD;
 import static org.exist.storage.BrokerPoolConstants.PROPERTY_COLLECTION_CACHE_SIZE;
 import static org.exist.storage.BrokerPoolConstants.PROPERTY_DATA_DIR;
 import static org.exist.storage.BrokerPoolConstants.PROPERTY_MAX_CONNECTIONS;
@@ -153,17 +159,27 @@ import static org.exist.storage.DefaultCacheManager.DEFAULT_CACHE_CHECK_MAX_SIZE
 import static org.exist.storage.DefaultCacheManager.PROPERTY_CACHE_CHECK_MAX_SIZE;
 import static org.exist.storage.DefaultCacheManager.PROPERTY_CACHE_SIZE;
 import static org.exist.storage.DefaultCacheManager.SHRINK_THRESHOLD_ATTRIBUTE;
+import static org.exist.storage.DefaultCacheManager.CACHE_TYPE_ATTRIBUTE;
+import static org.exist.storage.DefaultCacheManager.PROPERTY_CACHE_TYPE;
 import static org.exist.storage.DefaultCacheManager.SHRINK_THRESHOLD_PROPERTY;
 import static org.exist.storage.NativeBroker.INDEX_DEPTH_ATTRIBUTE;
 import static org.exist.storage.NativeBroker.PROPERTY_INDEX_DEPTH;
+import static org.exist.storage.NativeBroker.PROPERTY_REINDEX_PER_DOCUMENT_COMMIT;
+import static org.exist.storage.NativeBroker.PROPERTY_REINDEX_THREADS;
+import static org.exist.storage.NativeBroker.REINDEX_PER_DOCUMENT_COMMIT_ATTRIBUTE;
+import static org.exist.storage.NativeBroker.REINDEX_THREADS_ATTRIBUTE;
 import static org.exist.storage.NativeValueIndex.INDEX_CASE_SENSITIVE_ATTRIBUTE;
 import static org.exist.storage.NativeValueIndex.PROPERTY_INDEX_CASE_SENSITIVE;
 import static org.exist.storage.XQueryPool.MAX_STACK_SIZE_ATTRIBUTE;
 import static org.exist.storage.XQueryPool.POOL_SIZE_ATTTRIBUTE;
 import static org.exist.storage.XQueryPool.PROPERTY_MAX_STACK_SIZE;
+import static org.exist.storage.journal.Journal.PROPERTY_RECOVERY_GROUP_COMMIT_MAX_DELAY;
+import static org.exist.storage.journal.Journal.PROPERTY_RECOVERY_GROUP_COMMIT_MAX_SIZE;
 import static org.exist.storage.journal.Journal.PROPERTY_RECOVERY_JOURNAL_DIR;
 import static org.exist.storage.journal.Journal.PROPERTY_RECOVERY_SIZE_LIMIT;
 import static org.exist.storage.journal.Journal.PROPERTY_RECOVERY_SYNC_ON_COMMIT;
+import static org.exist.storage.journal.Journal.RECOVERY_GROUP_COMMIT_MAX_DELAY_ATTRIBUTE;
+import static org.exist.storage.journal.Journal.RECOVERY_GROUP_COMMIT_MAX_SIZE_ATTRIBUTE;
 import static org.exist.storage.journal.Journal.RECOVERY_JOURNAL_DIR_ATTRIBUTE;
 import static org.exist.storage.journal.Journal.RECOVERY_SIZE_LIMIT_ATTRIBUTE;
 import static org.exist.storage.journal.Journal.RECOVERY_SYNC_ON_COMMIT_ATTRIBUTE;
@@ -211,9 +227,15 @@ import static org.exist.xquery.XQueryContext.BUILT_IN_MODULE_SOURCE_ATTRIBUTE;
 import static org.exist.xquery.XQueryContext.BUILT_IN_MODULE_URI_ATTRIBUTE;
 import static org.exist.xquery.XQueryContext.ENABLE_QUERY_REWRITING_ATTRIBUTE;
 import static org.exist.xquery.XQueryContext.ENFORCE_INDEX_USE_ATTRIBUTE;
+import static org.exist.xquery.XQueryContext.ORDER_BY_SPILL_THRESHOLD_ATTRIBUTE;
+import static org.exist.xquery.XQueryContext.GROUP_BY_SPILL_THRESHOLD_ATTRIBUTE;
+import static org.exist.xquery.XQueryContext.PARALLEL_FLWOR_THREADS_ATTRIBUTE;
 import static org.exist.xquery.XQueryContext.PROPERTY_BUILT_IN_MODULES;
 import static org.exist.xquery.XQueryContext.PROPERTY_ENABLE_QUERY_REWRITING;
 import static org.exist.xquery.XQueryContext.PROPERTY_ENFORCE_INDEX_USE;
+import static org.exist.xquery.XQueryContext.PROPERTY_ORDER_BY_SPILL_THRESHOLD;
+import static org.exist.xquery.XQueryContext.PROPERTY_GROUP_BY_SPILL_THRESHOLD;
+import static org.exist.xquery.XQueryContext.PROPERTY_PARALLEL_FLWOR_THREADS;
 import static org.exist.xquery.XQueryContext.PROPERTY_MODULE_PARAMETERS;
 import static org.exist.xquery.XQueryContext.PROPERTY_STATIC_MODULE_MAP;
 import static org.exist.xquery.XQueryContext.PROPERTY_XQUERY_BACKWARD_COMPATIBLE;
@@ -496,6 +518,12 @@ public class Configuration implements ErrorHandler {
 
             setProperty(LockManager.CONFIGURATION_PATH_LOCKS_FOR_DOCUMENTS, documentUsePathLocks);
         });
+
+        configureElement(lockManager, "btree", btree -> {
+            final boolean btreeSharedReads = parseBoolean(getConfigAttributeValue(btree, "shared-reads"), false);
+
+            setProperty(LockManager.CONFIGURATION_BTREE_SHARED_READS, btreeSharedReads);
+        });
     }
 
     private void configureRepository(final Element element) {
@@ -526,6 +554,9 @@ public class Configuration implements ErrorHandler {
         configureProperty(xquery, XQUERY_BACKWARD_COMPATIBLE_ATTRIBUTE, PROPERTY_XQUERY_BACKWARD_COMPATIBLE);
         configureProperty(xquery, XQUERY_RAISE_ERROR_ON_FAILED_RETRIEVAL_ATTRIBUTE, PROPERTY_XQUERY_RAISE_ERROR_ON_FAILED_RETRIEVAL, Configuration::asBoolean, XQUERY_RAISE_ERROR_ON_FAILED_RETRIEVAL_DEFAULT);
         configureProperty(xquery, PerformanceStats.CONFIG_ATTR_TRACE, PerformanceStats.CONFIG_PROPERTY_TRACE);
+        configureProperty(xquery, ORDER_BY_SPILL_THRESHOLD_ATTRIBUTE, PROPERTY_ORDER_BY_SPILL_THRESHOLD, Configuration::asInteger, null);
+        configureProperty(xquery, GROUP_BY_SPILL_THRESHOLD_ATTRIBUTE, PROPERTY_GROUP_BY_SPILL_THRESHOLD, Configuration::asInteger, null);
+        configureProperty(xquery, PARALLEL_FLWOR_THREADS_ATTRIBUTE, PROPERTY_PARALLEL_FLWOR_THREADS, Configuration::asInteger, null);
 
         // built-in-modules
         final Map<String, Class<?>> classMap = new HashMap<>();
@@ -946,6 +977,8 @@ public class Configuration implements ErrorHandler {
             LOG.warn(CANNOT_CONVERT_VALUE_TO_INTEGER, SHRINK_THRESHOLD_PROPERTY, cacheShrinkThreshold, nfe);
         }
 
+        configureProperty(con, CACHE_TYPE_ATTRIBUTE, PROPERTY_CACHE_TYPE);
+
         String collectionCache = getConfigAttributeValue(con, CollectionCache.CACHE_SIZE_ATTRIBUTE);
         if (collectionCache != null) {
             collectionCache = collectionCache.toLowerCase();
@@ -976,9 +1009,18 @@ public class Configuration implements ErrorHandler {
 
         configureProperty(con, NativeBroker.PAGE_SIZE_ATTRIBUTE, PROPERTY_PAGE_SIZE, Configuration::asInteger, null);
 
+        final String memoryMappedFiles = getConfigAttributeValue(con, Paged.MEMORY_MAPPED_FILES_ATTRIBUTE);
+        if (memoryMappedFiles != null && !memoryMappedFiles.isBlank()) {
+            setProperty(Paged.PROPERTY_MEMORY_MAPPED_FILES, Arrays.asList(memoryMappedFiles.trim().split("[\\s,]+")));
+        }
+
+        configureProperty(con, DOMFile.COMPRESSION_ATTRIBUTE, DOMFile.PROPERTY_COMPRESSION);
+
         //Not clear : rather looks like a buffers count
         configureProperty(con, BrokerPoolConstants.COLLECTION_CACHE_SIZE_ATTRIBUTE, PROPERTY_COLLECTION_CACHE_SIZE, Configuration::asInteger, null);
 
+        configureProperty(con, DocumentSetCache.CACHE_SIZE_ATTRIBUTE, DocumentSetCache.PROPERTY_CACHE_SIZE, Configuration::asInteger, null);
+
         configureProperty(con, BrokerPoolConstants.NODES_BUFFER_ATTRIBUTE, PROPERTY_NODES_BUFFER, Configuration::asInteger, null);
 
         String diskSpace = getConfigAttributeValue(con, BrokerPoolConstants.DISK_SPACE_MIN_ATTRIBUTE);
@@ -1020,6 +1062,8 @@ public class Configuration implements ErrorHandler {
         configureProperty(recovery, RECOVERY_ENABLED_ATTRIBUTE, PROPERTY_RECOVERY_ENABLED, Configuration::asBoolean, TRUE);
         configureProperty(recovery, RECOVERY_SYNC_ON_COMMIT_ATTRIBUTE, PROPERTY_RECOVERY_SYNC_ON_COMMIT, Configuration::asBoolean, TRUE);
         configureProperty(recovery, RECOVERY_GROUP_COMMIT_ATTRIBUTE, PROPERTY_RECOVERY_GROUP_COMMIT, Configuration::asBoolean, FALSE);
+        configureProperty(recovery, RECOVERY_GROUP_COMMIT_MAX_DELAY_ATTRIBUTE, PROPERTY_RECOVERY_GROUP_COMMIT_MAX_DELAY, Configuration::asInteger, null);
+        configureProperty(recovery, RECOVERY_GROUP_COMMIT_MAX_SIZE_ATTRIBUTE, PROPERTY_RECOVERY_GROUP_COMMIT_MAX_SIZE, Configuration::asInteger, null);
 
         final String journalDir = getConfigAttributeValue(recovery, RECOVERY_JOURNAL_DIR_ATTRIBUTE);
         if (journalDir != null) {
@@ -1068,6 +1112,8 @@ public class Configuration implements ErrorHandler {
     private void configureXQueryPool(final Element queryPool) {
         configureProperty(queryPool, MAX_STACK_SIZE_ATTRIBUTE, PROPERTY_MAX_STACK_SIZE, Configuration::asInteger, null);
         configureProperty(queryPool, POOL_SIZE_ATTTRIBUTE, XQueryPool.PROPERTY_POOL_SIZE, Configuration::asInteger, null);
+        configureProperty(queryPool, XQueryPool.WARM_UP_COLLECTIONS_ATTRIBUTE, XQueryPool.PROPERTY_WARM_UP_COLLECTIONS);
+        configureProperty(queryPool, XQueryPool.WARM_UP_THREADS_ATTRIBUTE, XQueryPool.PROPERTY_WARM_UP_THREADS, Configuration::asInteger, null);
     }
 
     private void configureStartup(final Element startup) throws DatabaseConfigurationException {
@@ -1133,6 +1179,7 @@ public class Configuration implements ErrorHandler {
         configureProperty(pool, MIN_CONNECTIONS_ATTRIBUTE, PROPERTY_MIN_CONNECTIONS, Configuration::asInteger, null);
         configureProperty(pool, MAX_CONNECTIONS_ATTRIBUTE, PROPERTY_MAX_CONNECTIONS, Configuration::asInteger, null);
         configureProperty(pool, SYNC_PERIOD_ATTRIBUTE, PROPERTY_SYNC_PERIOD, Configuration::asLong, null);
+        configureProperty(pool, BACKGROUND_WRITER_PERIOD_ATTRIBUTE, PROPERTY_BACKGROUND_WRITER_PERIOD, Configuration::asLong, null);
         configureProperty(pool, SHUTDOWN_DELAY_ATTRIBUTE, PROPERTY_SHUTDOWN_DELAY, Configuration::asLong, null);
     }
 
@@ -1156,6 +1203,9 @@ public class Configuration implements ErrorHandler {
             }
         }
 
+        configureProperty(indexer, REINDEX_THREADS_ATTRIBUTE, PROPERTY_REINDEX_THREADS, Configuration::asInteger, null);
+        configureProperty(indexer, REINDEX_PER_DOCUMENT_COMMIT_ATTRIBUTE, PROPERTY_REINDEX_PER_DOCUMENT_COMMIT, Configuration::asBoolean, FALSE);
+        configureProperty(indexer, IndexManager.FLUSH_THREADS_ATTRIBUTE, IndexManager.PROPERTY_FLUSH_THREADS, Configuration::asInteger, null);
         configureProperty(indexer, SUPPRESS_WHITESPACE_ATTRIBUTE, PROPERTY_SUPPRESS_WHITESPACE);
         configureProperty(indexer, PRESERVE_WS_MIXED_CONTENT_ATTRIBUTE, PROPERTY_PRESERVE_WS_MIXED_CONTENT, Configuration::asBoolean, FALSE);
 
@@ -0,0 +1,223 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.util.io;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A Writer which encodes characters as UTF-8 straight into a byte buffer
+ * of its own, which is written to the underlying output stream when full.
+ *
+ * Unlike {@link OutputStreamWriter} it takes no lock and does not go through
+ * a {@link java.nio.charset.CharsetEncoder} for every write, which matters for
+ * the serializers as they write most of their output one character or one
+ * short run of characters at a time. Like {@link OutputStreamWriter},
+ * malformed surrogates are replaced by '?'.
+ */
+@NotThreadSafe
+public class UTF8Writer extends Writer {
+
+    private static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private final OutputStream os;
+    private final byte[] buf;
+    private int count = 0;
+
+    /**
+     * a high surrogate written at the end of a previous write,
+     * or 0 if there is none
+     */
+    private char highSurrogate = 0;
+
+    public UTF8Writer(final OutputStream os) {
+        this(os, DEFAULT_BUFFER_SIZE);
+    }
+
+    public UTF8Writer(final OutputStream os, final int bufferSize) {
+        if (bufferSize < 4) {
+            throw new IllegalArgumentException("bufferSize must be at least 4 bytes");
+        }
+        this.os = os;
+        this.buf = new byte[bufferSize];
+    }
+
+    /**
+     * Create a writer for the output stream which encodes characters
+     * in the given encoding. For UTF-8 this is a {@link UTF8Writer}, for any
+     * other encoding an {@link OutputStreamWriter}.
+     *
+     * @param os the output stream to write to
+     * @param encoding the name of the character encoding
+     *
+     * @return a writer
+     *
+     * @throws UnsupportedEncodingException if the encoding is not supported
+     */
+    public static Writer newWriter(final OutputStream os, final String encoding) throws UnsupportedEncodingException {
+        if (isUTF8(encoding)) {
+            return new UTF8Writer(os);
+        }
+        return new OutputStreamWriter(os, encoding);
+    }
+
+    private static boolean isUTF8(final String encoding) {
+        try {
+            return UTF_8.equals(Charset.forName(encoding));
+        } catch (final IllegalCharsetNameException | UnsupportedCharsetException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void write(final int c) throws IOException {
+        if (count + 4 > buf.length) {
+            flushBuffer();
+        }
+        encode((char) c);
+    }
+
+    @Override
+    public void write(final char[] cbuf, final int off, final int len) throws IOException {
+        final int end = off + len;
+        for (int i = off; i < end; i++) {
+            if (count + 4 > buf.length) {
+                flushBuffer();
+            }
+            final char c = cbuf[i];
+            if (c < 0x80 && highSurrogate == 0) {
+                buf[count++] = (byte) c;
+            } else {
+                encode(c);
+            }
+        }
+    }
+
+    @Override
+    public void write(final String str, final int off, final int len) throws IOException {
+        append(str, off, off + len);
+    }
+
+    @Override
+    public Writer append(final CharSequence csq) throws IOException {
+        final CharSequence s = csq == null ? "null" : csq;
+        return append(s, 0, s.length());
+    }
+
+    @Override
+    public Writer append(final CharSequence csq, final int start, final int end) throws IOException {
+        if (csq == null) {
+            return append("null", start, end);
+        }
+        for (int i = start; i < end; i++) {
+            if (count + 4 > buf.length) {
+                flushBuffer();
+            }
+            final char c = csq.charAt(i);
+            if (c < 0x80 && highSurrogate == 0) {
+                buf[count++] = (byte) c;
+            } else {
+                encode(c);
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public Writer append(final char c) throws IOException {
+        write(c);
+        return this;
+    }
+
+    /**
+     * Encode a single character, the buffer must have room for 4 bytes.
+     */
+    private void encode(final char c) {
+        if (highSurrogate != 0) {
+            final char high = highSurrogate;
+            highSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                final int cp = Character.toCodePoint(high, c);
+                buf[count++] = (byte) (0xf0 | (cp >> 18));
+                buf[count++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                buf[count++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                buf[count++] = (byte) (0x80 | (cp & 0x3f));
+                return;
+            }
+            buf[count++] = '?';
+        }
+
+        if (c < 0x80) {
+            buf[count++] = (byte) c;
+        } else if (c < 0x800) {
+            buf[count++] = (byte) (0xc0 | (c >> 6));
+            buf[count++] = (byte) (0x80 | (c & 0x3f));
+        } else if (Character.isHighSurrogate(c)) {
+            highSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            buf[count++] = '?';
+        } else {
+            buf[count++] = (byte) (0xe0 | (c >> 12));
+            buf[count++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+            buf[count++] = (byte) (0x80 | (c & 0x3f));
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (count > 0) {
+            os.write(buf, 0, count);
+            count = 0;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        os.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (highSurrogate != 0) {
+            highSurrogate = 0;
+            if (count + 1 > buf.length) {
+                flushBuffer();
+            }
+            buf[count++] = '?';
+        }
+        try {
+            flushBuffer();
+        } finally {
+            os.close();
+        }
+    }
+}
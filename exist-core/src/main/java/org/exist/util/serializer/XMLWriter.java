@@ -657,8 +657,8 @@ public class XMLWriter implements SerializerWriter {
     }
 
     private void writeCharSeq(final CharSequence ch, final int start, final int end) throws IOException {
-        for(int i = start; i < end; i++) {
-            writer.write(ch.charAt(i));
+        if(start < end) {
+            writer.append(ch, start, end);
         }
     }
 
@@ -47,6 +47,12 @@ public class XQuerySerializer {
     private final DBBroker broker;
     private final Writer writer;
 
+    // state of a sequence which is serialized incrementally, see startSequence
+    private Serializer sequenceSerializer = null;
+    private SAXSerializer sequenceSax = null;
+    private boolean sequenceWrap;
+    private boolean sequenceTyped;
+
     public XQuerySerializer(DBBroker broker, Properties outputProperties, Writer writer) {
         super();
         this.broker = broker;
@@ -82,6 +88,104 @@ public class XQuerySerializer {
         return !("json".equals(method) || "adaptive".equals(method));
     }
 
+    /**
+     * Returns true if the serialization method supports writing the items of a sequence
+     * one at a time with {@link #startSequence(int, boolean, boolean, long)}. This is the
+     * case for all methods except "json" and "adaptive", which have to see the complete sequence.
+     *
+     * @return true if the sequence can be serialized incrementally
+     */
+    public boolean isIncremental() {
+        return normalize();
+    }
+
+    /**
+     * Start the serialization of a sequence whose items are not yet known. The items
+     * are passed to {@link #serializeItem(Item)} as they become available, after which
+     * {@link #endSequence()} has to be called.
+     *
+     * @param start the position in the sequence of the first item which will be serialized
+     * @param wrap true to wrap the items in an exist:result element
+     * @param typed true to write the types of the items
+     * @param compilationTime the time taken to compile the query which produces the sequence
+     *
+     * @throws SAXException if an error occurs during serialization
+     */
+    public void startSequence(final int start, final boolean wrap, final boolean typed, final long compilationTime) throws SAXException {
+        if (!isIncremental()) {
+            throw new SAXException("Serialization method " + outputProperties.getProperty(OutputKeys.METHOD) + " requires the complete sequence");
+        }
+        if (sequenceSerializer != null) {
+            throw new IllegalStateException("Serialization of a sequence has already been started");
+        }
+
+        sequenceSerializer = broker.borrowSerializer();
+        try {
+            sequenceSax = (SAXSerializer) SerializerPool.getInstance().borrowObject(SAXSerializer.class);
+            sequenceSax.setOutput(writer, outputProperties);
+            sequenceSerializer.setProperties(outputProperties);
+            sequenceSerializer.setSAXHandlers(sequenceSax, sequenceSax);
+            sequenceSerializer.startSequenceToSAX(wrap, start, compilationTime);
+        } catch (final SAXNotSupportedException | SAXNotRecognizedException e) {
+            releaseSequence();
+            throw new SAXException(e.getMessage(), e);
+        } catch (final SAXException | RuntimeException e) {
+            releaseSequence();
+            throw e;
+        }
+        this.sequenceWrap = wrap;
+        this.sequenceTyped = typed;
+    }
+
+    /**
+     * Serialize the next item of the sequence started by {@link #startSequence(int, boolean, boolean, long)}.
+     *
+     * @param item the item
+     *
+     * @throws SAXException if an error occurs during serialization
+     */
+    public void serializeItem(final Item item) throws SAXException {
+        if (sequenceSerializer == null) {
+            throw new IllegalStateException("Serialization of a sequence has not been started");
+        }
+        sequenceSerializer.sequenceItemToSAX(item, sequenceTyped, sequenceWrap);
+    }
+
+    /**
+     * Finish the serialization of the sequence started by {@link #startSequence(int, boolean, boolean, long)}.
+     *
+     * @throws SAXException if an error occurs during serialization
+     */
+    public void endSequence() throws SAXException {
+        if (sequenceSerializer == null) {
+            throw new IllegalStateException("Serialization of a sequence has not been started");
+        }
+        try {
+            sequenceSerializer.endSequenceToSAX(sequenceWrap);
+        } finally {
+            releaseSequence();
+        }
+    }
+
+    /**
+     * Abandon the serialization of the sequence started by {@link #startSequence(int, boolean, boolean, long)}
+     * after an error, without writing its end.
+     */
+    public void abortSequence() {
+        releaseSequence();
+    }
+
+    private void releaseSequence() {
+        if (sequenceSax != null) {
+            SerializerPool.getInstance().returnObject(sequenceSax);
+            sequenceSax = null;
+        }
+        if (sequenceSerializer != null) {
+            broker.returnSerializer(sequenceSerializer);
+            sequenceSerializer = null;
+        }
+    }
+
     private void serializeXML(final Sequence sequence, final int start, final int howmany, final boolean wrap, final boolean typed, final long compilationTime, final long executionTime) throws SAXException, XPathException {
         final Serializer serializer = broker.borrowSerializer();
         SAXSerializer sax = null;
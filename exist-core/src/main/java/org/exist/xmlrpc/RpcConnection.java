@@ -21,6 +21,7 @@
  */
 package org.exist.xmlrpc;
 
+import org.apache.commons.io.output.UnsynchronizedByteArrayOutputStream;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.exist.backup.Restore;
@@ -1602,17 +1603,29 @@ public class RpcConnection implements RpcAPI {
         return fileName;
     }
 
-    protected String printAll(final DBBroker broker, final Sequence resultSet, int howmany,
-                              int start, final Map<String, Object> properties, final long queryTime) throws EXistException, SAXException, XPathException, IOException {
+    protected String printAll(final DBBroker broker, final Sequence resultSet, final int howmany,
+                              final int start, final Map<String, Object> properties, final long queryTime) throws EXistException, SAXException, XPathException, IOException {
+        final StringWriter writer = new StringWriter();
+        printAll(broker, resultSet, howmany, start, properties, queryTime, writer);
+        return writer.toString();
+    }
+
+    /**
+     * Serialize the items of a result to a writer, so that the result can be
+     * encoded as it is serialized, without first being built up as a string.
+     */
+    protected void printAll(final DBBroker broker, final Sequence resultSet, int howmany,
+                            int start, final Map<String, Object> properties, final long queryTime, final Writer writer) throws EXistException, SAXException, XPathException, IOException {
         if (resultSet.isEmpty()) {
-            final StringBuilder buf = new StringBuilder();
             final String opt = (String) properties.get(OutputKeys.OMIT_XML_DECLARATION);
             if (opt == null || opt.equalsIgnoreCase("no")) {
-                buf.append("<?xml version=\"1.0\"?>\n");
+                writer.write("<?xml version=\"1.0\"?>\n");
             }
-            buf.append(EXIST_RESULT_XMLNS_EXIST).append(Namespaces.EXIST_NS).append("\" ");
-            buf.append("hitCount=\"0\"/>");
-            return buf.toString();
+            writer.write(EXIST_RESULT_XMLNS_EXIST);
+            writer.write(Namespaces.EXIST_NS);
+            writer.write("\" ");
+            writer.write("hitCount=\"0\"/>");
+            return;
         }
         if (howmany > resultSet.getItemCount() || howmany == 0) {
             howmany = resultSet.getItemCount();
@@ -1622,7 +1635,6 @@ public class RpcConnection implements RpcAPI {
             throw new EXistException("start parameter out of range");
         }
 
-        final StringWriter writer = new StringWriter();
         writer.write(EXIST_RESULT_XMLNS_EXIST);
         writer.write(Namespaces.EXIST_NS);
         writer.write("\" hits=\"");
@@ -1653,7 +1665,6 @@ public class RpcConnection implements RpcAPI {
             }
         }
         writer.write("\n</exist:result>");
-        return writer.toString();
     }
 
     public Map<String, Object> compile(final String query, final Map<String, Object> parameters) throws EXistException, PermissionDeniedException {
@@ -1676,24 +1687,33 @@ public class RpcConnection implements RpcAPI {
 
     public String query(final String xpath, final int howmany, final int start,
                         final Map<String, Object> parameters) throws EXistException, PermissionDeniedException {
+        final StringWriter writer = new StringWriter();
+        query(xpath, howmany, start, parameters, writer);
+        return writer.toString();
+    }
+
+    private void query(final String xpath, final int howmany, final int start,
+                       final Map<String, Object> parameters, final Writer writer) throws EXistException, PermissionDeniedException {
 
         final Source source = new StringSource(xpath);
 
-        return withDb((broker, transaction) -> {
+        withDb((broker, transaction) -> {
             final long startTime = System.currentTimeMillis();
 
             try {
                 final QueryResult qr = this.<QueryResult>compileQuery(broker, transaction, source, parameters).apply(compiled -> doQuery(broker, compiled, null, parameters));
                 if (qr == null) {
-                    return "<?xml version=\"1.0\"?>\n"
+                    writer.write("<?xml version=\"1.0\"?>\n"
                             + EXIST_RESULT_XMLNS_EXIST + Namespaces.EXIST_NS + "\" "
-                            + "hitCount=\"0\"/>";
+                            + "hitCount=\"0\"/>");
+                    return null;
                 }
                 try (qr) {
                     if (qr.hasErrors()) {
                         throw qr.getException();
                     }
-                    return printAll(broker, qr.result, howmany, start, parameters, (System.currentTimeMillis() - startTime));
+                    printAll(broker, qr.result, howmany, start, parameters, (System.currentTimeMillis() - startTime), writer);
+                    return null;
                 }
             } catch (final XPathException e) {
                 throw new EXistException(e);
@@ -2324,12 +2344,19 @@ public class RpcConnection implements RpcAPI {
     @Override
     public byte[] retrieveAll(final int resultId, final Map<String, Object> parameters) throws EXistException,
             PermissionDeniedException {
-        final String xml = retrieveAllAsString(resultId, parameters);
-        return xml.getBytes(getEncoding(parameters));
+        // encode the result as it is serialized, rather than building it as a string first
+        try (final UnsynchronizedByteArrayOutputStream os = new UnsynchronizedByteArrayOutputStream()) {
+            try (final Writer writer = new OutputStreamWriter(os, getEncoding(parameters))) {
+                retrieveAll(resultId, parameters, writer);
+            }
+            return os.toByteArray();
+        } catch (final IOException e) {
+            throw new EXistException(e.getMessage(), e);
+        }
     }
 
-    private String retrieveAllAsString(final int resultId, final Map<String, Object> parameters) throws EXistException, PermissionDeniedException {
-        return withDb((broker, transaction) -> {
+    private void retrieveAll(final int resultId, final Map<String, Object> parameters, final Writer writer) throws EXistException, PermissionDeniedException {
+        withDb((broker, transaction) -> {
             final QueryResult qr = factory.resultSets.getResult(resultId);
             if (qr == null) {
                 throw new EXistException("result set unknown or timed out");
@@ -2337,7 +2364,7 @@ public class RpcConnection implements RpcAPI {
             qr.touch();
 
             final SAXSerializer handler = (SAXSerializer) SerializerPool.getInstance().borrowObject(SAXSerializer.class);
-            try (final StringWriter writer = new StringWriter()) {
+            try {
                 handler.setOutput(writer, toProperties(parameters));
 
 //			serialize results
@@ -2374,7 +2401,7 @@ public class RpcConnection implements RpcAPI {
                 handler.endPrefixMapping("xs");
                 handler.endPrefixMapping("exist");
                 handler.endDocument();
-                return writer.toString();
+                return null;
             } finally {
                 SerializerPool.getInstance().returnObject(handler);
             }
@@ -3515,8 +3542,15 @@ public class RpcConnection implements RpcAPI {
 
     @Override
     public byte[] query(final byte[] xquery, final int howmany, final int start, final Map<String, Object> parameters) throws EXistException, PermissionDeniedException {
-        final String result = query(new String(xquery, DEFAULT_ENCODING), howmany, start, parameters);
-        return result.getBytes(getEncoding(parameters));
+        // encode the result as it is serialized, rather than building it as a string first
+        try (final UnsynchronizedByteArrayOutputStream os = new UnsynchronizedByteArrayOutputStream()) {
+            try (final Writer writer = new OutputStreamWriter(os, getEncoding(parameters))) {
+                query(new String(xquery, DEFAULT_ENCODING), howmany, start, parameters, writer);
+            }
+            return os.toByteArray();
+        } catch (final IOException e) {
+            throw new EXistException(e.getMessage(), e);
+        }
     }
 
     @Override
@@ -165,6 +165,31 @@ public class BasicExpressionVisitor implements ExpressionVisitor {
         return visitor.ref;
     }
 
+    /**
+     * Strip path expressions with a single step, dynamic type and cardinality
+     * checks and internal function calls which the compiler wraps around an expression.
+     *
+     * @param expr the expression to unwrap
+     *
+     * @return the innermost expression
+     */
+    public static Expression unwrap(Expression expr) {
+        while (true) {
+            if (expr instanceof final PathExpr path && path.getSubExpressionCount() == 1) {
+                expr = path.getSubExpression(0);
+            } else if (expr instanceof Atomize ||
+                    expr instanceof DynamicCardinalityCheck ||
+                    expr instanceof DynamicTypeCheck ||
+                    expr instanceof UntypedValueCheck) {
+                expr = expr.getSubExpression(0);
+            } else if (expr instanceof final InternalFunctionCall call) {
+                expr = call.getFunction();
+            } else {
+                return expr;
+            }
+        }
+    }
+
     @Override
     public void visitForExpression(final ForExpr forExpr) {
         //Nothing to do
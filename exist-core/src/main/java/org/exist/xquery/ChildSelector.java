@@ -51,4 +51,9 @@ public class ChildSelector implements NodeSelector {
             {p.copyContext(contextNode);}
         return p;
     }
+
+    @Override
+    public NodeSet getContextSet() {
+        return context;
+    }
 }
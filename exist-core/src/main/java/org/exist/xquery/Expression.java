@@ -76,6 +76,12 @@ public interface Expression extends Materializable {
      */
     public final static int UNORDERED = 1024;
 
+    /**
+     * Indicates that the iterations of a "for" expression may be
+     * evaluated in parallel, see {@link org.exist.xquery.pragmas.ParallelPragma}.
+     */
+    public final static int PARALLEL_ITERATIONS = 2048;
+
     /**
      * Indicates that no context id is supplied to an expression.
      */
@@ -26,6 +26,7 @@ import org.exist.dom.persistent.NodeSet;
 import org.exist.xquery.util.ExpressionDumper;
 import org.exist.xquery.value.*;
 
+import javax.annotation.Nullable;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -40,6 +41,13 @@ public class ForExpr extends BindingExpression {
     private boolean allowEmpty = false;
     private boolean isOuterFor = true;
 
+    // set by the optimizer if only the best scoring items of the input sequence are needed
+    @Nullable private TopKOptimizable topKInput = null;
+    private int topK = 0;
+
+    // index under which this expression is registered for parallel evaluation, or -1
+    private int parallelIndex = -1;
+
     public ForExpr(XQueryContext context, boolean allowingEmpty) {
         super(context);
         this.allowEmpty = allowingEmpty;
@@ -60,16 +68,47 @@ public class ForExpr extends BindingExpression {
         positionalVariable = variable;
     }
 
+    public @Nullable QName getPositionalVariable() {
+        return positionalVariable;
+    }
+
+    public boolean isAllowingEmpty() {
+        return allowEmpty;
+    }
+
+    /**
+     * Called by the {@link Optimizer} if the result of this expression is ordered by
+     * the score of a {@link TopKOptimizable} in the input sequence and only the first
+     * items of the result are used. The input sequence is then asked to
+     * only select the given number of best scoring items.
+     *
+     * @param input the expression in the input sequence which computes the score
+     * @param limit the number of items which are used
+     */
+    public void setTopK(final TopKOptimizable input, final int limit) {
+        this.topKInput = input;
+        this.topK = limit;
+    }
+
 	/* (non-Javadoc)
      * @see org.exist.xquery.Expression#analyze(org.exist.xquery.Expression)
      */
     public void analyze(AnalyzeContextInfo contextInfo) throws XPathException {
         super.analyze(contextInfo);
+        // Only the first clause of a FLWOR expression can be split up, and only if
+        // the clauses which follow do not need to see all iterations at once.
+        // The iterations are evaluated on copies of the query, which is not
+        // possible for a library module.
+        if (contextInfo.hasFlag(PARALLEL_ITERATIONS) && getPreviousClause() == null && isStreamable()
+                && !(context instanceof ModuleContext)) {
+            parallelIndex = context.registerParallelForExpr(this);
+        }
         // Save the local variable stack
         final LocalVariable mark = context.markLocalVariables(false);
         try {
             contextInfo.setParent(this);
             final AnalyzeContextInfo varContextInfo = new AnalyzeContextInfo(contextInfo);
+            varContextInfo.removeFlag(PARALLEL_ITERATIONS);
             inputSequence.analyze(varContextInfo);
             // Declare the iteration variable
             final LocalVariable inVar = new LocalVariable(varName);
@@ -86,6 +125,7 @@ public class ForExpr extends BindingExpression {
 
             final AnalyzeContextInfo newContextInfo = new AnalyzeContextInfo(contextInfo);
             newContextInfo.addFlag(SINGLE_STEP_EXECUTION);
+            newContextInfo.removeFlag(PARALLEL_ITERATIONS);
             returnExpr.analyze(newContextInfo);
         } finally {
             // restore the local variable stack
@@ -102,6 +142,65 @@ public class ForExpr extends BindingExpression {
      */
     public Sequence eval(Sequence contextSequence, Item contextItem)
             throws XPathException {
+        return evalIterations(contextSequence, contextItem, null);
+    }
+
+    /**
+     * Evaluate this expression, passing the result of each iteration to the consumer
+     * as soon as it has been computed, instead of collecting the results into a sequence.
+     *
+     * Only valid if {@link #isStreamable()} returns true, as otherwise the
+     * results of the iterations have to be seen all at once.
+     *
+     * @param contextSequence the context sequence
+     * @param contextItem the context item
+     * @param consumer receives the items of the result
+     *
+     * @throws XPathException if an error occurs during evaluation
+     */
+    public void eval(final Sequence contextSequence, final Item contextItem, final ResultItemConsumer consumer)
+            throws XPathException {
+        if (!isStreamable()) {
+            throw new IllegalStateException("for expression requires its complete result: " + this);
+        }
+        evalIterations(contextSequence, contextItem, consumer);
+    }
+
+    /**
+     * Returns true if the result of this expression can be passed on one
+     * iteration at a time, see {@link #eval(Sequence, Item, ResultItemConsumer)}.
+     *
+     * This is the case if the clauses which follow are only "for", "let" and
+     * "where" clauses, and the iteration variable has no declared type.
+     *
+     * @return true if the result can be streamed
+     */
+    public boolean isStreamable() {
+        if (sequenceType != null) {
+            return false;
+        }
+        Expression next = returnExpr;
+        while (next instanceof FLWORClause clause) {
+            switch (clause.getType()) {
+                case FOR:
+                    if (((ForExpr) clause).sequenceType != null) {
+                        return false;
+                    }
+                    break;
+                case LET:
+                case WHERE:
+                    break;
+                default:
+                    return false;
+            }
+            next = clause.getReturnExpression();
+        }
+        return true;
+    }
+
+    private Sequence evalIterations(Sequence contextSequence, final Item contextItem,
+            @Nullable final ResultItemConsumer consumer)
+            throws XPathException {
         if (context.getProfiler().isEnabled()) {
             context.getProfiler().start(this);
             context.getProfiler().message(this, Profiler.DEPENDENCIES,
@@ -121,7 +220,7 @@ public class ForExpr extends BindingExpression {
         Sequence resultSequence = new ValueSequence(unordered);
         try {
             // Evaluate the "in" expression
-            in = inputSequence.eval(contextSequence, null);
+            in = evalInputSequence(contextSequence);
             clearContext(getExpressionId(), in);
             // Declare the iteration variable
             var = createVariable(varName);
@@ -177,10 +276,18 @@ public class ForExpr extends BindingExpression {
             // Loop through each variable binding
             int p = 0;
             if (in.isEmpty() && allowEmpty) {
-                processItem(var, AtomicValue.EMPTY_VALUE, Sequence.EMPTY_SEQUENCE, resultSequence, at, p);
+                processItem(var, AtomicValue.EMPTY_VALUE, Sequence.EMPTY_SEQUENCE, resultSequence, consumer, at, p);
             } else {
-                for (final SequenceIterator i = in.iterate(); i.hasNext(); p++) {
-                    processItem(var, i.nextItem(), in, resultSequence, at, p);
+                final Sequence parallelResult = consumer == null && parallelIndex > -1 ?
+                        ParallelForEvaluator.evaluate(context, this, parallelIndex, in) : null;
+                if (parallelResult != null) {
+                    resultSequence.addAll(parallelResult);
+                } else {
+                    for (final SequenceIterator i = in.iterate(); i.hasNext(); p++) {
+                        if (!processItem(var, i.nextItem(), in, resultSequence, consumer, at, p)) {
+                            break;
+                        }
+                    }
                 }
             }
         } finally {
@@ -212,7 +319,9 @@ public class ForExpr extends BindingExpression {
                 var.checkType();
             }
         }
-        setActualReturnType(resultSequence.getItemType());
+        if (consumer == null) {
+            setActualReturnType(resultSequence.getItemType());
+        }
 
         if (callPostEval()) {
             resultSequence = postEval(resultSequence);
@@ -224,8 +333,71 @@ public class ForExpr extends BindingExpression {
         return resultSequence;
     }
 
-    private void processItem(LocalVariable var, Item contextItem, Sequence in, Sequence resultSequence, LocalVariable
-            at, int p) throws XPathException {
+    /**
+     * Evaluate the iterations for a part of the input sequence, on behalf of the same
+     * expression in a copy of this query, see {@link ParallelForEvaluator}.
+     *
+     * @param items the items of the input sequence to iterate over
+     * @param offset the position of the first item in the complete input sequence
+     * @param watchDog the watchdog of the query on whose behalf the iterations are evaluated
+     *
+     * @return the results of the iterations
+     *
+     * @throws XPathException if an error occurs during evaluation
+     */
+    Sequence evalIterations(final Sequence items, final int offset, final XQueryWatchDog watchDog)
+            throws XPathException {
+        final LocalVariable mark = context.markLocalVariables(false);
+        final Sequence resultSequence = new ValueSequence(unordered);
+        try {
+            final LocalVariable var = createVariable(varName);
+            context.declareVariableBinding(var);
+            LocalVariable at = null;
+            if (positionalVariable != null) {
+                at = new LocalVariable(positionalVariable);
+                at.setSequenceType(POSITIONAL_VAR_TYPE);
+                context.declareVariableBinding(at);
+            }
+            int p = offset;
+            for (final SequenceIterator i = items.iterate(); i.hasNext(); p++) {
+                watchDog.proceed(this);
+                processItem(var, i.nextItem(), items, resultSequence, null, at, p);
+            }
+        } finally {
+            context.popLocalVariables(mark, resultSequence);
+        }
+        return resultSequence;
+    }
+
+    private Sequence evalInputSequence(final Sequence contextSequence) throws XPathException {
+        if (topKInput == null) {
+            return inputSequence.eval(contextSequence, null);
+        }
+        try {
+            topKInput.setTopK(topK);
+            final Sequence in = inputSequence.eval(contextSequence, null);
+            final int selected = topKInput.getTruncatedCount();
+            if (selected < 0 || in.getItemCount() == selected) {
+                return in;
+            }
+            // some of the best scoring items were filtered out after they had been
+            // selected, so the next best ones are missing: evaluate again without a limit
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Top-{} selection for ${} returned {} items, but only {} remained; evaluating the complete input sequence",
+                        topK, varName, selected, in.getItemCount());
+            }
+            topKInput.setTopK(0);
+            return inputSequence.eval(contextSequence, null);
+        } finally {
+            topKInput.setTopK(0);
+        }
+    }
+
+    /**
+     * @return false if the consumer does not want any further items
+     */
+    private boolean processItem(LocalVariable var, Item contextItem, Sequence in, Sequence resultSequence,
+            @Nullable final ResultItemConsumer consumer, LocalVariable at, int p) throws XPathException {
         context.proceed(this);
         context.setContextSequencePosition(p, in);
         if (positionalVariable != null) {
@@ -245,10 +417,19 @@ public class ForExpr extends BindingExpression {
         } else {
             returnExprResult = returnExpr.eval(null, null);
         }
-        resultSequence.addAll(returnExprResult);
+
+        boolean proceed = true;
+        if (consumer == null) {
+            resultSequence.addAll(returnExprResult);
+        } else {
+            for (final SequenceIterator i = returnExprResult.iterate(); proceed && i.hasNext(); ) {
+                proceed = consumer.accept(i.nextItem());
+            }
+        }
 
         // free resources
-        var.destroy(context, resultSequence);
+        var.destroy(context, consumer == null ? resultSequence : returnExprResult);
+        return proceed;
     }
 
     private boolean callPostEval() {
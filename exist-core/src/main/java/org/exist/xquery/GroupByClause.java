@@ -23,24 +23,53 @@ package org.exist.xquery;
 
 import com.ibm.icu.text.Collator;
 import it.unimi.dsi.fastutil.Hash;
+import it.unimi.dsi.fastutil.HashCommon;
 import it.unimi.dsi.fastutil.Hash.Strategy;
 import it.unimi.dsi.fastutil.objects.Object2ObjectLinkedOpenCustomHashMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectMap;
 import it.unimi.dsi.fastutil.objects.Object2ObjectSortedMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.exist.dom.QName;
+import org.exist.util.io.TemporaryFileManager;
 import org.exist.xquery.functions.fn.FunDeepEqual;
 import org.exist.xquery.util.ExpressionDumper;
 import org.exist.xquery.value.*;
 
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 
 /**
  * Implements a "group by" clause inside a FLWOR.
  *
+ * If a spill threshold is configured, at most that many grouped items are held in
+ * memory. Whenever the threshold is reached, the groups collected so far are
+ * written to temporary files, one per partition of the grouping key hashes, and
+ * {@link #postEval(Sequence)} then groups and returns one partition at a time.
+ * The items of each group keep their order, but the groups are no longer returned
+ * in the order of their first occurrence. Only atomic values and persistent
+ * nodes can be spilled; once any other item is grouped, the remaining groups are
+ * kept in memory.
+ *
  * @author <a href="mailto:adam@evolvedbinary.com">Adam Retter</a>
  * @author wolf
  */
 public class GroupByClause extends AbstractFLWORClause {
 
+    private static final Logger LOG = LogManager.getLogger(GroupByClause.class);
+
+    /**
+     * Number of partitions the groups are spilled to, must be a power of two.
+     */
+    private static final int SPILL_PARTITIONS = 16;
+
     protected FLWORClause rootClause = null;
     private GroupSpec[] groupSpecs;
     private final Deque<GroupByData> stack = new ArrayDeque<>();
@@ -52,14 +81,37 @@ public class GroupByClause extends AbstractFLWORClause {
      * would overwrite data.
      */
     private static class GroupByData {
-        private final Object2ObjectSortedMap<Sequence, Tuple> groupedMap;
-        private final Map<QName, LocalVariable> variables = new HashMap<>();
+        private final Strategy<Sequence> keyHashStrategy;
+        private Object2ObjectSortedMap<Sequence, Tuple> groupedMap;
+        // the non-grouping variables, in the order of the slots of each Tuple
+        private final List<LocalVariable> variables = new ArrayList<>();
         private final List<LocalVariable> groupingVars = new ArrayList<>();
 
         private boolean initialized = false;
 
-        public GroupByData(final Strategy<Sequence> keyHashStrategy) {
-            this.groupedMap = new Object2ObjectLinkedOpenCustomHashMap<>(8, Hash.FAST_LOAD_FACTOR, keyHashStrategy);
+        private boolean spillable;
+        private long itemsInMemory = 0;
+        @Nullable private SpilledPartitions partitions = null;
+
+        public GroupByData(final Strategy<Sequence> keyHashStrategy, final boolean spillable) {
+            this.keyHashStrategy = keyHashStrategy;
+            this.groupedMap = newGroupedMap(keyHashStrategy);
+            this.spillable = spillable;
+        }
+
+        private static Object2ObjectSortedMap<Sequence, Tuple> newGroupedMap(final Strategy<Sequence> keyHashStrategy) {
+            return new Object2ObjectLinkedOpenCustomHashMap<>(8, Hash.FAST_LOAD_FACTOR, keyHashStrategy);
+        }
+
+        private int partition(final Sequence groupingKeys) {
+            return HashCommon.mix(keyHashStrategy.hashCode(groupingKeys)) & (SPILL_PARTITIONS - 1);
+        }
+
+        private void close() {
+            if (partitions != null) {
+                partitions.close();
+                partitions = null;
+            }
         }
     }
 
@@ -74,7 +126,7 @@ public class GroupByClause extends AbstractFLWORClause {
 
     @Override
     public Sequence preEval(final Sequence seq) throws XPathException {
-        stack.push(new GroupByData(new DeepEqualKeysHashStrategy(groupSpecs)));
+        stack.push(new GroupByData(new DeepEqualKeysHashStrategy(groupSpecs), context.getGroupBySpillThreshold() > 0));
         return super.preEval(seq);
     }
 
@@ -83,7 +135,7 @@ public class GroupByClause extends AbstractFLWORClause {
         final GroupByData data = stack.peek();
 
         // Evaluate group spec to create grouping key sequence
-        final List<Sequence> groupingValues = new ArrayList<>();
+        final List<AtomicValue> groupingValues = new ArrayList<>();
         final Sequence groupingKeys = new ArrayListValueSequence();
         for (final GroupSpec spec: groupSpecs) {
             final Sequence groupingSeq = spec.getGroupExpression().eval(null, null);
@@ -111,29 +163,90 @@ public class GroupByClause extends AbstractFLWORClause {
             groupingKeys.add(groupingValue);
         }
 
-        // collect the current tuples into the grouping map
-        final Tuple tuple = data.groupedMap.computeIfAbsent(groupingKeys, ks -> new Tuple(groupingValues));
-
-        // scan in-scope variables to collect tuples
-        LocalVariable nextVar = rootClause.getStartVariable();
-        Objects.requireNonNull(nextVar);
-        while(nextVar != null) {
-            tuple.add(nextVar.getQName(), nextVar.getValue());
-            if (!data.initialized) {
-                // on first call: initialize non-grouping variable for later use
+        if (!data.initialized) {
+            // on first call: initialize non-grouping variables for later use
+            LocalVariable nextVar = rootClause.getStartVariable();
+            Objects.requireNonNull(nextVar);
+            while (nextVar != null) {
                 final LocalVariable var = new LocalVariable(nextVar.getQName());
                 var.setSequenceType(nextVar.getSequenceType());
                 var.setStaticType(nextVar.getStaticType());
                 var.setContextDocs(nextVar.getContextDocs());
-                data.variables.put(var.getQName(), var);
+                data.variables.add(var);
+                nextVar = nextVar.after;
             }
-            nextVar = nextVar.after;
+            data.initialized = true;
+        }
+
+        if (data.spillable) {
+            for (final AtomicValue groupingValue : groupingValues) {
+                if (!SpillSerializer.isSpillable(groupingValue)) {
+                    data.spillable = false;
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("Grouping key of type {} cannot be spilled, keeping the remaining groups in memory", Type.getTypeName(groupingValue.getType()));
+                    }
+                }
+            }
+        }
+
+        // collect the current tuples into the grouping map
+        final Tuple tuple = data.groupedMap.computeIfAbsent(groupingKeys, ks -> new Tuple(groupingValues.toArray(new AtomicValue[0]), data.variables.size()));
+
+        // scan in-scope variables to collect tuples
+        int slot = 0;
+        for (LocalVariable nextVar = rootClause.getStartVariable(); nextVar != null; nextVar = nextVar.after) {
+            final Sequence value = nextVar.getValue();
+            tuple.add(slot++, value);
+            if (data.spillable) {
+                data.itemsInMemory += value.getItemCount();
+                if (!isSpillable(value)) {
+                    data.spillable = false;
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("Variable ${} holds an item which cannot be spilled, keeping the remaining groups in memory", nextVar.getQName());
+                    }
+                }
+            }
+        }
+
+        if (data.spillable && data.itemsInMemory >= context.getGroupBySpillThreshold()) {
+            spill(data);
         }
 
-        data.initialized = true;
         return contextSequence;
     }
 
+    private static boolean isSpillable(final Sequence value) throws XPathException {
+        for (final SequenceIterator i = value.iterate(); i.hasNext(); ) {
+            if (!SpillSerializer.isSpillable(i.nextItem())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Appends the groups held in memory to the partition files.
+     */
+    private void spill(final GroupByData data) throws XPathException {
+        try {
+            if (data.partitions == null) {
+                data.partitions = new SpilledPartitions(groupSpecs.length, data.variables.size());
+            }
+            for (final Object2ObjectMap.Entry<Sequence, Tuple> group : data.groupedMap.object2ObjectEntrySet()) {
+                data.partitions.write(data.partition(group.getKey()), group.getValue());
+            }
+        } catch (final IOException e) {
+            throw new XPathException(this, "Unable to spill groups to disk: " + e.getMessage(), e);
+        }
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Spilled {} groups holding {} items", data.groupedMap.size(), data.itemsInMemory);
+        }
+
+        data.groupedMap = GroupByData.newGroupedMap(data.keyHashStrategy);
+        data.itemsInMemory = 0;
+    }
+
     @Override
     public Sequence postEval(final Sequence seq) throws XPathException {
         if (!stack.isEmpty()) {
@@ -142,37 +255,43 @@ public class GroupByClause extends AbstractFLWORClause {
             final LocalVariable mark = context.markLocalVariables(false);
             try {
                 // declare non-grouping variables
-                for (LocalVariable var : data.variables.values()) {
+                for (LocalVariable var : data.variables) {
                     context.declareVariableBinding(var);
                 }
                 // declare grouping variables
                 for (LocalVariable var : data.groupingVars) {
                     context.declareVariableBinding(var);
                 }
-                // iterate over each group
-                for (Tuple tuple : data.groupedMap.values()) {
-                    context.proceed();
-
-                    // set grouping variable values
-                    final Iterator<Sequence> siter = tuple.groupingValues.iterator();
-                    for (LocalVariable var : data.groupingVars) {
-                        if (siter.hasNext()) {
-                            Sequence val = siter.next();
-                            var.setValue(val);
-                        } else {
-                            throw new XPathException(this, ErrorCodes.XPTY0004, "Internal error: missing grouping value for variable: $" + var.getQName());
-                        }
+                if (data.partitions == null) {
+                    // iterate over each group
+                    returnGroups(data, data.groupedMap.values(), result);
+                } else {
+                    // the groups held in memory were collected after those in the partitions
+                    final List<List<Tuple>> inMemory = new ArrayList<>(SPILL_PARTITIONS);
+                    for (int i = 0; i < SPILL_PARTITIONS; i++) {
+                        inMemory.add(new ArrayList<>());
+                    }
+                    for (final Object2ObjectMap.Entry<Sequence, Tuple> group : data.groupedMap.object2ObjectEntrySet()) {
+                        inMemory.get(data.partition(group.getKey())).add(group.getValue());
                     }
-                    // set values of non-grouping variables
-                    for (Map.Entry<QName, Sequence> entry : tuple.entrySet()) {
-                        final LocalVariable var = data.variables.get(entry.getKey());
-                        var.setValue(entry.getValue());
+                    data.groupedMap = null;
+
+                    for (int i = 0; i < SPILL_PARTITIONS; i++) {
+                        final Object2ObjectSortedMap<Sequence, Tuple> partition = GroupByData.newGroupedMap(data.keyHashStrategy);
+                        try {
+                            data.partitions.read(i, tuple -> partition.merge(tuple.groupingKeys(), tuple, Tuple::addAll));
+                        } catch (final IOException e) {
+                            throw new XPathException(this, "Unable to read spilled groups: " + e.getMessage(), e);
+                        }
+                        for (final Tuple tuple : inMemory.get(i)) {
+                            partition.merge(tuple.groupingKeys(), tuple, Tuple::addAll);
+                        }
+                        inMemory.set(i, null);
+                        returnGroups(data, partition.values(), result);
                     }
-                    final Sequence r = returnExpr.eval(null, null);
-                    result.addAll(r);
                 }
             } finally {
-                stack.pop();
+                stack.pop().close();
                 context.popLocalVariables(mark, result);
             }
 
@@ -185,6 +304,28 @@ public class GroupByClause extends AbstractFLWORClause {
         return seq;
     }
 
+    private void returnGroups(final GroupByData data, final Collection<Tuple> groups, final Sequence result) throws XPathException {
+        for (final Tuple tuple : groups) {
+            context.proceed();
+
+            // set grouping variable values
+            for (int i = 0; i < data.groupingVars.size(); i++) {
+                final LocalVariable var = data.groupingVars.get(i);
+                if (i < tuple.groupingValues.length) {
+                    var.setValue(tuple.groupingValues[i]);
+                } else {
+                    throw new XPathException(this, ErrorCodes.XPTY0004, "Internal error: missing grouping value for variable: $" + var.getQName());
+                }
+            }
+            // set values of non-grouping variables
+            for (int i = 0; i < tuple.values.length; i++) {
+                data.variables.get(i).setValue(tuple.values[i]);
+            }
+            final Sequence r = returnExpr.eval(null, null);
+            result.addAll(r);
+        }
+    }
+
     @Override
     public void analyze(final AnalyzeContextInfo contextInfo) throws XPathException {
         contextInfo.setParent(this);
@@ -268,6 +409,9 @@ public class GroupByClause extends AbstractFLWORClause {
     @Override
     public void resetState(boolean postOptimization) {
         super.resetState(postOptimization);
+        for (final GroupByData data : stack) {
+            data.close();
+        }
         stack.clear();
         returnExpr.resetState(postOptimization);
         for (GroupSpec spec: groupSpecs) {
@@ -356,25 +500,148 @@ public class GroupByClause extends AbstractFLWORClause {
         }
     }
 
-    static class Tuple extends HashMap<QName, Sequence> {
+    /**
+     * The grouping values of a group, and the values of the
+     * non-grouping variables, indexed by their slot.
+     */
+    static class Tuple {
 
-        private final List<Sequence> groupingValues;
+        private final AtomicValue[] groupingValues;
+        private final ValueSequence[] values;
 
-        public Tuple(final List<Sequence> groupingValues) {
-            super();
+        public Tuple(final AtomicValue[] groupingValues, final int slots) {
             this.groupingValues = groupingValues;
+            this.values = new ValueSequence[slots];
         }
 
-        public void add(final QName name, final Sequence val) throws XPathException {
-            Sequence seq = get(name);
+        public void add(final int slot, final Sequence val) throws XPathException {
+            final ValueSequence seq = values[slot];
             if (seq == null) {
                 final ValueSequence temp = new ValueSequence(val.getItemCount());
                 temp.addAll(val);
-                put(name, temp);
+                values[slot] = temp;
             } else {
                 seq.addAll(val);
             }
         }
+
+        /**
+         * Appends the values of a tuple of the same group, which were collected later.
+         *
+         * @param earlier the tuple holding the values that were collected first
+         * @param later the tuple holding the values that were collected later
+         *
+         * @return the earlier tuple.
+         */
+        static Tuple addAll(final Tuple earlier, final Tuple later) {
+            try {
+                for (int i = 0; i < earlier.values.length; i++) {
+                    earlier.add(i, later.values[i]);
+                }
+            } catch (final XPathException e) {
+                // adding items to a ValueSequence does not raise errors
+                throw new IllegalStateException(e);
+            }
+            return earlier;
+        }
+
+        Sequence groupingKeys() throws XPathException {
+            final Sequence groupingKeys = new ArrayListValueSequence();
+            for (final AtomicValue groupingValue : groupingValues) {
+                groupingKeys.add(groupingValue);
+            }
+            return groupingKeys;
+        }
+    }
+
+    /**
+     * The temporary files, one per partition, holding the spilled groups.
+     */
+    private static class SpilledPartitions {
+        private final int groupingValuesCount;
+        private final int slots;
+        private final SpillSerializer serializer = new SpillSerializer();
+        private final Path[] files = new Path[SPILL_PARTITIONS];
+        private final DataOutputStream[] writers = new DataOutputStream[SPILL_PARTITIONS];
+        private final int[] tupleCounts = new int[SPILL_PARTITIONS];
+
+        SpilledPartitions(final int groupingValuesCount, final int slots) {
+            this.groupingValuesCount = groupingValuesCount;
+            this.slots = slots;
+        }
+
+        void write(final int partition, final Tuple tuple) throws IOException {
+            DataOutputStream os = writers[partition];
+            if (os == null) {
+                files[partition] = TemporaryFileManager.getInstance().getTemporaryFile();
+                os = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(files[partition])));
+                writers[partition] = os;
+            }
+            tupleCounts[partition]++;
+
+            for (final AtomicValue groupingValue : tuple.groupingValues) {
+                SpillSerializer.writeAtomicValue(os, groupingValue);
+            }
+            for (final ValueSequence value : tuple.values) {
+                os.writeInt(value.getItemCount());
+                for (int i = 0; i < value.getItemCount(); i++) {
+                    serializer.writeItem(os, value.itemAt(i));
+                }
+            }
+        }
+
+        void read(final int partition, final TupleConsumer consumer) throws IOException, XPathException {
+            final DataOutputStream os = writers[partition];
+            if (os == null) {
+                return;
+            }
+            os.close();
+            writers[partition] = null;
+
+            try (final DataInputStream is = new DataInputStream(new BufferedInputStream(Files.newInputStream(files[partition])))) {
+                for (int t = 0; t < tupleCounts[partition]; t++) {
+                    final AtomicValue[] groupingValues = new AtomicValue[groupingValuesCount];
+                    for (int i = 0; i < groupingValuesCount; i++) {
+                        groupingValues[i] = SpillSerializer.readAtomicValue(is);
+                    }
+                    final Tuple tuple = new Tuple(groupingValues, slots);
+                    for (int i = 0; i < slots; i++) {
+                        final int itemCount = is.readInt();
+                        final ValueSequence value = new ValueSequence(itemCount);
+                        for (int j = 0; j < itemCount; j++) {
+                            value.add(serializer.readItem(is));
+                        }
+                        tuple.values[i] = value;
+                    }
+                    consumer.accept(tuple);
+                }
+            } finally {
+                TemporaryFileManager.getInstance().returnTemporaryFile(files[partition]);
+                files[partition] = null;
+            }
+        }
+
+        void close() {
+            for (int i = 0; i < SPILL_PARTITIONS; i++) {
+                if (writers[i] != null) {
+                    try {
+                        writers[i].close();
+                    } catch (final IOException e) {
+                        LOG.warn("Unable to close spilled group partition: {}", e.getMessage(), e);
+                    }
+                    writers[i] = null;
+                }
+                if (files[i] != null) {
+                    TemporaryFileManager.getInstance().returnTemporaryFile(files[i]);
+                    files[i] = null;
+                }
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface TupleConsumer {
+        void accept(Tuple tuple) throws XPathException;
     }
 
     @Override
@@ -29,6 +29,7 @@ import org.exist.numbering.NodeId;
 import org.exist.stax.*;
 import org.exist.storage.ElementValue;
 import org.exist.storage.UpdateListener;
+import org.exist.storage.statistics.IndexStatistics;
 import org.exist.xquery.value.*;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
@@ -70,6 +71,9 @@ public class LocationStep extends Step {
     // Cache for the current NodeTest type
     private Integer nodeTestType = null;
 
+    // Number of elements matching the node test in the database, looked up once in analyze
+    private long elementCountEstimate = -1;
+
     /**
      * Creates a new instance.
      *
@@ -305,6 +309,10 @@ public class LocationStep extends Step {
             default:
         }
 
+        if (!test.isWildcardTest()) {
+            elementCountEstimate = IndexStatistics.estimateNodeCount(context.getBroker(), test.getName());
+        }
+
         // TODO : log somewhere ?
         super.analyze(contextInfo);
     }
@@ -659,12 +667,6 @@ public class LocationStep extends Step {
             return vset;
         }
 
-        // IndexStatistics stats = (IndexStatistics)
-        // context.getBroker().getBrokerPool().
-        // getIndexManager().getIndexById(IndexStatistics.ID);
-        // int parentDepth = stats.getMaxParentDepth(test.getName());
-        // LOG.debug("parentDepth for " + test.getName() + ": " + parentDepth);
-
         if (useDirectChildSelect) {
             final NewArrayNodeSet result = new NewArrayNodeSet();
             for (final NodeProxy p : contextSet) {
@@ -704,7 +706,7 @@ public class LocationStep extends Step {
                         "Using structural index '" + index.toString() + "'");
             }
             if (!contextSet.getProcessInReverseOrder() && !(contextSet instanceof VirtualNodeSet) &&
-                    contextSet.getLength() < INDEX_SCAN_THRESHOLD) {
+                    contextSet.getLength() < INDEX_SCAN_THRESHOLD && !hasFewerMatchesThanContext(contextSet)) {
                 return index.findDescendantsByTagName(ElementValue.ELEMENT,
                         test.getName(), axis, docs, contextSet,
                         contextId, parent);
@@ -717,6 +719,28 @@ public class LocationStep extends Step {
         }
     }
 
+    /**
+     * Check the element count looked up in {@link IndexStatistics} when the step was
+     * analyzed to find out if there are fewer elements matching the node test in the
+     * whole database than there are context nodes. If so, it is cheaper to select all matching elements and join them
+     * with the context set than to look up the matching elements below every context node.
+     *
+     * @param contextSet the context nodes
+     * @return true if the matching elements should be selected by name
+     */
+    private boolean hasFewerMatchesThanContext(final NodeSet contextSet) {
+        final long estimate = elementCountEstimate;
+        if (estimate < 0 || estimate >= contextSet.getLength()) {
+            return false;
+        }
+        if (context.getProfiler().isEnabled()) {
+            context.getProfiler().message(this, Profiler.OPTIMIZATIONS, "OPTIMIZATION",
+                    "Selecting elements by name: estimated " + estimate + " " + test.getName() +
+                            " elements for " + contextSet.getLength() + " context nodes");
+        }
+        return true;
+    }
+
     private Sequence getDescendants(final XQueryContext context, final Sequence contextSequence) throws XPathException {
         if (!contextSequence.isPersistentSet()) {
             final MemoryNodeSet nodes = contextSequence.toMemNodeSet();
@@ -776,7 +800,8 @@ public class LocationStep extends Step {
                         "Using structural index '" + index.toString() + "'");
             }
             if (!contextSet.getProcessInReverseOrder()
-                    && (contextSet instanceof VirtualNodeSet || contextSet.getLength() < INDEX_SCAN_THRESHOLD)) {
+                    && (contextSet instanceof VirtualNodeSet || (contextSet.getLength() < INDEX_SCAN_THRESHOLD
+                    && !hasFewerMatchesThanContext(contextSet)))) {
                 return index.findDescendantsByTagName(ElementValue.ELEMENT, test.getName(), axis, docs, contextSet,
                         contextId, this);
             } else {
@@ -23,6 +23,7 @@ package org.exist.xquery;
 
 import org.exist.dom.persistent.DocumentImpl;
 import org.exist.dom.persistent.NodeProxy;
+import org.exist.dom.persistent.NodeSet;
 import org.exist.numbering.NodeId;
 
 /**
@@ -31,4 +32,15 @@ import org.exist.numbering.NodeId;
 public interface NodeSelector {
 
     public NodeProxy match(DocumentImpl doc, NodeId nodeId);
+
+    /**
+     * Returns the context nodes of this selector if every node it can match
+     * is a descendant-or-self of one of them. Indexes may then restrict a scan
+     * to the subtrees of the context nodes instead of scanning whole documents.
+     *
+     * @return the context set, or null if the matches are not bounded by it
+     */
+    default NodeSet getContextSet() {
+        return null;
+    }
 }
@@ -22,11 +22,16 @@
 package org.exist.xquery;
 
 import org.exist.storage.DBBroker;
+import org.exist.storage.statistics.IndexStatistics;
 import org.exist.xquery.functions.array.ArrayConstructor;
+import org.exist.xquery.functions.fn.FunSubSequence;
 import org.exist.xquery.pragmas.Optimize;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.exist.xquery.util.ExpressionDumper;
+import org.exist.xquery.value.AtomicValue;
+import org.exist.xquery.value.IntegerValue;
+import org.exist.xquery.value.Type;
 
 import javax.annotation.Nullable;
 import java.util.*;
@@ -231,6 +236,88 @@ public class Optimizer extends DefaultExpressionVisitor {
         return optimizable;
     }
 
+    @Override
+    public void visitBuiltinFunction(final Function function) {
+        if (function instanceof final FunSubSequence subsequence) {
+            optimizeTopK(subsequence);
+        }
+        super.visitBuiltinFunction(function);
+    }
+
+    /**
+     * Check if a call to fn:subsequence only takes the first items of a FLWOR expression
+     * which orders the results of an index function by descending score, e.g.
+     *
+     * <pre>subsequence(for $h in //p[ft:query(., 'x')] order by ft:score($h) descending return $h, 1, 20)</pre>
+     *
+     * If so, the index function only has to select the best scoring items, see {@link TopKOptimizable}.
+     *
+     * @param subsequence the call to fn:subsequence
+     */
+    private void optimizeTopK(final FunSubSequence subsequence) {
+        if (subsequence.getArgumentCount() != 3) {
+            return;
+        }
+        final long start = getIntegerLiteral(subsequence.getArgument(1));
+        final long length = getIntegerLiteral(subsequence.getArgument(2));
+        if (start == Long.MIN_VALUE || length == Long.MIN_VALUE) {
+            return;
+        }
+        final long limit = start + length - 1;
+        if (limit <= 0 || limit > Integer.MAX_VALUE) {
+            return;
+        }
+
+        if (!(BasicExpressionVisitor.unwrap(subsequence.getArgument(0)) instanceof final ForExpr forExpr)
+                || forExpr.getPositionalVariable() != null || forExpr.isAllowingEmpty()
+                || !(forExpr.getReturnExpression() instanceof final OrderByClause orderBy)
+                || orderBy.getOrderSpecs().size() != 1) {
+            return;
+        }
+        final OrderSpec orderSpec = orderBy.getOrderSpecs().get(0);
+        if ((orderSpec.getModifiers() & OrderSpec.DESCENDING_ORDER) == 0) {
+            return;
+        }
+
+        // every iteration has to contribute exactly one item to the result
+        final Expression returnExpr = BasicExpressionVisitor.unwrap(orderBy.getReturnExpression());
+        if (returnExpr instanceof FLWORClause) {
+            return;
+        }
+        if (!(returnExpr instanceof final VariableReference ref && ref.getName().equals(forExpr.getVariable()))
+                && returnExpr.getCardinality() != Cardinality.EXACTLY_ONE) {
+            return;
+        }
+
+        // the input sequence has to be a location step whose only predicate is the index function
+        final Expression input = BasicExpressionVisitor.unwrap(forExpr.getInputSequence());
+        final Expression lastStep = input instanceof final PathExpr path ? path.getLastExpression() : input;
+        if (!(lastStep instanceof final LocationStep step)) {
+            return;
+        }
+        @Nullable final Predicate[] preds = step.getPredicates();
+        if (preds == null || preds.length != 1) {
+            return;
+        }
+        if (BasicExpressionVisitor.unwrap(preds[0]) instanceof final TopKOptimizable optimizable
+                && optimizable.isScoreOrder(orderSpec.getSortExpression(), forExpr.getVariable())) {
+            forExpr.setTopK(optimizable, (int) limit);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Selecting the top {} items for ${}", limit, forExpr.getVariable());
+            }
+        }
+    }
+
+    private static long getIntegerLiteral(final Expression expr) {
+        if (BasicExpressionVisitor.unwrap(expr) instanceof final LiteralValue literal) {
+            final AtomicValue value = literal.getValue();
+            if (Type.subTypeOf(value.getType(), Type.INTEGER)) {
+                return ((IntegerValue) value).getLong();
+            }
+        }
+        return Long.MIN_VALUE;
+    }
+
     @Override
     public void visitAndExpr(final OpAnd and) {
         if (predicates > 0) {
@@ -263,17 +350,90 @@ public class Optimizer extends DefaultExpressionVisitor {
                 LOG.trace("Rewriting boolean expression: {}", ExpressionDumper.dump(and));
             }
             hasOptimized = true;
+            Expression first = and.getLeft();
+            Expression second = and.getRight();
+            if (isReorderable(first) && isReorderable(second)) {
+                // the operand which is likely to select fewer nodes becomes the first filter
+                final long firstEstimate = estimateCardinality(first);
+                final long secondEstimate = estimateCardinality(second);
+                if (secondEstimate < firstEstimate) {
+                    first = and.getRight();
+                    second = and.getLeft();
+                }
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Filtering by {} (estimated {}) before {} (estimated {})",
+                            ExpressionDumper.dump(first), formatEstimate(Math.min(firstEstimate, secondEstimate)),
+                            ExpressionDumper.dump(second), formatEstimate(Math.max(firstEstimate, secondEstimate)));
+                }
+            }
             final LocationStep step = (LocationStep) predicate.getParent();
             final Predicate newPred = new Predicate(context);
-            newPred.add(simplifyPath(and.getRight()));
+            newPred.add(simplifyPath(second));
             step.insertPredicate(predicate, newPred);
-            path.replace(and, simplifyPath(and.getLeft()));
+            path.replace(and, simplifyPath(first));
         } else if (and.isRewritable()) {
         	and.getLeft().accept(this);
 			and.getRight().accept(this);
         }
     }
 
+    /**
+     * Check if an operand of a boolean "and" inside a predicate may be turned into a filter
+     * which is applied before the other operand: it has to be an index-supported comparison
+     * or function call, which does not depend on the context position.
+     *
+     * @param operand the operand
+     * @return true if the operands may be swapped
+     */
+    private boolean isReorderable(final Expression operand) {
+        if (Dependency.dependsOn(operand, Dependency.CONTEXT_POSITION)) {
+            return false;
+        }
+        final Expression expr = BasicExpressionVisitor.unwrap(operand);
+        if (!(expr instanceof GeneralComparison) && !(expr instanceof Function && expr instanceof Optimizable)) {
+            return false;
+        }
+        expr.accept(findOptimizable);
+        final boolean optimizable = canOptimize(findOptimizable.getOptimizables());
+        findOptimizable.reset();
+        return optimizable;
+    }
+
+    /**
+     * Estimate the number of nodes an operand of a boolean "and" may select, using the
+     * element counts collected by {@link IndexStatistics}: a comparison on a rare element
+     * is likely to be more selective than a comparison on a frequent one. The estimate is
+     * the count of the least frequent element on the compared path.
+     *
+     * @param operand the operand
+     * @return the estimated number of nodes, or {@link Long#MAX_VALUE} if there are no statistics
+     */
+    private long estimateCardinality(final Expression operand) {
+        final DBBroker broker = context.getBroker();
+        if (broker == null) {
+            return Long.MAX_VALUE;
+        }
+        Expression expr = BasicExpressionVisitor.unwrap(operand);
+        if (expr instanceof final GeneralComparison comparison) {
+            expr = comparison.getLeft();
+        }
+        long estimate = Long.MAX_VALUE;
+        for (final LocationStep step : BasicExpressionVisitor.findLocationSteps(expr)) {
+            if (step == null || step.getTest().getType() != Type.ELEMENT || step.getTest().isWildcardTest()) {
+                continue;
+            }
+            final long count = IndexStatistics.estimateNodeCount(broker, step.getTest().getName());
+            if (count >= 0 && count < estimate) {
+                estimate = count;
+            }
+        }
+        return estimate;
+    }
+
+    private static String formatEstimate(final long estimate) {
+        return estimate == Long.MAX_VALUE ? "unknown" : String.valueOf(estimate);
+    }
+
     @Override
     public void visitOrExpr(final OpOr or) {
     	if (or.isRewritable()) {
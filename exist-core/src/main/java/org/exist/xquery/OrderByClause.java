@@ -75,7 +75,7 @@ public class OrderByClause extends AbstractFLWORClause {
         final Sequence result = getReturnExpression().eval(contextSequence, contextItem);
 
         if (orderedResult == null) {
-            orderedResult = new OrderedValueSequence(orderSpecs, result != null ? result.getItemCount() : 100);
+            orderedResult = new OrderedValueSequence(context, orderSpecs, result != null ? result.getItemCount() : 100, context.getOrderBySpillThreshold());
         }
 
         if (result != null) {
@@ -0,0 +1,356 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.EXistException;
+import org.exist.dom.QName;
+import org.exist.dom.memtree.NodeImpl;
+import org.exist.dom.persistent.NewArrayNodeSet;
+import org.exist.dom.persistent.NodeProxy;
+import org.exist.dom.persistent.NodeSet;
+import org.exist.security.PermissionDeniedException;
+import org.exist.security.Subject;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.xquery.value.Item;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SequenceIterator;
+import org.exist.xquery.value.Type;
+import org.exist.xquery.value.ValueSequence;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * Evaluates the iterations of a {@link ForExpr} marked by an exist:parallel pragma
+ * on several threads.
+ *
+ * The expression tree of a query and its {@link XQueryContext} keep state while they
+ * are evaluated, so they cannot be shared between threads. Instead, every worker uses
+ * a copy of the query, see {@link XQueryContext#getParallelWorkerQueries(int)}, and
+ * evaluates the iterations for its part of the input sequence on the corresponding
+ * "for" expression of its copy. The local variables in scope and the values of the
+ * global variables are passed on to the workers, with their nodes copied, as node sets
+ * and nodes are changed whilst they are read. Each worker thread uses its own broker,
+ * but only if one is free: a part for which no broker is available is evaluated by the
+ * calling thread, which also evaluates the first part. The results are concatenated in
+ * the order of the input sequence.
+ *
+ * The workers do not share the locks of the calling thread. If the caller holds a write
+ * lock on a resource which a worker reads, the worker blocks while the caller waits for it,
+ * so the pragma must not be used whilst write locks are held, see {@link org.exist.xquery.pragmas.ParallelPragma}.
+ */
+final class ParallelForEvaluator {
+
+    private static final Logger LOG = LogManager.getLogger(ParallelForEvaluator.class);
+
+    private static final ForkJoinPool WORKERS = new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+            pool -> {
+                final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("parallel-flwor-" + thread.getPoolIndex());
+                return thread;
+            }, null, false);
+
+    private ParallelForEvaluator() {
+    }
+
+    /**
+     * Evaluate the iterations of the given "for" expression in parallel.
+     *
+     * @param context the context of the query
+     * @param forExpr the "for" expression
+     * @param index the index under which the expression is registered in the context,
+     *              see {@link XQueryContext#registerParallelForExpr(ForExpr)}
+     * @param in the input sequence of the expression
+     *
+     * @return the concatenated results of the iterations, or null if the iterations
+     *     cannot be evaluated in parallel and have to be evaluated by the caller
+     *
+     * @throws XPathException if an iteration raises an error
+     */
+    static @Nullable Sequence evaluate(final XQueryContext context, final ForExpr forExpr, final int index,
+            final Sequence in) throws XPathException {
+        // the copies of the query are not copied again
+        if (context.getSource() == null || context.isParallelWorker()) {
+            return null;
+        }
+        final DBBroker broker = context.getBroker();
+        final BrokerPool brokerPool = broker.getBrokerPool();
+        final int count = in.getItemCount();
+        // the free brokers are only a hint, see evaluateOnWorker
+        final int parts = Math.min(Math.min(context.getParallelFlworThreads(), count), brokerPool.getMax() - brokerPool.countActiveBrokers() + 1);
+        if (parts < 2) {
+            return null;
+        }
+
+        // get the copies of the query on the calling thread, so that
+        // we can still fall back to a sequential evaluation if that fails
+        final List<ForExpr> copies = new ArrayList<>(parts);
+        try {
+            for (final CompiledXQuery workerQuery : context.getParallelWorkerQueries(parts)) {
+                final ForExpr copy = workerQuery.getContext().getParallelForExpr(index);
+                if (copy == null || !copy.getVariable().equals(forExpr.getVariable())
+                        || copy.getLine() != forExpr.getLine() || copy.getColumn() != forExpr.getColumn()) {
+                    LOG.debug("Evaluating for ${} sequentially: it could not be found in a copy of the query", forExpr.getVariable());
+                    return null;
+                }
+                copies.add(copy);
+            }
+        } catch (final XPathException | IOException | PermissionDeniedException e) {
+            LOG.debug("Unable to compile a copy of the query for parallel evaluation: {}", e.getMessage(), e);
+            return null;
+        }
+
+        // in-memory documents are expanded lazily, which must happen before they are shared
+        final Set<org.exist.dom.memtree.DocumentImpl> expanded = Collections.newSetFromMap(new IdentityHashMap<>());
+        final List<ClosureVariable> localStack = context.getLocalStack();
+        if (localStack != null) {
+            for (final ClosureVariable var : localStack) {
+                expandDocuments(var.getValue(), expanded);
+            }
+        }
+        final Map<QName, Variable> globalVariables = context.getGlobalVariables();
+        for (final Variable var : globalVariables.values()) {
+            expandDocuments(var.getValue(), expanded);
+        }
+        expandDocuments(in, expanded);
+
+        final XQueryWatchDog watchDog = context.getWatchDog();
+        final Subject subject = broker.getCurrentSubject();
+
+        final int partSize = (count + parts - 1) / parts;
+        final List<Sequence> items = new ArrayList<>(parts);
+        ValueSequence part = null;
+        for (final SequenceIterator i = in.iterate(); i.hasNext(); ) {
+            if (part == null || part.getItemCount() == partSize) {
+                part = new ValueSequence(partSize);
+                items.add(part);
+            }
+            part.add(copyItem(i.nextItem()));
+        }
+
+        // the values are copied for all parts before the workers start, as the copies are made
+        // from the nodes of the calling thread, which may change them whilst it evaluates its part
+        final List<List<ClosureVariable>> localStacks = new ArrayList<>(items.size());
+        final List<List<Variable>> globals = new ArrayList<>(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            localStacks.add(copyLocalStack(localStack));
+            globals.add(copyGlobalVariables(globalVariables));
+        }
+
+        final List<ForkJoinTask<Sequence>> tasks = new ArrayList<>(items.size() - 1);
+        for (int i = 1; i < items.size(); i++) {
+            final ForExpr copy = copies.get(i);
+            final List<ClosureVariable> partLocalStack = localStacks.get(i);
+            final List<Variable> partGlobals = globals.get(i);
+            final Sequence partItems = items.get(i);
+            final int offset = i * partSize;
+            tasks.add(WORKERS.submit(() -> evaluateOnWorker(brokerPool, subject, copy, partLocalStack, partGlobals, partItems, offset, watchDog)));
+        }
+
+        final ValueSequence result = new ValueSequence();
+        XPathException error = null;
+        try {
+            result.addAll(evaluatePart(copies.get(0), localStacks.get(0), globals.get(0), items.get(0), 0, watchDog));
+        } catch (final XPathException e) {
+            error = e;
+        }
+        // wait for all workers, even after an error, so that none is still running when the query ends
+        for (int i = 0; i < tasks.size(); i++) {
+            final ForkJoinTask<Sequence> task = tasks.get(i);
+            try {
+                Sequence partResult = task.get();
+                if (partResult == null && error == null) {
+                    // no broker was free for the worker, so its part is evaluated by this thread
+                    partResult = evaluatePart(copies.get(i + 1), localStacks.get(i + 1), globals.get(i + 1), items.get(i + 1), (i + 1) * partSize, watchDog);
+                }
+                if (error == null) {
+                    result.addAll(partResult);
+                }
+            } catch (final XPathException e) {
+                error = e;
+            } catch (final ExecutionException e) {
+                if (error == null) {
+                    final Throwable cause = e.getCause();
+                    if (cause instanceof XPathException xpe) {
+                        error = xpe;
+                    } else if (cause instanceof EXistException) {
+                        error = new XPathException(forExpr, ErrorCodes.FOER0000, "Unable to obtain a broker for parallel evaluation: " + cause.getMessage(), cause);
+                    } else {
+                        error = new XPathException(forExpr, cause.getMessage(), cause);
+                    }
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new XPathException(forExpr, "Interrupted while waiting for the parallel evaluation of for $" + forExpr.getVariable(), e);
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+        return result;
+    }
+
+    /**
+     * Evaluate a part on a worker thread, but only if a broker is free. Waiting for
+     * a broker could deadlock, as the calling thread holds a broker while it waits
+     * for the workers.
+     *
+     * @return the results of the iterations, or null if no broker was free
+     */
+    private static @Nullable Sequence evaluateOnWorker(final BrokerPool brokerPool, final Subject subject,
+            final ForExpr copy, final List<ClosureVariable> localStack, final List<Variable> globalVariables,
+            final Sequence items, final int offset, final XQueryWatchDog watchDog) throws EXistException, XPathException {
+        final Optional<DBBroker> workerBroker = brokerPool.tryGet(Optional.of(subject));
+        if (workerBroker.isEmpty()) {
+            return null;
+        }
+        try (final DBBroker ignored = workerBroker.get()) {
+            return evaluatePart(copy, localStack, globalVariables, items, offset, watchDog);
+        }
+    }
+
+    private static Sequence evaluatePart(final ForExpr copy, @Nullable final List<ClosureVariable> localStack,
+            final List<Variable> globalVariables, final Sequence items, final int offset,
+            final XQueryWatchDog watchDog) throws XPathException {
+        final XQueryContext workerContext = copy.getContext();
+        for (final Variable var : globalVariables) {
+            workerContext.declareGlobalVariable(var);
+        }
+        // the copy of the query is used again by later evaluations, so the restored variables are removed afterwards
+        final LocalVariable mark = workerContext.markLocalVariables(false);
+        Sequence result = null;
+        try {
+            if (localStack != null) {
+                workerContext.restoreStack(localStack);
+            }
+            result = copy.evalIterations(items, offset, watchDog);
+            return result;
+        } finally {
+            workerContext.popLocalVariables(mark, result);
+        }
+    }
+
+    private static @Nullable List<ClosureVariable> copyLocalStack(@Nullable final List<ClosureVariable> localStack)
+            throws XPathException {
+        if (localStack == null) {
+            return null;
+        }
+        final List<ClosureVariable> copy = new ArrayList<>(localStack.size());
+        for (final ClosureVariable var : localStack) {
+            final ClosureVariable varCopy = new ClosureVariable(var);
+            varCopy.setValue(copyValue(var.getValue()));
+            copy.add(varCopy);
+        }
+        return copy;
+    }
+
+    private static List<Variable> copyGlobalVariables(final Map<QName, Variable> globalVariables) throws XPathException {
+        final List<Variable> copy = new ArrayList<>(globalVariables.size());
+        for (final Variable var : globalVariables.values()) {
+            if (var instanceof VariableImpl impl) {
+                final VariableImpl varCopy = new VariableImpl(impl);
+                varCopy.setValue(copyValue(impl.getValue()));
+                copy.add(varCopy);
+            } else {
+                copy.add(var);
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Copy a value for a worker thread. Node sets sort themselves and persistent nodes
+     * record their context and matches whilst they are read, so each worker needs its
+     * own copies. Atomic values are immutable and are shared.
+     */
+    private static @Nullable Sequence copyValue(@Nullable final Sequence value) throws XPathException {
+        if (value == null || value.isEmpty() || !Type.subTypeOf(Type.NODE, value.getItemType())) {
+            return value;
+        }
+        if (value instanceof NodeProxy node) {
+            return copyNode(node);
+        }
+        if (value instanceof NodeSet nodes) {
+            final NewArrayNodeSet copy = new NewArrayNodeSet(nodes.getItemCount());
+            for (final NodeProxy node : nodes) {
+                copy.add(copyNode(node));
+            }
+            return copy;
+        }
+        if (value instanceof Item item) {
+            return copyItem(item).toSequence();
+        }
+        final ValueSequence copy = new ValueSequence(value.getItemCount());
+        for (final SequenceIterator i = value.iterate(); i.hasNext(); ) {
+            copy.add(copyItem(i.nextItem()));
+        }
+        return copy;
+    }
+
+    private static Item copyItem(final Item item) {
+        return item instanceof NodeProxy node ? copyNode(node) : item;
+    }
+
+    private static NodeProxy copyNode(final NodeProxy node) {
+        final NodeProxy copy = new NodeProxy(null, node);
+        copy.deepCopyContext(node);
+        copy.setMatches(null);
+        copy.addMatches(node);
+        return copy;
+    }
+
+    /**
+     * Expand the in-memory documents of the nodes of a value, so that the worker
+     * threads only read them. In-memory nodes are not copied, as they are immutable
+     * once expanded.
+     */
+    private static void expandDocuments(@Nullable final Sequence value,
+            final Set<org.exist.dom.memtree.DocumentImpl> expanded) throws XPathException {
+        if (value == null || value.isEmpty() || value instanceof NodeSet
+                || !Type.subTypeOf(Type.NODE, value.getItemType())) {
+            return;
+        }
+        for (final SequenceIterator i = value.iterate(); i.hasNext(); ) {
+            if (i.nextItem() instanceof NodeImpl<?> node) {
+                final org.exist.dom.memtree.DocumentImpl doc = node.getNodeType() == org.w3c.dom.Node.DOCUMENT_NODE
+                        ? (org.exist.dom.memtree.DocumentImpl) node : node.getOwnerDocument();
+                if (doc != null && expanded.add(doc)) {
+                    doc.expand();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.exist.xquery;
+
+import org.exist.xquery.value.Item;
+
+/**
+ * Receives the items of a query result one at a time, as they are computed.
+ *
+ * See {@link XQuery#execute(org.exist.storage.DBBroker, CompiledXQuery, org.exist.xquery.value.Sequence, java.util.Properties, ResultItemConsumer)}.
+ */
+@FunctionalInterface
+public interface ResultItemConsumer {
+
+    /**
+     * Receive the next item of the result.
+     *
+     * @param item the item
+     *
+     * @return true to receive further items, false to stop the evaluation of the query
+     *
+     * @throws XPathException if the item cannot be processed
+     */
+    boolean accept(Item item) throws XPathException;
+}
@@ -54,4 +54,9 @@ public class SelfSelector implements NodeSelector {
         	return null;
         }
     }
+
+    @Override
+    public NodeSet getContextSet() {
+        return context;
+    }
 }
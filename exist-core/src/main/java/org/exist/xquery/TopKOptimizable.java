@@ -0,0 +1,69 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.exist.xquery;
+
+import org.exist.dom.QName;
+
+/**
+ * Implemented by index functions whose results carry a relevance score,
+ * e.g. a full text query, and which are able to return only their best
+ * scoring results.
+ *
+ * The {@link Optimizer} looks for FLWOR expressions which iterate over the
+ * results of such a function, order them by descending score and are then
+ * cut down by {@code fn:subsequence}. For those, the function is asked
+ * to only select the top-k results, see {@link ForExpr}.
+ */
+public interface TopKOptimizable extends Expression {
+
+    /**
+     * Check if ordering by the given expression is the same as ordering
+     * the results of this expression by their score.
+     *
+     * @param orderExpr the expression of the order spec.
+     * @param variable the name of the variable which is bound to the results of this expression.
+     *
+     * @return true if orderExpr computes the score of the variable.
+     */
+    boolean isScoreOrder(Expression orderExpr, QName variable);
+
+    /**
+     * Limit the following evaluations to the best scoring results.
+     * Also resets the count returned by {@link #getTruncatedCount()}.
+     *
+     * @param limit the number of results to select, or 0 to select all results.
+     */
+    void setTopK(int limit);
+
+    /**
+     * Get the number of results selected since the last call to {@link #setTopK(int)},
+     * if any evaluation had to drop results because of the limit.
+     *
+     * If the number of results seen by the caller differs from this count, some of
+     * the selected results were filtered out later on, and the caller has to
+     * evaluate the expression again without a limit.
+     *
+     * @return the number of selected results, or -1 if no results were dropped.
+     */
+    int getTruncatedCount();
+}
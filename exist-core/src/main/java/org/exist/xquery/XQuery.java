@@ -51,6 +51,7 @@ import org.exist.xquery.parser.XQueryTreeParser;
 import org.exist.xquery.util.ExpressionDumper;
 import org.exist.xquery.util.HTTPUtils;
 import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SequenceIterator;
 
 import javax.annotation.Nullable;
 
@@ -276,9 +277,11 @@ public class XQuery {
                 }
             }
             
+            final long compilationTime = System.currentTimeMillis() - start;
+            context.setCompilationTime(compilationTime);
             if (LOG.isDebugEnabled()) {
             	final NumberFormat nf = NumberFormat.getNumberInstance();
-                LOG.debug("Compilation took {} ms", nf.format(System.currentTimeMillis() - start));
+                LOG.debug("Compilation took {} ms", nf.format(compilationTime));
             }
             
             return expr;
@@ -356,6 +359,36 @@ public class XQuery {
     }
 
     public Sequence execute(final DBBroker broker, final CompiledXQuery expression, @Nullable final Tuple3<QName, List<Expression>, Optional<ErrorCodes.ErrorCode>> functionCall, @Nullable Sequence contextSequence, final Properties outputProperties, final boolean resetContext) throws XPathException, PermissionDeniedException {
+        return execute(broker, expression, functionCall, contextSequence, outputProperties, resetContext, null);
+    }
+
+    /**
+     * Execute a query, passing the items of its result to a consumer.
+     *
+     * If the body of the query is a FLWOR expression which consists only of
+     * "for", "let" and "where" clauses, each item is passed to the consumer as soon
+     * as the iteration which returns it has been evaluated, so that the caller can
+     * serialize the first items before the complete result has been computed.
+     * Otherwise the query is evaluated first, and the items of its result
+     * are passed on afterwards.
+     *
+     * The output options declared by the query are copied to outputProperties before
+     * the first item is passed to the consumer.
+     *
+     * @param broker the database broker
+     * @param expression the compiled query
+     * @param contextSequence the context sequence, or null
+     * @param outputProperties receives the output options declared by the query, may be null
+     * @param consumer receives the items of the result; may stop the evaluation by returning false
+     *
+     * @throws XPathException if an error occurs during evaluation
+     * @throws PermissionDeniedException if the caller is not allowed to execute the query
+     */
+    public void execute(final DBBroker broker, final CompiledXQuery expression, @Nullable final Sequence contextSequence, @Nullable final Properties outputProperties, final ResultItemConsumer consumer) throws XPathException, PermissionDeniedException {
+        execute(broker, expression, null, contextSequence, outputProperties, true, consumer);
+    }
+
+    private Sequence execute(final DBBroker broker, final CompiledXQuery expression, @Nullable final Tuple3<QName, List<Expression>, Optional<ErrorCodes.ErrorCode>> functionCall, @Nullable Sequence contextSequence, final Properties outputProperties, final boolean resetContext, @Nullable final ResultItemConsumer consumer) throws XPathException, PermissionDeniedException {
     	
         //check execute permissions
         if (expression.getContext().getSource() instanceof DBSource) {
@@ -447,6 +480,11 @@ public class XQuery {
 
                     result = call.eval(contextSequence, null);
 
+                } else if (consumer != null) {
+                    if (outputProperties != null) {
+                        context.checkOptions(outputProperties);
+                    }
+                    result = evalStreaming(expression, contextSequence, consumer);
                 } else {
                     result = expression.eval(contextSequence, null);
                 }
@@ -456,7 +494,7 @@ public class XQuery {
                     LOG.debug("Execution took {} ms", nf.format(System.currentTimeMillis() - start));
                 }
 
-                if(outputProperties != null) {
+                if(outputProperties != null && consumer == null) {
                     context.checkOptions(outputProperties); //must be done before context.reset!
                 }
 
@@ -483,6 +521,58 @@ public class XQuery {
         }
     }
 
+    private static Sequence evalStreaming(final CompiledXQuery expression, @Nullable final Sequence contextSequence,
+            final ResultItemConsumer consumer) throws XPathException {
+        final ForExpr forExpr = contextSequence == null ? getStreamableBody(expression) : null;
+        if (forExpr == null) {
+            final Sequence result = expression.eval(contextSequence, null);
+            for (final SequenceIterator i = result.iterate(); i.hasNext(); ) {
+                if (!consumer.accept(i.nextItem())) {
+                    break;
+                }
+            }
+            return result;
+        }
+
+        // evaluate the global variable declarations of the prolog, then the body
+        final PathExpr root = (PathExpr) expression;
+        for (int i = 0; i < root.getSubExpressionCount() - 1; i++) {
+            final Expression declaration = root.getSubExpression(i);
+            declaration.setContextDocSet(null);
+            declaration.eval(null, null);
+        }
+        forExpr.setContextDocSet(null);
+        forExpr.eval(null, null, consumer);
+        return Sequence.EMPTY_SEQUENCE;
+    }
+
+    /**
+     * Get the body of a main module if it can be evaluated one item
+     * at a time, see {@link ForExpr#isStreamable()}.
+     *
+     * @return the for expression which forms the body of the query, or null
+     */
+    private static @Nullable ForExpr getStreamableBody(final CompiledXQuery expression) {
+        if (!(expression instanceof PathExpr root) || expression instanceof LibraryModuleRoot
+                || root.getSubExpressionCount() == 0) {
+            return null;
+        }
+        for (int i = 0; i < root.getSubExpressionCount() - 1; i++) {
+            if (!(root.getSubExpression(i) instanceof VariableDeclaration)) {
+                return null;
+            }
+        }
+
+        Expression body = root.getSubExpression(root.getSubExpressionCount() - 1);
+        while (body instanceof PathExpr path && path.getSubExpressionCount() == 1) {
+            body = path.getSubExpression(0);
+        }
+        if (body instanceof ForExpr forExpr && forExpr.isStreamable()) {
+            return forExpr;
+        }
+        return null;
+    }
+
     public Sequence execute(final DBBroker broker, final String expression, final Sequence contextSequence) throws XPathException, PermissionDeniedException {
         final XQueryContext context = new XQueryContext(broker.getBrokerPool());
         final CompiledXQuery compiled = compile(context, expression);
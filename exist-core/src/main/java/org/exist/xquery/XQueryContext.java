@@ -127,6 +127,9 @@ public class XQueryContext implements BinaryValueManager, Context {
     public static final String XQUERY_BACKWARD_COMPATIBLE_ATTRIBUTE = "backwardCompatible";
     public static final String XQUERY_RAISE_ERROR_ON_FAILED_RETRIEVAL_ATTRIBUTE = "raise-error-on-failed-retrieval";
     public static final String ENFORCE_INDEX_USE_ATTRIBUTE = "enforce-index-use";
+    public static final String ORDER_BY_SPILL_THRESHOLD_ATTRIBUTE = "order-by-spill-threshold";
+    public static final String GROUP_BY_SPILL_THRESHOLD_ATTRIBUTE = "group-by-spill-threshold";
+    public static final String PARALLEL_FLWOR_THREADS_ATTRIBUTE = "parallel-flwor-threads";
 
     //TODO : move elsewhere ?
     public static final String BUILT_IN_MODULE_URI_ATTRIBUTE = "uri";
@@ -138,6 +141,12 @@ public class XQueryContext implements BinaryValueManager, Context {
     public static final String PROPERTY_XQUERY_RAISE_ERROR_ON_FAILED_RETRIEVAL = "xquery.raise-error-on-failed-retrieval";
     public static final boolean XQUERY_RAISE_ERROR_ON_FAILED_RETRIEVAL_DEFAULT = false;
     public static final String PROPERTY_ENFORCE_INDEX_USE = "xquery.enforce-index-use";
+    public static final String PROPERTY_ORDER_BY_SPILL_THRESHOLD = "xquery.order-by-spill-threshold";
+    public static final int ORDER_BY_SPILL_THRESHOLD_DEFAULT = 0;
+    public static final String PROPERTY_GROUP_BY_SPILL_THRESHOLD = "xquery.group-by-spill-threshold";
+    public static final int GROUP_BY_SPILL_THRESHOLD_DEFAULT = 0;
+    public static final String PROPERTY_PARALLEL_FLWOR_THREADS = "xquery.parallel-flwor-threads";
+    public static final int PARALLEL_FLWOR_THREADS_DEFAULT = 0;
 
     //TODO : move elsewhere ?
     public static final String PROPERTY_BUILT_IN_MODULES = "xquery.modules";
@@ -385,10 +394,46 @@ public class XQueryContext implements BinaryValueManager, Context {
 
     private boolean raiseErrorOnFailedRetrieval = XQUERY_RAISE_ERROR_ON_FAILED_RETRIEVAL_DEFAULT;
 
+    private int orderBySpillThreshold = ORDER_BY_SPILL_THRESHOLD_DEFAULT;
+
+    private int groupBySpillThreshold = GROUP_BY_SPILL_THRESHOLD_DEFAULT;
+
+    private int parallelFlworThreads = PARALLEL_FLWOR_THREADS_DEFAULT;
+
+    /**
+     * The "for" expressions marked by an exist:parallel pragma, in the order in which
+     * they were analyzed. Recompiling the same query gives the same order, which is
+     * used to find the corresponding expression in the query copy of a worker thread.
+     */
+    private final List<ForExpr> parallelForExprs = new ArrayList<>();
+
+    /**
+     * Compiled copies of this query for the worker threads of a {@link ParallelForEvaluator}.
+     * They are compiled when first needed and kept together with this context, so that
+     * they are reused by later evaluations, also when the query is reused from the
+     * {@link org.exist.storage.XQueryPool}.
+     */
+    private final List<CompiledXQuery> parallelWorkerQueries = new ArrayList<>();
+
+    /**
+     * True whilst the {@link #parallelWorkerQueries} are reserved for the current execution of the query.
+     */
+    private boolean parallelWorkerQueriesInUse = false;
+
+    /**
+     * True if this is the context of a copy of a query for a worker thread, see {@link #getParallelWorkerQueries(int)}.
+     */
+    private boolean parallelWorker = false;
+
     private boolean isShared = false;
 
     private Source source = null;
 
+    /**
+     * The time in milliseconds it took to compile the query of this context.
+     */
+    private long compilationTime = 0;
+
     private DebuggeeJoint debuggeeJoint = null;
 
     private int xqueryVersion = 31;
@@ -1482,6 +1527,15 @@ public class XQueryContext implements BinaryValueManager, Context {
             modulesDependencyGraphSPExecutor = null;
         }
 
+        if (parallelWorkerQueriesInUse) {
+            // the copies are prepared again by the next execution which needs them
+            for (final CompiledXQuery parallelWorkerQuery : parallelWorkerQueries) {
+                parallelWorkerQuery.reset();
+                parallelWorkerQuery.getContext().reset();
+            }
+            parallelWorkerQueriesInUse = false;
+        }
+
         analyzed = false;
     }
 
@@ -2130,6 +2184,137 @@ public class XQueryContext implements BinaryValueManager, Context {
         return raiseErrorOnFailedRetrieval;
     }
 
+    /**
+     * Get the maximum number of items an "order by" clause
+     * holds in memory before spilling sorted runs to disk.
+     *
+     * @return the threshold, or 0 if order by always sorts in memory.
+     */
+    public int getOrderBySpillThreshold() {
+        return orderBySpillThreshold;
+    }
+
+    /**
+     * Get the maximum number of grouped items a "group by" clause
+     * holds in memory before spilling the groups to disk.
+     *
+     * @return the threshold, or 0 if group by always groups in memory.
+     */
+    public int getGroupBySpillThreshold() {
+        return groupBySpillThreshold;
+    }
+
+    /**
+     * Get the maximum number of threads which evaluate the iterations
+     * of a "for" expression marked by an exist:parallel pragma.
+     *
+     * @return the number of threads, or 0 to use one thread per available processor.
+     */
+    public int getParallelFlworThreads() {
+        return parallelFlworThreads > 0 ? parallelFlworThreads : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Register a "for" expression whose iterations may be evaluated in parallel.
+     *
+     * @param forExpr the for expression
+     *
+     * @return the index by which the expression can be found again, see {@link #getParallelForExpr(int)}
+     */
+    int registerParallelForExpr(final ForExpr forExpr) {
+        for (int i = 0; i < parallelForExprs.size(); i++) {
+            if (parallelForExprs.get(i) == forExpr) {
+                return i;
+            }
+        }
+        parallelForExprs.add(forExpr);
+        return parallelForExprs.size() - 1;
+    }
+
+    @Nullable ForExpr getParallelForExpr(final int index) {
+        return index < parallelForExprs.size() ? parallelForExprs.get(index) : null;
+    }
+
+    /**
+     * Get compiled copies of the query of this context, so that worker threads
+     * can evaluate parts of it, see {@link ParallelForEvaluator}.
+     *
+     * The copies are only compiled once, and are reserved for the current execution of
+     * the query until this context is reset. Evaluations within the same execution
+     * get the same copies, so they must not use them at the same time.
+     *
+     * @param count the number of copies
+     *
+     * @return the copies
+     *
+     * @throws XPathException if a copy cannot be compiled
+     * @throws IOException if the source of the query cannot be read
+     * @throws PermissionDeniedException if the source of the query cannot be read
+     */
+    List<CompiledXQuery> getParallelWorkerQueries(final int count) throws XPathException, IOException, PermissionDeniedException {
+        if (!parallelWorkerQueriesInUse) {
+            for (final CompiledXQuery parallelWorkerQuery : parallelWorkerQueries) {
+                final XQueryContext ctx = parallelWorkerQuery.getContext();
+                ctx.prepareForReuse();
+                copyParallelWorkerSettings(ctx);
+            }
+            parallelWorkerQueriesInUse = true;
+
+            // the results of the workers may refer to resources of their contexts,
+            // so these are only released once the results of the query are no longer needed
+            registerCleanupTask((ctx, predicate) -> {
+                for (final CompiledXQuery parallelWorkerQuery : parallelWorkerQueries) {
+                    parallelWorkerQuery.getContext().runCleanupTasks(predicate);
+                }
+            });
+        }
+
+        while (parallelWorkerQueries.size() < count) {
+            final XQueryContext ctx = new XQueryContext(db, configuration, null);
+            ctx.parallelWorker = true;
+            ctx.baseURI = this.baseURI;
+            ctx.moduleLoadPath = this.moduleLoadPath;
+            ctx.enableOptimizer = this.enableOptimizer;
+            ctx.staticNamespaces = new HashMap<>(this.staticNamespaces);
+            ctx.staticPrefixes = new HashMap<>(this.staticPrefixes);
+            copyParallelWorkerSettings(ctx);
+            try {
+                parallelWorkerQueries.add(getBroker().getBrokerPool().getXQueryService().compile(ctx, source));
+            } catch (final XPathException | IOException | PermissionDeniedException e) {
+                ctx.reset();
+                throw e;
+            }
+        }
+        return parallelWorkerQueries.subList(0, count);
+    }
+
+    /**
+     * Copy the dynamic settings which a caller may have made before executing
+     * the query of this context into the context of a copy of the query.
+     */
+    private void copyParallelWorkerSettings(final XQueryContext ctx) {
+        // all workers see the same current date and time
+        ctx.calendar = getCalendar();
+        ctx.implicitTimeZone = this.implicitTimeZone;
+        ctx.staticDocumentPaths = this.staticDocumentPaths;
+        ctx.staticDocuments = this.staticDocuments;
+        ctx.dynamicDocuments = this.dynamicDocuments;
+        ctx.dynamicTextResources = this.dynamicTextResources;
+        ctx.dynamicCollections = this.dynamicCollections;
+        ctx.httpContext = this.httpContext;
+        ctx.realUser = this.realUser;
+    }
+
+    /**
+     * Returns true if this is the context of a copy of a query for
+     * a worker thread, see {@link #getParallelWorkerQueries(int)}.
+     *
+     * @return true for the context of a worker thread
+     */
+    boolean isParallelWorker() {
+        return parallelWorker;
+    }
+
     public Database getDatabase() {
         return db;
     }
@@ -3096,6 +3281,7 @@ public class XQueryContext implements BinaryValueManager, Context {
             case ProfilePragma.PROFILING_PRAGMA_LOCAL_NAME -> new ProfilePragma(rootExpression, qname, sanitizedContents);
             case ForceIndexUse.FORCE_INDEX_USE_PRAGMA_LOCAL_NAME -> new ForceIndexUse(rootExpression, qname, sanitizedContents);
             case NoIndexPragma.NO_INDEX_PRAGMA_LOCAL_NAME -> new NoIndexPragma(rootExpression, qname, sanitizedContents);
+            case ParallelPragma.PARALLEL_PRAGMA_LOCAL_NAME -> new ParallelPragma(rootExpression, qname, sanitizedContents);
             default -> null;
         };
     }
@@ -3150,6 +3336,15 @@ public class XQueryContext implements BinaryValueManager, Context {
         this.raiseErrorOnFailedRetrieval =
                 config.getProperty(PROPERTY_XQUERY_RAISE_ERROR_ON_FAILED_RETRIEVAL, Boolean.FALSE);
 
+        // Maximum number of items an order by clause sorts in memory
+        this.orderBySpillThreshold = config.getProperty(PROPERTY_ORDER_BY_SPILL_THRESHOLD, ORDER_BY_SPILL_THRESHOLD_DEFAULT);
+
+        // Maximum number of items a group by clause holds in memory
+        this.groupBySpillThreshold = config.getProperty(PROPERTY_GROUP_BY_SPILL_THRESHOLD, GROUP_BY_SPILL_THRESHOLD_DEFAULT);
+
+        // Maximum number of threads evaluating the iterations of a parallel for expression
+        this.parallelFlworThreads = config.getProperty(PROPERTY_PARALLEL_FLWOR_THREADS, PARALLEL_FLWOR_THREADS_DEFAULT);
+
         // Get map of built-in modules
         final Map<String, Class<Module>> builtInModules =
                 (Map<String, Class<Module>>) config.getProperty(PROPERTY_BUILT_IN_MODULES);
@@ -3433,6 +3628,20 @@ public class XQueryContext implements BinaryValueManager, Context {
         this.source = source;
     }
 
+    /**
+     * Get the time it took to compile the query of this context,
+     * this is kept when the context is reused.
+     *
+     * @return the compilation time in milliseconds, or 0 if the query has not been compiled
+     */
+    public long getCompilationTime() {
+        return compilationTime;
+    }
+
+    void setCompilationTime(final long compilationTime) {
+        this.compilationTime = compilationTime;
+    }
+
     @Override
     public String getDefaultLanguage() {
         return DefaultLanguage;
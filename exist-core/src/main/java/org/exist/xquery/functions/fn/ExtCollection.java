@@ -22,6 +22,7 @@
 package org.exist.xquery.functions.fn;
 
 import org.exist.collections.Collection;
+import org.exist.collections.DocumentSetCache;
 import org.exist.dom.QName;
 import org.exist.dom.persistent.DefaultDocumentSet;
 import org.exist.dom.persistent.DocumentImpl;
@@ -122,6 +123,8 @@ public class ExtCollection extends BasicFunction {
 
         } else {
             final MutableDocumentSet ndocs = new DefaultDocumentSet();
+            DocumentImpl[] cachedDocs = null;
+            final DocumentSetCache documentSetCache = context.getBroker().getBrokerPool().getDocumentSetCache();
             final XmldbURI uri = XmldbURI.create(collectionUri);
             try (final Collection coll = context.getBroker().openCollection(uri, Lock.LockMode.READ_LOCK)) {
                 if (coll == null) {
@@ -131,6 +134,9 @@ public class ExtCollection extends BasicFunction {
                 } else {
                     if (context.inProtectedMode()) {
                         context.getProtectedDocs().getDocsByCollection(coll, ndocs);
+                    } else if (context.getProtectedDocs() == null && documentSetCache.isEnabled()) {
+                        // the cached documents are shared: they are only iterated below
+                        cachedDocs = documentSetCache.getXMLDocuments(context.getBroker(), coll, includeSubCollections);
                     } else {
                         coll.allDocs(context.getBroker(), ndocs,
                                 includeSubCollections, context.getProtectedDocs());
@@ -143,7 +149,14 @@ public class ExtCollection extends BasicFunction {
             }
 
             // add the docs to the items
-            addAll(ndocs, items);
+            if (cachedDocs != null) {
+                // the cache only returns documents which still belong to their collections, so they are not locked again
+                for (final DocumentImpl doc : cachedDocs) {
+                    items.add(new NodeProxy(this, doc));
+                }
+            } else {
+                addAll(ndocs, items);
+            }
         }
     }
 
@@ -196,6 +209,6 @@ public class ExtCollection extends BasicFunction {
     @Override
     public void resetState(final boolean postOptimization) {
         super.resetState(postOptimization);
-        //Nothing more to do (previously was cache management)
+        //Nothing more to do, the document sets are cached by the DocumentSetCache
     }
 }
@@ -0,0 +1,56 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.pragmas;
+
+import org.exist.Namespaces;
+import org.exist.dom.QName;
+import org.exist.xquery.*;
+
+/**
+ * Marks the "for" expressions in its body whose iterations are independent of each
+ * other, so that they may be evaluated in parallel by several threads:
+ *
+ * <pre>(# exist:parallel #) { for $d in collection("/db/data") return transform:transform($d, $xsl, ()) }</pre>
+ *
+ * The return clause must not depend on the order in which the iterations are evaluated,
+ * e.g. by updating the database. The results are still returned in the original order.
+ *
+ * The pragma must not be used while the calling thread holds a write lock, e.g. within
+ * an update or after the query has stored a document in the same transaction: the
+ * worker threads lease their own brokers, see {@link org.exist.storage.BrokerPool#tryGet(java.util.Optional)},
+ * and block on that lock while the caller waits for them, which deadlocks.
+ *
+ * @see Expression#PARALLEL_ITERATIONS
+ */
+public class ParallelPragma extends AbstractPragma {
+    public static final String PARALLEL_PRAGMA_LOCAL_NAME = "parallel";
+    public static final QName PARALLEL_PRAGMA = new QName(PARALLEL_PRAGMA_LOCAL_NAME, Namespaces.EXIST_NS, "exist");
+
+    public ParallelPragma(final Expression expression, final QName qname, final String contents) {
+        super(expression, qname, contents);
+    }
+
+    @Override
+    public void analyze(final AnalyzeContextInfo contextInfo) throws XPathException {
+        contextInfo.addFlag(Expression.PARALLEL_ITERATIONS);
+    }
+}
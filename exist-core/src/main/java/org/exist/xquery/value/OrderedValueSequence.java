@@ -21,26 +21,44 @@
  */
 package org.exist.xquery.value;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.exist.dom.memtree.DocumentImpl;
 import org.exist.dom.memtree.NodeImpl;
 import org.exist.dom.persistent.AVLTreeNodeSet;
 import org.exist.dom.persistent.NodeProxy;
 import org.exist.dom.persistent.NodeSet;
 import org.exist.numbering.NodeId;
+import org.exist.util.NamedThreadFactory;
+import org.exist.util.io.TemporaryFileManager;
 import org.exist.xquery.Constants;
 import org.exist.xquery.ErrorCodes;
 import org.exist.xquery.Expression;
 import org.exist.xquery.OrderSpec;
 import org.exist.xquery.XPathException;
+import org.exist.xquery.XQueryContext;
 import org.exist.xquery.util.ExpressionDumper;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 
 import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.ref.Cleaner;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -52,10 +70,26 @@ import java.util.stream.IntStream;
  * all order expressions are evaluated once for each item in the sequence
  * <b>while</b> items are added.
  *
+ * If a spill threshold is given, at most that many entries are held on the heap.
+ * Whenever the threshold is reached, the entries are sorted and written as a run
+ * to a temporary file, and {@link #iterate()} later merges the runs with the
+ * entries still held in memory. The sort keys are compared exactly as in memory,
+ * and ties are still broken by the original position, so the sort stays stable.
+ * Only atomic values and persistent nodes without full-text matches can be
+ * written to a run; once an item or sort key of any other kind is added, the
+ * remaining entries are kept in memory.
+ *
+ * The runs read by an iterator which is abandoned before its end are
+ * closed when the cleanup tasks of the query context are run.
+ *
  * @author wolf
  */
 public class OrderedValueSequence extends AbstractSequence {
 
+    private static final Logger LOG = LogManager.getLogger(OrderedValueSequence.class);
+
+    private static final Cleaner RUN_CLEANER = Cleaner.create(new NamedThreadFactory(null, null, "order-by-run-cleaner"));
+
     private final List<OrderSpec> orderSpecs;
     private final List<BitSet> encounteredPrimitiveTypesForOrderSpecs;
     private Entry[] items;
@@ -66,28 +100,62 @@ public class OrderedValueSequence extends AbstractSequence {
     private int itemType = Type.ANY_TYPE;
     private Sequence contextSequence;
 
+    @Nullable private final XQueryContext context;
+    private final int spillThreshold;
+    private boolean spillable;
+    private long spilledCount = 0;
+    @Nullable private SpilledRuns spilledRuns = null;
+    @Nullable private SpillSerializer spillSerializer = null;
+    // the type each order spec's values were coerced to by coerceTypesForOrderBy(), or -1
+    private final int[] coercedTypes;
+
+    // remembers the last positional access, so that itemAt(i), itemAt(i + 1), ... does not restart the merge
+    @Nullable private MergingIterator positionalIterator = null;
+    private long positionalIteratorPos = 0;
+
     public OrderedValueSequence(final List<OrderSpec> orderSpecs, final int size) {
+        this(null, orderSpecs, size, 0);
+    }
+
+    /**
+     * @param context the query context whose cleanup tasks close the runs of abandoned iterators,
+     *     or null to only close them once the sequence is no longer reachable.
+     * @param orderSpecs the ordering specifications.
+     * @param size the expected number of items.
+     * @param spillThreshold the maximum number of entries to hold in memory before
+     *     spilling them to a temporary file, or 0 to always sort in memory.
+     */
+    public OrderedValueSequence(@Nullable final XQueryContext context, final List<OrderSpec> orderSpecs, final int size, final int spillThreshold) {
+        this.context = context;
         this.orderSpecs = orderSpecs;
         this.encounteredPrimitiveTypesForOrderSpecs = new ArrayList<>(orderSpecs.size());
         for (int i = 0; i < orderSpecs.size(); i++) {
             this.encounteredPrimitiveTypesForOrderSpecs.add(new BitSet(Type.ARRAY_ITEM + 1));
         }
-        this.items = new Entry[size == 0 ? 1 : size];
+        this.spillThreshold = spillThreshold;
+        this.spillable = spillThreshold > 0;
+        this.coercedTypes = new int[orderSpecs.size()];
+        Arrays.fill(coercedTypes, -1);
+        final int initialSize = spillable ? Math.min(size, spillThreshold) : size;
+        this.items = new Entry[initialSize == 0 ? 1 : initialSize];
     }
 
     @Override
     public SequenceIterator iterate() {
+        if (spilledRuns != null) {
+            return new MergingIterator();
+        }
         return new OrderedValueSequenceIterator();
     }
 
     @Override
     public SequenceIterator unorderedIterator() {
-        return new OrderedValueSequenceIterator();
+        return iterate();
     }
 
     @Override
     public long getItemCountLong() {
-        return (items == null) ? 0 : count;
+        return (items == null) ? 0 : spilledCount + count;
     }
 
     @Override
@@ -116,9 +184,21 @@ public class OrderedValueSequence extends AbstractSequence {
             System.arraycopy(items, 0, newItems, 0, count);
             items = newItems;
         }
-        items[count] = Entry.create(encounteredPrimitiveTypesForOrderSpecs, orderSpecs, item, count++, contextSequence);
+        final Entry entry = Entry.create(encounteredPrimitiveTypesForOrderSpecs, orderSpecs, item, (int) (spilledCount + count), contextSequence);
+        items[count++] = entry;
         checkItemType(item.getType());
         setHasChanged();
+
+        if (spillable) {
+            if (!isSpillable(entry)) {
+                spillable = false;
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Item or sort key of type {} cannot be spilled, sorting the remaining items of the order by in memory", Type.getTypeName(item.getType()));
+                }
+            } else if (count >= spillThreshold) {
+                spill();
+            }
+        }
     }
 
     @Override
@@ -188,16 +268,20 @@ public class OrderedValueSequence extends AbstractSequence {
                 }
 
                 // perform the coercion
+                coercedTypes[t] = coerceToType;
                 for (int i = 0; i < count; i++) {
-                    final Entry item = items[i];
-                    final AtomicValue value = item.values.get(t);
-                    item.values.set(t, value.convertTo(coerceToType));
+                    coerce(items[i], t, coerceToType);
                 }
                 checkItemType(coerceToType);
             }
         }
     }
 
+    private static void coerce(final Entry item, final int orderSpecIdx, final int coerceToType) throws XPathException {
+        final AtomicValue value = item.values.get(orderSpecIdx);
+        item.values.set(orderSpecIdx, value.convertTo(coerceToType));
+    }
+
     private int countSetBits(final BitSet bitSet, final int... bitIndex) {
         int setBitsCount = 0;
         for (int i = 0; i < bitIndex.length; i++) {
@@ -212,11 +296,17 @@ public class OrderedValueSequence extends AbstractSequence {
 //		FastQSort.sort(items, 0, count - 1);
 
         Arrays.parallelSort(items, 0, count);
-        Arrays.stream(items, 0, count).parallel().forEach(Entry::clear);
+        if (spilledRuns == null) {
+            Arrays.stream(items, 0, count).parallel().forEach(Entry::clear);
+        }
+        // else, the sort keys of the entries in memory are still needed for merging them with the runs
     }
 
     @Override
     public Item itemAt(final int pos) {
+        if (spilledRuns != null) {
+            return spilledItemAt(pos);
+        }
         if (items != null && pos > -1 && pos < count) {
             return items[pos].item;
         } else {
@@ -224,6 +314,108 @@ public class OrderedValueSequence extends AbstractSequence {
         }
     }
 
+    private Item spilledItemAt(final int pos) {
+        if (pos < 0 || pos >= getItemCountLong()) {
+            return null;
+        }
+        if (positionalIterator == null || pos < positionalIteratorPos || positionalIterator.closed) {
+            if (positionalIterator != null) {
+                positionalIterator.close();
+            }
+            positionalIterator = new MergingIterator();
+            positionalIteratorPos = 0;
+        }
+        positionalIteratorPos += positionalIterator.skip(pos - positionalIteratorPos);
+        positionalIteratorPos++;
+        return positionalIterator.nextItem();
+    }
+
+    /**
+     * Sorts the entries held in memory and writes them as a run
+     * to a temporary file.
+     */
+    private void spill() throws XPathException {
+        // coerce with the types encountered so far, so that the run is sorted consistently
+        coerceTypesForOrderBy();
+        Arrays.parallelSort(items, 0, count);
+
+        if (spilledRuns == null) {
+            spilledRuns = new SpilledRuns();
+            spillSerializer = new SpillSerializer();
+            RUN_CLEANER.register(this, spilledRuns);
+        }
+
+        final TemporaryFileManager temporaryFileManager = TemporaryFileManager.getInstance();
+        try {
+            final Path run = temporaryFileManager.getTemporaryFile();
+            spilledRuns.add(run, count);
+            try (final DataOutputStream os = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run)))) {
+                for (int i = 0; i < count; i++) {
+                    writeEntry(os, items[i]);
+                }
+            }
+        } catch (final IOException e) {
+            throw new XPathException(items[0].item.getExpression(), "Unable to spill order by run to disk: " + e.getMessage(), e);
+        }
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Spilled run of {} items for order by, {} items spilled so far", count, spilledCount + count);
+        }
+
+        spilledCount += count;
+        Arrays.fill(items, 0, count, null);
+        count = 0;
+    }
+
+    /**
+     * Get the number of sorted runs which have been written to disk.
+     *
+     * @return the number of runs, 0 if all entries are held in memory.
+     */
+    public int getSpilledRunCount() {
+        return spilledRuns == null ? 0 : spilledRuns.runs.size();
+    }
+
+    private static boolean isSpillable(final Entry entry) {
+        if (!SpillSerializer.isSpillable(entry.item)) {
+            return false;
+        }
+        for (final AtomicValue value : entry.values) {
+            if (!SpillSerializer.isSpillable(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void writeEntry(final DataOutputStream os, final Entry entry) throws IOException {
+        os.writeInt(entry.pos);
+        spillSerializer.writeItem(os, entry.item);
+        for (final AtomicValue value : entry.values) {
+            SpillSerializer.writeAtomicValue(os, value);
+        }
+    }
+
+    private Entry readEntry(final DataInputStream is) throws IOException {
+        final int pos = is.readInt();
+        final Item item = spillSerializer.readItem(is);
+        final List<AtomicValue> values = new ArrayList<>(orderSpecs.size());
+        for (int i = 0; i < orderSpecs.size(); i++) {
+            values.add(SpillSerializer.readAtomicValue(is));
+        }
+        final Entry entry = new Entry(encounteredPrimitiveTypesForOrderSpecs, orderSpecs, item, pos, values);
+        try {
+            for (int i = 0; i < coercedTypes.length; i++) {
+                if (coercedTypes[i] != -1) {
+                    coerce(entry, i, coercedTypes[i]);
+                }
+            }
+        } catch (final XPathException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        return entry;
+    }
+
     private void checkItemType(final int type) {
         if (itemType == type) {
             return;
@@ -246,6 +438,9 @@ public class OrderedValueSequence extends AbstractSequence {
             return NodeSet.EMPTY_SET;
         }
         // for this method to work, all items have to be nodes
+        if (spilledRuns != null) {
+            return toValueSequence().toNodeSet();
+        }
         if (itemType != Type.ANY_TYPE && Type.subTypeOf(itemType, Type.NODE)) {
             //Was ExtArrayNodeset() which orders the nodes in document order
             //The order seems to change between different invocations !!!
@@ -309,9 +504,10 @@ public class OrderedValueSequence extends AbstractSequence {
 
     @Override
     public boolean isPersistentSet() {
-        if (count == 0) {
+        if (getItemCountLong() == 0) {
             return true;
         }
+        // the spilled runs only hold persistent nodes, so checking the entries in memory suffices
         if (itemType != Type.ANY_TYPE && Type.subTypeOf(itemType, Type.NODE)) {
             for (int i = 0; i < count; i++) {
                 final NodeValue v = (NodeValue) items[i].item;
@@ -326,13 +522,17 @@ public class OrderedValueSequence extends AbstractSequence {
 
     @Override
     public MemoryNodeSet toMemNodeSet() throws XPathException {
-        if (count == 0) {
+        if (getItemCountLong() == 0) {
             return MemoryNodeSet.EMPTY;
         }
         if (itemType == Type.ANY_TYPE || !Type.subTypeOf(itemType, Type.NODE)) {
             throw new XPathException((Expression) null, "Type error: the sequence cannot be converted into" +
                     " a node set. Item type is " + Type.getTypeName(itemType));
         }
+        if (spilledCount > 0) {
+            // the spilled runs only hold persistent nodes
+            return null;
+        }
         for (int i = 0; i < count; i++) {
             final NodeValue v = (NodeValue) items[i].item;
             if (v.getImplementationType() == NodeValue.PERSISTENT_NODE) {
@@ -342,9 +542,24 @@ public class OrderedValueSequence extends AbstractSequence {
         return new ValueSequence(this);
     }
 
+    private ValueSequence toValueSequence() throws XPathException {
+        final ValueSequence seq = new ValueSequence((int) Math.min(getItemCountLong(), Integer.MAX_VALUE));
+        seq.keepUnOrdered(true);
+        for (final SequenceIterator i = iterate(); i.hasNext(); ) {
+            seq.add(i.nextItem());
+        }
+        return seq;
+    }
+
     @Override
     public String toString() {
         final StringBuilder builder = new StringBuilder();
+        if (spilledRuns != null) {
+            for (final SequenceIterator i = iterate(); i.hasNext(); ) {
+                builder.append(i.nextItem().toString());
+            }
+            return builder.toString();
+        }
         for (int i = 0; i < count; i++) {
             builder.append(items[i].toString());
         }
@@ -593,4 +808,228 @@ public class OrderedValueSequence extends AbstractSequence {
             return skip;
         }
     }
+
+    /**
+     * Merges the sorted runs on disk with the sorted entries in memory.
+     */
+    private class MergingIterator implements SequenceIterator {
+        private final PriorityQueue<RunCursor> heads;
+        private final long total = getItemCountLong();
+        private long pos = 0;
+        // set when the runs have been closed before the end was reached
+        private volatile boolean closed = false;
+
+        MergingIterator() {
+            this.heads = new PriorityQueue<>(spilledRuns.runs.size() + 1);
+            if (context != null) {
+                spilledRuns.registerCleanupTask(context);
+            }
+            try {
+                for (int i = 0; i < spilledRuns.runs.size(); i++) {
+                    final RunCursor cursor = new FileRunCursor(this, spilledRuns.runs.get(i), spilledRuns.lengths.get(i));
+                    if (cursor.advance()) {
+                        heads.add(cursor);
+                    }
+                }
+            } catch (final IOException e) {
+                close();
+                throw new UncheckedIOException("Unable to read order by run: " + e.getMessage(), e);
+            }
+            final MemoryRunCursor memoryCursor = new MemoryRunCursor();
+            if (memoryCursor.advance()) {
+                heads.add(memoryCursor);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public Item nextItem() {
+            if (closed) {
+                throw new IllegalStateException("The order by runs of this iterator have been closed by the cleanup of its query context");
+            }
+            final RunCursor cursor = heads.poll();
+            if (cursor == null) {
+                return null;
+            }
+            final Item item = cursor.head.item;
+            try {
+                if (cursor.advance()) {
+                    heads.add(cursor);
+                }
+            } catch (final IOException e) {
+                close();
+                throw new UncheckedIOException("Unable to read order by run: " + e.getMessage(), e);
+            }
+            pos++;
+            return item;
+        }
+
+        @Override
+        public long skippable() {
+            return total - pos;
+        }
+
+        @Override
+        public long skip(final long n) {
+            long skipped = 0;
+            while (skipped < n && hasNext()) {
+                nextItem();
+                skipped++;
+            }
+            return skipped;
+        }
+
+        void close() {
+            for (final RunCursor cursor : heads) {
+                cursor.close();
+            }
+            heads.clear();
+        }
+    }
+
+    private abstract static class RunCursor implements Comparable<RunCursor> {
+        @Nullable Entry head;
+
+        /**
+         * Moves to the next entry of the run.
+         *
+         * @return true if there is a next entry, false if the run is exhausted.
+         */
+        abstract boolean advance() throws IOException;
+
+        void close() {
+        }
+
+        @Override
+        public int compareTo(final RunCursor other) {
+            final int cmp = head.compareTo(other.head);
+            if (cmp != Constants.EQUAL) {
+                return cmp;
+            }
+            // Entry#compareTo does not always fall back to the position, a stable in memory sort keeps
+            // such entries in their original order, and so must the merge
+            return Integer.compare(head.pos, other.head.pos);
+        }
+    }
+
+    private class MemoryRunCursor extends RunCursor {
+        private int next = 0;
+
+        @Override
+        boolean advance() {
+            if (next < count) {
+                head = items[next++];
+                return true;
+            }
+            head = null;
+            return false;
+        }
+    }
+
+    private class FileRunCursor extends RunCursor {
+        private final InputStream runStream;
+        private final DataInputStream is;
+        private int remaining;
+
+        FileRunCursor(final MergingIterator iterator, final Path run, final int length) throws IOException {
+            this.runStream = spilledRuns.open(run, iterator);
+            this.is = new DataInputStream(new BufferedInputStream(runStream));
+            this.remaining = length;
+        }
+
+        @Override
+        boolean advance() throws IOException {
+            if (remaining == 0) {
+                head = null;
+                close();
+                return false;
+            }
+            remaining--;
+            head = readEntry(is);
+            return true;
+        }
+
+        @Override
+        void close() {
+            spilledRuns.close(runStream);
+        }
+    }
+
+    /**
+     * The temporary files of the spilled runs. They are returned to the
+     * {@link TemporaryFileManager} once the sequence is no longer reachable.
+     *
+     * Also keeps track of the streams which are open on the runs, so that
+     * those of abandoned iterators can be closed when the query context is
+     * cleaned up. As this is the action of a {@link Cleaner}, it must not
+     * reference the sequence.
+     */
+    private static class SpilledRuns implements Runnable {
+        private final List<Path> runs = new ArrayList<>();
+        private final List<Integer> lengths = new ArrayList<>();
+        private final Map<InputStream, MergingIterator> openStreams = new IdentityHashMap<>();
+        private boolean cleanupTaskRegistered = false;
+
+        void add(final Path run, final int length) {
+            runs.add(run);
+            lengths.add(length);
+        }
+
+        synchronized InputStream open(final Path run, final MergingIterator iterator) throws IOException {
+            final InputStream is = Files.newInputStream(run);
+            openStreams.put(is, iterator);
+            return is;
+        }
+
+        synchronized void close(final InputStream is) {
+            if (openStreams.remove(is) != null) {
+                closeQuietly(is);
+            }
+        }
+
+        /**
+         * Closes the streams of all iterators which have not yet reached their end.
+         */
+        synchronized void closeAll() {
+            for (final Map.Entry<InputStream, MergingIterator> openStream : openStreams.entrySet()) {
+                openStream.getValue().closed = true;
+                closeQuietly(openStream.getKey());
+            }
+            openStreams.clear();
+        }
+
+        synchronized void registerCleanupTask(final XQueryContext context) {
+            if (!cleanupTaskRegistered) {
+                // the cleanup tasks are discarded once they have run, so register again for the next iterator
+                cleanupTaskRegistered = true;
+                context.registerCleanupTask((ctx, predicate) -> {
+                    synchronized (this) {
+                        cleanupTaskRegistered = false;
+                    }
+                    closeAll();
+                });
+            }
+        }
+
+        private static void closeQuietly(final InputStream is) {
+            try {
+                is.close();
+            } catch (final IOException e) {
+                LOG.warn("Unable to close order by run: {}", e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public void run() {
+            closeAll();
+            final TemporaryFileManager temporaryFileManager = TemporaryFileManager.getInstance();
+            for (final Path run : runs) {
+                temporaryFileManager.returnTemporaryFile(run);
+            }
+        }
+    }
 }
@@ -0,0 +1,181 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.exist.xquery.value;
+
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.dom.persistent.NodeProxy;
+import org.exist.numbering.NodeId;
+import org.exist.xquery.XPathException;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Writes items to, and reads them back from, the temporary files which
+ * hold intermediate results that did not fit into memory, e.g. the sorted
+ * runs of an "order by" clause.
+ *
+ * Only atomic values of the types checked by {@link #isSpillable(AtomicValue)}
+ * and persistent nodes without full-text matches or a context can be
+ * spilled. Persistent nodes are written as a reference to their document,
+ * which is remembered by the serializer; the same serializer instance must
+ * therefore be used for writing and reading back an item.
+ */
+public class SpillSerializer {
+
+    private static final byte ITEM_ATOMIC = 0;
+    private static final byte ITEM_NODE = 1;
+
+    private final Map<Integer, DocumentImpl> documents = new HashMap<>();
+
+    /**
+     * Determine whether an item can be spilled.
+     *
+     * @param item the item
+     *
+     * @return true if the item can be written by {@link #writeItem(DataOutput, Item)}.
+     */
+    public static boolean isSpillable(final Item item) {
+        if (item instanceof final NodeProxy node) {
+            return node.getMatches() == null && node.getContext() == null;
+        }
+        return item instanceof final AtomicValue value
+                && (value.getType() == Type.UNTYPED_ATOMIC || isSpillable(value));
+    }
+
+    /**
+     * Determine whether an atomic value can be spilled.
+     *
+     * @param value the atomic value
+     *
+     * @return true if the value can be written by {@link #writeAtomicValue(DataOutput, AtomicValue)}.
+     */
+    public static boolean isSpillable(final AtomicValue value) {
+        if (value == AtomicValue.EMPTY_VALUE) {
+            return true;
+        }
+        final int type = value.getType();
+        return Type.subTypeOf(type, Type.STRING)
+                || type == Type.UNTYPED_ATOMIC
+                || type == Type.ANY_URI
+                || type == Type.BOOLEAN
+                || Type.subTypeOfUnion(type, Type.NUMERIC)
+                || Type.subTypeOf(type, Type.DATE_TIME)
+                || type == Type.DATE
+                || type == Type.TIME
+                || Type.subTypeOf(type, Type.DURATION);
+    }
+
+    public void writeItem(final DataOutput os, final Item item) throws IOException {
+        if (item instanceof final NodeProxy node) {
+            final DocumentImpl doc = node.getOwnerDocument();
+            documents.putIfAbsent(doc.getDocId(), doc);
+
+            os.writeByte(ITEM_NODE);
+            os.writeInt(doc.getDocId());
+            os.writeShort(node.getNodeType());
+            os.writeLong(node.getInternalAddress());
+            final NodeId nodeId = node.getNodeId();
+            final byte[] data = new byte[nodeId.size()];
+            nodeId.serialize(data, 0);
+            os.writeInt(nodeId.units());
+            os.writeInt(data.length);
+            os.write(data);
+        } else {
+            os.writeByte(ITEM_ATOMIC);
+            writeAtomicValue(os, (AtomicValue) item);
+        }
+    }
+
+    public Item readItem(final DataInput is) throws IOException {
+        if (is.readByte() == ITEM_NODE) {
+            final DocumentImpl doc = documents.get(is.readInt());
+            final short nodeType = is.readShort();
+            final long address = is.readLong();
+            final int units = is.readInt();
+            final byte[] data = new byte[is.readInt()];
+            is.readFully(data);
+            final NodeId nodeId = doc.getBrokerPool().getNodeFactory().createFromData(units, data, 0);
+            return new NodeProxy(null, doc, nodeId, nodeType, address);
+        }
+        return readAtomicValue(is);
+    }
+
+    public static void writeAtomicValue(final DataOutput os, final AtomicValue value) throws IOException {
+        if (value == AtomicValue.EMPTY_VALUE) {
+            os.writeInt(Type.EMPTY_SEQUENCE);
+            return;
+        }
+        final int type = value.getType();
+        os.writeInt(type);
+        if (type == Type.DOUBLE) {
+            os.writeLong(Double.doubleToRawLongBits(((DoubleValue) value).getValue()));
+        } else if (type == Type.FLOAT) {
+            os.writeInt(Float.floatToRawIntBits(((FloatValue) value).getValue()));
+        } else {
+            final byte[] data;
+            try {
+                data = value.getStringValue().getBytes(UTF_8);
+            } catch (final XPathException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+            os.writeInt(data.length);
+            os.write(data);
+        }
+    }
+
+    public static AtomicValue readAtomicValue(final DataInput is) throws IOException {
+        final int type = is.readInt();
+        if (type == Type.EMPTY_SEQUENCE) {
+            return AtomicValue.EMPTY_VALUE;
+        } else if (type == Type.DOUBLE) {
+            return new DoubleValue(Double.longBitsToDouble(is.readLong()));
+        } else if (type == Type.FLOAT) {
+            return new FloatValue(Float.intBitsToFloat(is.readInt()));
+        }
+
+        final byte[] data = new byte[is.readInt()];
+        is.readFully(data);
+        final String s = new String(data, UTF_8);
+        try {
+            if (type == Type.STRING) {
+                return new StringValue(s);
+            } else if (type == Type.UNTYPED_ATOMIC) {
+                return new UntypedAtomicValue(s);
+            } else if (Type.subTypeOf(type, Type.STRING)) {
+                return new StringValue(s, type);
+            } else if (type == Type.ANY_URI) {
+                return new AnyURIValue(s);
+            } else {
+                return new StringValue(s).convertTo(type);
+            }
+        } catch (final XPathException e) {
+            throw new IOException("Unable to read spilled " + Type.getTypeName(type) + " value: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.collections;
+
+import org.exist.EXistException;
+import org.exist.dom.persistent.DocumentSet;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.lock.Lock;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.util.LockException;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.value.Sequence;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static org.exist.util.PropertiesBuilder.propertiesBuilder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that the document sets cached for fn:collection follow the changes
+ * to the documents and sub-collections of a collection.
+ */
+public class DocumentSetCacheTest {
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(
+            propertiesBuilder()
+                    .put(DocumentSetCache.PROPERTY_CACHE_SIZE, 10_000)
+                    .build(),
+            true,
+            true);
+
+    @Before
+    public void createCollections() throws EXistException, PermissionDeniedException, XPathException {
+        evaluate("if (xmldb:collection-available('/db/doc-set-cache')) then xmldb:remove('/db/doc-set-cache') else ()");
+        evaluate("xmldb:create-collection('/db', 'doc-set-cache')");
+        evaluate("xmldb:create-collection('/db/doc-set-cache', 'sub')");
+        evaluate("for $i in 1 to 3 return xmldb:store('/db/doc-set-cache', 'doc' || $i || '.xml', <doc n='{$i}'/>)");
+        evaluate("xmldb:store('/db/doc-set-cache/sub', 'sub.xml', <doc n='sub'/>)");
+    }
+
+    @Test
+    public void storeAndRemoveDocuments() throws EXistException, PermissionDeniedException, XPathException {
+        assertEquals("4", evaluate("count(collection('/db/doc-set-cache'))"));
+        assertEquals("1", evaluate("count(collection('/db/doc-set-cache/sub'))"));
+
+        evaluate("xmldb:store('/db/doc-set-cache', 'doc4.xml', <doc n='4'/>)");
+        assertEquals("5", evaluate("count(collection('/db/doc-set-cache'))"));
+        assertEquals("1", evaluate("count(collection('/db/doc-set-cache/sub'))"));
+
+        evaluate("xmldb:store('/db/doc-set-cache/sub', 'sub2.xml', <doc n='sub2'/>)");
+        assertEquals("6", evaluate("count(collection('/db/doc-set-cache'))"));
+        assertEquals("2", evaluate("count(collection('/db/doc-set-cache/sub'))"));
+
+        evaluate("xmldb:remove('/db/doc-set-cache', 'doc1.xml')");
+        assertEquals("5", evaluate("count(collection('/db/doc-set-cache'))"));
+    }
+
+    @Test
+    public void createAndRemoveSubCollections() throws EXistException, PermissionDeniedException, XPathException {
+        assertEquals("4", evaluate("count(collection('/db/doc-set-cache'))"));
+
+        evaluate("xmldb:create-collection('/db/doc-set-cache/sub', 'deeper')");
+        evaluate("xmldb:store('/db/doc-set-cache/sub/deeper', 'deeper.xml', <doc n='deeper'/>)");
+        assertEquals("5", evaluate("count(collection('/db/doc-set-cache'))"));
+
+        evaluate("xmldb:remove('/db/doc-set-cache/sub')");
+        assertEquals("3", evaluate("count(collection('/db/doc-set-cache'))"));
+    }
+
+    @Test
+    public void moveDocument() throws EXistException, PermissionDeniedException, XPathException {
+        assertEquals("1", evaluate("count(collection('/db/doc-set-cache/sub'))"));
+        assertEquals("4", evaluate("count(collection('/db/doc-set-cache'))"));
+
+        evaluate("xmldb:move('/db/doc-set-cache', '/db/doc-set-cache/sub', 'doc2.xml')");
+        assertEquals("2", evaluate("count(collection('/db/doc-set-cache/sub'))"));
+        assertEquals("4", evaluate("count(collection('/db/doc-set-cache'))"));
+
+        evaluate("xmldb:move('/db/doc-set-cache/sub', '/db', 'doc2.xml')");
+        assertEquals("1", evaluate("count(collection('/db/doc-set-cache/sub'))"));
+        assertEquals("3", evaluate("count(collection('/db/doc-set-cache'))"));
+        evaluate("xmldb:remove('/db', 'doc2.xml')");
+    }
+
+    @Test
+    public void reuseUnchangedSet() throws EXistException, PermissionDeniedException, LockException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final DocumentSetCache documentSetCache = pool.getDocumentSetCache();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final DocumentSet first;
+            final DocumentSet second;
+            try (final Collection collection = broker.openCollection(XmldbURI.create("/db/doc-set-cache"), Lock.LockMode.READ_LOCK)) {
+                first = documentSetCache.getDocuments(broker, collection, true);
+                second = documentSetCache.getDocuments(broker, collection, true);
+            }
+            assertEquals(4, first.getDocumentCount());
+            assertSame(first, second);
+
+            documentSetCache.invalidate(null, XmldbURI.create("/db/doc-set-cache/sub"));
+            try (final Collection collection = broker.openCollection(XmldbURI.create("/db/doc-set-cache"), Lock.LockMode.READ_LOCK)) {
+                assertNotSame(first, documentSetCache.getDocuments(broker, collection, true));
+            }
+        }
+    }
+
+    @Test
+    public void invalidateRelatedCollectionsOnly() throws EXistException, PermissionDeniedException, XPathException, LockException {
+        evaluate("xmldb:create-collection('/db/doc-set-cache', 'sub-other')");
+        evaluate("xmldb:create-collection('/db/doc-set-cache/sub', 'deeper')");
+
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final DocumentSetCache documentSetCache = pool.getDocumentSetCache();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final DocumentSet parent = getDocuments(broker, documentSetCache, "/db/doc-set-cache");
+            final DocumentSet sub = getDocuments(broker, documentSetCache, "/db/doc-set-cache/sub");
+            final DocumentSet deeper = getDocuments(broker, documentSetCache, "/db/doc-set-cache/sub/deeper");
+            final DocumentSet other = getDocuments(broker, documentSetCache, "/db/doc-set-cache/sub-other");
+
+            // a change to a sub-collection affects its ancestors, but not its siblings
+            documentSetCache.invalidate(null, XmldbURI.create("/db/doc-set-cache/sub/deeper"));
+            assertNotSame(parent, getDocuments(broker, documentSetCache, "/db/doc-set-cache"));
+            assertNotSame(sub, getDocuments(broker, documentSetCache, "/db/doc-set-cache/sub"));
+            assertNotSame(deeper, getDocuments(broker, documentSetCache, "/db/doc-set-cache/sub/deeper"));
+            assertSame(other, getDocuments(broker, documentSetCache, "/db/doc-set-cache/sub-other"));
+
+            // a change to a collection, e.g. its removal, affects its descendants, but not a
+            // collection whose name merely starts with the same characters
+            final DocumentSet subAgain = getDocuments(broker, documentSetCache, "/db/doc-set-cache/sub");
+            final DocumentSet deeperAgain = getDocuments(broker, documentSetCache, "/db/doc-set-cache/sub/deeper");
+            documentSetCache.invalidate(null, XmldbURI.create("/db/doc-set-cache/sub"));
+            assertNotSame(subAgain, getDocuments(broker, documentSetCache, "/db/doc-set-cache/sub"));
+            assertNotSame(deeperAgain, getDocuments(broker, documentSetCache, "/db/doc-set-cache/sub/deeper"));
+            assertSame(other, getDocuments(broker, documentSetCache, "/db/doc-set-cache/sub-other"));
+        }
+    }
+
+    private static DocumentSet getDocuments(final DBBroker broker, final DocumentSetCache documentSetCache, final String path)
+            throws PermissionDeniedException, LockException {
+        try (final Collection collection = broker.openCollection(XmldbURI.create(path), Lock.LockMode.READ_LOCK)) {
+            return documentSetCache.getDocuments(broker, collection, true);
+        }
+    }
+
+    private static String evaluate(final String query) throws EXistException, PermissionDeniedException, XPathException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final Sequence result = pool.getXQueryService().execute(broker, query, null);
+            return result.isEmpty() ? "" : result.itemAt(0).getStringValue();
+        }
+    }
+}
@@ -24,11 +24,15 @@ package org.exist.dom.memtree;
 
 import com.googlecode.junittoolbox.ParallelParameterized;
 import org.exist.Namespaces;
+import org.exist.dom.QName;
 import org.exist.util.ExistSAXParserFactory;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized.Parameter;
 import org.junit.runners.Parameterized.Parameters;
+import org.w3c.dom.Element;
+import org.w3c.dom.ProcessingInstruction;
+import org.w3c.dom.Text;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
@@ -45,6 +49,7 @@ import java.io.Reader;
 import java.io.StringReader;
 import java.util.Arrays;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 
 @RunWith(ParallelParameterized.class)
@@ -80,6 +85,95 @@ public class MemtreeBuilderTest {
         assertFalse(diff.toString(), diff.hasDifferences());
     }
 
+    @Test
+    public void parseAttributesAndText() throws IOException, SAXException, ParserConfigurationException {
+        final StringBuilder builder = new StringBuilder("<items>");
+        for (int i = 0; i < 500; i++) {
+            builder.append("<item id=\"i").append(i).append("\" type=\"t").append(i % 7).append("\">")
+                    .append("text &amp; more ").append(i)
+                    .append("</item>");
+        }
+        builder.append("</items>");
+        final String doc = builder.toString();
+        final DocumentImpl parsedDoc = parse(doc);
+
+        final Source expectedSource = Input.fromString(doc).build();
+        final Source actualSource = Input.fromNode(parsedDoc).build();
+        final Diff diff = DiffBuilder.compare(expectedSource)
+                .withTest(actualSource)
+                .checkForIdentical()
+                .checkForSimilar()
+                .build();
+
+        assertFalse(diff.toString(), diff.hasDifferences());
+    }
+
+    @Test
+    public void attributeValueWrittenBetweenTextChunks() throws QName.IllegalQNameException {
+        final MemTreeBuilder builder = new MemTreeBuilder();
+        builder.startDocument();
+        builder.ensureCapacity(4, 1, 16, 8);
+        builder.startElement(new QName("a"), null);
+        final int attr = builder.addAttribute(new QName("x"), "1");
+        final int text = builder.characters("abc");
+
+        final DocumentImpl doc = builder.getDocument();
+        ((AttrImpl) doc.getAttribute(attr)).setValue("changed");
+        builder.characters("def");
+        builder.endElement();
+        builder.endDocument();
+
+        assertEquals("abcdef", doc.getNode(text).getNodeValue());
+        assertEquals("changed", doc.getAttribute(attr).getNodeValue());
+    }
+
+    @Test
+    public void editTextThenReadAttributes() throws IOException, SAXException, ParserConfigurationException {
+        final DocumentImpl doc = parse(EDITED_DOC);
+        final Element a = doc.getDocumentElement();
+        final Text text = (Text) a.getFirstChild();
+
+        text.insertData(1, "XYZ");
+        assertEditedDoc(doc, "aXYZbc");
+        text.appendData("-appended-to-the-end");
+        assertEditedDoc(doc, "aXYZbc-appended-to-the-end");
+        text.replaceData(1, 3, "");
+        assertEditedDoc(doc, "abc-appended-to-the-end");
+        text.deleteData(3, 100);
+        assertEditedDoc(doc, "abc");
+        text.setData("a much longer text than before");
+        assertEditedDoc(doc, "a much longer text than before");
+        text.setData("x");
+        assertEditedDoc(doc, "x");
+    }
+
+    @Test
+    public void editProcessingInstructionThenReadAttributes() throws IOException, SAXException, ParserConfigurationException {
+        final DocumentImpl doc = parse(EDITED_DOC);
+        final ProcessingInstruction pi = (ProcessingInstruction) doc.getDocumentElement().getChildNodes().item(2);
+
+        pi.setData("a much longer instruction than before");
+        assertEquals("a much longer instruction than before", pi.getData());
+        assertEditedDoc(doc, "abc");
+        pi.setData("");
+        assertEquals("", pi.getData());
+        assertEditedDoc(doc, "abc");
+    }
+
+    private static final String EDITED_DOC = "<a x='1'>abc<b y='two'>def</b><?pi data?><c z='three'>ghi</c></a>";
+
+    private static void assertEditedDoc(final DocumentImpl doc, final String expectedText) {
+        final Element a = doc.getDocumentElement();
+        assertEquals(expectedText, a.getFirstChild().getNodeValue());
+        assertEquals("1", a.getAttribute("x"));
+        final Element b = (Element) a.getElementsByTagName("b").item(0);
+        assertEquals("two", b.getAttribute("y"));
+        assertEquals("def", b.getTextContent());
+        final Element c = (Element) a.getElementsByTagName("c").item(0);
+        assertEquals("three", c.getAttribute("z"));
+        assertEquals("ghi", c.getFirstChild().getNodeValue());
+    }
+
     private DocumentImpl parse(final String xml) throws ParserConfigurationException, SAXException, IOException {
         final SAXParserFactory saxParserFactory = ExistSAXParserFactory.getSAXParserFactory();
         saxParserFactory.setNamespaceAware(namespaceAware);
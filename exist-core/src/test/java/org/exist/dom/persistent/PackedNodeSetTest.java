@@ -0,0 +1,212 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.dom.persistent;
+
+import org.exist.EXistException;
+import org.exist.collections.Collection;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.util.LockException;
+import org.exist.util.MimeType;
+import org.exist.util.StringInputSource;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.Expression;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.XQuery;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.Assert.*;
+
+public class PackedNodeSetTest {
+
+    private static final String XML =
+            "<section n='1'>" +
+                    "<section n='1.1'>" +
+                    "<section n='1.1.1'>" +
+                    "<para n='1.1.1.1'/>" +
+                    "<para n='1.1.1.2'/>" +
+                    "<para n='1.1.1.3'/>" +
+                    "</section>" +
+                    "<section n='1.1.2'>" +
+                    "<para n='1.1.2.1'/>" +
+                    "</section>" +
+                    "</section>" +
+                    "<section n='1.2'>" +
+                    "<para n='1.2.1'/>" +
+                    "</section>" +
+                    "</section>";
+
+    private static final XmldbURI TEST_COLLECTION = XmldbURI.create("/db/packed-node-set-test");
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, true);
+
+    @Test
+    public void sortAndRemoveDuplicates() throws EXistException, PermissionDeniedException, XPathException {
+        try (final DBBroker broker = getBroker()) {
+            final NodeSet all = query(broker, "collection('" + TEST_COLLECTION + "')//*");
+            final PackedNodeSet packed = new PackedNodeSet();
+            final List<NodeProxy> nodes = new ArrayList<>();
+            for (final NodeProxy p : all) {
+                nodes.add(p);
+            }
+            for (int i = nodes.size() - 1; i >= 0; i--) {
+                final NodeProxy p = nodes.get(i);
+                packed.add(p.getOwnerDocument(), p.getNodeId(), p.getNodeType(), p.getInternalAddress());
+                packed.add(p.getOwnerDocument(), p.getNodeId(), p.getNodeType(), p.getInternalAddress());
+            }
+            assertEquals(all.getLength(), packed.getLength());
+            assertEquals(ids(all), ids(packed));
+
+            // proxies are created once and kept
+            final NodeProxy first = packed.get(0);
+            assertSame(first, packed.get(first));
+            assertSame(first, packed.iterator().next());
+            assertTrue(packed.contains(nodes.get(3)));
+            assertEquals(nodes.get(3).getNodeId(), packed.get(nodes.get(3)).getNodeId());
+        }
+    }
+
+    @Test
+    public void selectParentChild() throws EXistException, PermissionDeniedException, XPathException {
+        try (final DBBroker broker = getBroker()) {
+            final NodeSet paras = query(broker, "collection('" + TEST_COLLECTION + "')//para");
+            final NodeSet sections = query(broker, "collection('" + TEST_COLLECTION + "')//section");
+            final NodeSet expected = paras.selectParentChild(sections, NodeSet.DESCENDANT, Expression.NO_CONTEXT_ID);
+            final NodeSet actual = pack(paras, false).selectParentChild(sections, NodeSet.DESCENDANT, Expression.NO_CONTEXT_ID);
+            assertEquals(ids(expected), ids(actual));
+
+            final NodeSet parents = pack(paras, false).selectParentChild(sections, NodeSet.ANCESTOR, Expression.NO_CONTEXT_ID);
+            assertEquals(ids(paras.selectParentChild(sections, NodeSet.ANCESTOR, Expression.NO_CONTEXT_ID)), ids(parents));
+            assertEquals(6, parents.getLength());
+        }
+    }
+
+    @Test
+    public void selectAncestorDescendant() throws EXistException, PermissionDeniedException, XPathException {
+        try (final DBBroker broker = getBroker()) {
+            final NodeSet sections = query(broker, "collection('" + TEST_COLLECTION + "')//section");
+            final NodeSet outer = query(broker, "collection('" + TEST_COLLECTION + "')//section[@n = ('1.1', '1.2')]");
+            for (final boolean includeSelf : new boolean[] { false, true }) {
+                final NodeSet expected = sections.selectAncestorDescendant(outer, NodeSet.DESCENDANT, includeSelf,
+                        Expression.NO_CONTEXT_ID, true);
+                final NodeSet actual = pack(sections, false).selectAncestorDescendant(outer, NodeSet.DESCENDANT,
+                        includeSelf, Expression.NO_CONTEXT_ID, true);
+                assertEquals(ids(expected), ids(actual));
+            }
+
+            final NodeSet docs = query(broker, "collection('" + TEST_COLLECTION + "')");
+            assertEquals(10, pack(sections, false).selectAncestorDescendant(docs, NodeSet.DESCENDANT, false,
+                    Expression.NO_CONTEXT_ID, true).getLength());
+            assertEquals(2, pack(sections, false).selectParentChild(docs, NodeSet.DESCENDANT,
+                    Expression.NO_CONTEXT_ID).getLength());
+        }
+    }
+
+    @Test
+    public void setOperations() throws EXistException, PermissionDeniedException, XPathException {
+        try (final DBBroker broker = getBroker()) {
+            final NodeSet left = query(broker, "collection('" + TEST_COLLECTION + "')//*[@n = ('1', '1.1', '1.1.1', '1.1.1.1')]");
+            final NodeSet right = query(broker, "collection('" + TEST_COLLECTION + "')//*[@n = ('1.1.1', '1.1.1.1', '1.2', '1.2.1')]");
+            final PackedNodeSet packedLeft = pack(left, false);
+            final PackedNodeSet packedRight = pack(right, true);
+
+            assertEquals(ids(left.intersection(right)), ids(packedLeft.intersection(packedRight)));
+            assertEquals(ids(left.union(right)), ids(packedLeft.union(packedRight)));
+            assertEquals(ids(left.except(right)), ids(packedLeft.except(packedRight)));
+            assertEquals(4, packedLeft.intersection(packedRight).getLength());
+            assertEquals(12, packedLeft.union(packedRight).getLength());
+            assertEquals(4, packedLeft.except(packedRight).getLength());
+        }
+    }
+
+    @Test
+    public void followingAndPreceding() throws EXistException, PermissionDeniedException, XPathException {
+        try (final DBBroker broker = getBroker()) {
+            final NodeSet paras = query(broker, "collection('" + TEST_COLLECTION + "')//para");
+            final NodeSet reference = query(broker, "collection('" + TEST_COLLECTION + "')//para[@n = '1.1.1.2']");
+            final PackedNodeSet packed = pack(paras, false);
+            assertEquals(6, packed.selectFollowing(reference, Expression.NO_CONTEXT_ID).getLength());
+            assertEquals(2, packed.selectPreceding(reference, Expression.NO_CONTEXT_ID).getLength());
+            assertEquals(ids(query(broker, "collection('" + TEST_COLLECTION + "')//para[@n = '1.1.2.1']")),
+                    ids(packed.selectFollowing(reference, 2, Expression.NO_CONTEXT_ID)));
+            assertEquals(2, packed.selectFollowingSiblings(reference, Expression.NO_CONTEXT_ID).getLength());
+            assertEquals(2, packed.selectPrecedingSiblings(reference, Expression.NO_CONTEXT_ID).getLength());
+        }
+    }
+
+    private static PackedNodeSet pack(final NodeSet nodes, final boolean withProxies) {
+        final PackedNodeSet packed = new PackedNodeSet();
+        for (final NodeProxy p : nodes) {
+            if (withProxies) {
+                packed.add(p);
+            } else {
+                packed.add(p.getOwnerDocument(), p.getNodeId(), p.getNodeType(), p.getInternalAddress());
+            }
+        }
+        return packed;
+    }
+
+    private static List<String> ids(final NodeSet nodes) {
+        final List<String> ids = new ArrayList<>();
+        for (final NodeProxy p : nodes) {
+            ids.add(p.getOwnerDocument().getDocId() + ":" + p.getNodeId());
+        }
+        return ids;
+    }
+
+    private static NodeSet query(final DBBroker broker, final String query) throws XPathException, PermissionDeniedException {
+        final XQuery xquery = broker.getBrokerPool().getXQueryService();
+        return xquery.execute(broker, query, null).toNodeSet();
+    }
+
+    private static DBBroker getBroker() throws EXistException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        return pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+    }
+
+    @BeforeClass
+    public static void setup() throws PermissionDeniedException, IOException, SAXException, EXistException, LockException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+             final Txn transaction = pool.getTransactionManager().beginTransaction();
+             final Collection collection = broker.getOrCreateCollection(transaction, TEST_COLLECTION)) {
+            broker.saveCollection(transaction, collection);
+            broker.storeDocument(transaction, XmldbURI.create("nested-1.xml"), new StringInputSource(XML),
+                    MimeType.XML_TYPE, collection);
+            broker.storeDocument(transaction, XmldbURI.create("nested-2.xml"), new StringInputSource(XML),
+                    MimeType.XML_TYPE, collection);
+            transaction.commit();
+        }
+    }
+}
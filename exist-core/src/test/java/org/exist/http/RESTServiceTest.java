@@ -721,6 +721,30 @@ try {
         }
     }
 
+    @Test
+    public void queryGetStream() throws IOException {
+        final String query = "for $i in 1 to 100 where $i mod 2 eq 0 return <even>{$i}</even>";
+        final String streamed = queryGet(query, "&_wrap=no&_start=3&_howmany=4&_stream=yes");
+        assertEquals(queryGet(query, "&_wrap=no&_start=3&_howmany=4"), streamed);
+        assertEquals("<even>6</even><even>8</even><even>10</even><even>12</even>", streamed.replaceAll("\\s", ""));
+    }
+
+    private String queryGet(final String query, final String parameters) throws IOException {
+        final String uri = getCollectionUri() + "?_query=" + URLEncoder.encode(query, UTF_8.displayName()) + parameters;
+        final HttpURLConnection connect = getConnection(uri);
+        try {
+            connect.setRequestMethod("GET");
+            connect.connect();
+
+            final int r = connect.getResponseCode();
+            assertEquals("Server returned response code " + r, HttpStatus.OK_200, r);
+
+            return readResponse(connect.getInputStream());
+        } finally {
+            connect.disconnect();
+        }
+    }
+
     @Test
     public void requestModule() throws IOException {
         String uri = getCollectionUri() + "?_query=request:get-uri()&_wrap=no";
@@ -0,0 +1,204 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage;
+
+import org.apache.commons.io.input.UnsynchronizedByteArrayInputStream;
+import org.apache.commons.io.output.UnsynchronizedByteArrayOutputStream;
+import org.exist.EXistException;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.numbering.NodeIdFactory;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.btree.Paged;
+import org.exist.storage.btree.Value;
+import org.exist.storage.dom.DOMFile;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.util.DatabaseConfigurationException;
+import org.exist.util.ReadOnlyException;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.value.Sequence;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.exist.util.PropertiesBuilder.propertiesBuilder;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that values which are too large for a page of dom.dbx are read back
+ * unchanged when the file compresses them, also after a restart.
+ */
+public class DOMFileCompressionTest {
+
+    @Rule
+    public final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(
+            propertiesBuilder()
+                    .set(DOMFile.PROPERTY_COMPRESSION, "lz4")
+                    .build(),
+            true,
+            true);
+
+    @Test
+    public void overflowValues() throws EXistException, ReadOnlyException, DatabaseConfigurationException, IOException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final NodeIdFactory idFact = pool.getNodeFactory();
+        final byte[][] values = new byte[20][];
+        final long[] addresses = new long[values.length];
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final DOMFile domDb = ((NativeBroker) broker).getDOMFile();
+            assertTrue(domDb.isCompressed());
+            domDb.setOwnerObject(this);
+
+            final TransactionManager mgr = pool.getTransactionManager();
+            try (final Txn txn = mgr.beginTransaction()) {
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = new byte[1000 * (i + 1)];
+                    Arrays.fill(values[i], (byte) ('a' + i));
+                    values[i][i] = 0;
+                    addresses[i] = domDb.put(txn, new NativeBroker.NodeRef(600, idFact.createInstance(i + 1)), values[i]);
+                }
+                domDb.closeDocument();
+                mgr.commit(txn);
+            }
+            assertValues(domDb, values, addresses);
+            broker.flush();
+        }
+
+        existEmbeddedServer.restart();
+
+        final BrokerPool restarted = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = restarted.get(Optional.of(restarted.getSecurityManager().getSystemSubject()))) {
+            final DOMFile domDb = ((NativeBroker) broker).getDOMFile();
+            assertTrue(domDb.isCompressed());
+            assertValues(domDb, values, addresses);
+        }
+    }
+
+    @Test
+    public void streamedBinaryValues() throws EXistException, DatabaseConfigurationException, IOException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final byte[] compressible = new byte[300_000];
+        for (int i = 0; i < compressible.length; i++) {
+            compressible[i] = (byte) ('a' + (i / 100) % 26);
+        }
+        final byte[] random = new byte[Paged.getPageSize() * 40];
+        new Random(42).nextBytes(random);
+        final long[] addresses = new long[2];
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final DOMFile domDb = ((NativeBroker) broker).getDOMFile();
+            domDb.setOwnerObject(this);
+
+            final TransactionManager mgr = pool.getTransactionManager();
+            try (final Txn txn = mgr.beginTransaction()) {
+                final DocumentImpl doc = new DocumentImpl(pool, null, 601, null);
+                addresses[0] = domDb.addBinary(txn, doc, new UnsynchronizedByteArrayInputStream(compressible));
+                assertTrue("value was not compressed: " + doc.getPageCount() + " pages",
+                        doc.getPageCount() < compressible.length / Paged.getPageSize() / 4);
+                addresses[1] = domDb.addBinary(txn, doc, new UnsynchronizedByteArrayInputStream(random));
+                mgr.commit(txn);
+            }
+            assertBinary(domDb, compressible, addresses[0]);
+            assertBinary(domDb, random, addresses[1]);
+            broker.flush();
+        }
+
+        existEmbeddedServer.restart();
+
+        final BrokerPool restarted = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = restarted.get(Optional.of(restarted.getSecurityManager().getSystemSubject()))) {
+            final DOMFile domDb = ((NativeBroker) broker).getDOMFile();
+            assertBinary(domDb, compressible, addresses[0]);
+            assertBinary(domDb, random, addresses[1]);
+        }
+    }
+
+    @Test
+    public void failedStreamIsReported() throws EXistException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final byte[] head = new byte[Paged.getPageSize() * 4];
+        new Random(7).nextBytes(head);
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final DOMFile domDb = ((NativeBroker) broker).getDOMFile();
+            domDb.setOwnerObject(this);
+
+            final TransactionManager mgr = pool.getTransactionManager();
+            try (final Txn txn = mgr.beginTransaction()) {
+                final DocumentImpl doc = new DocumentImpl(pool, null, 602, null);
+                final InputStream failing = new SequenceInputStream(new UnsynchronizedByteArrayInputStream(head), new InputStream() {
+                    @Override
+                    public int read() throws IOException {
+                        throw new IOException("connection reset");
+                    }
+                });
+                final UncheckedIOException e = assertThrows(UncheckedIOException.class, () -> domDb.addBinary(txn, doc, failing));
+                assertEquals("connection reset", e.getCause().getMessage());
+                mgr.abort(txn);
+            }
+        }
+    }
+
+    @Test
+    public void largeTextNodes() throws EXistException, PermissionDeniedException, XPathException, DatabaseConfigurationException, IOException {
+        final String text = "string-join(for $i in 1 to 5000 return 'line ' || $i, '&#10;')";
+        assertEquals("true", evaluate("xmldb:store('/db', 'large-text.xml', <doc><p>{ " + text + " }</p><p>short</p></doc>) ! 'true'"));
+        assertEquals("true", evaluate("doc('/db/large-text.xml')/doc/p[1] = " + text));
+
+        existEmbeddedServer.restart();
+
+        assertEquals("true", evaluate("doc('/db/large-text.xml')/doc/p[1] = " + text));
+        assertEquals("short", evaluate("doc('/db/large-text.xml')/doc/p[2]/string()"));
+    }
+
+    private static void assertValues(final DOMFile domDb, final byte[][] values, final long[] addresses) {
+        for (int i = 0; i < values.length; i++) {
+            final Value value = domDb.get(addresses[i]);
+            assertArrayEquals(values[i], value.getData());
+        }
+    }
+
+    private static void assertBinary(final DOMFile domDb, final byte[] expected, final long address) throws IOException {
+        assertArrayEquals(expected, domDb.getBinary(address));
+        try (final UnsynchronizedByteArrayOutputStream os = new UnsynchronizedByteArrayOutputStream()) {
+            domDb.readBinary(address, os);
+            assertArrayEquals(expected, os.toByteArray());
+        }
+    }
+
+    private String evaluate(final String query) throws EXistException, PermissionDeniedException, XPathException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final Sequence result = pool.getXQueryService().execute(broker, query, null);
+            return result.itemAt(0).getStringValue();
+        }
+    }
+}
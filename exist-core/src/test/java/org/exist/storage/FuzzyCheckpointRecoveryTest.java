@@ -0,0 +1,239 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.exist.EXistException;
+import org.exist.collections.Collection;
+import org.exist.collections.triggers.TriggerException;
+import org.exist.dom.persistent.LockedDocument;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.journal.Journal;
+import org.exist.storage.journal.JournalManager;
+import org.exist.storage.lock.Lock.LockMode;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.test.TestConstants;
+import org.exist.util.DatabaseConfigurationException;
+import org.exist.util.LockException;
+import org.exist.util.MimeType;
+import org.exist.util.StringInputSource;
+import org.exist.xmldb.XmldbURI;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+import static org.exist.util.PropertiesBuilder.propertiesBuilder;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that recovery starts from the recovery LSN of a fuzzy checkpoint,
+ * i.e. that transactions which were running while the checkpoint was written
+ * are redone when they committed and undone when they did not.
+ *
+ * The minimum journal size is 0, so that every fuzzy checkpoint switches
+ * the journal file, and recovery has to read across journal files.
+ */
+public class FuzzyCheckpointRecoveryTest {
+
+    private static final XmldbURI TEST_XML_URI4 = XmldbURI.create("test4.xml");
+
+    @Rule
+    public ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(
+            propertiesBuilder()
+                    .put(Journal.PROPERTY_RECOVERY_SIZE_MIN, 0)
+                    .build(),
+            true,
+            true);
+
+    @After
+    public void resetCorruption() {
+        BrokerPool.FORCE_CORRUPTION = false;
+    }
+
+    @Test
+    public void transactionCommittedAfterFuzzyCheckpoint() throws EXistException, PermissionDeniedException, IOException, SAXException, LockException, DatabaseConfigurationException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final Collection test = createTestCollection(broker);
+
+            try (final Txn transaction = transact.beginTransaction()) {
+                store(broker, transaction, test, TestConstants.TEST_XML_URI);
+
+                pool.checkpointFuzzy(broker);
+
+                BrokerPool.FORCE_CORRUPTION = true;
+                store(broker, transaction, test, TestConstants.TEST_XML_URI2);
+                transact.commit(transaction);
+            }
+        }
+
+        existEmbeddedServer.restart();
+        BrokerPool.FORCE_CORRUPTION = false;
+
+        assertStored(TestConstants.TEST_XML_URI, true);
+        assertStored(TestConstants.TEST_XML_URI2, true);
+    }
+
+    @Test
+    public void transactionRunningAtFuzzyCheckpointIsUndone() throws EXistException, PermissionDeniedException, IOException, SAXException, LockException, DatabaseConfigurationException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final Collection test = createTestCollection(broker);
+
+            // never committed nor closed, as if the database crashed while it was running
+            final Txn transaction = transact.beginTransaction();
+            store(broker, transaction, test, TestConstants.TEST_XML_URI);
+
+            // the checkpoint writes the pages of the running transaction to disk
+            pool.checkpointFuzzy(broker);
+
+            try (final Txn committed = transact.beginTransaction()) {
+                store(broker, committed, test, TestConstants.TEST_XML_URI2);
+                transact.commit(committed);
+            }
+            pool.getJournalManager().get().flush(true, true);
+        }
+
+        BrokerPool.FORCE_CORRUPTION = true;
+        existEmbeddedServer.restart();
+        BrokerPool.FORCE_CORRUPTION = false;
+
+        assertStored(TestConstants.TEST_XML_URI, false);
+        assertStored(TestConstants.TEST_XML_URI2, true);
+    }
+
+    @Test
+    public void journalsRotatedAndPrunedUnderOverlappingTransactions() throws EXistException, PermissionDeniedException, IOException, SAXException, LockException, DatabaseConfigurationException, InterruptedException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        final JournalManager journalManager = pool.getJournalManager().get();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final Collection test = createTestCollection(broker);
+
+            final Txn first = transact.beginTransaction();
+            store(broker, first, test, TestConstants.TEST_XML_URI);
+            final short firstFile = (short) journalManager.lastWrittenLsn().getFileNumber();
+
+            // the journal file is switched, but the first transaction started in the previous one
+            pool.checkpointFuzzy(broker);
+            assertJournalFiles(firstFile, firstFile + 1);
+
+            final Txn second = transact.beginTransaction();
+            store(broker, second, test, TestConstants.TEST_XML_URI2);
+            transact.commit(first);
+            first.close();
+
+            // the second transaction is now the oldest running transaction
+            pool.checkpointFuzzy(broker);
+            assertJournalFiles(firstFile + 1, firstFile + 2);
+
+            // never committed nor closed, as if the database crashed while it was running
+            final Txn third = transact.beginTransaction();
+            store(broker, third, test, TestConstants.TEST_XML_URI3);
+            transact.commit(second);
+            second.close();
+
+            pool.checkpointFuzzy(broker);
+            assertJournalFiles(firstFile + 2, firstFile + 3);
+
+            try (final Txn fourth = transact.beginTransaction()) {
+                store(broker, fourth, test, TEST_XML_URI4);
+                transact.commit(fourth);
+            }
+            journalManager.flush(true, true);
+        }
+
+        // recovery has to read from the start of the third transaction in the previous journal file
+        BrokerPool.FORCE_CORRUPTION = true;
+        existEmbeddedServer.restart();
+        BrokerPool.FORCE_CORRUPTION = false;
+
+        assertStored(TestConstants.TEST_XML_URI, true);
+        assertStored(TestConstants.TEST_XML_URI2, true);
+        assertStored(TestConstants.TEST_XML_URI3, false);
+        assertStored(TEST_XML_URI4, true);
+    }
+
+    /**
+     * Asserts that exactly the journal files from {@code firstFile} to {@code lastFile} exist.
+     * Old journal files are removed asynchronously, so this waits for them to be removed.
+     */
+    private void assertJournalFiles(final int firstFile, final int lastFile) throws IOException, InterruptedException {
+        final Set<Integer> expected = Stream.iterate(firstFile, i -> i + 1)
+                .limit(lastFile - firstFile + 1)
+                .collect(Collectors.toSet());
+
+        Set<Integer> actual = journalFiles();
+        for (int i = 0; i < 100 && !actual.equals(expected); i++) {
+            Thread.sleep(50);
+            actual = journalFiles();
+        }
+        assertEquals(expected, actual);
+    }
+
+    private Set<Integer> journalFiles() throws IOException {
+        final Path journalDir = (Path) Optional.ofNullable(existEmbeddedServer.getBrokerPool().getConfiguration().getProperty(Journal.PROPERTY_RECOVERY_JOURNAL_DIR))
+                .orElse(existEmbeddedServer.getBrokerPool().getConfiguration().getProperty(BrokerPool.PROPERTY_DATA_DIR));
+        try (final Stream<Path> files = Files.list(journalDir)) {
+            return files
+                    .map(file -> file.getFileName().toString())
+                    .filter(fileName -> fileName.endsWith("." + Journal.LOG_FILE_SUFFIX))
+                    .map(fileName -> Integer.parseInt(fileName.substring(0, fileName.indexOf('.')), 16))
+                    .collect(Collectors.toSet());
+        }
+    }
+
+    private Collection createTestCollection(final DBBroker broker) throws EXistException, PermissionDeniedException, IOException, TriggerException {
+        final TransactionManager transact = broker.getBrokerPool().getTransactionManager();
+        try (final Txn transaction = transact.beginTransaction()) {
+            final Collection test = broker.getOrCreateCollection(transaction, TestConstants.TEST_COLLECTION_URI);
+            assertNotNull(test);
+            broker.saveCollection(transaction, test);
+            transact.commit(transaction);
+            return test;
+        }
+    }
+
+    private void store(final DBBroker broker, final Txn transaction, final Collection collection, final XmldbURI name) throws EXistException, PermissionDeniedException, IOException, SAXException, LockException {
+        broker.storeDocument(transaction, name, new StringInputSource("<test name='" + name + "'><a>1</a><b>2</b></test>"), MimeType.XML_TYPE, collection);
+    }
+
+    private void assertStored(final XmldbURI name, final boolean expected) throws EXistException, PermissionDeniedException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+             final LockedDocument lockedDoc = broker.getXMLResource(TestConstants.TEST_COLLECTION_URI.append(name), LockMode.READ_LOCK)) {
+            assertEquals(name.toString(), expected, lockedDoc != null);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage;
+
+import org.exist.EXistException;
+import org.exist.collections.Collection;
+import org.exist.security.PermissionDeniedException;
+import org.exist.source.StringSource;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.util.LockException;
+import org.exist.util.MimeType;
+import org.exist.util.StringInputSource;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.value.Sequence;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.exist.test.Util.executeQuery;
+import static org.exist.test.Util.withCompiledQuery;
+import static org.exist.util.PropertiesBuilder.propertiesBuilder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ParallelReindexTest {
+
+    private static final int REINDEX_THREADS = 4;
+    private static final int DOCUMENTS = 50;
+
+    @ClassRule
+    public static ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(
+            propertiesBuilder()
+                    .put(NativeBroker.PROPERTY_REINDEX_THREADS, REINDEX_THREADS)
+                    .put(NativeBroker.PROPERTY_REINDEX_PER_DOCUMENT_COMMIT, true)
+                    .build(), true, true);
+
+    private static final XmldbURI TEST_COLLECTION = XmldbURI.create("/db/parallel-reindex-test");
+    private static final XmldbURI TEST_CHILD_COLLECTION = TEST_COLLECTION.append("child");
+
+    @Test
+    public void reindexCollectionTree() throws EXistException, PermissionDeniedException, IOException, LockException, XPathException {
+        assertIndexed();
+
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final ReindexMonitor reindexMonitor = pool.getReindexMonitor();
+        final long completed = reindexMonitor.getCompleted();
+        final long reindexed = reindexMonitor.getCompletedDocumentsReindexed();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+             final Txn transaction = pool.getTransactionManager().beginTransaction()) {
+            broker.reindexCollection(transaction, TEST_COLLECTION);
+            transaction.commit();
+        }
+
+        assertIndexed();
+
+        // the progress is published via JMX
+        assertEquals(completed + 1, reindexMonitor.getCompleted());
+        assertTrue(reindexMonitor.getCompletedDocumentsReindexed() - reindexed >= DOCUMENTS);
+        assertTrue(reindexMonitor.getRunning().isEmpty());
+    }
+
+    @Test
+    public void concurrentWritesDuringReindex() throws InterruptedException, ExecutionException, TimeoutException,
+            EXistException, PermissionDeniedException, IOException, XPathException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final XmldbURI writesCollection = TEST_COLLECTION.append("concurrent-writes");
+        final int writes = 20;
+
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<?> reindex = executor.submit(() -> {
+                for (int i = 0; i < 3; i++) {
+                    try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+                         final Txn transaction = pool.getTransactionManager().beginTransaction()) {
+                        broker.reindexCollection(transaction, TEST_COLLECTION);
+                        transaction.commit();
+                    }
+                }
+                return null;
+            });
+
+            final Future<?> write = executor.submit(() -> {
+                for (int i = 0; i < writes; i++) {
+                    try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+                         final Txn transaction = pool.getTransactionManager().beginTransaction();
+                         final Collection collection = broker.getOrCreateCollection(transaction, writesCollection)) {
+                        broker.saveCollection(transaction, collection);
+                        broker.storeDocument(transaction, XmldbURI.create("write-" + i + ".xml"),
+                                new StringInputSource("<doc><other>" + i + "</other></doc>"), MimeType.XML_TYPE, collection);
+                        transaction.commit();
+                    }
+                }
+                return null;
+            });
+
+            // a deadlock between the reindex and the writer would time out here
+            reindex.get(2, TimeUnit.MINUTES);
+            write.get(2, TimeUnit.MINUTES);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertIndexed();
+        assertEquals(writes, query("count(collection('" + writesCollection + "')//other)"));
+    }
+
+    private static void assertIndexed() throws EXistException, PermissionDeniedException, IOException, XPathException {
+        assertEquals(2 * DOCUMENTS, query("count(collection('" + TEST_COLLECTION + "')//item)"));
+        assertEquals(DOCUMENTS, query("count(collection('" + TEST_COLLECTION + "')//item[. = 'child'])"));
+        assertEquals(2, query("count(collection('" + TEST_COLLECTION + "')/doc[@n = '7'])"));
+    }
+
+    private static int query(final String query) throws EXistException, PermissionDeniedException, IOException, XPathException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            return withCompiledQuery(broker, new StringSource(query), compiledQuery -> {
+                final Sequence result = executeQuery(broker, compiledQuery);
+                return Integer.parseInt(result.getStringValue());
+            });
+        }
+    }
+
+    private static void storeDocuments(final XmldbURI collectionUri, final String content)
+            throws PermissionDeniedException, IOException, SAXException, EXistException, LockException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+             final Txn transaction = pool.getTransactionManager().beginTransaction();
+             final Collection collection = broker.getOrCreateCollection(transaction, collectionUri)) {
+            broker.saveCollection(transaction, collection);
+            for (int i = 0; i < DOCUMENTS; i++) {
+                broker.storeDocument(transaction, XmldbURI.create("doc-" + i + ".xml"),
+                        new StringInputSource("<doc n='" + i + "'><item>" + content + "</item></doc>"),
+                        MimeType.XML_TYPE, collection);
+            }
+            transaction.commit();
+        }
+    }
+
+    @BeforeClass
+    public static void setup() throws PermissionDeniedException, IOException, SAXException, EXistException, LockException {
+        storeDocuments(TEST_COLLECTION, "parent");
+        storeDocuments(TEST_CHILD_COLLECTION, "child");
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage;
+
+import org.exist.EXistException;
+import org.exist.collections.Collection;
+import org.exist.dom.persistent.BinaryDocument;
+import org.exist.dom.persistent.LockedDocument;
+import org.exist.security.PermissionDeniedException;
+import org.exist.source.DBSource;
+import org.exist.source.Source;
+import org.exist.source.StringSource;
+import org.exist.storage.lock.Lock.LockMode;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.util.DatabaseConfigurationException;
+import org.exist.util.LockException;
+import org.exist.util.StringInputSource;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.CompiledXQuery;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.XQuery;
+import org.exist.xquery.XQueryContext;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.Properties;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.exist.test.Util.storeQuery;
+import static org.junit.Assert.*;
+
+public class XQueryPoolTest {
+
+    private static final XmldbURI WARM_UP_COLLECTION_URI = XmldbURI.create("/db/test-query-pool-warm-up");
+    private static final int MAX_STACK_SIZE = 2;
+
+    @ClassRule
+    public static final ExistEmbeddedServer EXIST_EMBEDDED_SERVER = new ExistEmbeddedServer(properties(), true, true);
+
+    private static Properties properties() {
+        final Properties properties = new Properties();
+        properties.setProperty(XQueryPool.PROPERTY_WARM_UP_COLLECTIONS, WARM_UP_COLLECTION_URI.toString());
+        properties.put(XQueryPool.PROPERTY_MAX_STACK_SIZE, MAX_STACK_SIZE);
+        return properties;
+    }
+
+    @Test
+    public void statistics() throws EXistException, PermissionDeniedException, XPathException, IOException {
+        final BrokerPool brokerPool = EXIST_EMBEDDED_SERVER.getBrokerPool();
+        final XQueryPool xqueryPool = brokerPool.getXQueryPool();
+        final Source source = new StringSource("xquery version '3.1'; 'statistics'");
+
+        try (final DBBroker broker = brokerPool.get(Optional.of(brokerPool.getSecurityManager().getSystemSubject()))) {
+            assertNull(xqueryPool.borrowCompiledXQuery(broker, source));
+            xqueryPool.returnCompiledXQuery(source, compile(brokerPool, source));
+
+            final CompiledXQuery borrowed = xqueryPool.borrowCompiledXQuery(broker, source);
+            assertNotNull(borrowed);
+            xqueryPool.returnCompiledXQuery(source, borrowed);
+        }
+
+        final XQueryPool.Statistics statistics = getStatistics(xqueryPool, source);
+        assertEquals(1, statistics.getHitCount());
+        assertEquals(1, statistics.getMissCount());
+        assertEquals(1, statistics.getStackSize());
+    }
+
+    @Test
+    public void missesDoNotEvictPooledQueries() throws EXistException, PermissionDeniedException, XPathException, IOException {
+        final BrokerPool brokerPool = EXIST_EMBEDDED_SERVER.getBrokerPool();
+        final XQueryPool xqueryPool = brokerPool.getXQueryPool();
+        final Source source = new StringSource("xquery version '3.1'; 'pooled'");
+        xqueryPool.returnCompiledXQuery(source, compile(brokerPool, source));
+
+        try (final DBBroker broker = brokerPool.get(Optional.of(brokerPool.getSecurityManager().getSystemSubject()))) {
+            // one-off queries which are never returned to the pool
+            for (int i = 0; i < xqueryPool.getMaxPoolSize() * 20; i++) {
+                assertNull(xqueryPool.borrowCompiledXQuery(broker, new StringSource("xquery version '3.1'; " + i)));
+            }
+
+            final CompiledXQuery borrowed = xqueryPool.borrowCompiledXQuery(broker, source);
+            assertNotNull(borrowed);
+            xqueryPool.returnCompiledXQuery(source, borrowed);
+        }
+    }
+
+    @Test
+    public void maxStackSize() throws EXistException, PermissionDeniedException, XPathException, IOException {
+        final BrokerPool brokerPool = EXIST_EMBEDDED_SERVER.getBrokerPool();
+        final XQueryPool xqueryPool = brokerPool.getXQueryPool();
+        final Source source = new StringSource("xquery version '3.1'; 'max-stack-size'");
+
+        for (int i = 0; i < MAX_STACK_SIZE + 2; i++) {
+            xqueryPool.returnCompiledXQuery(source, compile(brokerPool, source));
+        }
+
+        assertEquals(MAX_STACK_SIZE, getStatistics(xqueryPool, source).getStackSize());
+    }
+
+    @Test
+    public void warmUp() throws EXistException, PermissionDeniedException, IOException, SAXException, LockException, DatabaseConfigurationException, InterruptedException {
+        final XmldbURI mainModuleUri;
+        BrokerPool brokerPool = EXIST_EMBEDDED_SERVER.getBrokerPool();
+        try (final DBBroker broker = brokerPool.get(Optional.of(brokerPool.getSecurityManager().getSystemSubject()));
+                final Txn transaction = brokerPool.getTransactionManager().beginTransaction();
+                final Collection collection = broker.getOrCreateCollection(transaction, WARM_UP_COLLECTION_URI.append("sub"))) {
+            mainModuleUri = storeQuery(broker, transaction, new StringInputSource(
+                    "xquery version '3.1'; import module namespace lib = 'http://example.com/lib' at 'lib.xqm'; lib:f()".getBytes(UTF_8)),
+                    collection, XmldbURI.create("main.xq"));
+            storeQuery(broker, transaction, new StringInputSource(
+                    "xquery version '3.1'; module namespace lib = 'http://example.com/lib'; declare function lib:f() { 1 };".getBytes(UTF_8)),
+                    collection, XmldbURI.create("lib.xqm"));
+            transaction.commit();
+        }
+
+        EXIST_EMBEDDED_SERVER.restart(false);
+        brokerPool = EXIST_EMBEDDED_SERVER.getBrokerPool();
+        final XQueryPool xqueryPool = brokerPool.getXQueryPool();
+
+        // the warm-up runs in the background
+        for (int i = 0; i < 300 && xqueryPool.getWarmedUp() < 1; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals("only the main module is compiled into the pool", 1, xqueryPool.getWarmedUp());
+
+        try (final DBBroker broker = brokerPool.get(Optional.of(brokerPool.getSecurityManager().getSystemSubject()));
+                final LockedDocument lockedDocument = broker.getXMLResource(mainModuleUri, LockMode.READ_LOCK)) {
+            final Source source = new DBSource(brokerPool, (BinaryDocument) lockedDocument.getDocument(), true);
+            final CompiledXQuery compiled = xqueryPool.borrowCompiledXQuery(broker, source);
+            assertNotNull(compiled);
+            xqueryPool.returnCompiledXQuery(source, compiled);
+            assertEquals(1, getStatistics(xqueryPool, source).getHitCount());
+        }
+    }
+
+    private static CompiledXQuery compile(final BrokerPool brokerPool, final Source source) throws EXistException, PermissionDeniedException, XPathException, IOException {
+        final XQuery xquery = brokerPool.getXQueryService();
+        try (final DBBroker broker = brokerPool.get(Optional.of(brokerPool.getSecurityManager().getSystemSubject()))) {
+            return xquery.compile(new XQueryContext(brokerPool), source);
+        }
+    }
+
+    private static XQueryPool.Statistics getStatistics(final XQueryPool xqueryPool, final Source source) {
+        return xqueryPool.getStatistics().stream()
+                .filter(statistics -> statistics.getSource().equals(source.pathOrShortIdentifier()))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("No statistics for " + source.pathOrShortIdentifier()));
+    }
+}
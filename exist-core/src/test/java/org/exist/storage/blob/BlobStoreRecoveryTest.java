@@ -473,6 +473,8 @@ public class BlobStoreRecoveryTest {
         final Configuration mockConfiguration = createNiceMock(Configuration.class);
         expect(mockConfiguration.getProperty(Journal.PROPERTY_RECOVERY_JOURNAL_DIR)).andReturn(journalDir);
         expect(mockConfiguration.getProperty(BrokerPool.PROPERTY_RECOVERY_GROUP_COMMIT, false)).andReturn(false);
+        expect(mockConfiguration.getProperty(PROPERTY_RECOVERY_GROUP_COMMIT_MAX_DELAY, 0)).andReturn(0);
+        expect(mockConfiguration.getProperty(PROPERTY_RECOVERY_GROUP_COMMIT_MAX_SIZE, 64)).andReturn(64);
 
         expect(mockConfiguration.getProperty(PROPERTY_RECOVERY_SYNC_ON_COMMIT, true)).andReturn(true);
         expect(mockConfiguration.getProperty(PROPERTY_RECOVERY_SIZE_MIN, 1)).andReturn(1);
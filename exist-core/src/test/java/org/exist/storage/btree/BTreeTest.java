@@ -23,6 +23,13 @@ package org.exist.storage.btree;
 
 import org.exist.EXistException;
 import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.NativeBroker;
+import org.exist.storage.journal.Journal;
+import org.exist.storage.journal.JournalReader;
+import org.exist.storage.journal.LogException;
+import org.exist.storage.journal.Loggable;
+import org.exist.storage.txn.Txn;
 import org.exist.test.ExistEmbeddedServer;
 import org.exist.util.*;
 import org.exist.xquery.TerminatedException;
@@ -31,15 +38,29 @@ import org.exist.xquery.value.DoubleValue;
 import org.junit.*;
 import org.junit.rules.TemporaryFolder;
 
+import static org.easymock.EasyMock.createMockBuilder;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
 import static org.junit.Assert.*;
 
 import java.io.IOException;
 import java.io.StringWriter;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Low-level tests on the B+tree.
@@ -183,6 +204,244 @@ public class BTreeTest {
         }
     }
 
+    @Test
+    public void bulkLoad() throws DBException, IOException, TerminatedException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try(final BTree btree = new BTree(pool, BTREE_TEST_FILE_ID, BTREE_TEST_FILE_VERSION, false, pool.getCacheManager(), file)) {
+            btree.create((short) -1);
+
+            final String prefixStr = "C";
+            final Map<String, Integer> keys = new TreeMap<>();
+            for (int i = 1; i <= COUNT * 10; i++) {
+                keys.put(prefixStr + Integer.toString(i), i);
+            }
+
+            final BTree.BulkLoader loader = btree.bulkLoad(null, 0.7);
+            for (final Map.Entry<String, Integer> entry : keys.entrySet()) {
+                loader.add(new Value(entry.getKey()), entry.getValue());
+            }
+            assertEquals(COUNT * 10, loader.finish());
+
+            for (final Map.Entry<String, Integer> entry : keys.entrySet()) {
+                assertEquals(entry.getValue().longValue(), btree.findValue(new Value(entry.getKey())));
+            }
+
+            IndexQuery query = new IndexQuery(IndexQuery.TRUNC_RIGHT, new Value(prefixStr));
+            btree.query(query, new StringIndexCallback());
+            assertEquals(COUNT * 10, count);
+
+            query = new IndexQuery(IndexQuery.TRUNC_RIGHT, new Value(prefixStr + "1"));
+            btree.query(query, new StringIndexCallback());
+            assertEquals(11111, count);
+
+            // the tree can be updated normally after a bulk load
+            for (int i = 1; i <= COUNT; i++) {
+                btree.addValue(new Value("B" + Integer.toString(i)), i);
+            }
+            btree.flush();
+            for (int i = 1; i <= COUNT; i++) {
+                assertEquals(i, btree.findValue(new Value("B" + Integer.toString(i))));
+            }
+            query = new IndexQuery(IndexQuery.TRUNC_RIGHT, new Value(prefixStr));
+            btree.query(query, new StringIndexCallback());
+            assertEquals(COUNT * 10, count);
+        }
+    }
+
+    @Test
+    public void bulkLoadRecovery() throws DBException, IOException, EXistException, LogException, TerminatedException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final Path recoveredFile = temporaryFolder.newFile("recovered.dbx").toPath();
+        try (final BTree btree = new BTree(pool, BTREE_TEST_FILE_ID, BTREE_TEST_FILE_VERSION, true, pool.getCacheManager(), file);
+             final BTree recovered = new BTree(pool, BTREE_TEST_FILE_ID, BTREE_TEST_FILE_VERSION, true, pool.getCacheManager(), recoveredFile)) {
+            btree.create((short) -1);
+            recovered.create((short) -1);
+
+            final String prefixStr = "R";
+            final Map<String, Integer> keys = new TreeMap<>();
+            for (int i = 1; i <= COUNT * 2; i++) {
+                keys.put(prefixStr + Integer.toString(i), i);
+            }
+
+            final long transactionId;
+            try (final Txn transaction = pool.getTransactionManager().beginTransaction()) {
+                transactionId = transaction.getId();
+                final BTree.BulkLoader loader = btree.bulkLoad(transaction, 1.0);
+                for (final Map.Entry<String, Integer> entry : keys.entrySet()) {
+                    loader.add(new Value(entry.getKey()), entry.getValue());
+                }
+                assertEquals(COUNT * 2, loader.finish());
+                transaction.commit();
+            }
+
+            // read the bulk load back from the journal, as recovery does
+            final AtomicReference<BTree> storage = new AtomicReference<>();
+            final NativeBroker mockBroker = createMockBuilder(NativeBroker.class)
+                    .addMockedMethod("getStorage", byte.class)
+                    .createMock();
+            expect(mockBroker.getStorage(BTREE_TEST_FILE_ID)).andAnswer(storage::get).anyTimes();
+            replay(mockBroker);
+            final List<Loggable> entries = readJournal(mockBroker, transactionId);
+            assertTrue(entries.size() > 2);
+            assertEquals(BTree.LOG_BULK_LOAD, entries.get(0).getLogType());
+
+            // redo onto an empty tree, i.e. as if none of the loaded pages had been written
+            storage.set(recovered);
+            for (final Loggable entry : entries) {
+                entry.redo();
+            }
+            for (final Map.Entry<String, Integer> entry : keys.entrySet()) {
+                assertEquals(entry.getValue().longValue(), recovered.findValue(new Value(entry.getKey())));
+            }
+
+            // undo the bulk load, as if its transaction had not been committed
+            storage.set(btree);
+            for (int i = entries.size() - 1; i >= 0; i--) {
+                entries.get(i).undo();
+            }
+            final IndexQuery query = new IndexQuery(IndexQuery.TRUNC_RIGHT, new Value(prefixStr));
+            btree.query(query, new StringIndexCallback());
+            assertEquals(0, count);
+
+            // the tree can be loaded again after undo
+            final BTree.BulkLoader loader = btree.bulkLoad(null, 1.0);
+            for (final Map.Entry<String, Integer> entry : keys.entrySet()) {
+                loader.add(new Value(entry.getKey()), entry.getValue());
+            }
+            assertEquals(COUNT * 2, loader.finish());
+
+            verify(mockBroker);
+        }
+    }
+
+    private List<Loggable> readJournal(final DBBroker broker, final long transactionId) throws IOException, LogException {
+        final Path journalDir = existEmbeddedServer.getTemporaryStorage().get();
+        final List<Path> journalFiles;
+        try (final Stream<Path> files = Files.list(journalDir)) {
+            journalFiles = files.filter(path -> FileUtils.fileName(path).endsWith("." + Journal.LOG_FILE_SUFFIX))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+
+        final List<Loggable> entries = new ArrayList<>();
+        for (final Path journalFile : journalFiles) {
+            final String fileName = FileUtils.fileName(journalFile);
+            final short fileNumber = Short.parseShort(fileName.substring(0, fileName.indexOf('.')), 16);
+            try (final JournalReader reader = new JournalReader(broker, journalFile, fileNumber)) {
+                Loggable next;
+                while ((next = reader.nextEntry()) != null) {
+                    if (next.getTransactionId() == transactionId
+                            && (next.getLogType() == BTree.LOG_BULK_LOAD || next.getLogType() == BTree.LOG_BULK_LOAD_PAGE)) {
+                        entries.add(next);
+                    }
+                }
+            }
+        }
+        return entries;
+    }
+
+    @Test
+    public void bulkLoadLongStrings() throws DBException, IOException {
+        final Random rand = new Random(System.currentTimeMillis());
+
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try(final BTree btree = new BTree(pool, BTREE_TEST_FILE_ID, BTREE_TEST_FILE_VERSION, false, pool.getCacheManager(), file)) {
+            btree.create((short) -1);
+
+            final Map<String, Integer> keys = new TreeMap<>();
+            for (int i = 1; i <= COUNT; i++) {
+                final StringBuilder buf = new StringBuilder();
+                buf.append('C').append(Integer.toString(i));
+                final int len = 512 + rand.nextInt(1500);
+                for (int j = 0; j < len; j++) {
+                    buf.append('x');
+                }
+                keys.put(buf.toString(), i);
+            }
+
+            final BTree.BulkLoader loader = btree.bulkLoad(null, 1.0);
+            for (final Map.Entry<String, Integer> entry : keys.entrySet()) {
+                loader.add(new Value(entry.getKey()), entry.getValue());
+            }
+            loader.finish();
+
+            for (final Map.Entry<String, Integer> entry : keys.entrySet()) {
+                assertEquals(entry.getValue().longValue(), btree.findValue(new Value(entry.getKey())));
+            }
+        }
+    }
+
+    @Test(expected = BTreeException.class)
+    public void bulkLoadUnsorted() throws DBException, IOException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try(final BTree btree = new BTree(pool, BTREE_TEST_FILE_ID, BTREE_TEST_FILE_VERSION, false, pool.getCacheManager(), file)) {
+            btree.create((short) -1);
+
+            final BTree.BulkLoader loader = btree.bulkLoad(null, 1.0);
+            loader.add(new Value("B"), 1);
+            loader.add(new Value("A"), 2);
+        }
+    }
+
+    @Test
+    public void rebuild() throws DBException, IOException, TerminatedException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try(final BTree btree = new BTree(pool, BTREE_TEST_FILE_ID, BTREE_TEST_FILE_VERSION, false, pool.getCacheManager(), file)) {
+            btree.create((short) -1);
+
+            final String prefixStr = "C";
+            for (int i = 1; i <= COUNT; i++) {
+                btree.addValue(new Value(prefixStr + Integer.toString(i)), i);
+            }
+            btree.flush();
+
+            btree.rebuild();
+            btree.flush();
+
+            for (int i = 1; i <= COUNT; i++) {
+                assertEquals(i, btree.findValue(new Value(prefixStr + Integer.toString(i))));
+            }
+            final IndexQuery query = new IndexQuery(IndexQuery.TRUNC_RIGHT, new Value(prefixStr));
+            btree.query(query, new StringIndexCallback());
+            assertEquals(COUNT, count);
+        }
+    }
+
+    @Test
+    public void rangeScanner() throws DBException, IOException, TerminatedException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try(final BTree btree = new BTree(pool, BTREE_TEST_FILE_ID, BTREE_TEST_FILE_VERSION, false, pool.getCacheManager(), file)) {
+            btree.create((short) -1);
+
+            for (int i = 0; i < COUNT * 10; i++) {
+                btree.addValue(new Value(String.format("K%06d", i)), i);
+            }
+            btree.flush();
+
+            // ascending, closely spaced ranges are answered from the leaf chain
+            final List<Long> found = new ArrayList<>();
+            final BTree.RangeScanner scanner = btree.rangeScanner();
+            int ranges = 0;
+            for (int i = 0; i < COUNT * 10; i += 50) {
+                scanner.scan(new Value(String.format("K%06d", i)), new Value(String.format("K%06d", i + 10)),
+                        (value, pointer) -> found.add(pointer));
+                ranges++;
+            }
+            assertEquals(ranges * 10, found.size());
+            for (int i = 0; i < found.size(); i++) {
+                assertEquals((i / 10) * 50 + (i % 10), found.get(i).longValue());
+            }
+            assertTrue(scanner.getDescents() < ranges / 10);
+
+            // a range before the current leaf, an empty range and a range past the last key
+            found.clear();
+            scanner.scan(new Value("K000100"), new Value("K000103"), (value, pointer) -> found.add(pointer));
+            scanner.scan(new Value("K000200"), new Value("K000200"), (value, pointer) -> found.add(pointer));
+            scanner.scan(new Value(String.format("K%06d", COUNT * 10 - 2)), new Value("L"), (value, pointer) -> found.add(pointer));
+            assertEquals(Arrays.asList(100L, 101L, 102L, (long) COUNT * 10 - 2, (long) COUNT * 10 - 1), found);
+        }
+    }
+
     @Test
     public void stringsTruncated() throws DBException, IOException, TerminatedException {
         final BrokerPool pool = existEmbeddedServer.getBrokerPool();
@@ -348,6 +607,108 @@ public class BTreeTest {
         }
     }
 
+    @Test
+    public void memoryMappedReads() throws DBException, IOException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final Configuration configuration = pool.getConfiguration();
+        configuration.setProperty(Paged.PROPERTY_MEMORY_MAPPED_FILES, Arrays.asList(FileUtils.fileName(file)));
+        try {
+            String prefixStr = "M";
+            try (final BTree btree = new BTree(pool, BTREE_TEST_FILE_ID, BTREE_TEST_FILE_VERSION, false, pool.getCacheManager(), file)) {
+                assertTrue(btree.isMemoryMapped());
+                // the new file is empty, so it can only be mapped once it has grown
+                assertFalse(btree.isMapped());
+                btree.create((short) -1);
+
+                for (int i = 1; i <= COUNT; i++) {
+                    btree.addValue(new Value(prefixStr + Integer.toString(i)), i);
+                }
+
+                // pages appended after the file was mapped must still be readable
+                for (int i = 1; i <= COUNT; i++) {
+                    assertEquals(i, btree.findValue(new Value(prefixStr + Integer.toString(i))));
+                }
+                btree.flush();
+
+                btree.getFileHeader().read();
+                assertTrue(btree.isMapped());
+            }
+
+            // re-open with an empty cache, so that all pages are read from the mapped file
+            final BTree reopened;
+            try (final BTree btree = new BTree(pool, BTREE_TEST_FILE_ID, BTREE_TEST_FILE_VERSION, false, pool.getCacheManager(), file)) {
+                reopened = btree;
+                assertTrue(btree.open(BTREE_TEST_FILE_VERSION));
+                assertTrue(btree.isMapped());
+                for (int i = 1; i <= COUNT; i++) {
+                    assertEquals(i, btree.findValue(new Value(prefixStr + Integer.toString(i))));
+                }
+
+                // growing the file by a few pages must not re-map it
+                final long mappedSize = btree.getMappedSize();
+                final String grownPrefixStr = "grown-value-with-a-longer-key-";
+                for (int i = 1; i <= 1000; i++) {
+                    btree.addValue(new Value(grownPrefixStr + Integer.toString(i)), i);
+                }
+                btree.flush();
+                for (int i = 1; i <= 1000; i++) {
+                    assertEquals(i, btree.findValue(new Value(grownPrefixStr + Integer.toString(i))));
+                }
+                assertTrue(Files.size(file) > mappedSize);
+                assertTrue(Files.size(file) - mappedSize < Paged.MIN_REMAP_GROWTH);
+                assertEquals(mappedSize, btree.getMappedSize());
+            }
+            // the mapping is released on close
+            assertFalse(reopened.isMapped());
+        } finally {
+            configuration.removeProperty(Paged.PROPERTY_MEMORY_MAPPED_FILES);
+        }
+    }
+
+    @Test
+    public void sharedReads() throws DBException, IOException, InterruptedException, ExecutionException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final BTree btree = new BTree(pool, BTREE_TEST_FILE_ID, BTREE_TEST_FILE_VERSION, false, pool.getCacheManager(), file)) {
+            btree.create((short) -1);
+            final String prefixStr = "S";
+            for (int i = 1; i <= COUNT * 10; i++) {
+                btree.addValue(new Value(prefixStr + Integer.toString(i)), i);
+            }
+
+            // the pages are not flushed, so that the readers have to evict dirty pages from the cache
+            btree.setSharedReads(true);
+            final int readers = 4;
+            final ExecutorService executor = Executors.newFixedThreadPool(readers);
+            try {
+                final List<Future<Integer>> results = new ArrayList<>(readers);
+                for (int r = 0; r < readers; r++) {
+                    final int seed = r;
+                    results.add(executor.submit(() -> {
+                        final Random random = new Random(seed);
+                        int found = 0;
+                        for (int j = 0; j < COUNT * 10; j++) {
+                            final int i = 1 + random.nextInt(COUNT * 10);
+                            if (btree.findValue(new Value(prefixStr + Integer.toString(i))) == i) {
+                                found++;
+                            }
+                        }
+                        final int[] scanned = new int[1];
+                        btree.rangeScanner().scan(new Value(prefixStr), new Value(prefixStr + "A"), (value, pointer) -> {
+                            scanned[0]++;
+                            return true;
+                        });
+                        return found + scanned[0];
+                    }));
+                }
+                for (final Future<Integer> result : results) {
+                    assertEquals(COUNT * 20, result.get().intValue());
+                }
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+
     @ClassRule
     public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, true);
 
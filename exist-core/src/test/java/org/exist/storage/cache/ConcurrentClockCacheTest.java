@@ -0,0 +1,317 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.cache;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentClockCacheTest {
+
+    @Test
+    public void getAfterAdd() {
+        final ConcurrentClockCache<TestCacheable> cache = new ConcurrentClockCache<>("test", 64, 0, 0, Cache.CacheType.DATA, 4);
+        for (int i = 0; i < 64; i++) {
+            cache.add(new TestCacheable(i));
+        }
+        assertEquals(64, cache.getUsedBuffers());
+        for (int i = 0; i < 64; i++) {
+            assertEquals(i, cache.get(i).getKey());
+        }
+        assertEquals(64, cache.getHits());
+        assertNull(cache.get(1000));
+        assertEquals(1, cache.getFails());
+    }
+
+    @Test
+    public void evictionSyncsVictim() {
+        final ConcurrentClockCache<TestCacheable> cache = new ConcurrentClockCache<>("test", 16, 0, 0, Cache.CacheType.DATA, 1);
+        final List<TestCacheable> items = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            final TestCacheable item = new TestCacheable(i);
+            item.dirty = true;
+            items.add(item);
+            cache.add(item);
+        }
+        assertEquals(16, cache.getUsedBuffers());
+
+        int synced = 0;
+        for (final TestCacheable item : items) {
+            if (cache.get(item.getKey()) == null) {
+                assertTrue(item.syncedJournal);
+                assertFalse(item.dirty);
+                synced++;
+            }
+        }
+        assertEquals(16, synced);
+    }
+
+    @Test
+    public void frequentlyUsedItemsSurvive() {
+        final ConcurrentClockCache<TestCacheable> cache = new ConcurrentClockCache<>("test", 16, 0, 0, Cache.CacheType.DATA, 1);
+        final TestCacheable hot = new TestCacheable(-1);
+        cache.add(hot);
+        for (int i = 0; i < 100; i++) {
+            assertSame(hot, cache.get(hot.getKey()));
+            cache.add(new TestCacheable(i));
+        }
+        assertSame(hot, cache.get(hot.getKey()));
+    }
+
+    @Test
+    public void pinnedItemsOverflow() {
+        final ConcurrentClockCache<TestCacheable> cache = new ConcurrentClockCache<>("test", 8, 0, 0, Cache.CacheType.DATA, 1);
+        for (int i = 0; i < 12; i++) {
+            final TestCacheable item = new TestCacheable(i);
+            item.allowUnload = false;
+            cache.add(item);
+        }
+        assertEquals(12, cache.getUsedBuffers());
+        for (int i = 0; i < 12; i++) {
+            assertNotNull(cache.get(i));
+        }
+    }
+
+    @Test
+    public void pinnedShardEvictsFromOtherShards() {
+        final ConcurrentClockCache<TestCacheable> cache = new ConcurrentClockCache<>("test", 64, 0, 0, Cache.CacheType.DATA, 2);
+
+        // fill the cache, pinning every entry of the first shard
+        final List<Long> unpinned = new ArrayList<>();
+        for (long i = 0; i < 64; i++) {
+            final TestCacheable item = new TestCacheable(i);
+            if (shardOf(i, 2) == 0) {
+                item.allowUnload = false;
+            } else {
+                unpinned.add(i);
+            }
+            cache.add(item);
+        }
+        assertEquals(64, cache.getUsedBuffers());
+
+        // adding further pinned entries to the first shard must evict from the second
+        final int extra = unpinned.size() / 2;
+        long key = 1000;
+        for (int added = 0; added < extra; key++) {
+            if (shardOf(key, 2) == 0) {
+                final TestCacheable item = new TestCacheable(key);
+                item.allowUnload = false;
+                cache.add(item);
+                added++;
+            }
+        }
+        assertEquals(64, cache.getUsedBuffers());
+
+        int remaining = 0;
+        for (final long k : unpinned) {
+            if (cache.get(k) != null) {
+                remaining++;
+            }
+        }
+        assertEquals(unpinned.size() - extra, remaining);
+    }
+
+    @Test
+    public void concurrentAddsStayWithinLimit() throws InterruptedException, ExecutionException {
+        final int size = 128;
+        final ConcurrentClockCache<TestCacheable> cache = new ConcurrentClockCache<>("test", size, 0, 0, Cache.CacheType.DATA, 8);
+        // a few pinned entries, so that some shards cannot evict from themselves
+        for (int i = 0; i < 16; i++) {
+            final TestCacheable item = new TestCacheable(-1 - i);
+            item.allowUnload = false;
+            cache.add(item);
+        }
+
+        final int threads = 8;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 10_000; i++) {
+                        cache.add(new TestCacheable(thread * 100_000L + i));
+                    }
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // concurrent adds may only exceed the limit transiently
+        assertTrue(cache.getUsedBuffers() <= size);
+    }
+
+    private static int shardOf(final long key, final int shards) {
+        return (int) it.unimi.dsi.fastutil.HashCommon.mix(key) & (shards - 1);
+    }
+
+    @Test
+    public void innerPagesPreferred() {
+        final ConcurrentBTreeCache<TestCacheable> cache = new ConcurrentBTreeCache<>("test", 8, 0, 0, Cache.CacheType.BTREE);
+        final TestCacheable inner = new TestCacheable(-1);
+        inner.innerPage = true;
+        cache.add(inner);
+        for (int i = 0; i < 100; i++) {
+            cache.add(new TestCacheable(i));
+        }
+        assertSame(inner, cache.get(inner.getKey()));
+    }
+
+    @Test
+    public void resize() {
+        final ConcurrentClockCache<TestCacheable> cache = new ConcurrentClockCache<>("test", 16, 1.5, 0, Cache.CacheType.DATA, 4);
+        for (int i = 0; i < 16; i++) {
+            cache.add(new TestCacheable(i));
+        }
+
+        cache.resize(64);
+        assertEquals(64, cache.getBuffers());
+        for (int i = 0; i < 16; i++) {
+            assertNotNull(cache.get(i));
+        }
+        for (int i = 16; i < 64; i++) {
+            cache.add(new TestCacheable(i));
+        }
+        assertEquals(64, cache.getUsedBuffers());
+
+        final TestCacheable dirty = cache.get(10);
+        dirty.dirty = true;
+        cache.resize(16);
+        assertEquals(16, cache.getBuffers());
+        assertFalse(dirty.dirty);
+        assertEquals(0, cache.getUsedBuffers());
+    }
+
+    @Test
+    public void concurrentAccess() throws InterruptedException, ExecutionException {
+        final ConcurrentClockCache<TestCacheable> cache = new ConcurrentClockCache<>("test", 256, 0, 0, Cache.CacheType.DATA, 8);
+        final ExecutorService executorService = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                final int offset = t * 10_000;
+                futures.add(executorService.submit(() -> {
+                    for (int i = 0; i < 10_000; i++) {
+                        final long key = offset + (i % 500);
+                        TestCacheable item = cache.get(key);
+                        if (item == null) {
+                            item = new TestCacheable(key);
+                            cache.add(item);
+                        }
+                        assertEquals(key, item.getKey());
+                    }
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+        // concurrent adds may briefly exceed the size of the cache by at most one entry per thread
+        assertTrue(cache.getUsedBuffers() <= 256 + 8);
+        assertEquals(8 * 10_000, cache.getHits() + cache.getFails());
+    }
+
+    private static class TestCacheable implements BTreeCacheable {
+        private final long key;
+        private int refCount = 0;
+        private int timestamp = 0;
+        boolean dirty = false;
+        boolean allowUnload = true;
+        boolean innerPage = false;
+        boolean syncedJournal = false;
+
+        TestCacheable(final long key) {
+            this.key = key;
+        }
+
+        @Override
+        public long getKey() {
+            return key;
+        }
+
+        @Override
+        public int getReferenceCount() {
+            return refCount;
+        }
+
+        @Override
+        public int incReferenceCount() {
+            return ++refCount;
+        }
+
+        @Override
+        public int decReferenceCount() {
+            return --refCount;
+        }
+
+        @Override
+        public void setReferenceCount(final int count) {
+            this.refCount = count;
+        }
+
+        @Override
+        public void setTimestamp(final int timestamp) {
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        public int getTimestamp() {
+            return timestamp;
+        }
+
+        @Override
+        public boolean sync(final boolean syncJournal) {
+            final boolean wasDirty = dirty;
+            dirty = false;
+            syncedJournal |= syncJournal;
+            return wasDirty;
+        }
+
+        @Override
+        public boolean allowUnload() {
+            return allowUnload;
+        }
+
+        @Override
+        public boolean isDirty() {
+            return dirty;
+        }
+
+        @Override
+        public boolean isInnerPage() {
+            return innerPage;
+        }
+    }
+}
@@ -26,6 +26,8 @@ import org.easymock.CaptureType;
 import org.exist.EXistException;
 import org.exist.scheduler.Scheduler;
 import org.exist.storage.BrokerPool;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.TxnCommit;
 import org.exist.util.Configuration;
 import org.exist.util.FileUtils;
 import org.exist.util.ReadOnlyException;
@@ -39,9 +41,14 @@ import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -167,6 +174,54 @@ public class JournalTest {
         }
     }
 
+    @Test
+    public void findRecoveryFiles() {
+        try (final Stream<Path> paths = Stream.of(
+                Paths.get(Journal.getFileName((short)3)),
+                Paths.get(Journal.getFileName((short)1)),
+                Paths.get(Journal.getFileName((short)2))
+        )) {
+            assertArrayEquals(new short[] { 1, 2, 3 }, Journal.findRecoveryFiles(paths));
+        }
+
+        // files which do not precede the last file without a gap are not needed
+        try (final Stream<Path> paths = Stream.of(
+                Paths.get(Journal.getFileName((short)11)),
+                Paths.get(Journal.getFileName((short)1)),
+                Paths.get(Journal.getFileName((short)10))
+        )) {
+            assertArrayEquals(new short[] { 10, 11 }, Journal.findRecoveryFiles(paths));
+        }
+
+        // the file numbers wrap around to zero
+        try (final Stream<Path> paths = Stream.of(
+                Paths.get(Journal.getFileName((short)1)),
+                Paths.get(Journal.getFileName(Short.MAX_VALUE)),
+                Paths.get(Journal.getFileName((short)0)),
+                Paths.get(Journal.getFileName((short)(Short.MAX_VALUE - 1)))
+        )) {
+            assertArrayEquals(new short[] { Short.MAX_VALUE - 1, Short.MAX_VALUE, 0, 1 }, Journal.findRecoveryFiles(paths));
+        }
+
+        try (final Stream<Path> paths = Stream.empty()) {
+            assertArrayEquals(new short[0], Journal.findRecoveryFiles(paths));
+        }
+    }
+
+    @Test
+    public void isRetained() {
+        assertTrue(Journal.isRetained((short)5, (short)5, (short)5));
+        assertTrue(Journal.isRetained((short)6, (short)5, (short)7));
+        assertFalse(Journal.isRetained((short)4, (short)5, (short)7));
+        assertFalse(Journal.isRetained((short)8, (short)5, (short)7));
+
+        // the range wraps around
+        assertTrue(Journal.isRetained(Short.MAX_VALUE, (short)(Short.MAX_VALUE - 1), (short)1));
+        assertTrue(Journal.isRetained((short)0, (short)(Short.MAX_VALUE - 1), (short)1));
+        assertFalse(Journal.isRetained((short)2, (short)(Short.MAX_VALUE - 1), (short)1));
+        assertFalse(Journal.isRetained((short)(Short.MAX_VALUE - 2), (short)(Short.MAX_VALUE - 1), (short)1));
+    }
+
     @Test
     public void getFiles() throws IOException {
         List<String> input = Arrays.asList(new String[]{ "0000000001.log" });
@@ -284,6 +339,9 @@ public class JournalTest {
         final Scheduler mockScheduler = createNiceMock(Scheduler.class);
         expect(mockBrokerPool.getConfiguration()).andReturn(mockConfiguration);
         expect(mockConfiguration.getProperty(Journal.PROPERTY_RECOVERY_SYNC_ON_COMMIT, Journal.DEFAULT_SYNC_ON_COMMIT)).andReturn(Journal.DEFAULT_SYNC_ON_COMMIT);
+        expect(mockConfiguration.getProperty(BrokerPool.PROPERTY_RECOVERY_GROUP_COMMIT, Journal.DEFAULT_GROUP_COMMIT)).andReturn(Journal.DEFAULT_GROUP_COMMIT);
+        expect(mockConfiguration.getProperty(Journal.PROPERTY_RECOVERY_GROUP_COMMIT_MAX_DELAY, Journal.DEFAULT_GROUP_COMMIT_MAX_DELAY)).andReturn(Journal.DEFAULT_GROUP_COMMIT_MAX_DELAY);
+        expect(mockConfiguration.getProperty(Journal.PROPERTY_RECOVERY_GROUP_COMMIT_MAX_SIZE, Journal.DEFAULT_GROUP_COMMIT_MAX_SIZE)).andReturn(Journal.DEFAULT_GROUP_COMMIT_MAX_SIZE);
         expect(mockConfiguration.getProperty(Journal.PROPERTY_RECOVERY_JOURNAL_DIR)).andReturn(null);
         expect(mockConfiguration.getProperty(Journal.PROPERTY_RECOVERY_SIZE_MIN, Journal.DEFAULT_MIN_SIZE)).andReturn(Journal.DEFAULT_MIN_SIZE);
         expect(mockConfiguration.getProperty(Journal.PROPERTY_RECOVERY_SIZE_LIMIT, Journal.DEFAULT_MAX_SIZE)).andReturn(Journal.DEFAULT_MAX_SIZE);
@@ -328,6 +386,9 @@ public class JournalTest {
         final Scheduler mockScheduler = createNiceMock(Scheduler.class);
         expect(mockBrokerPool.getConfiguration()).andReturn(mockConfiguration);
         expect(mockConfiguration.getProperty(Journal.PROPERTY_RECOVERY_SYNC_ON_COMMIT, Journal.DEFAULT_SYNC_ON_COMMIT)).andReturn(Journal.DEFAULT_SYNC_ON_COMMIT);
+        expect(mockConfiguration.getProperty(BrokerPool.PROPERTY_RECOVERY_GROUP_COMMIT, Journal.DEFAULT_GROUP_COMMIT)).andReturn(Journal.DEFAULT_GROUP_COMMIT);
+        expect(mockConfiguration.getProperty(Journal.PROPERTY_RECOVERY_GROUP_COMMIT_MAX_DELAY, Journal.DEFAULT_GROUP_COMMIT_MAX_DELAY)).andReturn(Journal.DEFAULT_GROUP_COMMIT_MAX_DELAY);
+        expect(mockConfiguration.getProperty(Journal.PROPERTY_RECOVERY_GROUP_COMMIT_MAX_SIZE, Journal.DEFAULT_GROUP_COMMIT_MAX_SIZE)).andReturn(Journal.DEFAULT_GROUP_COMMIT_MAX_SIZE);
         expect(mockConfiguration.getProperty(Journal.PROPERTY_RECOVERY_JOURNAL_DIR)).andReturn(null);
         expect(mockConfiguration.getProperty(Journal.PROPERTY_RECOVERY_SIZE_MIN, Journal.DEFAULT_MIN_SIZE)).andReturn(Journal.DEFAULT_MIN_SIZE);
         expect(mockConfiguration.getProperty(Journal.PROPERTY_RECOVERY_SIZE_LIMIT, Journal.DEFAULT_MAX_SIZE)).andReturn(Journal.DEFAULT_MAX_SIZE);
@@ -370,6 +431,9 @@ public class JournalTest {
         final Scheduler mockScheduler = createNiceMock(Scheduler.class);
         expect(mockBrokerPool.getConfiguration()).andReturn(mockConfiguration);
         expect(mockConfiguration.getProperty(Journal.PROPERTY_RECOVERY_SYNC_ON_COMMIT, Journal.DEFAULT_SYNC_ON_COMMIT)).andReturn(Journal.DEFAULT_SYNC_ON_COMMIT);
+        expect(mockConfiguration.getProperty(BrokerPool.PROPERTY_RECOVERY_GROUP_COMMIT, Journal.DEFAULT_GROUP_COMMIT)).andReturn(Journal.DEFAULT_GROUP_COMMIT);
+        expect(mockConfiguration.getProperty(Journal.PROPERTY_RECOVERY_GROUP_COMMIT_MAX_DELAY, Journal.DEFAULT_GROUP_COMMIT_MAX_DELAY)).andReturn(Journal.DEFAULT_GROUP_COMMIT_MAX_DELAY);
+        expect(mockConfiguration.getProperty(Journal.PROPERTY_RECOVERY_GROUP_COMMIT_MAX_SIZE, Journal.DEFAULT_GROUP_COMMIT_MAX_SIZE)).andReturn(Journal.DEFAULT_GROUP_COMMIT_MAX_SIZE);
         expect(mockConfiguration.getProperty(Journal.PROPERTY_RECOVERY_JOURNAL_DIR)).andReturn(null);
         expect(mockConfiguration.getProperty(Journal.PROPERTY_RECOVERY_SIZE_MIN, Journal.DEFAULT_MIN_SIZE)).andReturn(Journal.DEFAULT_MIN_SIZE);
         expect(mockConfiguration.getProperty(Journal.PROPERTY_RECOVERY_SIZE_LIMIT, Journal.DEFAULT_MAX_SIZE)).andReturn(Journal.DEFAULT_MAX_SIZE);
@@ -412,6 +476,71 @@ public class JournalTest {
         verify(mockBrokerPool, mockConfiguration);
     }
 
+    @Test
+    public void groupCommitSharesSyncs() throws EXistException, IOException, ReadOnlyException, InterruptedException, ExecutionException {
+        final int committers = 8;
+        final int commitsPerCommitter = 50;
+
+        final BrokerPool mockBrokerPool = mock(BrokerPool.class);
+        final Configuration mockConfiguration = mock(Configuration.class);
+        final Scheduler mockScheduler = createNiceMock(Scheduler.class);
+        final TransactionManager mockTransactionManager = createNiceMock(TransactionManager.class);
+        expect(mockBrokerPool.getConfiguration()).andReturn(mockConfiguration);
+        expect(mockConfiguration.getProperty(Journal.PROPERTY_RECOVERY_SYNC_ON_COMMIT, Journal.DEFAULT_SYNC_ON_COMMIT)).andReturn(true);
+        expect(mockConfiguration.getProperty(BrokerPool.PROPERTY_RECOVERY_GROUP_COMMIT, Journal.DEFAULT_GROUP_COMMIT)).andReturn(true);
+        expect(mockConfiguration.getProperty(Journal.PROPERTY_RECOVERY_GROUP_COMMIT_MAX_DELAY, Journal.DEFAULT_GROUP_COMMIT_MAX_DELAY)).andReturn(0);
+        expect(mockConfiguration.getProperty(Journal.PROPERTY_RECOVERY_GROUP_COMMIT_MAX_SIZE, Journal.DEFAULT_GROUP_COMMIT_MAX_SIZE)).andReturn(committers);
+        expect(mockConfiguration.getProperty(Journal.PROPERTY_RECOVERY_JOURNAL_DIR)).andReturn(null);
+        expect(mockConfiguration.getProperty(Journal.PROPERTY_RECOVERY_SIZE_MIN, Journal.DEFAULT_MIN_SIZE)).andReturn(Journal.DEFAULT_MIN_SIZE);
+        expect(mockConfiguration.getProperty(Journal.PROPERTY_RECOVERY_SIZE_LIMIT, Journal.DEFAULT_MAX_SIZE)).andReturn(Journal.DEFAULT_MAX_SIZE);
+        expect(mockBrokerPool.getScheduler()).andReturn(mockScheduler);
+        expect(mockBrokerPool.getTransactionManager()).andReturn(mockTransactionManager).anyTimes();
+
+        replay(mockBrokerPool, mockConfiguration, mockTransactionManager);
+
+        final Path tempJournalDir = TEMPORARY_FOLDER.newFolder().toPath();
+        Files.createDirectories(tempJournalDir);
+
+        final Journal journal = new Journal(mockBrokerPool, tempJournalDir);
+        journal.initialize();
+        journal.switchFiles();
+
+        final ExecutorService executorService = Executors.newFixedThreadPool(committers);
+        try {
+            final List<Future<Lsn>> futures = new ArrayList<>();
+            for (int i = 0; i < committers; i++) {
+                final long txnIdBase = i * commitsPerCommitter;
+                futures.add(executorService.submit(() -> {
+                    Lsn lastLsn = Lsn.LSN_INVALID;
+                    for (int j = 0; j < commitsPerCommitter; j++) {
+                        final TxnCommit txnCommit = new TxnCommit(txnIdBase + j);
+                        journal.writeCompletionToLog(txnCommit);
+
+                        // on return the commit must have been synced
+                        assertTrue(txnCommit.getLsn().compareTo(journal.lastSyncedLsn()) <= 0);
+                        lastLsn = txnCommit.getLsn();
+                    }
+                    return lastLsn;
+                }));
+            }
+            for (final Future<Lsn> future : futures) {
+                assertNotEquals(Lsn.LSN_INVALID, future.get());
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        assertEquals(committers * commitsPerCommitter, journal.getGroupCommits());
+        assertTrue(journal.getGroupSyncs() > 0);
+
+        // without any delay, the commits written whilst a sync is in progress must still share the next sync
+        assertTrue(journal.getGroupSyncs() < journal.getGroupCommits());
+
+        journal.close();
+
+        verify(mockBrokerPool, mockConfiguration);
+    }
+
     private static Path createTempDirWithFiles(final List<String> fileNames) throws IOException {
         final Path tempFolder = TEMPORARY_FOLDER.newFolder().toPath();
         Files.createDirectories(tempFolder);
@@ -34,6 +34,8 @@ package org.exist.storage.lock;
 
 import com.evolvedbinary.j8fu.function.RunnableE;
 import net.jcip.annotations.ThreadSafe;
+import org.exist.util.Configuration;
+import org.exist.util.DatabaseConfigurationException;
 import org.exist.util.LockException;
 import org.exist.xmldb.XmldbURI;
 import org.junit.*;
@@ -44,8 +46,15 @@ import uk.ac.ic.doc.slurp.multilock.MultiLock;
 import javax.annotation.Nullable;
 import java.util.Arrays;
 import java.util.Stack;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import static org.junit.Assert.*;
 
@@ -778,6 +787,107 @@ public class LockManagerTest {
     }
 
 
+    /**
+     * The read/write lock of a BTree is independent
+     * of its exclusive lock
+     */
+    @Test
+    public void getBtreeReadWriteLock_isStripedByPath() {
+        final LockManager lockManager = new LockManager(CONCURRENCY_LEVEL);
+
+        final ReentrantReadWriteLock btree1Lock1 = lockManager.getBTreeReadWriteLock("btree1.dbx");
+        assertNotNull(btree1Lock1);
+        assertTrue(btree1Lock1 == lockManager.getBTreeReadWriteLock("btree1.dbx"));
+        assertFalse(btree1Lock1 == lockManager.getBTreeReadWriteLock("btree2.dbx"));
+    }
+
+    /**
+     * By default a shared READ lock on a BTree
+     * excludes every other reader
+     */
+    @Test
+    public void acquireBtreeSharedReadLock_isExclusiveByDefault() throws LockException, InterruptedException, ExecutionException {
+        final String btree1Name = "btree1.dbx";
+
+        final LockManager lockManager = new LockManager(CONCURRENCY_LEVEL);
+        assertFalse(lockManager.enableSharedBtreeReads(btree1Name));
+        assertFalse(lockManager.isSharedBtreeReads(btree1Name));
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<Boolean> otherReader;
+            try (final ManagedLock<ReentrantReadWriteLock> btree1Lock = lockManager.acquireBtreeSharedReadLock(btree1Name)) {
+                assertTrue(lockManager.getBTreeReadWriteLock(btree1Name).isWriteLocked());
+
+                otherReader = executor.submit(() -> {
+                    try (final ManagedLock<ReentrantReadWriteLock> otherLock = lockManager.acquireBtreeSharedReadLock(btree1Name)) {
+                        return true;
+                    }
+                });
+                try {
+                    otherReader.get(200, TimeUnit.MILLISECONDS);
+                    fail("The READ lock on the BTree should have been exclusive");
+                } catch (final TimeoutException e) {
+                    // expected, the other reader waits
+                }
+            }
+            assertTrue(otherReader.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * When shared reads are configured and enabled for a BTree, shared READ
+     * locks on it are shared, whilst a WRITE lock still waits for the readers
+     */
+    @Test
+    public void acquireBtreeSharedReadLock_isSharedWhenEnabled() throws DatabaseConfigurationException, LockException, InterruptedException, ExecutionException, TimeoutException {
+        final String btree1Name = "btree1.dbx";
+
+        final Configuration configuration = new Configuration();
+        configuration.setProperty(LockManager.CONFIGURATION_BTREE_SHARED_READS, true);
+        final LockManager lockManager = new LockManager(configuration, CONCURRENCY_LEVEL);
+        assertTrue(lockManager.enableSharedBtreeReads(btree1Name));
+        assertTrue(lockManager.isSharedBtreeReads(btree1Name));
+        assertFalse(lockManager.isSharedBtreeReads("btree2.dbx"));
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<Boolean> writer;
+            try (final ManagedLock<ReentrantReadWriteLock> btree1Lock = lockManager.acquireBtreeSharedReadLock(btree1Name)) {
+                final ReentrantReadWriteLock lock = lockManager.getBTreeReadWriteLock(btree1Name);
+                assertEquals(1, lock.getReadLockCount());
+                assertFalse(lock.isWriteLocked());
+
+                // the exclusive lock of the BTree is not affected
+                assertFalse(lockManager.isBtreeLocked(btree1Name));
+
+                final Future<Boolean> otherReader = executor.submit(() -> {
+                    try (final ManagedLock<ReentrantReadWriteLock> otherLock = lockManager.acquireBtreeSharedReadLock(btree1Name)) {
+                        return true;
+                    }
+                });
+                assertTrue(otherReader.get(10, TimeUnit.SECONDS));
+
+                writer = executor.submit(() -> {
+                    try (final ManagedLock<ReentrantReadWriteLock> writeLock = lockManager.acquireBtreeExclusiveWriteLock(btree1Name)) {
+                        return lockManager.getBTreeReadWriteLock(btree1Name).isWriteLocked();
+                    }
+                });
+                try {
+                    writer.get(200, TimeUnit.MILLISECONDS);
+                    fail("The WRITE lock on the BTree should have waited for the reader");
+                } catch (final TimeoutException e) {
+                    // expected, the writer waits
+                }
+            }
+            assertTrue(writer.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     private Stack<LockAction> recordLockEvents(final LockManager lockManager, final RunnableE<LockException> runnable) throws LockException{
         final LockTable lockTable = lockManager.getLockTable();
         final LockEventRecordingListener lockEventRecordingListener = new LockEventRecordingListener();
@@ -26,11 +26,22 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
+import org.exist.EXistException;
+import org.exist.dom.QName;
+import org.exist.security.PermissionDeniedException;
 import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.ElementValue;
 import org.exist.test.ExistEmbeddedServer;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.XQuery;
+import org.exist.xquery.value.Sequence;
 import org.junit.*;
 
+import java.util.Optional;
+
 import static org.exist.storage.NativeBroker.DEFAULT_DATA_DIR;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 public class StatisticsIndexTest {
@@ -54,4 +65,42 @@ public class StatisticsIndexTest {
         final Path dataDir = existEmbeddedServer.getBrokerPool().getConfiguration().getProperty(BrokerPool.PROPERTY_DATA_DIR, Paths.get(DEFAULT_DATA_DIR));
         assertTrue(Files.exists(dataDir.resolve("stats.dbx")));
     }
+
+    @Test
+    public void estimateNodeCounts() throws EXistException, PermissionDeniedException, XPathException, QName.IllegalQNameException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            // the statistics are not reduced when a document is replaced, so compare the increase
+            final String[] names = { "items", "a", "b", "c", "d" };
+            final long[] counts = new long[names.length];
+            for (int i = 0; i < names.length; i++) {
+                counts[i] = IndexStatistics.estimateNodeCount(broker, new QName(names[i]));
+            }
+            evaluate(broker, "xmldb:store('/db', 'stats.xml', <items>{ for $i in 1 to 100 return " +
+                    "<item><a>{$i mod 2}</a><b>{$i}</b>{ if ($i mod 10 eq 0) then <c><b>{$i}</b></c> else () }</item> }</items>)");
+
+            final long[] expected = { 1, 100, 110, 10, 0 };
+            for (int i = 0; i < names.length; i++) {
+                assertEquals(names[i], counts[i] + expected[i], IndexStatistics.estimateNodeCount(broker, new QName(names[i])));
+            }
+            assertEquals(-1, IndexStatistics.estimateNodeCount(broker, new QName("a", "", ElementValue.ATTRIBUTE)));
+
+            // the comparison on the rarer c element is used as the first filter
+            assertEquals("3", evaluate(broker, "count(doc('/db/stats.xml')//item[a = '0' and c/b = ('10', '20', '30', '45')])"));
+            assertEquals("3", evaluate(broker, "count(doc('/db/stats.xml')//item[c/b = ('10', '20', '30', '45') and a = '0'])"));
+            assertEquals("1", evaluate(broker, "count(doc('/db/stats.xml')//item[a = '1' and b = ('3', '4')])"));
+            // positional predicates keep their order
+            assertEquals("100", evaluate(broker, "(doc('/db/stats.xml')//item[a = '0' and position() le 100])[last()]/b/string()"));
+
+            // more context nodes than matching elements: the c children are selected by name
+            assertEquals("10", evaluate(broker, "count(doc('/db/stats.xml')//item/c)"));
+            assertEquals("10", evaluate(broker, "count(doc('/db/stats.xml')//item//c)"));
+        }
+    }
+
+    private static String evaluate(final DBBroker broker, final String query) throws EXistException, PermissionDeniedException, XPathException {
+        final XQuery xquery = broker.getBrokerPool().getXQueryService();
+        final Sequence result = xquery.execute(broker, query, null);
+        return result.isEmpty() ? "" : result.itemAt(0).getStringValue();
+    }
 }
@@ -0,0 +1,122 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.structural;
+
+import org.exist.EXistException;
+import org.exist.collections.Collection;
+import org.exist.security.PermissionDeniedException;
+import org.exist.source.StringSource;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.util.LockException;
+import org.exist.util.MimeType;
+import org.exist.util.StringInputSource;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.value.Sequence;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+import java.io.IOException;
+import java.util.Optional;
+
+import static org.exist.test.Util.executeQuery;
+import static org.exist.test.Util.withCompiledQuery;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Evaluates path steps on context sets which are large enough for the structural index
+ * to join them against the index ranges of the context nodes rather than look up each
+ * context node separately.
+ */
+public class StructuralJoinTest {
+
+    @ClassRule
+    public static ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, true);
+
+    private static final XmldbURI TEST_COLLECTION = XmldbURI.create("/db/structural-join-test");
+    private static final int DOCUMENTS = 2;
+    private static final int ITEMS = 12000;
+
+    @Test
+    public void childAxis() throws EXistException, PermissionDeniedException, IOException, XPathException {
+        assertEquals(DOCUMENTS * ITEMS * 3 / 2, query("count(collection('" + TEST_COLLECTION + "')//a/b)"));
+    }
+
+    @Test
+    public void descendantAxis() throws EXistException, PermissionDeniedException, IOException, XPathException {
+        assertEquals(DOCUMENTS * ITEMS * 2, query("count(collection('" + TEST_COLLECTION + "')//a//b)"));
+        assertEquals(DOCUMENTS * ITEMS * 3 / 2, query("count(collection('" + TEST_COLLECTION + "')//a/descendant::a)"
+                + " + count(collection('" + TEST_COLLECTION + "')/root/a)"));
+    }
+
+    @Test
+    public void descendantOrSelfAxis() throws EXistException, PermissionDeniedException, IOException, XPathException {
+        assertEquals(DOCUMENTS * ITEMS * 3 / 2, query("count(collection('" + TEST_COLLECTION + "')//a/descendant-or-self::a)"));
+        assertEquals(DOCUMENTS * ITEMS * 2, query("count(collection('" + TEST_COLLECTION + "')//a/descendant-or-self::b)"));
+    }
+
+    @Test
+    public void selfAxis() throws EXistException, PermissionDeniedException, IOException, XPathException {
+        assertEquals(DOCUMENTS * ITEMS / 2, query("count(collection('" + TEST_COLLECTION + "')//a/a/self::a)"));
+    }
+
+    private static int query(final String query) throws EXistException, PermissionDeniedException, IOException, XPathException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            return withCompiledQuery(broker, new StringSource(query), compiledQuery -> {
+                final Sequence result = executeQuery(broker, compiledQuery);
+                return Integer.parseInt(result.getStringValue());
+            });
+        }
+    }
+
+    @BeforeClass
+    public static void setup() throws PermissionDeniedException, IOException, SAXException, EXistException, LockException {
+        // even items have a child and a grand child b, odd items a child b and a nested a with another b
+        final StringBuilder content = new StringBuilder("<root><b/>");
+        for (int i = 0; i < ITEMS; i++) {
+            if (i % 2 == 0) {
+                content.append("<a><b/><c><b/></c></a>");
+            } else {
+                content.append("<a><b/><a><b/></a></a>");
+            }
+        }
+        content.append("<b/></root>");
+
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+             final Txn transaction = pool.getTransactionManager().beginTransaction();
+             final Collection collection = broker.getOrCreateCollection(transaction, TEST_COLLECTION)) {
+            broker.saveCollection(transaction, collection);
+            for (int i = 0; i < DOCUMENTS; i++) {
+                broker.storeDocument(transaction, XmldbURI.create("doc-" + i + ".xml"),
+                        new StringInputSource(content.toString()), MimeType.XML_TYPE, collection);
+            }
+            transaction.commit();
+        }
+    }
+}
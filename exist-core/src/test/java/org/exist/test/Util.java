@@ -33,6 +33,7 @@
 package org.exist.test;
 
 import com.evolvedbinary.j8fu.function.Function2E;
+import com.evolvedbinary.j8fu.function.FunctionE;
 import org.exist.EXistException;
 import org.exist.collections.Collection;
 import org.exist.security.PermissionDeniedException;
@@ -48,11 +49,16 @@ import org.exist.xquery.CompiledXQuery;
 import org.exist.xquery.XPathException;
 import org.exist.xquery.XQuery;
 import org.exist.xquery.XQueryContext;
+import org.exist.xquery.value.Item;
 import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SequenceIterator;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
 import java.util.Properties;
 
 /**
@@ -74,6 +80,39 @@ public class Util {
         return xqueryService.execute(broker, compiledXQuery, null, new Properties());
     }
 
+    /**
+     * Executes a query as the system subject and returns the string values of the items of its result.
+     *
+     * @param pool the database
+     * @param query the query
+     *
+     * @return the string values of the items of the result, in order
+     */
+    public static List<String> executeQuery(final BrokerPool pool, final String query) throws EXistException, PermissionDeniedException, XPathException {
+        return executeQuery(pool, query, Item::getStringValue);
+    }
+
+    /**
+     * Executes a query as the system subject and converts the items of its result to strings.
+     *
+     * @param pool the database
+     * @param query the query
+     * @param itemToString converts an item of the result to a string
+     *
+     * @return the converted items of the result, in order
+     */
+    public static List<String> executeQuery(final BrokerPool pool, final String query, final FunctionE<Item, String, XPathException> itemToString) throws EXistException, PermissionDeniedException, XPathException {
+        final XQuery xqueryService = pool.getXQueryService();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final Sequence result = xqueryService.execute(broker, query, null);
+            final List<String> values = new ArrayList<>();
+            for (final SequenceIterator i = result.iterate(); i.hasNext(); ) {
+                values.add(itemToString.apply(i.nextItem()));
+            }
+            return values;
+        }
+    }
+
     public static <T> T withCompiledQuery(final DBBroker broker, final Source source, final Function2E<CompiledXQuery, T, XPathException, PermissionDeniedException> op) throws XPathException, PermissionDeniedException, IOException {
         final BrokerPool pool = broker.getBrokerPool();
         final XQuery xqueryService = pool.getXQueryService();
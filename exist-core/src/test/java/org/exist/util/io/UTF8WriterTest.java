@@ -0,0 +1,106 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.util.io;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class UTF8WriterTest {
+
+    private static final String MIXED = "ascii <&> café € 中文 😀 end";
+
+    @Test
+    public void encodesLikeOutputStreamWriter() throws IOException {
+        assertSameBytes(MIXED);
+        assertSameBytes("");
+        assertSameBytes("😀😀😀");
+    }
+
+    @Test
+    public void malformedSurrogatesAreReplaced() throws IOException {
+        assertSameBytes("a\ud83db");
+        assertSameBytes("a\ude00b");
+        assertSameBytes("a\ud83d");
+    }
+
+    @Test
+    public void surrogatePairSplitAcrossWrites() throws IOException {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try (final Writer writer = new UTF8Writer(os, 4)) {
+            writer.write("x\ud83d");
+            writer.write('\ude00');
+            writer.append(MIXED, 2, MIXED.length());
+            writer.write(MIXED.toCharArray(), 0, 3);
+        }
+        assertArrayEquals(("x😀" + MIXED.substring(2) + MIXED.substring(0, 3)).getBytes(UTF_8), os.toByteArray());
+    }
+
+    @Test
+    public void largerThanBuffer() throws IOException {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            builder.append(MIXED);
+        }
+        assertSameBytes(builder.toString());
+    }
+
+    @Test
+    public void newWriterFallsBackForOtherEncodings() throws IOException {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        assertTrue(UTF8Writer.newWriter(os, "utf-8") instanceof UTF8Writer);
+        final Writer writer = UTF8Writer.newWriter(os, "ISO-8859-1");
+        assertTrue(writer instanceof OutputStreamWriter);
+        writer.write("café");
+        writer.flush();
+        assertEquals(4, os.size());
+    }
+
+    private static void assertSameBytes(final String s) throws IOException {
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        try (final Writer writer = new OutputStreamWriter(expected, UTF_8)) {
+            writer.write(s);
+        }
+
+        final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        try (final Writer writer = new UTF8Writer(actual, 16)) {
+            for (int i = 0; i < s.length(); i++) {
+                writer.write(s.charAt(i));
+            }
+        }
+        assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+
+        final ByteArrayOutputStream bulk = new ByteArrayOutputStream();
+        try (final Writer writer = new UTF8Writer(bulk)) {
+            writer.write(s);
+        }
+        assertArrayEquals(expected.toByteArray(), bulk.toByteArray());
+    }
+}
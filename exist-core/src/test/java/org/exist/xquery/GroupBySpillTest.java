@@ -0,0 +1,119 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery;
+
+import org.exist.EXistException;
+import org.exist.security.PermissionDeniedException;
+import org.exist.test.ExistEmbeddedServer;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.exist.test.Util.executeQuery;
+import static org.exist.util.PropertiesBuilder.propertiesBuilder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a "group by" which spills its groups to disk produces the same
+ * groups as one grouping in memory. Binding an array to a variable keeps the
+ * groups in memory, as arrays cannot be spilled. As spilling changes the order
+ * of the groups, but not the order of the items within a group, the groups are
+ * compared regardless of their order.
+ */
+public class GroupBySpillTest {
+
+    private static final int SPILL_THRESHOLD = 16;
+
+    @ClassRule
+    public static final ExistEmbeddedServer EXIST_EMBEDDED_SERVER = new ExistEmbeddedServer(
+            propertiesBuilder()
+                    .put(XQueryContext.PROPERTY_GROUP_BY_SPILL_THRESHOLD, SPILL_THRESHOLD)
+                    .build(),
+            true,
+            true);
+
+    @BeforeClass
+    public static void storeDocument() throws EXistException, PermissionDeniedException, XPathException {
+        evaluate("xmldb:store('/db', 'group-by-spill.xml', <items>{ for $i in 1 to 500 return <item n='{$i}' k='{$i * 7919 mod 61}'/> }</items>)");
+    }
+
+    @Test
+    public void integers() throws EXistException, PermissionDeniedException, XPathException {
+        assertSameGroups("for $i in 1 to 1000 let $k := $i mod 37", "group by $k", "$k || ':' || string-join($i, ',')");
+    }
+
+    @Test
+    public void multipleAndEmptyKeys() throws EXistException, PermissionDeniedException, XPathException {
+        assertSameGroups("for $i in 1 to 1000", "group by $a := $i mod 3, $b := (if ($i mod 5 eq 0) then () else $i mod 2)",
+                "$a || '/' || $b || ':' || string-join($i, ',')");
+    }
+
+    @Test
+    public void collation() throws EXistException, PermissionDeniedException, XPathException {
+        assertSameGroups("for $i in 1 to 600 let $s := ('Key', 'key', 'KEY')[$i mod 3 + 1] || $i mod 20",
+                "group by $k := $s collation 'http://www.w3.org/2013/collation/UCA?lang=en&amp;strength=primary'",
+                "lower-case($k) || ':' || string-join($s, ',')");
+    }
+
+    @Test
+    public void persistentNodes() throws EXistException, PermissionDeniedException, XPathException {
+        assertSameGroups("for $item in doc('/db/group-by-spill.xml')//item", "group by $k := xs:integer($item/@k)",
+                "$k || ':' || string-join($item/@n, ',')");
+    }
+
+    @Test
+    public void unspillableItemAfterSpilling() throws EXistException, PermissionDeniedException, XPathException {
+        final List<String> groups = evaluate(
+                "for $i in 1 to 500 let $x := if ($i eq 400) then [$i] else $i group by $k := $i mod 7 " +
+                "return $k || ':' || count($x) || ':' || string-join($i, ',')");
+        final List<String> expected = new ArrayList<>();
+        for (int k = 0; k < 7; k++) {
+            final List<String> values = new ArrayList<>();
+            for (int i = 1; i <= 500; i++) {
+                if (i % 7 == k) {
+                    values.add(String.valueOf(i));
+                }
+            }
+            expected.add(k + ":" + values.size() + ":" + String.join(",", values));
+        }
+        Collections.sort(groups);
+        assertEquals(expected, groups);
+    }
+
+    private static void assertSameGroups(final String forClause, final String groupBy, final String returnExpr) throws EXistException, PermissionDeniedException, XPathException {
+        final List<String> expected = evaluate(forClause + " let $unspillable := [] " + groupBy + " return " + returnExpr);
+        assertTrue(expected.size() > 1);
+        final List<String> actual = evaluate(forClause + " " + groupBy + " return " + returnExpr);
+        Collections.sort(expected);
+        Collections.sort(actual);
+        assertEquals(expected, actual);
+    }
+
+    private static List<String> evaluate(final String query) throws EXistException, PermissionDeniedException, XPathException {
+        return executeQuery(EXIST_EMBEDDED_SERVER.getBrokerPool(), query);
+    }
+}
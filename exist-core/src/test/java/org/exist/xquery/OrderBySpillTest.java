@@ -0,0 +1,180 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery;
+
+import org.exist.EXistException;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.xquery.value.Item;
+import org.exist.xquery.value.NodeValue;
+import org.exist.xquery.value.OrderedValueSequence;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SequenceIterator;
+import org.exist.xquery.value.Type;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.exist.test.Util.executeQuery;
+import static org.exist.util.PropertiesBuilder.propertiesBuilder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that an "order by" which spills sorted runs to disk produces the same
+ * order as one sorted in memory. Wrapping each item in an array keeps the sort in
+ * memory, as arrays cannot be spilled.
+ */
+public class OrderBySpillTest {
+
+    private static final int SPILL_THRESHOLD = 16;
+
+    @ClassRule
+    public static final ExistEmbeddedServer EXIST_EMBEDDED_SERVER = new ExistEmbeddedServer(
+            propertiesBuilder()
+                    .put(XQueryContext.PROPERTY_ORDER_BY_SPILL_THRESHOLD, SPILL_THRESHOLD)
+                    .build(),
+            true,
+            true);
+
+    @BeforeClass
+    public static void storeDocument() throws EXistException, PermissionDeniedException, XPathException {
+        evaluate("xmldb:store('/db', 'order-by-spill.xml', <items>{ for $i in 1 to 500 return <item n='{$i}' k='{$i * 7919 mod 61}'/> }</items>)");
+    }
+
+    @Test
+    public void integers() throws EXistException, PermissionDeniedException, XPathException {
+        assertSameOrder("$i", "1 to 1000", "$i mod 13, $i descending");
+    }
+
+    @Test
+    public void stable() throws EXistException, PermissionDeniedException, XPathException {
+        assertSameOrder("$i", "1 to 1000", "$i mod 5");
+    }
+
+    @Test
+    public void collation() throws EXistException, PermissionDeniedException, XPathException {
+        assertSameOrder("$s", "for-each(1 to 500, function($n) { ('Item', 'item', 'ITEM')[$n mod 3 + 1] || $n * 7919 mod 100 })",
+                "$s collation 'http://www.w3.org/2013/collation/UCA?lang=en&amp;strength=primary'");
+    }
+
+    @Test
+    public void emptyLeast() throws EXistException, PermissionDeniedException, XPathException {
+        assertSameOrder("$i", "1 to 300", "(if ($i mod 4 eq 0) then () else $i mod 17) empty least");
+    }
+
+    @Test
+    public void emptyGreatestDescending() throws EXistException, PermissionDeniedException, XPathException {
+        assertSameOrder("$i", "1 to 300", "(if ($i mod 4 eq 0) then () else $i mod 17) descending empty greatest");
+    }
+
+    @Test
+    public void mixedNumericTypes() throws EXistException, PermissionDeniedException, XPathException {
+        assertSameOrder("$i", "1 to 300", "(if ($i mod 2 eq 0) then xs:double($i mod 50) div 3 else xs:decimal($i mod 50) div 3)");
+    }
+
+    @Test
+    public void dates() throws EXistException, PermissionDeniedException, XPathException {
+        assertSameOrder("$i", "1 to 300", "xs:date('2000-01-01') + xs:dayTimeDuration('P' || ($i * 37 mod 365) || 'D') descending");
+    }
+
+    @Test
+    public void persistentNodes() throws EXistException, PermissionDeniedException, XPathException {
+        assertSameOrder("$item", "doc('/db/order-by-spill.xml')//item", "xs:integer($item/@k), $item/@n descending");
+    }
+
+    @Test
+    public void positionalAccess() throws EXistException, PermissionDeniedException, XPathException {
+        final String orderBy = "for $i in 1 to 1000 order by $i mod 7 return ";
+        assertEquals(
+                evaluate("let $r := (" + orderBy + "[$i]) return ($r[500]?1, $r[10]?1, $r[11]?1, $r[1000]?1, $r[1001]?1, count($r))"),
+                evaluate("let $r := (" + orderBy + "$i) return ($r[500], $r[10], $r[11], $r[1000], $r[1001], count($r))"));
+    }
+
+    @Test
+    public void abandonedIteratorsAreClosedOnCleanup() throws EXistException, PermissionDeniedException, XPathException {
+        final BrokerPool pool = EXIST_EMBEDDED_SERVER.getBrokerPool();
+        final XQuery xqueryService = pool.getXQueryService();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final XQueryContext context = new XQueryContext(pool);
+            final CompiledXQuery compiled = xqueryService.compile(context, "for $i in 1 to 1000 order by $i mod 7, $i return $i");
+            final OrderedValueSequence result = assertSpilled(xqueryService.execute(broker, compiled, null));
+
+            final SequenceIterator abandoned = result.iterate();
+            assertEquals("7", abandoned.nextItem().getStringValue());
+            assertEquals("21", result.itemAt(2).getStringValue());
+
+            context.runCleanupTasks();
+
+            // the runs of the abandoned iterators are closed, positional access starts a new merge
+            assertThrows(IllegalStateException.class, () -> abandoned.skip(1000));
+            assertEquals("28", result.itemAt(3).getStringValue());
+            assertEquals(1000, result.getItemCountLong());
+            long count = 0;
+            for (final SequenceIterator i = result.iterate(); i.hasNext(); i.nextItem()) {
+                count++;
+            }
+            assertEquals(1000, count);
+            context.runCleanupTasks();
+        }
+    }
+
+    private static OrderedValueSequence assertSpilled(final Sequence result) {
+        assertTrue(result instanceof OrderedValueSequence);
+        final OrderedValueSequence orderedResult = (OrderedValueSequence) result;
+        assertTrue("expected the order by to spill at least two runs", orderedResult.getSpilledRunCount() >= 2);
+        return orderedResult;
+    }
+
+    private static void assertSpilled(final String query) throws EXistException, PermissionDeniedException, XPathException {
+        final BrokerPool pool = EXIST_EMBEDDED_SERVER.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            assertSpilled(pool.getXQueryService().execute(broker, query, null));
+        }
+    }
+
+    private static void assertSameOrder(final String var, final String in, final String orderBy) throws EXistException, PermissionDeniedException, XPathException {
+        final String query = "for " + var + " in " + in + " order by " + orderBy + " return ";
+        final List<String> expected = evaluate("(" + query + "[" + var + "]) ! ?1");
+        assertTrue(expected.size() > SPILL_THRESHOLD);
+        assertSpilled(query + var);
+        assertEquals(expected, evaluate(query + var));
+        assertEquals(expected, evaluate("(" + query + var + ") ! ."));
+    }
+
+    private static List<String> evaluate(final String query) throws EXistException, PermissionDeniedException, XPathException {
+        return executeQuery(EXIST_EMBEDDED_SERVER.getBrokerPool(), query, OrderBySpillTest::toString);
+    }
+
+    private static String toString(final Item item) throws XPathException {
+        if (item instanceof NodeValue node) {
+            return node.getNode().getAttributes().getNamedItem("n").getNodeValue();
+        }
+        return Type.getTypeName(item.getType()) + ":" + item.getStringValue();
+    }
+}
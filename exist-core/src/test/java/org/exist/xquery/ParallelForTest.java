@@ -0,0 +1,214 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery;
+
+import org.exist.EXistException;
+import org.exist.security.PermissionDeniedException;
+import org.exist.source.StringSource;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SequenceIterator;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.exist.test.Util.executeQuery;
+import static org.exist.util.PropertiesBuilder.propertiesBuilder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that a "for" expression marked by the exist:parallel pragma returns
+ * the same result as the sequential evaluation of the same expression.
+ */
+public class ParallelForTest {
+
+    @ClassRule
+    public static final ExistEmbeddedServer EXIST_EMBEDDED_SERVER = new ExistEmbeddedServer(
+            propertiesBuilder()
+                    .put(XQueryContext.PROPERTY_PARALLEL_FLWOR_THREADS, 4)
+                    .put(FunctionFactory.PROPERTY_ENABLE_JAVA_BINDING, "yes")
+                    .build(),
+            true,
+            true);
+
+    @BeforeClass
+    public static void storeDocument() throws EXistException, PermissionDeniedException, XPathException {
+        evaluate("xmldb:store('/db', 'parallel-for.xml', <items>{ for $i in 1 to 200 return <item n='{$i}'>{$i * 3}</item> }</items>)");
+    }
+
+    @Test
+    public void atomicValues() throws EXistException, PermissionDeniedException, XPathException {
+        assertSameResult("", "for $i in 1 to 1000 return $i * 2", "");
+
+        // each iteration records the thread which evaluated it
+        final List<String> results = evaluate("declare namespace thread = 'java:java.lang.Thread'; " +
+                "(# exist:parallel #) { for $i in 1 to 1000 return $i * 2 || '@' || thread:get-name(thread:current-thread()) }");
+        assertEquals(1000, results.size());
+        final String caller = Thread.currentThread().getName();
+        final List<String> threads = new ArrayList<>();
+        for (int i = 0; i < results.size(); i++) {
+            final String[] result = results.get(i).split("@", 2);
+            assertEquals(String.valueOf((i + 1) * 2), result[0]);
+            final String thread = result[1];
+            assertTrue("item " + (i + 1) + " was evaluated by " + thread,
+                    thread.equals(caller) || thread.startsWith("parallel-flwor-"));
+            // every part is evaluated by a single thread, so the items of a thread are contiguous
+            if (threads.isEmpty() || !threads.get(threads.size() - 1).equals(thread)) {
+                assertTrue("items of " + thread + " are not contiguous", thread.equals(caller) || !threads.contains(thread));
+                threads.add(thread);
+            }
+        }
+        assertEquals("the first part is evaluated by the calling thread", caller, threads.get(0));
+        assertTrue("no item was evaluated by a worker thread: " + threads,
+                threads.stream().anyMatch(thread -> thread.startsWith("parallel-flwor-")));
+    }
+
+    @Test
+    public void variablesInScope() throws EXistException, PermissionDeniedException, XPathException {
+        assertSameResult("declare variable $g := 10; " +
+                        "declare function local:f($x) { $x + $g }; " +
+                        "let $base := 5 return ",
+                "for $i at $p in 1 to 100 return local:f($i) + $base + $p", "");
+    }
+
+    @Test
+    public void letAndWhereClauses() throws EXistException, PermissionDeniedException, XPathException {
+        assertSameResult("", "for $i in 1 to 300 let $j := $i * $i where $j mod 3 eq 0 return $i || ':' || $j", "");
+    }
+
+    @Test
+    public void constructedNodes() throws EXistException, PermissionDeniedException, XPathException {
+        assertSameResult("", "for $i in 1 to 50 return <a n='{$i}'>{$i}</a>", "");
+    }
+
+    @Test
+    public void storedNodes() throws EXistException, PermissionDeniedException, XPathException {
+        assertSameResult("", "for $item in doc('/db/parallel-for.xml')//item return $item/@n || '=' || $item", "");
+    }
+
+    @Test
+    public void storedNodesBoundByLet() throws EXistException, PermissionDeniedException, XPathException {
+        assertSameResult("let $items := doc('/db/parallel-for.xml')//item return ",
+                "for $i in 1 to 200 return $items[$i]/@n || ':' || count($items[. > $i * 3]) || ':' || ($items[$i] is $items[@n = $i])", "");
+    }
+
+    @Test
+    public void storedNodesBoundByGlobalVariable() throws EXistException, PermissionDeniedException, XPathException {
+        assertSameResult("declare variable $items := doc('/db/parallel-for.xml')//item; ",
+                "for $item at $p in $items return $item/following-sibling::item[1]/@n || ':' || count($items[@n < $p]) || ':' || ($item is $items[$p])", "");
+    }
+
+    @Test
+    public void constructedNodesBoundByLet() throws EXistException, PermissionDeniedException, XPathException {
+        assertSameResult("let $doc := document { <r>{ for $i in 1 to 100 return <x n='{$i}'><y>{$i * 2}</y></x> }</r> } return ",
+                "for $i in 1 to 100 return $doc//x[$i]/@n || ':' || count($doc//x[y > $i]) || ':' || ($doc//x[$i] is $doc/r/x[@n = $i])", "");
+    }
+
+    @Test
+    public void constructedNodesAsInput() throws EXistException, PermissionDeniedException, XPathException {
+        assertSameResult("let $doc := document { <r>{ for $i in 1 to 100 return <x n='{$i}'>{$i}</x> }</r> } return ",
+                "for $x in $doc//x return $x/@n || ':' || $x/preceding-sibling::x[1] || ':' || count($x/root()//x)", "");
+    }
+
+    @Test
+    public void reusedCompiledQuery() throws EXistException, PermissionDeniedException, XPathException, IOException {
+        final String query = "let $items := doc('/db/parallel-for.xml')//item return " +
+                "(# exist:parallel #) { for $i in 1 to 200 return $items[$i] || ':' || $i }";
+        final List<String> expected = executeQuery(EXIST_EMBEDDED_SERVER.getBrokerPool(), query);
+        final BrokerPool pool = EXIST_EMBEDDED_SERVER.getBrokerPool();
+        final XQuery xquery = pool.getXQueryService();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final CompiledXQuery compiled = xquery.compile(new XQueryContext(pool), new StringSource(query));
+            for (int i = 0; i < 3; i++) {
+                compiled.getContext().prepareForReuse();
+                assertEquals(expected, toStrings(xquery.execute(broker, compiled, null)));
+            }
+        }
+    }
+
+    @Test
+    public void concurrentQueries() throws EXistException, PermissionDeniedException, XPathException, InterruptedException, ExecutionException {
+        final String let = "let $items := doc('/db/parallel-for.xml')//item return ";
+        final String forExpr = "for $item at $p in $items return $item/@n || ':' || count($items[. > $p])";
+        final List<String> expected = evaluate(let + forExpr);
+        final String query = let + "(# exist:parallel #) { " + forExpr + " }";
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<List<String>>> results = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                results.add(executor.submit(() -> evaluate(query)));
+            }
+            for (final Future<List<String>> result : results) {
+                assertEquals(expected, result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void insideFunction() throws EXistException, PermissionDeniedException, XPathException {
+        assertSameResult("declare function local:f($items) { ",
+                "for $i in $items return $i + count($items)", " }; local:f(1 to 40)");
+    }
+
+    @Test
+    public void error() throws EXistException, PermissionDeniedException {
+        try {
+            evaluate("(# exist:parallel #) { for $i in 1 to 100 return if ($i eq 77) then error(xs:QName('local:e'), 'failed at ' || $i) else $i }");
+            fail("expected the error of the iteration to be raised");
+        } catch (final XPathException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("failed at 77"));
+        }
+    }
+
+    private static void assertSameResult(final String before, final String forExpr, final String after) throws EXistException, PermissionDeniedException, XPathException {
+        final List<String> expected = evaluate(before + forExpr + after);
+        assertTrue(expected.size() > 1);
+        assertEquals(expected, evaluate(before + "(# exist:parallel #) { " + forExpr + " }" + after));
+    }
+
+    private static List<String> evaluate(final String query) throws EXistException, PermissionDeniedException, XPathException {
+        return executeQuery(EXIST_EMBEDDED_SERVER.getBrokerPool(), query);
+    }
+
+    private static List<String> toStrings(final Sequence result) throws XPathException {
+        final List<String> values = new ArrayList<>();
+        for (final SequenceIterator i = result.iterate(); i.hasNext(); ) {
+            values.add(i.nextItem().getStringValue());
+        }
+        return values;
+    }
+}
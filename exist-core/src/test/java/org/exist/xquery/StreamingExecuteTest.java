@@ -0,0 +1,141 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery;
+
+import org.exist.EXistException;
+import org.exist.security.PermissionDeniedException;
+import org.exist.source.StringSource;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.util.serializer.XQuerySerializer;
+import org.exist.xquery.value.Item;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.Type;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+
+import static org.exist.test.Util.executeQuery;
+import static org.junit.Assert.assertEquals;
+
+public class StreamingExecuteTest {
+
+    @ClassRule
+    public static final ExistEmbeddedServer EXIST_EMBEDDED_SERVER = new ExistEmbeddedServer(true, true);
+
+    @Test
+    public void streamableBodyProducesSameItems() throws EXistException, PermissionDeniedException, XPathException, IOException {
+        final String query =
+                "declare variable $local:max := 20;\n" +
+                "for $i in 1 to $local:max\n" +
+                "let $square := $i * $i\n" +
+                "where $i mod 3 eq 0\n" +
+                "for $j in ($i, $square)\n" +
+                "return <value i=\"{$i}\">{$j}</value>";
+        assertEquals(evaluate(query), stream(query, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void notStreamableBodyProducesSameItems() throws EXistException, PermissionDeniedException, XPathException, IOException {
+        final String query =
+                "for $i in 1 to 20\n" +
+                "order by $i descending\n" +
+                "return $i";
+        assertEquals(evaluate(query), stream(query, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void consumerStopsEvaluation() throws EXistException, PermissionDeniedException, XPathException, IOException {
+        // the error is never raised, as the evaluation stops after the third item
+        final String query =
+                "for $i in 1 to 1000000\n" +
+                "return if ($i eq 4) then error(xs:QName('local:too-far')) else $i";
+        assertEquals(List.of("xs:integer:1", "xs:integer:2", "xs:integer:3"), stream(query, 3));
+    }
+
+    @Test
+    public void incrementalSerialization() throws EXistException, PermissionDeniedException, XPathException, IOException, SAXException {
+        final String query = "for $i in 1 to 5 return (<item n=\"{$i}\"/>, $i)";
+
+        final BrokerPool pool = EXIST_EMBEDDED_SERVER.getBrokerPool();
+        final XQuery xquery = pool.getXQueryService();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final String expected;
+            try (final StringWriter writer = new StringWriter()) {
+                final Sequence result = xquery.execute(broker, query, null);
+                new XQuerySerializer(broker, new Properties(), writer).serialize(result, 1, result.getItemCount(), true, false, 0, 0);
+                expected = writer.toString();
+            }
+
+            final String actual;
+            try (final StringWriter writer = new StringWriter()) {
+                final XQuerySerializer serializer = new XQuerySerializer(broker, new Properties(), writer);
+                serializer.startSequence(1, true, false, 0);
+                final CompiledXQuery compiled = xquery.compile(new XQueryContext(pool), new StringSource(query));
+                xquery.execute(broker, compiled, null, null, item -> {
+                    try {
+                        serializer.serializeItem(item);
+                    } catch (final SAXException e) {
+                        throw new XPathException((Expression) null, e);
+                    }
+                    return true;
+                });
+                serializer.endSequence();
+                actual = writer.toString();
+            }
+
+            // the streamed wrapper does not know the number of hits
+            assertEquals(expected.replaceFirst(" exist:hits=\"10\"", "").replaceFirst(" exist:count=\"10\"", "")
+                    .replaceFirst(" exist:execution-time=\"0\"", ""), actual);
+        }
+    }
+
+    private static List<String> evaluate(final String query) throws EXistException, PermissionDeniedException, XPathException {
+        return executeQuery(EXIST_EMBEDDED_SERVER.getBrokerPool(), query, StreamingExecuteTest::toString);
+    }
+
+    private static List<String> stream(final String query, final int limit) throws EXistException, PermissionDeniedException, XPathException, IOException {
+        final BrokerPool pool = EXIST_EMBEDDED_SERVER.getBrokerPool();
+        final XQuery xquery = pool.getXQueryService();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final CompiledXQuery compiled = xquery.compile(new XQueryContext(pool), new StringSource(query));
+            final List<String> values = new ArrayList<>();
+            xquery.execute(broker, compiled, null, null, item -> {
+                values.add(toString(item));
+                return values.size() < limit;
+            });
+            return values;
+        }
+    }
+
+    private static String toString(final Item item) throws XPathException {
+        return Type.getTypeName(item.getType()) + ":" + item.getStringValue();
+    }
+}
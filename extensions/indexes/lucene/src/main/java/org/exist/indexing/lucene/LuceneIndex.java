@@ -31,6 +31,8 @@ import org.apache.lucene.facet.taxonomy.SearcherTaxonomyManager;
 import org.apache.lucene.facet.taxonomy.TaxonomyWriter;
 import org.apache.lucene.facet.taxonomy.directory.DirectoryTaxonomyWriter;
 import org.apache.lucene.index.*;
+import org.apache.lucene.search.ControlledRealTimeReopenThread;
+import org.apache.lucene.search.ReferenceManager;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.Version;
@@ -43,14 +45,21 @@ import org.exist.storage.DBBroker;
 import org.exist.storage.btree.DBException;
 import org.exist.util.DatabaseConfigurationException;
 import org.exist.util.FileUtils;
+import org.exist.util.NamedThreadFactory;
+import org.exist.util.ThreadUtils;
 import org.exist.xquery.XPathException;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
 
 public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
@@ -64,6 +73,14 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
 	private static final String DIR_NAME = "lucene";
 	private static final String TAXONOMY_DIR_NAME = "taxonomy";
 
+    private static final String NRT_ATTRIBUTE = "nrt";
+    private static final String NRT_MAX_STALE_ATTRIBUTE = "nrt-max-stale";
+    private static final String NRT_MIN_STALE_ATTRIBUTE = "nrt-min-stale";
+    private static final String COMMIT_INTERVAL_ATTRIBUTE = "commit-interval";
+
+    public static final long DEFAULT_NRT_MAX_STALE = 1000;  // ms
+    public static final long DEFAULT_NRT_MIN_STALE = 25;  // ms
+
     protected Directory directory;
     protected Directory taxoDirectory;
 
@@ -77,6 +94,28 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
     protected SearcherTaxonomyManager searcherManager = null;
     protected ReaderManager readerManager = null;
 
+    /**
+     * In near-real-time mode, readers are reopened by background threads at least every
+     * {@link #nrtMaxStale} ms instead of by the searching thread.
+     */
+    protected boolean nrt = false;
+    protected long nrtMaxStale = DEFAULT_NRT_MAX_STALE;
+    protected long nrtMinStale = DEFAULT_NRT_MIN_STALE;
+
+    /**
+     * Interval in ms at which changes are committed in addition to the commit at
+     * each checkpoint, or 0 to only commit at checkpoints.
+     */
+    protected long commitInterval = 0;
+
+    private TrackingIndexWriter trackingWriter = null;
+    private ControlledRealTimeReopenThread<SearcherTaxonomyManager.SearcherAndTaxonomy> searcherReopenThread = null;
+    private ControlledRealTimeReopenThread<DirectoryReader> readerReopenThread = null;
+    private ScheduledExecutorService commitScheduler = null;
+
+    // generation of the tracking writer after the most recent change to the index, see releaseWriter
+    private volatile long writeGeneration = 0;
+
     public String getDirName() {
         return DIR_NAME;
     }
@@ -108,6 +147,31 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
             defaultAnalyzer = new StandardAnalyzer(LUCENE_VERSION_IN_USE);
         if (LOG.isDebugEnabled())
             LOG.debug("Using default analyzer: {}", defaultAnalyzer.getClass().getName());
+
+        nrt = "yes".equals(config.getAttribute(NRT_ATTRIBUTE)) || "true".equals(config.getAttribute(NRT_ATTRIBUTE));
+        nrtMaxStale = parseMillis(config, NRT_MAX_STALE_ATTRIBUTE, DEFAULT_NRT_MAX_STALE);
+        nrtMinStale = Math.min(parseMillis(config, NRT_MIN_STALE_ATTRIBUTE, DEFAULT_NRT_MIN_STALE), nrtMaxStale);
+        commitInterval = parseMillis(config, COMMIT_INTERVAL_ATTRIBUTE, 0);
+        if (LOG.isDebugEnabled())
+            LOG.debug("Near-real-time reopen: {}, max stale: {}ms, min stale: {}ms; commit interval: {}ms",
+                    nrt, nrtMaxStale, nrtMinStale, commitInterval);
+    }
+
+    private static long parseMillis(final Element config, final String attribute, final long defaultValue) {
+        final String param = config.getAttribute(attribute);
+        if (param == null || param.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            final long millis = Long.parseLong(param);
+            if (millis >= 0) {
+                return millis;
+            }
+        } catch (final NumberFormatException e) {
+            // handled below
+        }
+        LOG.warn("Invalid setting for Lucene index {}: {}, using the default: {}", attribute, param, defaultValue);
+        return defaultValue;
     }
 
     @Override
@@ -137,6 +201,18 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
 
             searcherManager = new SearcherTaxonomyManager(cachedWriter, true, null, cachedTaxonomyWriter);
             readerManager = new ReaderManager(cachedWriter, true);
+
+            if (nrt) {
+                // changes are written through cachedWriter, the tracking writer is only used to
+                // mark the generations which a reader has to include, see releaseWriter
+                trackingWriter = new TrackingIndexWriter(cachedWriter);
+                searcherReopenThread = startReopenThread(searcherManager, "lucene-searcher-reopen");
+                readerReopenThread = startReopenThread(readerManager, "lucene-reader-reopen");
+            }
+            if (commitInterval > 0) {
+                commitScheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory(getBrokerPool(), "lucene-commit"));
+                commitScheduler.scheduleWithFixedDelay(this::scheduledCommit, commitInterval, commitInterval, TimeUnit.MILLISECONDS);
+            }
         } catch (IOException e) {
             throw new DatabaseConfigurationException("Exception while reading Lucene index directory: " +
                 e.getMessage(), e);
@@ -145,9 +221,31 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
         }
     }
 
+    private <T> ControlledRealTimeReopenThread<T> startReopenThread(final ReferenceManager<T> manager, final String name) {
+        final ControlledRealTimeReopenThread<T> thread = new ControlledRealTimeReopenThread<>(trackingWriter, manager,
+                nrtMaxStale / 1000.0, nrtMinStale / 1000.0);
+        thread.setName(ThreadUtils.nameInstanceThread(getBrokerPool(), name));
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
     @Override
     public synchronized void close() throws DBException {
         try {
+            if (commitScheduler != null) {
+                commitScheduler.shutdownNow();
+                commitScheduler = null;
+            }
+            if (searcherReopenThread != null) {
+                searcherReopenThread.close();
+                searcherReopenThread = null;
+            }
+            if (readerReopenThread != null) {
+                readerReopenThread.close();
+                readerReopenThread = null;
+            }
+            trackingWriter = null;
             if (searcherManager != null) {
                 searcherManager.close();
                 searcherManager = null;
@@ -221,6 +319,14 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
         if (writer == null)
             return;
         needsCommit = true;
+        if (trackingWriter != null) {
+            // a reader has to be reopened after this point to see the changes
+            writeGeneration = trackingWriter.getGeneration();
+        }
+    }
+
+    private synchronized void scheduledCommit() {
+        commit();
     }
 
     protected void commit() {
@@ -243,8 +349,26 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
         }
     }
 
+    /**
+     * Make sure the next reader acquired from the manager includes all changes
+     * which have been written to the index so far.
+     */
+    private <T> void refresh(final ReferenceManager<T> manager,
+            @Nullable final ControlledRealTimeReopenThread<T> reopenThread) throws IOException {
+        if (reopenThread == null) {
+            manager.maybeRefreshBlocking();
+            return;
+        }
+        try {
+            reopenThread.waitForGeneration(writeGeneration);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the Lucene index to be reopened");
+        }
+    }
+
     public <R> R withReader(FunctionE<IndexReader, R, IOException> fn) throws IOException {
-        readerManager.maybeRefreshBlocking();
+        refresh(readerManager, readerReopenThread);
         final DirectoryReader reader = readerManager.acquire();
         try {
             return fn.apply(reader);
@@ -254,7 +378,7 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
     }
 
     public <R> R withSearcher(final Function2E<SearcherTaxonomyManager.SearcherAndTaxonomy, R, IOException, XPathException> consumer) throws IOException, XPathException {
-        searcherManager.maybeRefreshBlocking();
+        refresh(searcherManager, searcherReopenThread);
         final SearcherTaxonomyManager.SearcherAndTaxonomy searcher = searcherManager.acquire();
         try {
             return consumer.apply(searcher);
@@ -170,6 +170,22 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         }
     }
 
+    @Override
+    public boolean isConcurrentFlushSafe() {
+        if (mode != ReindexMode.STORE) {
+            return false;
+        }
+        // facets and fields may evaluate an expression using the broker
+        if (nodesToWrite != null) {
+            for (final PendingDoc pending : nodesToWrite) {
+                if (!pending.idxConf.getFacetsAndFields().isEmpty()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
     @Override
     public void setDocument(DocumentImpl document) {
         setDocument(document, ReindexMode.UNKNOWN);
@@ -438,6 +454,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             final List<QName> definedIndexes = getDefinedIndexes(qnames);
             final NodeSet resultSet = new NewArrayNodeSet();
             final boolean returnAncestor = axis == NodeSet.ANCESTOR;
+            @Nullable final TopHits topHits = createTopHits(returnAncestor, options);
             for (final QName qname : definedIndexes) {
                 final String field = LuceneUtil.encodeQName(qname, index.getBrokerPool().getSymbols());
                 final LuceneConfig config = getLuceneConfig(broker, docs);
@@ -455,7 +472,10 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                     query = drilldown(facets.get(), query, config);
                 }
                 searchAndProcess(contextId, qname, docs, contextSet, resultSet,
-                        returnAncestor, searcher, query, config);
+                        returnAncestor, searcher, query, config, topHits);
+            }
+            if (topHits != null) {
+                topHits.addTo(contextId, contextSet, resultSet);
             }
             return resultSet;
         });
@@ -488,6 +508,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             final List<QName> definedIndexes = getDefinedIndexes(qnames);
             final NodeSet resultSet = new NewArrayNodeSet();
             final boolean returnAncestor = axis == NodeSet.ANCESTOR;
+            @Nullable final TopHits topHits = createTopHits(returnAncestor, options);
             for (QName qname : definedIndexes) {
                 String field = LuceneUtil.encodeQName(qname, index.getBrokerPool().getSymbols());
                 LuceneConfig config = getLuceneConfig(broker, docs);
@@ -499,9 +520,12 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                 }
                 if (query != null) {
                     searchAndProcess(contextId, qname, docs, contextSet, resultSet,
-                            returnAncestor, searcher, query, config);
+                            returnAncestor, searcher, query, config, topHits);
                 }
             }
+            if (topHits != null) {
+                topHits.addTo(contextId, contextSet, resultSet);
+            }
             return resultSet;
         });
     }
@@ -517,7 +541,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             final Query query = queryTranslator.parse(field, queryRoot, analyzer, options);
             if (query != null) {
                 searchAndProcess(contextId, null, docs, contextSet, resultSet,
-                        returnAncestor, searcher, query, config);
+                        returnAncestor, searcher, query, config, null);
             }
             return resultSet;
         });
@@ -532,13 +556,25 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         return drillDownQuery;
     }
 
+    /**
+     * If the query options ask for the top-k results only, create the queue which collects them.
+     * The matches of a query in ancestor mode are attached to the nodes of the context set,
+     * whose score is the sum of all their matches, so the limit cannot be applied to single hits.
+     */
+    private @Nullable TopHits createTopHits(final boolean returnAncestor, final QueryOptions options) {
+        if (returnAncestor || options.getTopK() <= 0) {
+            return null;
+        }
+        return new TopHits(options.getTopK());
+    }
+
     private void searchAndProcess(final int contextId, final QName qname, final DocumentSet docs,
                                   @Nullable final NodeSet contextSet, final NodeSet resultSet, final boolean returnAncestor,
                                   final SearcherTaxonomyManager.SearcherAndTaxonomy searcher, final Query query,
-                                  final LuceneConfig config) throws IOException {
+                                  final LuceneConfig config, @Nullable final TopHits topHits) throws IOException {
         final LuceneFacets facets = new LuceneFacets();
         final FacetsCollector facetsCollector = new FacetsCollector();
-        final LuceneHitCollector collector = new LuceneHitCollector(qname, query, docs, contextSet, resultSet, returnAncestor, contextId, facets, facetsCollector);
+        final LuceneHitCollector collector = new LuceneHitCollector(qname, query, docs, contextSet, resultSet, returnAncestor, contextId, facets, facetsCollector, topHits);
         searcher.searcher.search(query, collector);
 
         // compute facets
@@ -600,7 +636,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             options.configureParser(parser.getConfiguration());
             Query query = parser.parse(queryString);
             searchAndProcess(contextId, null, docs, contextSet, resultSet,
-                    returnAncestor, searcher, query, config);
+                    returnAncestor, searcher, query, config, null);
             return resultSet;
         });
     }
@@ -953,8 +989,9 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         private final Query query;
         private final LuceneFacets facets;
         private final FacetsCollector chainedCollector;
+        private @Nullable final TopHits topHits;
 
-        private LuceneHitCollector(final QName qname, final Query query, final DocumentSet docs, @Nullable final NodeSet contextSet, final NodeSet resultSet, final boolean returnAncestor, final int contextId, final LuceneFacets facets, final FacetsCollector nextCollector) {
+        private LuceneHitCollector(final QName qname, final Query query, final DocumentSet docs, @Nullable final NodeSet contextSet, final NodeSet resultSet, final boolean returnAncestor, final int contextId, final LuceneFacets facets, final FacetsCollector nextCollector, @Nullable final TopHits topHits) {
             this.qname = qname;
             this.docs = docs;
             this.contextSet = contextSet;
@@ -964,6 +1001,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             this.query = query;
             this.facets = facets;
             this.chainedCollector = nextCollector;
+            this.topHits = topHits;
         }
 
         @Override
@@ -994,9 +1032,16 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                 DocumentImpl storedDocument = docs.getDoc(docId);
                 if (storedDocument == null)
                     return;
-                final BytesRef ref = this.nodeIdValues.get(doc);
-                int units = ByteConversion.byteToShort(ref.bytes, ref.offset);
-                NodeId nodeId = index.getBrokerPool().getNodeFactory().createFromData(units, ref.bytes, ref.offset + 2);
+                if (topHits != null) {
+                    // facets are counted for all hits, but only the best hits become nodes
+                    chainedCollector.collect(doc);
+                    if (topHits.isCompetitive(score)) {
+                        topHits.insertWithOverflow(new TopHit(score, doc + docBase, storedDocument, readNodeId(doc),
+                                qname, query, facets));
+                    }
+                    return;
+                }
+                NodeId nodeId = readNodeId(doc);
                 //LOG.info("doc: " + docId + "; node: " + nodeId.toString() + "; units: " + units);
 
                 NodeProxy storedNode = new NodeProxy(null, storedDocument, nodeId);
@@ -1038,6 +1083,12 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             }
         }
 
+        private NodeId readNodeId(final int doc) {
+            final BytesRef ref = this.nodeIdValues.get(doc);
+            final int units = ByteConversion.byteToShort(ref.bytes, ref.offset);
+            return index.getBrokerPool().getNodeFactory().createFromData(units, ref.bytes, ref.offset + 2);
+        }
+
         private LuceneMatch createMatch(final int docId, final float score, final NodeId nodeId) {
             final LuceneMatch match = new LuceneMatch(contextId, docId + docBase, nodeId, query, facets);
             match.setScore(score);
@@ -1045,6 +1096,87 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         }
     }
 
+    /**
+     * A Lucene hit which has been selected by {@link TopHits}, but not yet been
+     * turned into a node.
+     */
+    private static class TopHit {
+        private final float score;
+        private final int luceneDocId;
+        private final DocumentImpl doc;
+        private final NodeId nodeId;
+        private @Nullable final QName qname;
+        private final Query query;
+        private final LuceneFacets facets;
+
+        private TopHit(final float score, final int luceneDocId, final DocumentImpl doc, final NodeId nodeId,
+                @Nullable final QName qname, final Query query, final LuceneFacets facets) {
+            this.score = score;
+            this.luceneDocId = luceneDocId;
+            this.doc = doc;
+            this.nodeId = nodeId;
+            this.qname = qname;
+            this.query = query;
+            this.facets = facets;
+        }
+    }
+
+    /**
+     * Keeps the k best scoring hits of one or more searches. Hits with equal score are
+     * ranked by document order, which is the order a stable sort of the complete
+     * result by score would keep them in.
+     */
+    private static class TopHits extends org.apache.lucene.util.PriorityQueue<TopHit> {
+
+        private final int k;
+
+        private TopHits(final int k) {
+            super(k);
+            this.k = k;
+        }
+
+        @Override
+        protected boolean lessThan(final TopHit a, final TopHit b) {
+            if (a.score != b.score) {
+                return a.score < b.score;
+            }
+            // the later node in document order is the worse hit
+            if (a.doc.getDocId() != b.doc.getDocId()) {
+                return a.doc.getDocId() > b.doc.getDocId();
+            }
+            return a.nodeId.compareTo(b.nodeId) > 0;
+        }
+
+        /**
+         * Check if a hit with the given score could make it into the queue. Used to skip
+         * reading the node id of hits which score below the current threshold.
+         */
+        private boolean isCompetitive(final float score) {
+            return size() < k || score >= top().score;
+        }
+
+        /**
+         * Create the nodes for the selected hits and add them to the result.
+         */
+        private void addTo(final int contextId, @Nullable final NodeSet contextSet, final NodeSet resultSet) {
+            for (int i = size(); i > 0; i--) {
+                final TopHit hit = pop();
+                final NodeProxy node = new NodeProxy(null, hit.doc, hit.nodeId);
+                if (hit.qname != null) {
+                    node.setNodeType(hit.qname.getNameType() == ElementValue.ATTRIBUTE ? Node.ATTRIBUTE_NODE : Node.ELEMENT_NODE);
+                }
+                final LuceneMatch match = new LuceneMatch(contextId, hit.luceneDocId, hit.nodeId, hit.query, hit.facets);
+                match.setScore(hit.score);
+                node.addMatch(match);
+                if (contextSet != null) {
+                    resultSet.add(node, contextSet.getSizeHint(hit.doc));
+                } else {
+                    resultSet.add(node);
+                }
+            }
+        }
+    }
+
     /**
      * Check index configurations for all collection in the given DocumentSet and return
      * a list of QNames, which have indexes defined on them.
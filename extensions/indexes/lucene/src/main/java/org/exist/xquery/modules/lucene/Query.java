@@ -41,7 +41,7 @@ import java.util.List;
 import static org.exist.xquery.FunctionDSL.*;
 import static org.exist.xquery.modules.lucene.LuceneModule.functionSignatures;
 
-public class Query extends Function implements Optimizable {
+public class Query extends Function implements Optimizable, TopKOptimizable {
 
     private static final FunctionParameterSequenceType FS_PARAM_NODES = optManyParam("nodes", Type.NODE, "The node set to search using a Lucene full text index which is defined on those nodes");
     private static final FunctionParameterSequenceType FS_PARAM_QUERY = optParam("query", Type.ITEM, "The query to search for, provided either as a string or text in Lucene's default query syntax or as an XML fragment to bypass Lucene's default query parser");
@@ -89,6 +89,9 @@ public class Query extends Function implements Optimizable {
     private NodeSet preselectResult = null;
     protected boolean optimizeSelf = false;
     protected boolean optimizeChild = false;
+    private int topK = 0;
+    private int topKSelected = 0;
+    private boolean topKTruncated = false;
 
     public Query(final XQueryContext context, final FunctionSignature signature) {
         super(context, signature);
@@ -220,6 +223,30 @@ public class Query extends Function implements Optimizable {
         return axis;
     }
 
+    @Override
+    public boolean isScoreOrder(final Expression orderExpr, final QName variable) {
+        // only if the matches are attached to the nodes found by the query itself; otherwise
+        // the score of a node could be the sum of several matches
+        if (!optimizeSelf || contextQNames == null) {
+            return false;
+        }
+        return BasicExpressionVisitor.unwrap(orderExpr) instanceof final Score score
+                && BasicExpressionVisitor.unwrap(score.getArgument(0)) instanceof final VariableReference ref
+                && ref.getName().equals(variable);
+    }
+
+    @Override
+    public void setTopK(final int limit) {
+        topK = limit;
+        topKSelected = 0;
+        topKTruncated = false;
+    }
+
+    @Override
+    public int getTruncatedCount() {
+        return topKTruncated ? topKSelected : -1;
+    }
+
     @Override
     public NodeSet preSelect(final Sequence contextSequence, final boolean useContext) throws XPathException {
         // guard against an empty contextSequence
@@ -237,6 +264,7 @@ public class Query extends Function implements Optimizable {
         final Item key = getKey(contextSequence, null);
         @Nullable final List<QName> qnames = contextQNames != null ? Arrays.asList(contextQNames) : null;
         final QueryOptions options = parseOptions(this, contextSequence, null, 3);
+        options.setTopK(topK);
         try {
             if (key != null && Type.subTypeOf(key.getType(), Type.ELEMENT)) {
                 final Element queryXML = (Element) ((NodeValue) key).getNode();
@@ -250,6 +278,11 @@ public class Query extends Function implements Optimizable {
         } catch (final IOException | org.apache.lucene.queryparser.classic.ParseException e) {
             throw new XPathException(this, "Error while querying full text index: " + e.getMessage(), e);
         }
+        if (topK > 0) {
+            // if the limit was reached, some matches may have been dropped
+            topKSelected += preselectResult.getLength();
+            topKTruncated |= preselectResult.getLength() >= topK;
+        }
         LOG.trace("Lucene query took {}", System.currentTimeMillis() - start);
         if( context.getProfiler().traceFunctions() ) {
             context.getProfiler().traceIndexUsage( context, "lucene", this, PerformanceStats.IndexOptimizationLevel.OPTIMIZED, System.currentTimeMillis() - start );
@@ -70,6 +70,9 @@ public class QueryOptions {
     protected Optional<Map<String, FacetQuery>> facets = Optional.empty();
     protected Set<String> fields = null;
 
+    // not a user option: set by ft:query if only the best scoring matches are needed
+    protected int topK = 0;
+
     public QueryOptions() {
         // default options
     }
@@ -207,6 +210,19 @@ public class QueryOptions {
         return filterRewrite;
     }
 
+    /**
+     * Get the number of best scoring matches the query should return.
+     *
+     * @return the number of matches, or 0 to return all matches
+     */
+    public int getTopK() {
+        return topK;
+    }
+
+    public void setTopK(final int topK) {
+        this.topK = topK;
+    }
+
     private void set(String key, String value) throws XPathException {
         switch (key) {
             case OPTION_DEFAULT_OPERATOR:
@@ -0,0 +1,95 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.lucene;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.exist.test.ExistEmbeddedServer;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.StringReader;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that a reader acquired from a {@link LuceneIndex} sees all previous
+ * changes, with and without near-real-time reopen.
+ */
+public class NearRealTimeTest {
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, true);
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void readerSeesWrites() throws Exception {
+        assertReaderSeesWrites("<module id='lucene-index' buffer='32' class='org.exist.indexing.lucene.LuceneIndex'/>");
+    }
+
+    @Test
+    public void nrtReaderSeesWrites() throws Exception {
+        // the background reopen alone would take a minute, so the reader has to wait for the writes
+        assertReaderSeesWrites("<module id='lucene-index' buffer='32' class='org.exist.indexing.lucene.LuceneIndex' nrt='yes' nrt-max-stale='60000'/>");
+    }
+
+    @Test
+    public void nrtWithCommitInterval() throws Exception {
+        assertReaderSeesWrites("<module id='lucene-index' buffer='32' class='org.exist.indexing.lucene.LuceneIndex' nrt='yes' commit-interval='10'/>");
+    }
+
+    private void assertReaderSeesWrites(final String config) throws Exception {
+        final LuceneIndex index = new LuceneIndex();
+        index.configure(existEmbeddedServer.getBrokerPool(), temporaryFolder.newFolder().toPath(), parse(config));
+        index.open();
+        try {
+            for (int i = 1; i <= 5; i++) {
+                final IndexWriter writer = index.getWriter();
+                try {
+                    final Document doc = new Document();
+                    doc.add(new StringField("id", Integer.toString(i), Field.Store.NO));
+                    writer.addDocument(doc);
+                } finally {
+                    index.releaseWriter(writer);
+                }
+                assertEquals(i, (int) index.withReader(IndexReader::numDocs));
+            }
+        } finally {
+            index.close();
+        }
+    }
+
+    private static Element parse(final String xml) throws Exception {
+        final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        return factory.newDocumentBuilder().parse(new InputSource(new StringReader(xml))).getDocumentElement();
+    }
+}
@@ -177,6 +177,12 @@ public class NGramIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         }
     }
 
+    @Override
+    public boolean isConcurrentFlushSafe() {
+        // storing only writes the pending entries to the index file
+        return mode == ReindexMode.STORE;
+    }
+
     private void saveIndex() {
         if (ngrams.isEmpty()) {
             return;
@@ -0,0 +1,142 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.ngram;
+
+import org.exist.EXistException;
+import org.exist.collections.Collection;
+import org.exist.indexing.IndexManager;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.lock.Lock.LockMode;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.util.LockException;
+import org.exist.util.MimeType;
+import org.exist.util.StringInputSource;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.value.Sequence;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.exist.util.PropertiesBuilder.propertiesBuilder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Stores documents while the index workers are flushed by index-writer threads,
+ * see {@link IndexManager#PROPERTY_FLUSH_THREADS}.
+ */
+public class ConcurrentFlushTest {
+
+    private static final int FLUSH_THREADS = 2;
+    private static final int STORE_THREADS = 4;
+    private static final int DOCUMENTS = 25;
+
+    private static final XmldbURI TEST_COLLECTION = XmldbURI.create("/db/concurrent-flush-test");
+
+    private static final String COLLECTION_CONFIG =
+            "<collection xmlns=\"http://exist-db.org/collection-config/1.0\">" +
+            "   <index>" +
+            "       <ngram qname=\"item\"/>" +
+            "   </index>" +
+            "</collection>";
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(
+            propertiesBuilder().put(IndexManager.PROPERTY_FLUSH_THREADS, FLUSH_THREADS).build(), true, true);
+
+    @Test
+    public void flushExecutor() {
+        assertTrue(existEmbeddedServer.getBrokerPool().getIndexManager().getFlushExecutor().isPresent());
+    }
+
+    @Test
+    public void storedDocumentsAreIndexed() throws EXistException, PermissionDeniedException, XPathException {
+        final int documents = STORE_THREADS * DOCUMENTS;
+        assertEquals(2 * documents, query("count(collection('" + TEST_COLLECTION + "')//item)"));
+        assertEquals(documents, query("count(collection('" + TEST_COLLECTION + "')//item[ngram:contains(., 'chair')])"));
+        assertEquals(STORE_THREADS, query("count(collection('" + TEST_COLLECTION + "')//item[ngram:contains(., 'table-7')])"));
+    }
+
+    private static int query(final String query) throws EXistException, PermissionDeniedException, XPathException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final Sequence result = pool.getXQueryService().execute(broker, query, null);
+            return Integer.parseInt(result.getStringValue());
+        }
+    }
+
+    private static Void storeDocuments(final int thread)
+            throws EXistException, PermissionDeniedException, IOException, SAXException, LockException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+             final Txn transaction = pool.getTransactionManager().beginTransaction()) {
+            try (final Collection collection = broker.openCollection(TEST_COLLECTION, LockMode.WRITE_LOCK)) {
+                for (int i = 0; i < DOCUMENTS; i++) {
+                    broker.storeDocument(transaction, XmldbURI.create("doc-" + thread + "-" + i + ".xml"),
+                            new StringInputSource("<doc><item>chair</item><item>table-" + i + "</item></doc>"),
+                            MimeType.XML_TYPE, collection);
+                }
+            }
+            transaction.commit();
+        }
+        return null;
+    }
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+             final Txn transaction = pool.getTransactionManager().beginTransaction();
+             final Collection collection = broker.getOrCreateCollection(transaction, TEST_COLLECTION)) {
+            broker.saveCollection(transaction, collection);
+            pool.getConfigurationManager().addConfiguration(transaction, broker, collection, COLLECTION_CONFIG);
+            transaction.commit();
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(STORE_THREADS);
+        try {
+            final List<Future<Void>> stores = new ArrayList<>(STORE_THREADS);
+            for (int i = 0; i < STORE_THREADS; i++) {
+                final int thread = i;
+                stores.add(executor.submit(() -> storeDocuments(thread)));
+            }
+            for (final Future<Void> store : stores) {
+                store.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
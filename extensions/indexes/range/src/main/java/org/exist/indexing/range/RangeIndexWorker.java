@@ -354,6 +354,12 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         }
     }
 
+    @Override
+    public boolean isConcurrentFlushSafe() {
+        // storing only writes the pending entries to the index file
+        return mode == ReindexMode.STORE;
+    }
+
     @Override
     public void removeCollection(Collection collection, DBBroker broker, boolean reindex) throws PermissionDeniedException {
         if (LOG.isDebugEnabled())
@@ -26,7 +26,6 @@ import org.apache.logging.log4j.Logger;
 
 import org.exist.EXistException;
 import org.exist.dom.QName;
-import org.exist.storage.BrokerPool;
 import org.exist.xquery.BasicFunction;
 import org.exist.xquery.Cardinality;
 import org.exist.xquery.FunctionSignature;
@@ -40,8 +39,6 @@ import org.exist.xquery.value.Sequence;
 import org.exist.xquery.value.SequenceType;
 import org.exist.xquery.value.Type;
 
-import java.nio.file.Path;
-
 /**
  * @author Jasper Linthorst (jasper.linthorst@gmail.com)
  *
@@ -104,16 +101,10 @@ public class CounterFunctions extends BasicFunction {
     public CounterFunctions(XQueryContext context, FunctionSignature signature) {
         super(context, signature);
 
-        // Setup counters
-        final Path counterDir = (Path) context.getBroker().getConfiguration()
-                                                        .getProperty(BrokerPool.PROPERTY_DATA_DIR);
-
-        logger.debug("Counters directory: {}", counterDir);
-
-        // Get reference to counters object
+        // Get reference to counters object, which are closed when the database shuts down
         try {
             if(counters==null){
-                counters = Counters.getInstance(counterDir);
+                counters = Counters.getInstance(context.getBroker().getBrokerPool());
             }
 
         } catch (EXistException ex) {
@@ -21,30 +21,53 @@
  */
 package org.exist.xquery.modules.counter;
 
-import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Hashtable;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.Map;
+import java.util.Observer;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import org.exist.Database;
 import org.exist.EXistException;
 import org.exist.backup.RawDataBackup;
 import org.exist.indexing.RawBackupSupport;
+import org.exist.storage.BrokerPool;
 import org.exist.util.FileUtils;
 
 /**
+ * Keeps named counters which are persisted in the file "counters" of the data directory.
+ *
+ * The file is an append-only log with one line per change: {@code name;value} records
+ * a value of the counter and {@code name;} records its removal. Incrementing a counter
+ * is atomic and only takes the lock of the log while appending its new value; as the lines of concurrent
+ * increments may be appended out of order, the highest value logged since a counter was
+ * created wins when the log is read. Once the log has grown large enough it is compacted
+ * into one line per counter. A line which was only partially written when the database
+ * crashed is ignored.
+ *
+ * A value is only returned once its line has been forced to disk. Concurrent callers
+ * share a single force of the log (group commit), which is done without holding the
+ * lock of the log, so other lines may be appended meanwhile.
+ *
  * @author <a href="mailto:jasper.linthorst@gmail.com">Jasper Linthorst</a>
  */
-public class Counters implements RawBackupSupport {
+public class Counters implements RawBackupSupport, Closeable {
 
     private final static Logger LOG = LogManager.getLogger(Counters.class);
     
@@ -53,10 +76,49 @@ public class Counters implements RawBackupSupport {
     public final static String COUNTERSTORE = "counters";
     public final static String DELIMITER = ";";
 
+    /**
+     * minimum number of lines in the log before it is compacted
+     */
+    final static int MIN_COMPACT_LINES = 1024;
+
     private Path store = null;
-    private Map<String, Long> counters = new Hashtable<>();
+    private final Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+
+    /**
+     * Guards the log, i.e. {@link #channel}, {@link #lines}, {@link #appended} and {@link #closed}
+     */
+    private final Object logLock = new Object();
+    private FileChannel channel = null;
+    private int lines = 0;
+
+    /**
+     * the number of lines appended to the log since it was opened, unlike {@link #lines}
+     * this is not reset when the log is compacted
+     */
+    private long appended = 0;
+    private boolean closed = false;
+
+    /**
+     * Guards the group commit, i.e. {@link #synced} and {@link #syncing}
+     */
+    private final Object syncLock = new Object();
+    private long synced = 0;
+    private boolean syncing = false;
+
+    /**
+     * closes the log when the database shuts down
+     */
+    private final Observer shutdownObserver = (o, arg) -> {
+        if (BrokerPool.SIGNAL_SHUTDOWN.equals(arg)) {
+            try {
+                close();
+            } catch (final IOException e) {
+                LOG.error("Unable to close counter store file: {}", e.getMessage(), e);
+            }
+        }
+    };
 
-    private Counters(final Optional<Path> dataDir) throws EXistException {
+    Counters(final Optional<Path> dataDir) throws EXistException {
         this.store = FileUtils.resolve(dataDir, COUNTERSTORE);
         loadStore();
     }
@@ -69,18 +131,38 @@ public class Counters implements RawBackupSupport {
     private void loadStore() throws EXistException {
         try {
             if(Files.exists(store)) {
-                try(final BufferedReader br = Files.newBufferedReader(store, StandardCharsets.UTF_8)) {
-                    String line = "";
-                    while ((line = br.readLine()) != null) {
-                        //Use ; as a DELIMITER, counter names must be tested and rejected when they contain this character!
-                        final String[] tokens = line.split(DELIMITER);
+                final byte[] data = Files.readAllBytes(store);
+                int end = data.length;
+                while (end > 0 && data[end - 1] != '\n') {
+                    end--;
+                }
+                if (end < data.length) {
+                    LOG.warn("Ignoring incomplete last line of counter store file: {}", store.toAbsolutePath().toString());
+                }
 
+                final String log = new String(data, 0, end, StandardCharsets.UTF_8);
+                for (final String line : log.split("\r?\n")) {
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    //Use ; as a DELIMITER, counter names must be tested and rejected when they contain this character!
+                    final String[] tokens = line.split(DELIMITER);
+                    if (tokens.length == 1) {
+                        counters.remove(tokens[0]);
+                    } else {
                         try {
-                            counters.put(tokens[0], Long.parseLong(tokens[1]));
+                            final long value = Long.parseLong(tokens[1]);
+                            counters.computeIfAbsent(tokens[0], k -> new AtomicLong(value)).accumulateAndGet(value, Math::max);
                         } catch (final NumberFormatException e) {
                             throw new EXistException("Corrupt counter store file: " + store.toAbsolutePath().toString());
                         }
                     }
+                    lines++;
+                }
+
+                if (end < data.length) {
+                    // drop the incomplete line before appending to the log
+                    compact();
                 }
             }
         } catch (final IOException e) {
@@ -99,14 +181,43 @@ public class Counters implements RawBackupSupport {
      */
     public static Counters getInstance(final Path dataDir) throws EXistException {
         if (instance == null) {
-            LOG.debug("Initializing counters.");
-            instance = new Counters(Optional.ofNullable(dataDir));
+            synchronized (Counters.class) {
+                if (instance == null) {
+                    LOG.debug("Initializing counters.");
+                    instance = new Counters(Optional.ofNullable(dataDir));
+                }
+            }
         }
         return instance;
     }
 
     public static Counters getInstance() throws EXistException {
-        return getInstance(null);
+        return getInstance((Path) null);
+    }
+
+    /**
+     * Get singleton of Counters object for the data directory of a database.
+     * The counters are closed when the database shuts down.
+     *
+     * @param database the database
+     *
+     * @return the counters instance
+     *
+     * @throws EXistException if an error occurs
+     */
+    public static Counters getInstance(final Database database) throws EXistException {
+        if (instance == null) {
+            synchronized (Counters.class) {
+                if (instance == null) {
+                    final Path dataDir = (Path) database.getConfiguration().getProperty(BrokerPool.PROPERTY_DATA_DIR);
+                    LOG.debug("Initializing counters in: {}", dataDir);
+                    final Counters counters = new Counters(Optional.ofNullable(dataDir));
+                    database.addStatusObserver(counters.shutdownObserver);
+                    instance = counters;
+                }
+            }
+        }
+        return instance;
     }
 
     /**
@@ -133,20 +244,29 @@ public class Counters implements RawBackupSupport {
      *
      * @throws EXistException if an error occurs
      */
-    public synchronized long createCounter(final String counterName, final long initValue) throws EXistException {
-        if (counters.containsKey(counterName)) {
-            return counters.get(counterName);
-        } else {
-            counters.put(counterName, initValue);
+    public long createCounter(final String counterName, final long initValue) throws EXistException {
+        final long line;
+        synchronized (logLock) {
+            final AtomicLong counter = counters.get(counterName);
+            if (counter != null) {
+                return counter.get();
+            }
 
             try {
-                serializeTable();
+                line = append(counterName + DELIMITER + initValue);
             } catch (final IOException e) {
                 throw new EXistException("Unable to save to counter store file.", e);
             }
+            counters.put(counterName, new AtomicLong(initValue));
+            compactIfNeeded();
+        }
 
-            return counters.get(counterName);
+        try {
+            sync(line);
+        } catch (final IOException e) {
+            throw new EXistException("Unable to save to counter store file.", e);
         }
+        return initValue;
     }
 
     /**
@@ -158,20 +278,28 @@ public class Counters implements RawBackupSupport {
      *
      * @throws EXistException if an error occurs
      */
-    public synchronized boolean destroyCounter(final String counterName) throws EXistException {
-        if (counters.containsKey(counterName)) {
-            counters.remove(counterName);
+    public boolean destroyCounter(final String counterName) throws EXistException {
+        final long line;
+        synchronized (logLock) {
+            if (!counters.containsKey(counterName)) {
+                return false;
+            }
 
             try {
-                serializeTable();
+                line = append(counterName + DELIMITER);
             } catch (final IOException e) {
                 throw new EXistException("Unable to remove counter from counter store file.", e);
             }
+            counters.remove(counterName);
+            compactIfNeeded();
+        }
 
-            return true;
-        } else {
-            return false;
+        try {
+            sync(line);
+        } catch (final IOException e) {
+            throw new EXistException("Unable to remove counter from counter store file.", e);
         }
+        return true;
     }
 
     /**
@@ -183,22 +311,34 @@ public class Counters implements RawBackupSupport {
      *
      * @throws EXistException if an error occurs
      */
-    public synchronized long nextValue(final String counterName) throws EXistException {
-        if (!counters.containsKey(counterName)) {
+    public long nextValue(final String counterName) throws EXistException {
+        final AtomicLong counter = counters.get(counterName);
+        if (counter == null) {
             return -1;
         }
 
-        long c = counters.get(counterName);
-        c++;
+        final long c = counter.incrementAndGet();
 
-        counters.put(counterName, c);
+        final long line;
+        synchronized (logLock) {
+            // do not log the value if the counter was destroyed in the meantime
+            if (counters.get(counterName) != counter) {
+                return c;
+            }
+
+            try {
+                line = append(counterName + DELIMITER + c);
+            } catch (final IOException e) {
+                throw new EXistException("Unable to save to counter store file.", e);
+            }
+            compactIfNeeded();
+        }
 
         try {
-            serializeTable();
+            sync(line);
         } catch (final IOException e) {
             throw new EXistException("Unable to save to counter store file.", e);
         }
-
         return c;
     }
 
@@ -212,14 +352,178 @@ public class Counters implements RawBackupSupport {
     }
 
     /**
-     * Serializes the Map with counters to the filesystem.
-     * 
+     * Appends a line to the log of the counter store. The caller must hold {@link #logLock},
+     * apply the change to {@link #counters} and then call {@link #compactIfNeeded()},
+     * and call {@link #sync(long)} before the change is made visible to its caller.
+     *
+     * @param line the line to append
+     *
+     * @return the number of the appended line, to be passed to {@link #sync(long)}
+     *
+     * @throws IOException if the line cannot be written
+     */
+    private long append(final String line) throws IOException {
+        if (closed) {
+            throw new IOException("Counter store file has been closed: " + store.toAbsolutePath().toString());
+        }
+        final ByteBuffer buf = StandardCharsets.UTF_8.encode(line + '\n');
+        if (channel == null) {
+            channel = FileChannel.open(store, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+        lines++;
+        return ++appended;
+    }
+
+    /**
+     * Compacts the log when it has grown large enough. The caller must hold
+     * {@link #logLock} and must already have applied the change it appended
+     * to {@link #counters}, as the compacted log is written from them alone.
+     *
+     * A failed compaction leaves the old log in place, so the change that was
+     * appended is kept and compacting is tried again on the next change.
+     */
+    private void compactIfNeeded() {
+        if (lines > Math.max(MIN_COMPACT_LINES, 4 * counters.size())) {
+            try {
+                compact();
+            } catch (final IOException e) {
+                LOG.error("Unable to compact counter store file: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Forces the log to disk up to and including the given line.
+     *
+     * Only one thread at a time forces the log, and it does so without holding
+     * {@link #logLock}. The lines appended by other threads whilst it does are
+     * forced by the next thread, so concurrent callers share a single force.
+     *
+     * @param line the number of the line returned by {@link #append(String)}
+     *
+     * @throws IOException if the log cannot be forced to disk
+     */
+    private void sync(final long line) throws IOException {
+        synchronized (syncLock) {
+            while (syncing && synced < line) {
+                try {
+                    syncLock.wait();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted whilst waiting for the counter store file to be synced");
+                }
+            }
+            if (synced >= line) {
+                return;
+            }
+            syncing = true;
+        }
+
+        long lastLine = line;
+        boolean forced = false;
+        try {
+            final FileChannel log;
+            synchronized (logLock) {
+                lastLine = appended;
+                log = channel;
+            }
+            if (log != null) {
+                try {
+                    log.force(false);
+                } catch (final ClosedChannelException e) {
+                    // the log was compacted or closed in the meantime, both of which force it first
+                }
+            }
+            // if there is no channel, the log was compacted or closed since the line was appended
+            forced = true;
+        } finally {
+            synchronized (syncLock) {
+                if (forced) {
+                    synced = Math.max(synced, lastLine);
+                }
+                syncing = false;
+                syncLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Rewrites the log of the counter store with one line per counter.
+     * The new log is written to a temporary file which then atomically
+     * replaces the log, so a crash leaves either the old or the new log.
+     *
      * @throws IOException
      */
-    private synchronized void serializeTable() throws IOException {
-        try(final PrintWriter pw = new PrintWriter(Files.newBufferedWriter(store, StandardCharsets.UTF_8))) {
-            for(final Map.Entry<String, Long> counter : counters.entrySet()) {
-                pw.println(counter.getKey() + DELIMITER + counter.getValue().toString());
+    private void compact() throws IOException {
+        synchronized (logLock) {
+            final Path tmp = store.resolveSibling(COUNTERSTORE + ".tmp");
+            final StringBuilder builder = new StringBuilder();
+            int count = 0;
+            for (final Map.Entry<String, AtomicLong> counter : counters.entrySet()) {
+                builder.append(counter.getKey()).append(DELIMITER).append(counter.getValue().get()).append('\n');
+                count++;
+            }
+            try (final FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                final ByteBuffer buf = StandardCharsets.UTF_8.encode(builder.toString());
+                while (buf.hasRemaining()) {
+                    out.write(buf);
+                }
+                out.force(true);
+            }
+
+            if (channel != null) {
+                // sync treats the lines of a closed log as forced, even if the move fails
+                try {
+                    channel.force(false);
+                } finally {
+                    channel.close();
+                    channel = null;
+                }
+            }
+            Files.move(tmp, store, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            lines = count;
+
+            // force the rename itself to disk, otherwise a crash may bring back the old log
+            try (final FileChannel dir = FileChannel.open(store.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+                dir.force(true);
+            } catch (final IOException e) {
+                // some platforms, e.g. Windows, cannot open a directory
+                LOG.debug("Unable to force directory of counter store file: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Forces the log to disk and closes it. No counter can be changed afterwards,
+     * and {@link #getInstance(Database)} creates a new instance.
+     *
+     * This is called when the database shuts down.
+     *
+     * @throws IOException if the log cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (Counters.class) {
+            if (instance == this) {
+                instance = null;
+            }
+        }
+
+        synchronized (logLock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (channel != null) {
+                try {
+                    channel.force(false);
+                } finally {
+                    channel.close();
+                    channel = null;
+                }
             }
         }
     }
@@ -234,7 +538,10 @@ public class Counters implements RawBackupSupport {
         //try(final OutputStream os = backup.newEntry(FileUtils.fileName(store))) {
         try {
             final OutputStream os = backup.newEntry(FileUtils.fileName(store));
-            Files.copy(store, os);
+            // no lines must be appended while the log is copied
+            synchronized (logLock) {
+                Files.copy(store, os);
+            }
         } finally {
             backup.closeEntry();
         }
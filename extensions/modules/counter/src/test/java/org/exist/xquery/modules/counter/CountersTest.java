@@ -0,0 +1,257 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.modules.counter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.exist.EXistException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the log of the counter store.
+ */
+public class CountersTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void appendsOneLinePerChange() throws EXistException, IOException {
+        final Path dataDir = temporaryFolder.getRoot().toPath();
+        try (final Counters counters = new Counters(Optional.of(dataDir))) {
+            assertEquals(5, counters.createCounter("a", 5));
+            assertEquals(6, counters.nextValue("a"));
+            assertEquals(7, counters.nextValue("a"));
+            assertEquals(0, counters.createCounter("b"));
+            assertTrue(counters.destroyCounter("b"));
+
+            // neither changes the log
+            assertEquals(7, counters.createCounter("a", 100));
+            assertFalse(counters.destroyCounter("b"));
+
+            assertEquals(Arrays.asList("a;5", "a;6", "a;7", "b;0", "b;"), readLog(dataDir));
+        }
+    }
+
+    @Test
+    public void replaysLogOnRestart() throws EXistException, IOException {
+        final Path dataDir = temporaryFolder.getRoot().toPath();
+        try (final Counters counters = new Counters(Optional.of(dataDir))) {
+            counters.createCounter("a");
+            counters.nextValue("a");
+            counters.nextValue("a");
+            counters.createCounter("b", 10);
+            counters.destroyCounter("b");
+        }
+
+        try (final Counters counters = new Counters(Optional.of(dataDir))) {
+            assertEquals(Collections.singleton("a"), counters.availableCounters());
+            assertEquals(3, counters.nextValue("a"));
+            assertEquals(-1, counters.nextValue("b"));
+        }
+    }
+
+    @Test
+    public void replaysHighestValueOfCounter() throws EXistException, IOException {
+        final Path dataDir = temporaryFolder.getRoot().toPath();
+
+        // the lines of concurrent increments may be appended out of order
+        Files.write(dataDir.resolve(Counters.COUNTERSTORE), Arrays.asList("a;0", "a;2", "a;1", "b;7", "b;", "b;3"), StandardCharsets.UTF_8);
+
+        try (final Counters counters = new Counters(Optional.of(dataDir))) {
+            assertEquals(3, counters.nextValue("a"));
+
+            // a removed counter starts again from the value it was created with
+            assertEquals(4, counters.nextValue("b"));
+        }
+    }
+
+    @Test
+    public void compactsLog() throws EXistException, IOException {
+        final Path dataDir = temporaryFolder.getRoot().toPath();
+        try (final Counters counters = new Counters(Optional.of(dataDir))) {
+            counters.createCounter("a");
+            counters.createCounter("b", 100);
+            for (int i = 1; i <= 5000; i++) {
+                assertEquals(i, counters.nextValue("a"));
+            }
+
+            final List<String> log = readLog(dataDir);
+            assertTrue("log was not compacted: " + log.size() + " lines", log.size() < 2048);
+            assertTrue(log.contains("b;100"));
+            assertFalse(Files.exists(dataDir.resolve(Counters.COUNTERSTORE + ".tmp")));
+        }
+
+        try (final Counters counters = new Counters(Optional.of(dataDir))) {
+            assertEquals(5001, counters.nextValue("a"));
+            assertEquals(101, counters.nextValue("b"));
+        }
+    }
+
+    @Test
+    public void keepsCounterCreatedWhenCompacting() throws EXistException, IOException {
+        final Path dataDir = temporaryFolder.getRoot().toPath();
+        try (final Counters counters = new Counters(Optional.of(dataDir))) {
+            counters.createCounter("a");
+            for (int i = 1; i < Counters.MIN_COMPACT_LINES; i++) {
+                counters.nextValue("a");
+            }
+            assertEquals(Counters.MIN_COMPACT_LINES, readLog(dataDir).size());
+
+            // the line of the new counter crosses the threshold
+            assertEquals(10, counters.createCounter("b", 10));
+            assertEquals(Arrays.asList("a;" + (Counters.MIN_COMPACT_LINES - 1), "b;10"), sorted(readLog(dataDir)));
+        }
+
+        try (final Counters counters = new Counters(Optional.of(dataDir))) {
+            assertEquals(11, counters.nextValue("b"));
+        }
+    }
+
+    @Test
+    public void keepsCounterDestroyedWhenCompacting() throws EXistException, IOException {
+        final Path dataDir = temporaryFolder.getRoot().toPath();
+        try (final Counters counters = new Counters(Optional.of(dataDir))) {
+            counters.createCounter("a");
+            counters.createCounter("b");
+            for (int i = 2; i < Counters.MIN_COMPACT_LINES; i++) {
+                counters.nextValue("a");
+            }
+            assertEquals(Counters.MIN_COMPACT_LINES, readLog(dataDir).size());
+
+            // the removal of the counter crosses the threshold
+            assertTrue(counters.destroyCounter("b"));
+            assertEquals(Collections.singletonList("a;" + (Counters.MIN_COMPACT_LINES - 2)), readLog(dataDir));
+        }
+
+        try (final Counters counters = new Counters(Optional.of(dataDir))) {
+            assertEquals(Collections.singleton("a"), counters.availableCounters());
+            assertEquals(-1, counters.nextValue("b"));
+        }
+    }
+
+    @Test
+    public void ignoresTornLastLine() throws EXistException, IOException {
+        final Path dataDir = temporaryFolder.getRoot().toPath();
+        final Path store = dataDir.resolve(Counters.COUNTERSTORE);
+
+        // the database crashed whilst "a;61" was appended
+        Files.write(store, "a;5\nb;3\na;6".getBytes(StandardCharsets.UTF_8));
+
+        try (final Counters counters = new Counters(Optional.of(dataDir))) {
+            // the torn line is removed before any line is appended
+            assertEquals(Arrays.asList("a;5", "b;3"), sorted(readLog(dataDir)));
+
+            assertEquals(6, counters.nextValue("a"));
+            assertEquals(4, counters.nextValue("b"));
+        }
+
+        try (final Counters counters = new Counters(Optional.of(dataDir))) {
+            assertEquals(7, counters.nextValue("a"));
+            assertEquals(5, counters.nextValue("b"));
+        }
+    }
+
+    @Test
+    public void concurrentIncrements() throws EXistException, IOException, InterruptedException {
+        final Path dataDir = temporaryFolder.getRoot().toPath();
+        final int threads = 8;
+        final int increments = 500;
+        final Set<Long> values = ConcurrentHashMap.newKeySet();
+
+        try (final Counters counters = new Counters(Optional.of(dataDir))) {
+            counters.createCounter("a");
+
+            final ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                final Future<?>[] futures = new Future<?>[threads];
+                for (int i = 0; i < threads; i++) {
+                    futures[i] = executor.submit(() -> {
+                        for (int j = 0; j < increments; j++) {
+                            assertTrue(values.add(counters.nextValue("a")));
+                        }
+                        return null;
+                    });
+                }
+                for (final Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (final ExecutionException e) {
+                throw new AssertionError(e.getCause());
+            } finally {
+                executor.shutdown();
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            }
+        }
+        assertEquals(threads * increments, values.size());
+
+        try (final Counters counters = new Counters(Optional.of(dataDir))) {
+            assertEquals(threads * increments + 1, counters.nextValue("a"));
+        }
+    }
+
+    @Test
+    public void noChangesAfterClose() throws EXistException, IOException {
+        final Path dataDir = temporaryFolder.getRoot().toPath();
+        final Counters counters = new Counters(Optional.of(dataDir));
+        counters.createCounter("a");
+        counters.close();
+
+        try {
+            counters.nextValue("a");
+            fail("Counter changed after the counter store was closed");
+        } catch (final EXistException e) {
+            // expected
+        }
+        assertEquals(Collections.singletonList("a;0"), readLog(dataDir));
+    }
+
+    private static List<String> readLog(final Path dataDir) throws IOException {
+        return Files.readAllLines(dataDir.resolve(Counters.COUNTERSTORE), StandardCharsets.UTF_8);
+    }
+
+    private static List<String> sorted(final List<String> lines) {
+        Collections.sort(lines);
+        return lines;
+    }
+}